@@ -24,75 +24,118 @@
 
 package com.i2group.async;
 
+import static com.i2group.async.rest.transport.BinaryFormats.CBOR_VALUE;
+import static com.i2group.async.rest.transport.BinaryFormats.SMILE_VALUE;
 import static org.springframework.util.MimeTypeUtils.APPLICATION_JSON_VALUE;
 import static org.springframework.util.MimeTypeUtils.APPLICATION_XML_VALUE;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 
+import com.i2group.async.rest.transport.AsyncQueryExecutor;
+import com.i2group.async.rest.transport.StaticDocument;
 import com.i2group.connector.spi.rest.transport.AsyncQueryResponse;
 import com.i2group.connector.spi.rest.transport.AsyncQueryStatus;
 import com.i2group.connector.spi.rest.transport.DaodRequest;
 import com.i2group.connector.spi.rest.transport.I2ConnectData;
+import com.i2group.connector.spi.rest.transport.ProblemDetails;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 /** Defines endpoints used by i2 Analyze to acquire data */
 @RestController
 public class ConnectorController {
+  // The header in which i2 Analyze identifies the user who made a request
+  private static final String PRINCIPAL_HEADER = "I2-Principal";
 
   private final ExternalConnectorDataService connectorDataService;
-  @Value("classpath:config.json")
-  private Resource configResource;
-  @Value("classpath:async-schema.xml")
-  private Resource schemaResource;
-  @Value("classpath:async-charting-schemes.xml")
-  private Resource chartingSchemesResource;
+  private final StaticDocument config;
+  private final StaticDocument schema;
+  private final StaticDocument chartingSchemes;
 
   /**
    * Creates an instance of the ExternalConnectorDataService used to complete
    * acquires.
    *
-   * @param connectorDataService The class containing operations which perform the
-   *                             operation defined by the various services.
+   * @param connectorDataService    The class containing operations which perform the
+   *                                operation defined by the various services.
+   * @param configResource          The connector configuration.
+   * @param schemaResource          The connector schema.
+   * @param chartingSchemesResource The connector charting schemes.
+   * @param compress                Whether compressed copies of the configuration and
+   *                                schemas are held.
    */
-  public ConnectorController(ExternalConnectorDataService connectorDataService) {
+  public ConnectorController(
+      ExternalConnectorDataService connectorDataService,
+      @Value("classpath:config.json") Resource configResource,
+      @Value("classpath:async-schema.xml") Resource schemaResource,
+      @Value("classpath:async-charting-schemes.xml") Resource chartingSchemesResource,
+      @Value("${connector.compression.enabled:true}") boolean compress) {
     this.connectorDataService = connectorDataService;
+    this.config = StaticDocument.load(configResource, MediaType.APPLICATION_JSON, compress);
+    this.schema = StaticDocument.load(schemaResource, MediaType.APPLICATION_XML, compress);
+    this.chartingSchemes =
+        StaticDocument.load(chartingSchemesResource, MediaType.APPLICATION_XML, compress);
   }
 
   /**
    * Defines the /config endpoint which acquires the connector configuration data.
    *
+   * @param request The request for the configuration.
    * @return The config.json file.
    */
   @RequestMapping(method = RequestMethod.GET, value = "/config", produces = APPLICATION_JSON_VALUE)
-  public Resource config() {
-    return configResource;
+  public ResponseEntity<byte[]> config(HttpServletRequest request) {
+    return config.serve(request);
   }
 
   /**
    * Defines the endpoint used to retrieve the connector schema.
    *
+   * @param request The request for the schema.
    * @return The connector schema.
    */
   @RequestMapping(method = RequestMethod.GET, value = "/schema", produces = APPLICATION_XML_VALUE)
-  public Resource schema() {
-    return schemaResource;
+  public ResponseEntity<byte[]> schema(HttpServletRequest request) {
+    return schema.serve(request);
   }
 
   /**
    * Defines the endpoint used to retrieve the connector charting schemes.
    *
+   * @param request The request for the charting schemes.
    * @return The connector charting schemes.
    */
   @RequestMapping(method = RequestMethod.GET, value = "/charting-schemes", produces = APPLICATION_XML_VALUE)
-  public Resource chartingSchemes() {
-    return chartingSchemesResource;
+  public ResponseEntity<byte[]> chartingSchemes(HttpServletRequest request) {
+    return chartingSchemes.serve(request);
+  }
+
+  /**
+   * Defines the /async-statistics endpoint which reports the number of running and waiting
+   * asynchronous queries, and how long cancelled queries took to stop.
+   *
+   * @return The current executor statistics.
+   */
+  @RequestMapping(method = RequestMethod.GET, value = "/async-statistics",
+      produces = APPLICATION_JSON_VALUE)
+  public AsyncQueryExecutor.Statistics asyncStatistics() {
+    return connectorDataService.getAsyncStatistics();
   }
 
   /**
@@ -100,9 +143,13 @@ public class ConnectorController {
    *
    * @return The query response.
    */
-  @RequestMapping(method = RequestMethod.POST, value = "/async", consumes = APPLICATION_JSON_VALUE, produces = APPLICATION_JSON_VALUE)
-  public AsyncQueryResponse asyncAcquireService(@Valid @RequestBody DaodRequest request) {
-    return connectorDataService.asyncAcquire(request.payload.conditions);
+  @RequestMapping(method = RequestMethod.POST, value = "/async",
+      consumes = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE},
+      produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
+  public AsyncQueryResponse asyncAcquireService(
+      @RequestHeader(value = PRINCIPAL_HEADER, required = false) String principal,
+      @Valid @RequestBody DaodRequest request) {
+    return connectorDataService.asyncAcquire(principal, request.payload.conditions);
   }
 
   /**
@@ -110,28 +157,90 @@ public class ConnectorController {
    *
    * @return The status response.
    */
-  @RequestMapping(method = RequestMethod.GET, value = "/async/{queryId}", produces = APPLICATION_JSON_VALUE)
+  @RequestMapping(method = RequestMethod.GET, value = "/async/{queryId}",
+      produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
   public AsyncQueryStatus asyncStatusService(@Valid @PathVariable("queryId") String queryId) {
     return connectorDataService.asyncStatus(queryId);
   }
 
+  /**
+   * Defines the /async/{queryId}?wait={seconds} endpoint, which responds once the query has
+   * finished or the wait is over.
+   *
+   * @return The status response.
+   */
+  @RequestMapping(method = RequestMethod.GET, value = "/async/{queryId}", params = "wait",
+      produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
+  public DeferredResult<AsyncQueryStatus> asyncAwaitStatusService(
+      @Valid @PathVariable("queryId") String queryId, @RequestParam("wait") long wait) {
+    return connectorDataService.awaitStatus(queryId, wait);
+  }
+
+  /**
+   * Defines the /async/{queryId}/events endpoint, which streams the substatuses of the query as
+   * server-sent events until it finishes.
+   *
+   * @return The stream of events.
+   */
+  @RequestMapping(method = RequestMethod.GET, value = "/async/{queryId}/events",
+      produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public SseEmitter asyncEventsService(@Valid @PathVariable("queryId") String queryId) {
+    return connectorDataService.asyncEvents(queryId);
+  }
+
   /**
    * Defines the /async/{queryId}/results endpoint.
    *
    * @return The results of the query.
    */
-  @RequestMapping(method = RequestMethod.GET, value = "/async/{queryId}/results", produces = APPLICATION_JSON_VALUE)
+  @RequestMapping(method = RequestMethod.GET, value = "/async/{queryId}/results",
+      produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
   public I2ConnectData asyncResultsService(@Valid @PathVariable("queryId") String queryId) {
     return connectorDataService.asyncResults(queryId);
   }
 
+  /**
+   * Defines the /async/{queryId}/results?offset={offset}&limit={limit} endpoint, which returns a
+   * page of the results.
+   *
+   * @return The page of results.
+   */
+  @RequestMapping(method = RequestMethod.GET, value = "/async/{queryId}/results",
+      params = "limit", produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
+  public ResponseEntity<I2ConnectData> asyncResultsPageService(
+      @Valid @PathVariable("queryId") String queryId,
+      @RequestParam(value = "offset", defaultValue = "0") int offset,
+      @RequestParam("limit") int limit) {
+    return connectorDataService.asyncResultsPage(queryId, offset, limit);
+  }
+
   /**
    * Defines the /async/{queryId} endpoint.
    *
    * @return The response with the removed query.
    */
-  @RequestMapping(method = RequestMethod.DELETE, value = "/async/{queryId}", produces = APPLICATION_JSON_VALUE)
+  @RequestMapping(method = RequestMethod.DELETE, value = "/async/{queryId}",
+      produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
   public @ResponseBody I2ConnectData asyncDeleteService(@Valid @PathVariable("queryId") String queryId) {
     return connectorDataService.asyncDelete(queryId);
   }
+
+  /**
+   * Responds to an asynchronous query which there were too many other queries to run.
+   *
+   * @param e The rejection of the query.
+   * @return A {@link ProblemDetails} response, saying when to try again.
+   */
+  @ExceptionHandler(AsyncQueryExecutor.RejectedQueryException.class)
+  public ResponseEntity<ProblemDetails> rejectedQuery(AsyncQueryExecutor.RejectedQueryException e) {
+    final HttpStatus status = HttpStatus.TOO_MANY_REQUESTS;
+    final ProblemDetails problemDetails = new ProblemDetails();
+    problemDetails.title = "Too many queries.";
+    problemDetails.status = status.value();
+    problemDetails.detail = e.getMessage();
+    return ResponseEntity.status(status)
+        .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfter().getSeconds()))
+        .contentType(MediaType.APPLICATION_PROBLEM_JSON)
+        .body(problemDetails);
+  }
 }
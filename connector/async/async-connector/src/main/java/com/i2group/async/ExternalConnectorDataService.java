@@ -26,19 +26,30 @@ package com.i2group.async;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.i2group.async.rest.transport.AsyncQueryExecutor;
+import com.i2group.async.rest.transport.AsyncQueryRegistry;
+import com.i2group.async.rest.transport.I2ConnectDataSink;
 import com.i2group.async.rest.transport.ItemFactory;
 
 import com.i2group.async.rest.transport.ResponseData;
+import com.i2group.async.rest.transport.ResultGraphAssembler;
 import com.i2group.connector.spi.rest.transport.*;
 import com.i2group.connector.spi.rest.transport.AsyncQueryStatus.StateEnum;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import static com.i2group.async.rest.transport.ResponseData.*;
 import static com.i2group.connector.spi.rest.transport.AsyncQuerySubstatus.*;
@@ -47,35 +58,58 @@ import static com.i2group.connector.spi.rest.transport.AsyncQuerySubstatus.*;
 @Service
 public class ExternalConnectorDataService {
 
-  private final AsyncQueryStatus status = new AsyncQueryStatus();
-  private final Map<String, I2ConnectData> asyncResponses = new HashMap<>();
-  private final Map<String, AsyncQueryStatus> asyncStatuses = new HashMap<>();
+  // The state reported by each type of substatus, which names its server-sent event
+  private static final Map<TypeEnum, StateEnum> SUBSTATUS_STATES = Map.of(
+      TypeEnum.INFORMATION, StateEnum.STARTED,
+      TypeEnum.SUCCESS, StateEnum.SUCCEEDED,
+      TypeEnum.ERROR, StateEnum.FAILED);
+
+  private final AsyncQueryRegistry queries;
+  private final AsyncQueryExecutor executor;
   private final ItemFactory itemFactory;
   private final Resource peopleResource;
-
-  private Date startDate;
-  private AsyncQuerySubstatus queryStarted;
-  private CompletableFuture<Void> asyncQuery = new CompletableFuture<>();
+  private final long maxWaitSeconds;
+  private final long eventsTimeoutSeconds;
 
   @Autowired
   public ExternalConnectorDataService(
-      @Value("classpath:people.json") Resource resource) {
+      @Value("classpath:people.json") Resource resource, AsyncQueryRegistry queries,
+      AsyncQueryExecutor executor,
+      @Value("${connector.async.max-wait-seconds:60}") long maxWaitSeconds,
+      @Value("${connector.async.events-timeout-seconds:600}") long eventsTimeoutSeconds) {
     this.itemFactory = new ItemFactory(resource);
     this.peopleResource = resource;
+    this.queries = queries;
+    this.executor = executor;
+    this.maxWaitSeconds = maxWaitSeconds;
+    this.eventsTimeoutSeconds = eventsTimeoutSeconds;
+  }
+
+  /**
+   * Get the number of running and waiting asynchronous queries, and how long cancelled queries
+   * took to stop.
+   *
+   * @return The current executor statistics.
+   */
+  public AsyncQueryExecutor.Statistics getAsyncStatistics() {
+    return executor.getStatistics();
   }
 
   /**
    * Retrieves the data matching certain specified conditions.
    *
+   * @param principal The principal who made the query, or null if it is not known.
    * @param conditions The conditions provided by the user via the interface.
    * @return A response containing the entities and links.
+   * @throws AsyncQueryExecutor.RejectedQueryException If there are too many queries to run this
+   *     one.
    */
-  public AsyncQueryResponse asyncAcquire(List<DaodRequestCondition> conditions) {
-
-    startDate = new Date();
+  public AsyncQueryResponse asyncAcquire(
+      String principal, List<DaodRequestCondition> conditions) {
 
+    final AsyncQueryRegistry.Query query = queries.start();
     final AsyncQueryResponse queryResponse = new AsyncQueryResponse();
-    queryResponse.queryId = UUID.randomUUID().toString();
+    queryResponse.queryId = query.getId();
 
     int duration = 10;
     boolean shouldFail = false;
@@ -91,23 +125,20 @@ public class ExternalConnectorDataService {
     final int customDuration = duration;
 
     if (shouldFail) {
-      asyncQuery.cancel(true);
-      updateStatus(StateEnum.FAILED, queryResponse.queryId);
+      query.fail();
     } else {
-      asyncQuery = CompletableFuture.runAsync(() -> {
+      submit(principal, query, () -> {
         try {
-          updateStatus(StateEnum.STARTED, queryResponse.queryId);
           TimeUnit.SECONDS.sleep(customDuration);
-          if (!asyncStatuses.get(queryResponse.queryId).state.equals(StateEnum.FAILED)) {
+          if (query.getState() == StateEnum.STARTED) {
             final ResponseData responseData = retrieveData();
 
             final I2ConnectData connectorResponse = marshalItemsFromResponse(responseData);
-            asyncResponses.put(queryResponse.queryId, connectorResponse);
-
-            updateStatus(StateEnum.SUCCEEDED, queryResponse.queryId);
+            queries.succeed(query, connectorResponse);
           }
         } catch (InterruptedException e) {
-          throw new IllegalStateException(e);
+          // The query was cancelled, and its work is abandoned
+          Thread.currentThread().interrupt();
         }
       });
     }
@@ -122,20 +153,96 @@ public class ExternalConnectorDataService {
    * @return The status response.
    */
   public AsyncQueryStatus asyncStatus(String queryId) {
+    return buildStatus(getQuery(queryId));
+  }
+
+  /**
+   * Waits until the query finishes, or until the wait is over, and then retrieves its status.
+   * No thread is held while the request waits.
+   *
+   * @param queryId The id of the query.
+   * @param waitSeconds The longest time, in seconds, to wait, up to the maximum wait.
+   * @return The status response, once the query has finished or the wait is over.
+   */
+  public DeferredResult<AsyncQueryStatus> awaitStatus(String queryId, long waitSeconds) {
+    final AsyncQueryRegistry.Query query = getQuery(queryId);
+    final long wait = Math.min(waitSeconds, maxWaitSeconds);
+    if (wait <= 0) {
+      final DeferredResult<AsyncQueryStatus> status = new DeferredResult<>();
+      status.setResult(buildStatus(query));
+      return status;
+    }
+
+    final DeferredResult<AsyncQueryStatus> status =
+        new DeferredResult<>(TimeUnit.SECONDS.toMillis(wait));
+    status.onTimeout(() -> status.setResult(buildStatus(query)));
+    query.whenFinished().thenRun(() -> status.setResult(buildStatus(query)));
+    return status;
+  }
+
+  /**
+   * Streams the substatuses of the query as server-sent events, each named after the state it
+   * reports. The substatuses so far are sent at once, and the final substatus is sent when the
+   * query finishes, which ends the stream.
+   *
+   * @param queryId The id of the query.
+   * @return The stream of events.
+   */
+  public SseEmitter asyncEvents(String queryId) {
+    final AsyncQueryRegistry.Query query = getQuery(queryId);
+    final SseEmitter emitter = new SseEmitter(TimeUnit.SECONDS.toMillis(eventsTimeoutSeconds));
+    final AsyncQueryStatus status = buildStatus(query);
+    if (!send(emitter, status.substatuses)) {
+      return emitter;
+    }
+
+    if (status.state == StateEnum.STARTED) {
+      query.whenFinished().thenRun(() -> {
+        final AsyncQueryStatus finalStatus = buildStatus(query);
+        final List<AsyncQuerySubstatus> substatuses = finalStatus.substatuses;
+        if (send(emitter, substatuses.subList(substatuses.size() - 1, substatuses.size()))) {
+          emitter.complete();
+        }
+      });
+    } else {
+      emitter.complete();
+    }
+    return emitter;
+  }
+
+  private static boolean send(SseEmitter emitter, List<AsyncQuerySubstatus> substatuses) {
+    try {
+      for (AsyncQuerySubstatus substatus : substatuses) {
+        emitter.send(SseEmitter.event()
+            .name(SUBSTATUS_STATES.get(substatus.type).toString())
+            .data(substatus, MediaType.APPLICATION_JSON));
+      }
+      return true;
+    } catch (IOException | IllegalStateException e) {
+      // The client has gone, or the stream has timed out
+      emitter.completeWithError(e);
+      return false;
+    }
+  }
+
+  private AsyncQueryStatus buildStatus(AsyncQueryRegistry.Query query) {
     final AsyncQueryStatus statusResponse = new AsyncQueryStatus();
     final AsyncQuerySubstatus substatus = new AsyncQuerySubstatus();
-    statusResponse.state = asyncStatuses.get(queryId).state;
+    final Date startDate = Date.from(query.getStartedAt());
+    statusResponse.state = query.getState();
 
     switch (statusResponse.state) {
       case STARTED:
         substatus.type = TypeEnum.INFORMATION;
         substatus.message = "Query started - " + startDate;
         statusResponse.substatuses = Collections.singletonList(substatus);
-        queryStarted = substatus;
         break;
       case SUCCEEDED:
+        final AsyncQuerySubstatus queryStarted = new AsyncQuerySubstatus();
+        queryStarted.type = TypeEnum.INFORMATION;
+        queryStarted.message = "Query started - " + startDate;
         substatus.type = TypeEnum.SUCCESS;
-        substatus.message = "Query completed - " + new Date();
+        substatus.message = "Query completed - " + Date.from(query.getFinishedAt());
         statusResponse.substatuses = Arrays.asList(queryStarted, substatus);
         break;
       case FAILED:
@@ -156,24 +263,81 @@ public class ExternalConnectorDataService {
    * @return The results of the query.
    */
   public I2ConnectData asyncResults(String queryId) {
-    return asyncResponses.get(queryId);
+    return getQuery(queryId).getResult();
   }
 
   /**
-   * Cancels and removes the running query.
+   * Retrieves a page of the results of the query, counting the entities and then the links. When
+   * there are more results, the response links to the next page.
+   *
+   * @param queryId The id of the query.
+   * @param offset The index of the first entity or link in the page.
+   * @param limit The maximum number of entities and links in the page.
+   * @return The page of results.
+   */
+  public ResponseEntity<I2ConnectData> asyncResultsPage(String queryId, int offset, int limit) {
+    if (offset < 0 || limit <= 0) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          "The offset must not be negative, and the limit must be positive");
+    }
+    final AsyncQueryRegistry.Query query = getQuery(queryId);
+    final ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+    final long next = (long) offset + limit;
+    if (next < query.getItemCount()) {
+      final String nextPage = ServletUriComponentsBuilder.fromCurrentRequest()
+          .replaceQueryParam("offset", next).toUriString();
+      response.header(HttpHeaders.LINK, "<" + nextPage + ">; rel=\"next\"");
+    }
+    return response.body(query.getResult(offset, limit));
+  }
+
+  /**
+   * Cancels and removes the running query. Results which were kept in a file are deleted with
+   * the query, and are not returned.
    * 
    * @param queryId The id of the query.
    * @return The response with the removed query.
    */
   public I2ConnectData asyncDelete(String queryId) {
-    asyncQuery.cancel(true);
-    updateStatus(StateEnum.FAILED, queryId);
-    return asyncResponses.remove(queryId);
+    final AsyncQueryRegistry.Query query = queries.remove(queryId);
+    if (query == null) {
+      return null;
+    }
+    if (query.getFuture() != null) {
+      query.getFuture().cancel(true);
+    }
+    return query.isSpilled() ? null : query.getResult();
+  }
+
+  /**
+   * Run a query on the executor. A query which is not admitted is removed from the registry.
+   *
+   * @param principal The principal who made the query, or null if it is not known.
+   * @param query The query.
+   * @param task The work of the query.
+   */
+  private void submit(String principal, AsyncQueryRegistry.Query query, Runnable task) {
+    try {
+      query.setFuture(executor.submit(principal, task));
+    } catch (AsyncQueryExecutor.RejectedQueryException e) {
+      queries.remove(query.getId());
+      throw e;
+    }
   }
 
-  private void updateStatus(StateEnum state, String queryId) {
-    status.state = state;
-    asyncStatuses.put(queryId, status);
+  /**
+   * Get a query which is known to the registry.
+   *
+   * @param queryId The id of the query.
+   * @return The query.
+   * @throws ResponseStatusException If the query is unknown or has expired.
+   */
+  private AsyncQueryRegistry.Query getQuery(String queryId) {
+    final AsyncQueryRegistry.Query query = queries.get(queryId);
+    if (query == null) {
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown query: " + queryId);
+    }
+    return query;
   }
 
   private ResponseData retrieveData() {
@@ -196,59 +360,34 @@ public class ExternalConnectorDataService {
    * @return The response containing entities and links.
    */
   private I2ConnectData marshalItemsFromResponse(ResponseData responseData) {
-    final List<I2ConnectEntityData> entities = new ArrayList<>();
-    final List<I2ConnectLinkData> links = new ArrayList<>();
-    final Set<String> linkIds = new HashSet<>();
-
-    final Map<String, I2ConnectEntityData> people = new HashMap<>();
+    final I2ConnectData connectorResponse = new I2ConnectData();
+    final ResultGraphAssembler graph =
+        new ResultGraphAssembler(I2ConnectDataSink.collectingInto(connectorResponse));
+    final ResultGraphAssembler.EntityIndex<Person> people =
+        graph.entities(itemFactory::createPerson);
+    final ResultGraphAssembler.LinkIndex friendLinks = graph.links();
+
+    final Map<String, Person> peopleById = new HashMap<>();
+    for (Person entry : responseData.person) {
+      peopleById.putIfAbsent(entry.id, entry);
+    }
 
     responseData.person.forEach(entry -> {
-      I2ConnectEntityData person;
-      if (people.containsKey(entry.id)) {
-        person = people.get(entry.id);
-      } else {
-        person = itemFactory.createPerson(entry);
-        people.put(entry.id, person);
-        entities.add(person);
-      }
+      final I2ConnectEntityData person = people.get(entry.id, entry);
 
       entry.friends.forEach(friendId -> {
-        final Person friendPerson = getPersonFromId(responseData, friendId);
-        I2ConnectEntityData friend;
+        final Person friendPerson = peopleById.get(friendId);
 
         if (friendPerson != null) {
-          if (people.containsKey(friendId)) {
-            friend = people.get(friendId);
-          } else {
-            friend = itemFactory.createPerson(friendPerson);
-            people.put(friendId, friend);
-            entities.add(friend);
-          }
+          final I2ConnectEntityData friend = people.get(friendId, friendPerson);
 
-          final String uniqueId = "LINK-PER" + person.id + "-FRIEND" + friend.id;
-          final String alternateUniqueId = "LINK-PER" + friend.id + "-FRIEND" + person.id;
-          if (!linkIds.contains(uniqueId) || !linkIds.contains(alternateUniqueId)) {
-            I2ConnectLinkData personLink = itemFactory.createPersonLink(person, friend);
-            links.add(personLink);
-            linkIds.add(uniqueId);
-            linkIds.add(alternateUniqueId);
+          if (friendLinks.addUndirected(entry.id, friendId)) {
+            graph.addLink(itemFactory.createPersonLink(person, friend));
           }
         }
       });
     });
 
-    final I2ConnectData connectorResponse = new I2ConnectData();
-    connectorResponse.entities = entities;
-    connectorResponse.links = links;
     return connectorResponse;
   }
-
-  private Person getPersonFromId(ResponseData data, String id) {
-    for (Person person : data.person) {
-      if (person.id.equals(id)) {
-        return person;
-      }
-    }
-    return null;
-  }
 }
@@ -0,0 +1,74 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.async.rest.transport;
+
+import com.i2group.connector.spi.rest.transport.I2ConnectData;
+import com.i2group.connector.spi.rest.transport.I2ConnectEntityData;
+import com.i2group.connector.spi.rest.transport.I2ConnectLinkData;
+
+import java.util.ArrayList;
+
+/**
+ * Receives the entities and links of a response as they are created, so that they can either be
+ * collected into the response or written out as they arrive.
+ */
+public interface I2ConnectDataSink {
+
+  /**
+   * Add an entity to the response. The entity must not be changed once it has been added.
+   *
+   * @param entity The entity.
+   */
+  void addEntity(I2ConnectEntityData entity);
+
+  /**
+   * Add a link to the response.
+   *
+   * @param link The link.
+   */
+  void addLink(I2ConnectLinkData link);
+
+  /**
+   * Create a sink which collects the entities and links into a response.
+   *
+   * @param response The response, whose entity and link lists are replaced.
+   * @return The sink.
+   */
+  static I2ConnectDataSink collectingInto(I2ConnectData response) {
+    response.entities = new ArrayList<>();
+    response.links = new ArrayList<>();
+    return new I2ConnectDataSink() {
+      @Override
+      public void addEntity(I2ConnectEntityData entity) {
+        response.entities.add(entity);
+      }
+
+      @Override
+      public void addLink(I2ConnectLinkData link) {
+        response.links.add(link);
+      }
+    };
+  }
+}
@@ -25,7 +25,6 @@
 package com.i2group.async.rest.transport;
 
 import java.io.IOException;
-import java.util.HashMap;
 
 import com.i2group.connector.spi.rest.transport.*;
 import org.springframework.core.io.Resource;
@@ -35,10 +34,30 @@ import static com.i2group.async.rest.transport.ResponseData.*;
 /** Used to generate entity and link objects */
 public class ItemFactory {
 
-  private static Resource PEOPLE_RESOURCE;
+  private static final PropertyMapping<Person> PERSON_PROPERTIES =
+      PropertyMapping.<Person>into(PropertyLayout.fromSchema("async-schema.xml").get("Person"))
+          .map("PER1", person -> person.forename)
+          .map("PER2", person -> person.surname)
+          .map("PER3", person -> person.dob)
+          .map("PER4", person -> person.ssn)
+          .map("PER5", person -> person.issuedDateAndTime)
+          .build();
+
+  private static SourceReference SOURCE_REFERENCE;
 
   public ItemFactory(Resource resource) {
-    PEOPLE_RESOURCE = resource;
+    final SourceReferenceInfo source = new SourceReferenceInfo();
+    source.name = "Example source name";
+    source.type = "Example source type";
+    source.description = "An example source reference from a connected data source";
+
+    try {
+      source.location = resource.getFile().getAbsolutePath();
+    } catch (IOException e) {
+      source.location = null;
+    }
+
+    SOURCE_REFERENCE = new SourceReference(source);
   }
 
   /**
@@ -48,19 +67,12 @@ public class ItemFactory {
    * @return The created person object.
    */
   public I2ConnectEntityData createPerson(Person person) {
-    final HashMap<String, Object> properties = new HashMap<>();
-    properties.put("PER1", person.forename);
-    properties.put("PER2", person.surname);
-    properties.put("PER3", person.dob);
-    properties.put("PER4", person.ssn);
-    properties.put("PER5", person.issuedDateAndTime);
-
     final I2ConnectEntityData entity = new I2ConnectEntityData();
     entity.id = "PER" + person.id;
-    entity.typeId = "Person";
+    entity.typeId = PERSON_PROPERTIES.getItemTypeId();
     entity.typeLocation = SchemaTypeLocation.CONNECTOR;
     entity.version = 1L;
-    entity.properties = properties;
+    entity.properties = PERSON_PROPERTIES.apply(person);
     entity.sourceReference = generateSourceReference();
 
     return entity;
@@ -86,25 +98,12 @@ public class ItemFactory {
   }
 
   /**
-   * Generate a valid source reference, querying a link to an item of data using the id.
+   * Generate a valid source reference, querying a link to an item of data using the id. Every item
+   * comes from the same file, so they all share one source reference, which is created once.
    *
    * @return The SourceReference object containing details of the source.
    */
   private SourceReference generateSourceReference() {
-    final SourceReferenceInfo source = new SourceReferenceInfo();
-    source.name = "Example source name";
-    source.type = "Example source type";
-    source.description = "An example source reference from a connected data source";
-
-    try {
-      source.location = PEOPLE_RESOURCE.getFile().getAbsolutePath();
-    } catch (IOException e) {
-      source.location = null;
-    }
-
-    final SourceReference reference = new SourceReference();
-    reference.source = source;
-
-    return reference;
+    return SOURCE_REFERENCE;
   }
 }
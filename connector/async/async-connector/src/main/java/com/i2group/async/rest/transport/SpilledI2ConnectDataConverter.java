@@ -0,0 +1,248 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.async.rest.transport;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a {@link SpilledI2ConnectData} response in the same form as any other response, as
+ * JSON or in one of the {@link BinaryFormats}, reading its entities and links from the file which
+ * holds them rather than from memory.
+ *
+ * <p>As JSON, the parts of the file which make up the response are copied to the client as they
+ * are. A response which is the whole file is sent by the container itself, using sendfile where
+ * the operating system supports it, so that the file is never copied through the JVM. This is not
+ * done when the response may be compressed, since the file is not. In a binary format, the JSON
+ * in the file is converted as it is read.
+ */
+@Component
+public class SpilledI2ConnectDataConverter implements HttpMessageConverter<SpilledI2ConnectData> {
+  // The request attributes through which Tomcat is asked to send a file
+  private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+  private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+  private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+  private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+  private final Map<MediaType, ObjectMapper> objectMappers = new LinkedHashMap<>();
+  private final List<MediaType> supportedMediaTypes;
+
+  /**
+   * Initialise the converter.
+   *
+   * @param objectMapper The object mapper used to read the JSON in the files.
+   * @param binaryFormats The binary formats which responses can also be written in.
+   */
+  public SpilledI2ConnectDataConverter(ObjectMapper objectMapper, BinaryFormats binaryFormats) {
+    this.objectMappers.put(MediaType.APPLICATION_JSON, objectMapper);
+    this.objectMappers.putAll(binaryFormats.getObjectMappers());
+    this.supportedMediaTypes =
+        Collections.unmodifiableList(new ArrayList<>(objectMappers.keySet()));
+  }
+
+  @Override
+  public boolean canRead(Class<?> clazz, MediaType mediaType) {
+    return false;
+  }
+
+  @Override
+  public boolean canWrite(Class<?> clazz, MediaType mediaType) {
+    if (!SpilledI2ConnectData.class.isAssignableFrom(clazz)) {
+      return false;
+    }
+    if (mediaType == null || MediaType.ALL.equals(mediaType)) {
+      return true;
+    }
+    for (MediaType supportedMediaType : supportedMediaTypes) {
+      if (supportedMediaType.isCompatibleWith(mediaType)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public List<MediaType> getSupportedMediaTypes() {
+    return supportedMediaTypes;
+  }
+
+  @Override
+  public SpilledI2ConnectData read(
+      Class<? extends SpilledI2ConnectData> clazz, HttpInputMessage inputMessage) {
+    throw new HttpMessageNotReadableException("Spilled responses cannot be read", inputMessage);
+  }
+
+  @Override
+  public void write(SpilledI2ConnectData response, MediaType contentType,
+      HttpOutputMessage outputMessage) throws IOException {
+    final MediaType format = getFormat(contentType);
+    if (!format.equals(MediaType.APPLICATION_JSON)) {
+      outputMessage.getHeaders().setContentType(format);
+      writeConverted(response, objectMappers.get(format), outputMessage.getBody());
+      return;
+    }
+
+    outputMessage.getHeaders().setContentType(
+        new MediaType(MediaType.APPLICATION_JSON, StandardCharsets.UTF_8));
+    if (!response.isWhole() || !sendFile(response.getFile(), outputMessage)) {
+      writeJson(response, outputMessage.getBody());
+    }
+  }
+
+  /**
+   * Ask the container to send the whole of a file as the body of the response, if it can.
+   *
+   * @return Whether the container will send the file.
+   */
+  private static boolean sendFile(ResultFile file, HttpOutputMessage outputMessage)
+      throws IOException {
+    final RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+    if (!(attributes instanceof ServletRequestAttributes)
+        || !(outputMessage instanceof ServerHttpResponse)) {
+      return false;
+    }
+    final HttpServletRequest request = ((ServletRequestAttributes) attributes).getRequest();
+    if (!Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))
+        || ContentEncodingFilter.mayCompress(request)) {
+      return false;
+    }
+    request.setAttribute(SENDFILE_FILENAME, file.getPath().toAbsolutePath().toString());
+    request.setAttribute(SENDFILE_START, 0L);
+    request.setAttribute(SENDFILE_END, file.getLength());
+    outputMessage.getHeaders().setContentLength(file.getLength());
+    // The headers are sent without the body being opened, which leaves the body to the container
+    ((ServerHttpResponse) outputMessage).flush();
+    return true;
+  }
+
+  private static void writeJson(SpilledI2ConnectData response, OutputStream body)
+      throws IOException {
+    final WritableByteChannel target = Channels.newChannel(body);
+    try (FileChannel channel = FileChannel.open(response.getFile().getPath())) {
+      for (long[] range : response.getRanges()) {
+        long position = range[0];
+        while (position < range[1]) {
+          final long transferred = channel.transferTo(position, range[1] - position, target);
+          if (transferred <= 0) {
+            throw new EOFException("The results file ended early");
+          }
+          position += transferred;
+        }
+      }
+    }
+    body.flush();
+  }
+
+  private void writeConverted(SpilledI2ConnectData response, ObjectMapper objectMapper,
+      OutputStream body) throws IOException {
+    try (FileChannel channel = FileChannel.open(response.getFile().getPath())) {
+      final List<InputStream> parts = new ArrayList<>();
+      for (long[] range : response.getRanges()) {
+        parts.add(new RangeInputStream(channel, range[0], range[1]));
+      }
+      final JsonParser parser = objectMappers.get(MediaType.APPLICATION_JSON).getFactory()
+          .createParser(new SequenceInputStream(Collections.enumeration(parts)));
+      final JsonGenerator generator = objectMapper.getFactory().createGenerator(body);
+      parser.nextToken();
+      generator.copyCurrentStructure(parser);
+      generator.flush();
+    }
+  }
+
+  private MediaType getFormat(MediaType contentType) {
+    if (contentType != null) {
+      for (MediaType format : objectMappers.keySet()) {
+        if (format.isCompatibleWith(contentType)) {
+          return format;
+        }
+      }
+    }
+    return MediaType.APPLICATION_JSON;
+  }
+
+  /** Reads a part of a file, without moving the position of its channel. */
+  private static final class RangeInputStream extends InputStream {
+    private final FileChannel channel;
+    private final long end;
+    private long position;
+
+    private RangeInputStream(FileChannel channel, long start, long end) {
+      this.channel = channel;
+      this.position = start;
+      this.end = end;
+    }
+
+    @Override
+    public int read() throws IOException {
+      final byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (position >= end) {
+        return -1;
+      }
+      final int read = channel.read(
+          ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+      if (read < 0) {
+        throw new EOFException("The results file ended early");
+      }
+      position += read;
+      return read;
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.async;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowableOfType;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.i2group.async.rest.transport.AsyncQueryExecutor;
+import com.i2group.async.rest.transport.AsyncQueryRegistry;
+import com.i2group.connector.spi.rest.transport.AsyncQueryStatus.StateEnum;
+import com.i2group.connector.spi.rest.transport.I2ConnectData;
+import com.i2group.connector.spi.rest.transport.ProblemDetails;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+public class ConnectorControllerTest {
+  private final AsyncQueryRegistry queries = new AsyncQueryRegistry(600, 1_000_000, 1_000_000, "",
+      1_000_000, Jackson2ObjectMapperBuilder.json().build());
+  private final ConnectorController controller = new ConnectorController(
+      new ExternalConnectorDataService(new ClassPathResource("people.json"), queries,
+          new AsyncQueryExecutor(1, 1, 1, 5), 30, 30),
+      new ClassPathResource("config.json"), new ClassPathResource("async-schema.xml"),
+      new ClassPathResource("async-charting-schemes.xml"), false);
+  private final MockMvc mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+
+  @After
+  public void tearDown() {
+    queries.destroy();
+  }
+
+  @Test
+  public void rejectedQueriesAreTooManyRequests() {
+    final AsyncQueryExecutor executor = new AsyncQueryExecutor(1, 1, 1, 30);
+    final CompletableFuture<Void> running = executor.submit("alice", this::block);
+    final AsyncQueryExecutor.RejectedQueryException rejection = catchThrowableOfType(
+        () -> executor.submit("alice", () -> { }), AsyncQueryExecutor.RejectedQueryException.class);
+    running.cancel(true);
+
+    final ResponseEntity<ProblemDetails> response = controller.rejectedQuery(rejection);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+    assertThat(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("30");
+    assertThat(response.getBody().getStatus()).isEqualTo(429);
+    assertThat(response.getBody().getDetail()).isEqualTo(rejection.getMessage());
+  }
+
+  @Test
+  public void waitingForAStatusRespondsWhenTheQueryFinishes() throws Exception {
+    final AsyncQueryRegistry.Query query = queries.start();
+    final MvcResult result = mockMvc.perform(get("/async/" + query.getId()).param("wait", "30"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    // The status is held back while the query runs
+    assertThatThrownBy(() -> result.getAsyncResult(100)).isInstanceOf(IllegalStateException.class);
+
+    queries.succeed(query, emptyResult());
+
+    mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.state").value("SUCCEEDED"));
+  }
+
+  @Test
+  public void waitingForAFinishedQueryRespondsAtOnce() throws Exception {
+    final AsyncQueryRegistry.Query query = queries.start();
+    query.fail();
+
+    final MvcResult result = mockMvc.perform(get("/async/" + query.getId()).param("wait", "30"))
+        .andReturn();
+
+    assertThat(result.getAsyncResult(0)).hasFieldOrPropertyWithValue("state", StateEnum.FAILED);
+  }
+
+  @Test
+  public void waitingForAnUnknownQueryIsNotFound() throws Exception {
+    mockMvc.perform(get("/async/unknown").param("wait", "30"))
+        .andExpect(status().isNotFound());
+  }
+
+  @Test
+  public void eventsAreSentUntilTheQueryFinishes() throws Exception {
+    final AsyncQueryRegistry.Query query = queries.start();
+    final MvcResult result = mockMvc.perform(get("/async/" + query.getId() + "/events"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    assertThat(result.getResponse().getContentAsString())
+        .startsWith("event:STARTED\ndata:{")
+        .doesNotContain("SUCCEEDED");
+
+    queries.succeed(query, emptyResult());
+
+    assertThat(result.getResponse().getContentAsString())
+        .contains("\n\nevent:SUCCEEDED\ndata:{");
+    assertThat(result.getAsyncResult(0)).isNull();
+  }
+
+  private static I2ConnectData emptyResult() {
+    final I2ConnectData result = new I2ConnectData();
+    result.entities = new ArrayList<>();
+    result.links = new ArrayList<>();
+    return result;
+  }
+
+  private void block() {
+    try {
+      Thread.sleep(Long.MAX_VALUE);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
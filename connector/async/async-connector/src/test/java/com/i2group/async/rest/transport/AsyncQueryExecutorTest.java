@@ -0,0 +1,185 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.async.rest.transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class AsyncQueryExecutorTest {
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  @After
+  public void tearDown() {
+    release.countDown();
+  }
+
+  @Test
+  public void principalsAreLimitedToTheirOwnQueries() throws Exception {
+    final AsyncQueryExecutor executor = new AsyncQueryExecutor(4, 16, 2, 7);
+    executor.submit("alice", this::block);
+    executor.submit("alice", this::block);
+
+    assertThatThrownBy(() -> executor.submit("alice", this::block))
+        .isInstanceOfSatisfying(AsyncQueryExecutor.RejectedQueryException.class,
+            e -> assertThat(e.getRetryAfter()).isEqualTo(Duration.ofSeconds(7)));
+    // Other principals have their own limit
+    executor.submit("bob", this::block).cancel(true);
+  }
+
+  @Test
+  public void queriesWithoutAPrincipalShareALimit() {
+    final AsyncQueryExecutor executor = new AsyncQueryExecutor(4, 16, 1, 5);
+    executor.submit(null, this::block);
+
+    assertThatThrownBy(() -> executor.submit(null, this::block))
+        .isInstanceOf(AsyncQueryExecutor.RejectedQueryException.class);
+  }
+
+  @Test
+  public void finishedQueriesNoLongerCountAgainstTheLimit() throws Exception {
+    final AsyncQueryExecutor executor = new AsyncQueryExecutor(4, 16, 1, 5);
+    executor.submit("alice", () -> { }).get(5, TimeUnit.SECONDS);
+
+    final CompletableFuture<Void> failing = submitWhenAdmitted(executor, "alice", () -> {
+      throw new IllegalStateException("failed");
+    });
+    assertThatThrownBy(() -> failing.get(5, TimeUnit.SECONDS))
+        .hasCauseInstanceOf(IllegalStateException.class);
+    submitWhenAdmitted(executor, "alice", () -> { }).get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void queriesAreRejectedWhenTheQueueIsFull() throws Exception {
+    final AsyncQueryExecutor executor = new AsyncQueryExecutor(1, 1, 1, 5);
+    final CountDownLatch started = new CountDownLatch(1);
+    executor.submit("alice", () -> {
+      started.countDown();
+      block();
+    });
+    assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+    final CompletableFuture<Void> queued = executor.submit("bob", this::block);
+
+    assertThatThrownBy(() -> executor.submit("carol", this::block))
+        .isInstanceOf(AsyncQueryExecutor.RejectedQueryException.class);
+    queued.cancel(true);
+    // The rejected query does not count against the limit of its principal
+    executor.submit("carol", () -> { });
+  }
+
+  @Test
+  public void cancellingARunningQueryInterruptsIt() throws Exception {
+    final AsyncQueryExecutor executor = new AsyncQueryExecutor(1, 1, 1, 5);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch interrupted = new CountDownLatch(1);
+    final CompletableFuture<Void> future = executor.submit("alice", () -> {
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        interrupted.countDown();
+      }
+    });
+    assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(future.cancel(true)).isTrue();
+
+    assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(future).isCancelled();
+    awaitStatistics(executor, 1);
+    // The cancelled query no longer counts against the limit
+    executor.submit("alice", () -> { }).get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void cancellingAQueuedQueryTakesItOutOfTheQueue() throws Exception {
+    final AsyncQueryExecutor executor = new AsyncQueryExecutor(1, 1, 10, 5);
+    final CountDownLatch started = new CountDownLatch(1);
+    executor.submit("alice", () -> {
+      started.countDown();
+      block();
+    });
+    assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+    final AtomicBoolean ran = new AtomicBoolean();
+    final CompletableFuture<Void> queued = executor.submit("alice", () -> ran.set(true));
+    assertThat(executor.getStatistics().queued).isEqualTo(1);
+
+    assertThat(queued.cancel(true)).isTrue();
+
+    final AsyncQueryExecutor.Statistics statistics = executor.getStatistics();
+    assertThat(statistics.queued).isZero();
+    assertThat(statistics.cancellations).isEqualTo(1);
+    assertThat(statistics.maxCancelMillis).isZero();
+    // The queue has room again
+    release.countDown();
+    executor.submit("bob", () -> { }).get(5, TimeUnit.SECONDS);
+    assertThat(ran).isFalse();
+  }
+
+  private void block() {
+    try {
+      release.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Submit a query once the principal is admitted. The limit of a principal is released just
+   * after its previous query completes, so a query submitted straight away may still be rejected.
+   */
+  private static CompletableFuture<Void> submitWhenAdmitted(
+      AsyncQueryExecutor executor, String principal, Runnable query) throws Exception {
+    for (int attempt = 0; ; attempt++) {
+      try {
+        return executor.submit(principal, query);
+      } catch (AsyncQueryExecutor.RejectedQueryException e) {
+        if (attempt == 100) {
+          throw e;
+        }
+        Thread.sleep(10);
+      }
+    }
+  }
+
+  private static void awaitStatistics(AsyncQueryExecutor executor, long cancellations)
+      throws InterruptedException {
+    for (int attempt = 0; attempt < 500; attempt++) {
+      if (executor.getStatistics().cancellations == cancellations) {
+        return;
+      }
+      Thread.sleep(10);
+    }
+    assertThat(executor.getStatistics().cancellations).isEqualTo(cancellations);
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.async.rest.transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.i2group.connector.spi.rest.transport.AsyncQueryStatus.StateEnum;
+import com.i2group.connector.spi.rest.transport.I2ConnectData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class AsyncQueryRegistryTest {
+  private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+  private Path directory;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("async-registry-test");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @Test
+  public void finishedQueriesExpireAfterTheTimeToLive() throws Exception {
+    final AsyncQueryRegistry registry = registry(0, 1_000_000, 0);
+    final AsyncQueryRegistry.Query query = registry.start();
+    registry.succeed(query, ResultFileTest.result(2, 1));
+    assertThat(registry.getResultBytes()).isPositive();
+
+    Thread.sleep(10);
+
+    assertThat(registry.get(query.getId())).isNull();
+    assertThat(registry.size()).isZero();
+    assertThat(registry.getResultBytes()).isZero();
+  }
+
+  @Test
+  public void runningQueriesDoNotExpire() throws Exception {
+    final AsyncQueryRegistry registry = registry(0, 1_000_000, 0);
+    final AsyncQueryRegistry.Query query = registry.start();
+
+    Thread.sleep(10);
+
+    assertThat(registry.get(query.getId())).isSameAs(query);
+    assertThat(query.getState()).isEqualTo(StateEnum.STARTED);
+  }
+
+  @Test
+  public void smallResultsAreKeptInMemory() throws Exception {
+    final AsyncQueryRegistry registry = registry(600, 1_000_000, 1_000_000);
+    final AsyncQueryRegistry.Query query = registry.start();
+    final I2ConnectData result = ResultFileTest.result(2, 1);
+    registry.succeed(query, result);
+
+    assertThat(query.isSpilled()).isFalse();
+    assertThat(query.getResult()).isSameAs(result);
+    assertThat(registry.getResultBytes()).isEqualTo(objectMapper.writeValueAsBytes(result).length);
+    assertThat(files()).isZero();
+  }
+
+  @Test
+  public void largeResultsAreSpilledToAFileWhichIsDeletedWithTheQuery() throws Exception {
+    final AsyncQueryRegistry registry = registry(600, 1_000_000, 100);
+    final AsyncQueryRegistry.Query query = registry.start();
+    final I2ConnectData result = ResultFileTest.result(20, 10);
+    registry.succeed(query, result);
+
+    assertThat(query.isSpilled()).isTrue();
+    assertThat(query.getItemCount()).isEqualTo(30);
+    assertThat(query.getResult(18, 4)).isInstanceOf(SpilledI2ConnectData.class);
+    assertThat(registry.getResultBytes()).isZero();
+    assertThat(registry.getSpilledBytes()).isEqualTo(objectMapper.writeValueAsBytes(result).length);
+    assertThat(files()).isEqualTo(1);
+
+    registry.remove(query.getId());
+
+    assertThat(registry.getSpilledBytes()).isZero();
+    assertThat(files()).isZero();
+  }
+
+  @Test
+  public void queriesWhichFinishedFirstAreRemovedToKeepResultsUnderTheLimit() throws Exception {
+    final I2ConnectData result = ResultFileTest.result(2, 1);
+    final long size = objectMapper.writeValueAsBytes(result).length;
+    final AsyncQueryRegistry registry = registry(600, 2 * size, 0);
+    final AsyncQueryRegistry.Query first = registry.start();
+    final AsyncQueryRegistry.Query second = registry.start();
+    final AsyncQueryRegistry.Query third = registry.start();
+
+    registry.succeed(first, result);
+    registry.succeed(second, result);
+    registry.succeed(third, result);
+
+    assertThat(registry.get(first.getId())).isNull();
+    assertThat(registry.get(second.getId())).isSameAs(second);
+    assertThat(registry.get(third.getId())).isSameAs(third);
+    assertThat(registry.getResultBytes()).isEqualTo(2 * size);
+  }
+
+  @Test
+  public void removedQueriesFailAndIgnoreTheirResults() {
+    final AsyncQueryRegistry registry = registry(600, 1_000_000, 100);
+    final AsyncQueryRegistry.Query query = registry.start();
+
+    assertThat(registry.remove(query.getId())).isSameAs(query);
+    registry.succeed(query, ResultFileTest.result(20, 10));
+
+    assertThat(query.getState()).isEqualTo(StateEnum.FAILED);
+    assertThat(query.whenFinished()).isCompletedWithValue(StateEnum.FAILED);
+    assertThat(registry.getSpilledBytes()).isZero();
+  }
+
+  @Test
+  public void resultFilesAreDeletedOnShutdown() throws Exception {
+    final AsyncQueryRegistry registry = registry(600, 1_000_000, 100);
+    registry.succeed(registry.start(), ResultFileTest.result(20, 10));
+    assertThat(files()).isEqualTo(1);
+
+    registry.destroy();
+
+    assertThat(files()).isZero();
+  }
+
+  private AsyncQueryRegistry registry(long ttl, long maxResultBytes, long spillThreshold) {
+    return new AsyncQueryRegistry(ttl, maxResultBytes, spillThreshold, directory.toString(),
+        1_000_000, objectMapper);
+  }
+
+  private long files() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.count();
+    }
+  }
+}
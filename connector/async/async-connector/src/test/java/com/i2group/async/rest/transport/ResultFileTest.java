@@ -0,0 +1,165 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.async.rest.transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.i2group.connector.spi.rest.transport.I2ConnectData;
+import com.i2group.connector.spi.rest.transport.I2ConnectEntityData;
+import com.i2group.connector.spi.rest.transport.I2ConnectLinkData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+public class ResultFileTest {
+  private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+  private Path directory;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("result-file-test");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @Test
+  public void resultsWithinTheThresholdAreOnlyMeasured() throws IOException {
+    final I2ConnectData result = result(3, 2);
+
+    final ResultFile.Measurement measurement =
+        ResultFile.measure(directory, objectMapper, result, 1_000_000);
+
+    assertThat(measurement.getFile()).isNull();
+    assertThat(measurement.getLength())
+        .isEqualTo(objectMapper.writeValueAsBytes(result).length);
+    assertThat(files()).isEmpty();
+  }
+
+  @Test
+  public void largerResultsAreWrittenToAFileAsTheyWouldBeSent() throws IOException {
+    final I2ConnectData result = result(30, 20);
+
+    final ResultFile file = ResultFile.measure(directory, objectMapper, result, 100).getFile();
+
+    assertThat(file).isNotNull();
+    assertThat(file.getItemCount()).isEqualTo(50);
+    assertThat(Files.readAllBytes(file.getPath()))
+        .isEqualTo(objectMapper.writeValueAsBytes(result));
+    assertThat(file.getLength()).isEqualTo(Files.size(file.getPath()));
+  }
+
+  @Test
+  public void anyRunOfItemsCanBeReadBack() throws IOException {
+    final I2ConnectData result = result(5, 4);
+    final ResultFile file = ResultFile.measure(directory, objectMapper, result, 0).getFile();
+
+    for (int from = 0; from <= 9; from++) {
+      for (int to = from; to <= 9; to++) {
+        assertThat(objectMapper.readTree(read(file, from, to)))
+            .as("items %d to %d", from, to)
+            .isEqualTo(objectMapper.valueToTree(page(result, from, to)));
+      }
+    }
+  }
+
+  @Test
+  public void emptyResultsCanBeReadBack() throws IOException {
+    final I2ConnectData result = result(0, 0);
+    final ResultFile file = ResultFile.measure(directory, objectMapper, result, 0).getFile();
+
+    assertThat(file.getItemCount()).isZero();
+    assertThat(objectMapper.readTree(read(file, 0, 0)))
+        .isEqualTo(objectMapper.valueToTree(result));
+  }
+
+  private List<Path> files() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return new ArrayList<>(List.of(files.toArray(Path[]::new)));
+    }
+  }
+
+  private static byte[] read(ResultFile file, int from, int to) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (FileChannel channel = FileChannel.open(file.getPath())) {
+      for (long[] range : file.getRanges(from, to)) {
+        channel.transferTo(range[0], range[1] - range[0], Channels.newChannel(bytes));
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  private static I2ConnectData page(I2ConnectData result, int from, int to) {
+    final int entityCount = result.entities.size();
+    final I2ConnectData page = new I2ConnectData();
+    page.entities = result.entities.subList(Math.min(from, entityCount), Math.min(to, entityCount));
+    page.errorMessage = result.errorMessage;
+    page.links = result.links.subList(Math.max(from - entityCount, 0),
+        Math.max(to - entityCount, 0));
+    return page;
+  }
+
+  static I2ConnectData result(int entityCount, int linkCount) {
+    final I2ConnectData result = new I2ConnectData();
+    result.entities = new ArrayList<>();
+    result.links = new ArrayList<>();
+    result.errorMessage = "Only some of the results are shown";
+    for (int i = 0; i < entityCount; i++) {
+      final I2ConnectEntityData entity = new I2ConnectEntityData();
+      entity.id = "PER" + i;
+      entity.typeId = "Person";
+      // Arrays within an item must not be taken for the boundaries of items
+      entity.properties = Map.of("PER1", "Name, " + i, "PER6", List.of(i, List.of(i, i + 1)));
+      result.entities.add(entity);
+    }
+    for (int i = 0; i < linkCount; i++) {
+      final I2ConnectLinkData link = new I2ConnectLinkData();
+      link.id = "LINK" + i;
+      link.typeId = "Knows";
+      link.fromEndId = "PER" + i;
+      link.toEndId = "PER" + (i + 1);
+      result.links.add(link);
+    }
+    return result;
+  }
+}
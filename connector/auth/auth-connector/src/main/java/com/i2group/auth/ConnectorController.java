@@ -24,6 +24,8 @@
 
 package com.i2group.auth;
 
+import com.i2group.auth.rest.transport.AsyncQueryExecutor;
+import com.i2group.auth.rest.transport.StaticDocument;
 import com.i2group.auth.rest.transport.auth.AuthRequest;
 import com.i2group.connector.spi.rest.transport.AsyncQueryResponse;
 import com.i2group.connector.spi.rest.transport.AsyncQueryStatus;
@@ -33,11 +35,17 @@ import com.i2group.connector.spi.rest.transport.I2ConnectData;
 import com.i2group.connector.spi.rest.transport.ProblemDetails;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 
+import static com.i2group.auth.rest.transport.BinaryFormats.CBOR_VALUE;
+import static com.i2group.auth.rest.transport.BinaryFormats.SMILE_VALUE;
 import static org.springframework.util.MimeTypeUtils.APPLICATION_JSON_VALUE;
 import static org.springframework.util.MimeTypeUtils.APPLICATION_XML_VALUE;
 
@@ -49,59 +57,89 @@ public class ConnectorController {
 
   private final ExternalConnectorDataService connectorDataService;
   private final static String AUTHORIZATION = "Authorization";
+  // The header in which i2 Analyze identifies the user who made a request
+  private final static String PRINCIPAL_HEADER = "I2-Principal";
 
-  @Value("classpath:config.json")
-  private Resource configResource;
-  @Value("classpath:auth-schema.xml")
-  private Resource schemaResource;
-  @Value("classpath:auth-charting-schemes.xml")
-  private Resource chartingSchemesResource;
+  private final StaticDocument config;
+  private final StaticDocument schema;
+  private final StaticDocument chartingSchemes;
 
   /**
    * Creates an instance of the ExternalConnectorDataService used to complete acquires.
    *
    * @param connectorDataService The class containing operations which perform the
    * operation defined by the various services.
+   * @param configResource The connector configuration.
+   * @param schemaResource The connector schema.
+   * @param chartingSchemesResource The connector charting schemes.
+   * @param compress Whether compressed copies of the configuration and schemas are held.
    */
   public ConnectorController(
-      ExternalConnectorDataService connectorDataService) {
+      ExternalConnectorDataService connectorDataService,
+      @Value("classpath:config.json") Resource configResource,
+      @Value("classpath:auth-schema.xml") Resource schemaResource,
+      @Value("classpath:auth-charting-schemes.xml") Resource chartingSchemesResource,
+      @Value("${connector.compression.enabled:true}") boolean compress) {
     this.connectorDataService = connectorDataService;
+    this.config = StaticDocument.load(configResource, MediaType.APPLICATION_JSON, compress);
+    this.schema = StaticDocument.load(schemaResource, MediaType.APPLICATION_XML, compress);
+    this.chartingSchemes =
+        StaticDocument.load(chartingSchemesResource, MediaType.APPLICATION_XML, compress);
   }
 
   /**
    * Retrieves the connector configuration.
    *
+   * @param request The request for the configuration.
    * @return The connector configuration.
    * @responseMessage 200 Charting scheme successfully retrieved.
+   * @responseMessage 304 The client already has the connector configuration.
    */
   @RequestMapping(method = RequestMethod.GET, value = "/config",
       produces = APPLICATION_JSON_VALUE)
-  public Resource config() {
-    return configResource;
+  public ResponseEntity<byte[]> config(HttpServletRequest request) {
+    return config.serve(request);
   }
 
   /**
    * Retrieves the connector schema.
    *
+   * @param request The request for the schema.
    * @return The connector schema.
    * @responseMessage 200 Connector schema successfully retrieved.
+   * @responseMessage 304 The client already has the connector schema.
    */
   @RequestMapping(method = RequestMethod.GET, value = "/schema",
       produces = APPLICATION_XML_VALUE)
-  public Resource schema() {
-    return schemaResource;
+  public ResponseEntity<byte[]> schema(HttpServletRequest request) {
+    return schema.serve(request);
   }
 
   /**
    * Retrieves the connector charting schemes.
    *
+   * @param request The request for the charting schemes.
    * @return The connector charting schemes.
    * @responseMessage 200 Connector charting schemes successfully retrieved.
+   * @responseMessage 304 The client already has the connector charting schemes.
    */
   @RequestMapping(method = RequestMethod.GET, value = "/charting-schemes",
       produces = APPLICATION_XML_VALUE)
-  public Resource chartingSchemes() {
-    return chartingSchemesResource;
+  public ResponseEntity<byte[]> chartingSchemes(HttpServletRequest request) {
+    return chartingSchemes.serve(request);
+  }
+
+  /**
+   * Reports the number of running and waiting asynchronous queries, and how long cancelled
+   * queries took to stop.
+   *
+   * @return The current executor statistics.
+   * @responseMessage 200 Statistics successfully retrieved.
+   */
+  @RequestMapping(method = RequestMethod.GET, value = "/async-statistics",
+      produces = APPLICATION_JSON_VALUE)
+  public AsyncQueryExecutor.Statistics asyncStatistics() {
+    return connectorDataService.getAsyncStatistics();
   }
 
   /**
@@ -147,7 +185,8 @@ public class ConnectorController {
    * @responseMessage 401 Authentication token is invalid or expired.
    */
   @RequestMapping(method = RequestMethod.POST, value = "/acquire",
-      consumes = APPLICATION_JSON_VALUE, produces = APPLICATION_JSON_VALUE)
+      consumes = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE},
+      produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
   public ResponseEntity<?> acquire(
       @RequestHeader(value = AUTHORIZATION, required = false) String auth) {
     return connectorDataService.acquire(auth);
@@ -161,13 +200,17 @@ public class ConnectorController {
    * @return The async acquire response.
    * @responseMessage 201 Asynchronous query started successfully.
    * @responseMessage 401 Authentication token is invalid or expired.
+   * @responseMessage 429 Too many asynchronous queries are running.
    */
   @RequestMapping(method = RequestMethod.POST, value = "/async",
-      consumes = APPLICATION_JSON_VALUE, produces = APPLICATION_JSON_VALUE)
+      consumes = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE},
+      produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
   public ResponseEntity<?> asyncAcquire(
       @RequestHeader(value = AUTHORIZATION, required = false)
-          String auth, @Valid @RequestBody DaodRequest request) {
-    return connectorDataService.asyncAcquire(auth, request.payload.conditions);
+          String auth,
+      @RequestHeader(value = PRINCIPAL_HEADER, required = false)
+          String principal, @Valid @RequestBody DaodRequest request) {
+    return connectorDataService.asyncAcquire(auth, principal, request.payload.conditions);
   }
 
   /**
@@ -180,7 +223,7 @@ public class ConnectorController {
    * @responseMessage 401 Authentication token is invalid or expired.
    */
   @RequestMapping(method = RequestMethod.GET, value = "/async/{queryId}",
-      produces = APPLICATION_JSON_VALUE)
+      produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
   public ResponseEntity<?> asyncStatus(
       @RequestHeader(value = AUTHORIZATION, required = false)
           String auth, @Valid @PathVariable("queryId")
@@ -188,6 +231,41 @@ public class ConnectorController {
     return connectorDataService.asyncStatus(auth, queryId);
   }
 
+  /**
+   * The endpoint called to wait for an asynchronous query to finish. Responds with the {@link
+   * AsyncQueryStatus} once the query has finished or the wait is over, if authorization token is
+   * valid; {@link ProblemDetails} if authorization token is invalid.
+   *
+   * @return The status response.
+   * @responseMessage 200 Status of asynchronous query successfully retrieved.
+   * @responseMessage 401 Authentication token is invalid or expired.
+   */
+  @RequestMapping(method = RequestMethod.GET, value = "/async/{queryId}", params = "wait",
+      produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
+  public DeferredResult<ResponseEntity<?>> asyncAwaitStatus(
+      @RequestHeader(value = AUTHORIZATION, required = false)
+          String auth, @Valid @PathVariable("queryId")
+          String queryId, @RequestParam("wait") long wait) {
+    return connectorDataService.awaitStatus(auth, queryId, wait);
+  }
+
+  /**
+   * The endpoint called to stream the substatuses of an asynchronous query as server-sent events
+   * until it finishes.
+   *
+   * @return The stream of events.
+   * @responseMessage 200 Events of asynchronous query successfully streamed.
+   * @responseMessage 401 Authentication token is invalid or expired.
+   */
+  @RequestMapping(method = RequestMethod.GET, value = "/async/{queryId}/events",
+      produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public ResponseEntity<SseEmitter> asyncEvents(
+      @RequestHeader(value = AUTHORIZATION, required = false)
+          String auth, @Valid @PathVariable("queryId")
+          String queryId) {
+    return connectorDataService.asyncEvents(auth, queryId);
+  }
+
   /**
    * The endpoint called to retrieve the results of an asynchronous query. Responds with
    * {@link I2ConnectData} containing the results of the query; {@link ProblemDetails}
@@ -197,8 +275,8 @@ public class ConnectorController {
    * @responseMessage 200 Results of asynchronous query successfully retrieved.
    * @responseMessage 401 Authentication token is invalid or expired.
    */
-  @RequestMapping(method = RequestMethod.GET,
-      value = "/async/{queryId}/results", produces = APPLICATION_JSON_VALUE)
+  @RequestMapping(method = RequestMethod.GET, value = "/async/{queryId}/results",
+      produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
   public ResponseEntity<?> asyncResults(
       @RequestHeader(value = AUTHORIZATION, required = false)
           String auth, @Valid @PathVariable("queryId")
@@ -206,6 +284,26 @@ public class ConnectorController {
     return connectorDataService.asyncResults(auth, queryId);
   }
 
+  /**
+   * The endpoint called to retrieve a page of the results of an asynchronous query. Responds with
+   * {@link I2ConnectData} containing the entities and links in the page, and a link to the next
+   * page if there is one; {@link ProblemDetails} if authorization token is invalid.
+   *
+   * @return The page of results.
+   * @responseMessage 200 Page of results of asynchronous query successfully retrieved.
+   * @responseMessage 400 The offset is negative, or the limit is not positive.
+   * @responseMessage 401 Authentication token is invalid or expired.
+   */
+  @RequestMapping(method = RequestMethod.GET, value = "/async/{queryId}/results",
+      params = "limit", produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
+  public ResponseEntity<?> asyncResultsPage(
+      @RequestHeader(value = AUTHORIZATION, required = false)
+          String auth, @Valid @PathVariable("queryId")
+          String queryId, @RequestParam(value = "offset", defaultValue = "0") int offset,
+      @RequestParam("limit") int limit) {
+    return connectorDataService.asyncResultsPage(auth, queryId, offset, limit);
+  }
+
   /**
    * The endpoint called to cancel a running query.
    *
@@ -213,7 +311,7 @@ public class ConnectorController {
    * @responseMessage 204 Asynchronous query successfully canceled.
    */
   @RequestMapping(method = RequestMethod.DELETE, value = "/async/{queryId}",
-      produces = APPLICATION_JSON_VALUE)
+      produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
   public ResponseEntity<Void> asyncDelete(
       @Valid @PathVariable("queryId") String queryId) {
     return connectorDataService.asyncDelete(queryId);
@@ -32,14 +32,17 @@ import com.i2group.connector.spi.rest.transport.AsyncQueryStatus.StateEnum;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -48,25 +51,45 @@ import java.util.concurrent.TimeUnit;
 @Service
 public class ExternalConnectorDataService {
 
+  // The state reported by each type of substatus, which names its server-sent event
+  private static final Map<AsyncQuerySubstatus.TypeEnum, StateEnum> SUBSTATUS_STATES = Map.of(
+      AsyncQuerySubstatus.TypeEnum.INFORMATION, StateEnum.STARTED,
+      AsyncQuerySubstatus.TypeEnum.SUCCESS, StateEnum.SUCCEEDED,
+      AsyncQuerySubstatus.TypeEnum.ERROR, StateEnum.FAILED);
+
   private final ItemFactory itemFactory;
   private final Resource peopleResource;
-  private final AsyncQueryStatus status = new AsyncQueryStatus();
-  private final Map<String, I2ConnectData> asyncResponses = new HashMap<>();
-  private final Map<String, AsyncQueryStatus> asyncStatuses = new HashMap<>();
+  private final AsyncQueryRegistry queries;
+  private final AsyncQueryExecutor executor;
+  private final long maxWaitSeconds;
+  private final long eventsTimeoutSeconds;
 
   private static final String AUTHENTICATION_REQUIRED_TYPE = "urn:uuid:264caa46-75cb" +
       "-4ac5-891a-11adeb48b6fb";
   private static final String CREDENTIAL = "foo";
 
-  private Date startDate;
-  private AsyncQuerySubstatus queryStarted;
-  private CompletableFuture<Void> asyncQuery = new CompletableFuture<>();
-
   @Autowired
   public ExternalConnectorDataService(
-      @Value("classpath:people.json") Resource resource) {
+      @Value("classpath:people.json") Resource resource, AsyncQueryRegistry queries,
+      AsyncQueryExecutor executor,
+      @Value("${connector.async.max-wait-seconds:60}") long maxWaitSeconds,
+      @Value("${connector.async.events-timeout-seconds:600}") long eventsTimeoutSeconds) {
     this.itemFactory = new ItemFactory();
     this.peopleResource = resource;
+    this.queries = queries;
+    this.executor = executor;
+    this.maxWaitSeconds = maxWaitSeconds;
+    this.eventsTimeoutSeconds = eventsTimeoutSeconds;
+  }
+
+  /**
+   * Get the number of running and waiting asynchronous queries, and how long cancelled queries
+   * took to stop.
+   *
+   * @return The current executor statistics.
+   */
+  public AsyncQueryExecutor.Statistics getAsyncStatistics() {
+    return executor.getStatistics();
   }
 
   /**
@@ -113,19 +136,21 @@ public class ExternalConnectorDataService {
    * Retrieves the data. Conditions configure the mocked asynchronous behaviour.
    *
    * @param auth The value of the Authorization header.
+   * @param principal The value of the I2-Principal header.
    * @param conditions The asynchronous configuration provided via the interface.
-   * @return A response containing the entities and links.
+   * @return A response containing the entities and links, or a {@link ProblemDetails} response
+   * if there are too many queries to run this one.
    */
-  public ResponseEntity<?> asyncAcquire(String auth, List<DaodRequestCondition> conditions) {
+  public ResponseEntity<?> asyncAcquire(
+      String auth, String principal, List<DaodRequestCondition> conditions) {
     final AuthValidator validationResponse = AuthValidator.validateAuth(auth);
     if (!validationResponse.valid) {
       return errorResponse(validationResponse.title, validationResponse.details);
     }
 
-    startDate = new Date();
-
+    final AsyncQueryRegistry.Query query = queries.start();
     final AsyncQueryResponse queryResponse = new AsyncQueryResponse();
-    queryResponse.queryId = UUID.randomUUID().toString();
+    queryResponse.queryId = query.getId();
 
     int duration = 10;
     boolean shouldFail = false;
@@ -141,24 +166,28 @@ public class ExternalConnectorDataService {
     final int customDuration = duration;
 
     if (shouldFail) {
-      asyncQuery.cancel(true);
-      updateStatus(StateEnum.FAILED, queryResponse.queryId);
+      query.fail();
     } else {
-      asyncQuery = CompletableFuture.runAsync(() -> {
+      final Runnable task = () -> {
         try {
-          updateStatus(StateEnum.STARTED, queryResponse.queryId);
           TimeUnit.SECONDS.sleep(customDuration);
 
-          if (!asyncStatuses.get(queryResponse.queryId).state.equals(StateEnum.FAILED)) {
+          if (query.getState() == StateEnum.STARTED) {
             final List<Person> people = retrievePeopleData();
             final I2ConnectData connectorResponse = marshalItemsFromResponse(people);
-            asyncResponses.put(queryResponse.queryId, connectorResponse);
-            updateStatus(StateEnum.SUCCEEDED, queryResponse.queryId);
+            queries.succeed(query, connectorResponse);
           }
         } catch (InterruptedException e) {
-          throw new IllegalStateException(e);
+          // The query was cancelled, and its work is abandoned
+          Thread.currentThread().interrupt();
         }
-      });
+      };
+      try {
+        query.setFuture(executor.submit(principal, task));
+      } catch (AsyncQueryExecutor.RejectedQueryException e) {
+        queries.remove(query.getId());
+        return tooManyQueriesResponse(e);
+      }
     }
 
     return ResponseEntity.status(200).body(queryResponse);
@@ -176,21 +205,110 @@ public class ExternalConnectorDataService {
     if (!validationResponse.valid) {
       return errorResponse(validationResponse.title, validationResponse.details);
     }
+    final AsyncQueryRegistry.Query query = queries.get(queryId);
+    if (query == null) {
+      return ResponseEntity.notFound().build();
+    }
+    return ResponseEntity.status(200).body(buildStatus(query));
+  }
+
+  /**
+   * Waits until the query finishes, or until the wait is over, and then retrieves its status.
+   * No thread is held while the request waits.
+   *
+   * @param auth The value of the Authorization header.
+   * @param queryId The identifier of the query.
+   * @param waitSeconds The longest time, in seconds, to wait, up to the maximum wait.
+   * @return The status response, once the query has finished or the wait is over.
+   */
+  public DeferredResult<ResponseEntity<?>> awaitStatus(
+      String auth, String queryId, long waitSeconds) {
+    final AuthValidator validationResponse = AuthValidator.validateAuth(auth);
+    final AsyncQueryRegistry.Query query =
+        validationResponse.valid ? queries.get(queryId) : null;
+    final long wait = Math.min(waitSeconds, maxWaitSeconds);
+    if (query == null || wait <= 0) {
+      final DeferredResult<ResponseEntity<?>> status = new DeferredResult<>();
+      status.setResult(asyncStatus(auth, queryId));
+      return status;
+    }
+
+    final DeferredResult<ResponseEntity<?>> status =
+        new DeferredResult<>(TimeUnit.SECONDS.toMillis(wait));
+    status.onTimeout(() -> status.setResult(ResponseEntity.ok(buildStatus(query))));
+    query.whenFinished().thenRun(() -> status.setResult(ResponseEntity.ok(buildStatus(query))));
+    return status;
+  }
 
+  /**
+   * Streams the substatuses of the query as server-sent events, each named after the state it
+   * reports. The substatuses so far are sent at once, and the final substatus is sent when the
+   * query finishes, which ends the stream.
+   *
+   * @param auth The value of the Authorization header.
+   * @param queryId The identifier of the query.
+   * @return The stream of events.
+   */
+  public ResponseEntity<SseEmitter> asyncEvents(String auth, String queryId) {
+    final AuthValidator validationResponse = AuthValidator.validateAuth(auth);
+    if (!validationResponse.valid) {
+      return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+    }
+    final AsyncQueryRegistry.Query query = queries.get(queryId);
+    if (query == null) {
+      return ResponseEntity.notFound().build();
+    }
+
+    final SseEmitter emitter = new SseEmitter(TimeUnit.SECONDS.toMillis(eventsTimeoutSeconds));
+    final AsyncQueryStatus status = buildStatus(query);
+    if (send(emitter, status.substatuses)) {
+      if (status.state == StateEnum.STARTED) {
+        query.whenFinished().thenRun(() -> {
+          final List<AsyncQuerySubstatus> substatuses = buildStatus(query).substatuses;
+          if (send(emitter, substatuses.subList(substatuses.size() - 1, substatuses.size()))) {
+            emitter.complete();
+          }
+        });
+      } else {
+        emitter.complete();
+      }
+    }
+    return ResponseEntity.ok(emitter);
+  }
+
+  private static boolean send(SseEmitter emitter, List<AsyncQuerySubstatus> substatuses) {
+    try {
+      for (AsyncQuerySubstatus substatus : substatuses) {
+        emitter.send(SseEmitter.event()
+            .name(SUBSTATUS_STATES.get(substatus.type).toString())
+            .data(substatus, MediaType.APPLICATION_JSON));
+      }
+      return true;
+    } catch (IOException | IllegalStateException e) {
+      // The client has gone, or the stream has timed out
+      emitter.completeWithError(e);
+      return false;
+    }
+  }
+
+  private AsyncQueryStatus buildStatus(AsyncQueryRegistry.Query query) {
     final AsyncQueryStatus statusResponse = new AsyncQueryStatus();
     final AsyncQuerySubstatus substatus = new AsyncQuerySubstatus();
-    statusResponse.state = asyncStatuses.get(queryId).state;
+    final Date startDate = Date.from(query.getStartedAt());
+    statusResponse.state = query.getState();
 
     switch (statusResponse.state) {
       case STARTED:
         substatus.type = AsyncQuerySubstatus.TypeEnum.INFORMATION;
         substatus.message = "Query started - " + startDate;
         statusResponse.substatuses = Collections.singletonList(substatus);
-        queryStarted = substatus;
         break;
       case SUCCEEDED:
+        final AsyncQuerySubstatus queryStarted = new AsyncQuerySubstatus();
+        queryStarted.type = AsyncQuerySubstatus.TypeEnum.INFORMATION;
+        queryStarted.message = "Query started - " + startDate;
         substatus.type = AsyncQuerySubstatus.TypeEnum.SUCCESS;
-        substatus.message = "Query completed - " + new Date();
+        substatus.message = "Query completed - " + Date.from(query.getFinishedAt());
         statusResponse.substatuses = Arrays.asList(queryStarted, substatus);
         break;
       case FAILED:
@@ -201,7 +319,7 @@ public class ExternalConnectorDataService {
       default:
         throw new Error("Query in unknown state");
     }
-    return ResponseEntity.status(200).body(statusResponse);
+    return statusResponse;
   }
 
   /**
@@ -216,7 +334,43 @@ public class ExternalConnectorDataService {
     if (!validationResponse.valid) {
       return errorResponse(validationResponse.title, validationResponse.details);
     }
-    return ResponseEntity.status(200).body(asyncResponses.get(queryId));
+    final AsyncQueryRegistry.Query query = queries.get(queryId);
+    if (query == null) {
+      return ResponseEntity.notFound().build();
+    }
+    return ResponseEntity.status(200).body(query.getResult());
+  }
+
+  /**
+   * Retrieves a page of the results of the query, counting the entities and then the links. When
+   * there are more results, the response links to the next page.
+   *
+   * @param auth The value of the Authorization header.
+   * @param queryId The identifier of the query.
+   * @param offset The index of the first entity or link in the page.
+   * @param limit The maximum number of entities and links in the page.
+   * @return The page of results.
+   */
+  public ResponseEntity<?> asyncResultsPage(String auth, String queryId, int offset, int limit) {
+    final AuthValidator validationResponse = AuthValidator.validateAuth(auth);
+    if (!validationResponse.valid) {
+      return errorResponse(validationResponse.title, validationResponse.details);
+    }
+    if (offset < 0 || limit <= 0) {
+      return ResponseEntity.badRequest().build();
+    }
+    final AsyncQueryRegistry.Query query = queries.get(queryId);
+    if (query == null) {
+      return ResponseEntity.notFound().build();
+    }
+    final ResponseEntity.BodyBuilder response = ResponseEntity.status(200);
+    final long next = (long) offset + limit;
+    if (next < query.getItemCount()) {
+      final String nextPage = ServletUriComponentsBuilder.fromCurrentRequest()
+          .replaceQueryParam("offset", next).toUriString();
+      response.header(HttpHeaders.LINK, "<" + nextPage + ">; rel=\"next\"");
+    }
+    return response.body(query.getResult(offset, limit));
   }
 
   /**
@@ -226,9 +380,10 @@ public class ExternalConnectorDataService {
    * @return The response with the removed query.
    */
   public ResponseEntity<Void> asyncDelete(String queryId) {
-    asyncQuery.cancel(true);
-    updateStatus(StateEnum.FAILED, queryId);
-    asyncResponses.remove(queryId);
+    final AsyncQueryRegistry.Query query = queries.remove(queryId);
+    if (query != null && query.getFuture() != null) {
+      query.getFuture().cancel(true);
+    }
     return ResponseEntity.noContent().build();
   }
 
@@ -270,59 +425,61 @@ public class ExternalConnectorDataService {
    * Marshal the response items into a list of entities and links. Ensures no duplicate
    * {@link Person} entities are included.
    *
-   * @param people The resulting source records returned from the request.
+   * @param records The resulting source records returned from the request.
    * @return The response containing entities and links.
    */
-  private I2ConnectData marshalItemsFromResponse(List<Person> people) {
-    final List<I2ConnectEntityData> entities = new ArrayList<>();
-    final List<I2ConnectLinkData> links = new ArrayList<>();
-    final Set<String> linkIds = new HashSet<>();
-
-    final Map<String, I2ConnectEntityData> seenPeople = new HashMap<>();
-
-    people.forEach(entry -> {
+  private I2ConnectData marshalItemsFromResponse(List<Person> records) {
+    final I2ConnectData connectorResponse = new I2ConnectData();
+    final ResultGraphAssembler graph =
+        new ResultGraphAssembler(I2ConnectDataSink.collectingInto(connectorResponse));
+    final ResultGraphAssembler.EntityIndex<Person> people =
+        graph.entities(itemFactory::createPerson);
+    final ResultGraphAssembler.LinkIndex friendLinks = graph.links();
+
+    final Map<String, Person> peopleById = new HashMap<>();
+    for (Person entry : records) {
+      peopleById.putIfAbsent(entry.id, entry);
+    }
 
-      final I2ConnectEntityData person;
-      if (seenPeople.containsKey(entry.id)) {
-        person = seenPeople.get(entry.id);
-      } else {
-        person = itemFactory.createPerson(entry);
-        seenPeople.put(entry.id, person);
-        entities.add(person);
-      }
+    records.forEach(entry -> {
+      final I2ConnectEntityData person = people.get(entry.id, entry);
 
       entry.friends.forEach(friendId -> {
-        final Person friendPerson = getPersonFromId(people, friendId);
-        final I2ConnectEntityData friend;
+        final Person friendPerson = peopleById.get(friendId);
 
         if (friendPerson != null) {
-          if (seenPeople.containsKey(friendId)) {
-            friend = seenPeople.get(friendId);
-          } else {
-            friend = itemFactory.createPerson(friendPerson);
-            seenPeople.put(friendId, friend);
-            entities.add(friend);
-          }
+          final I2ConnectEntityData friend = people.get(friendId, friendPerson);
 
-          final String uniqueId = "LINK-PER" + person.id + "-FRIEND" + friend.id;
-          final String alternateUniqueId = "LINK-PER" + friend.id + "-FRIEND" + person.id;
-
-          if (!linkIds.contains(uniqueId) || !linkIds.contains(alternateUniqueId)) {
-            final I2ConnectLinkData personLink = itemFactory.createPersonLink(person, friend);
-            links.add(personLink);
-            linkIds.add(uniqueId);
-            linkIds.add(alternateUniqueId);
+          if (friendLinks.addUndirected(entry.id, friendId)) {
+            graph.addLink(itemFactory.createPersonLink(person, friend));
           }
         }
       });
     });
 
-    final I2ConnectData connectorResponse = new I2ConnectData();
-    connectorResponse.entities = entities;
-    connectorResponse.links = links;
     return connectorResponse;
   }
 
+  /**
+   * Creates a {@link ProblemDetails} response for a query which there were too many other queries
+   * to run, saying when to try again.
+   *
+   * @param e The rejection of the query.
+   * @return The {@link ProblemDetails} response body.
+   */
+  private ResponseEntity<ProblemDetails> tooManyQueriesResponse(
+      AsyncQueryExecutor.RejectedQueryException e) {
+    final HttpStatus status = HttpStatus.TOO_MANY_REQUESTS;
+    final ProblemDetails problemDetails = new ProblemDetails();
+    problemDetails.title = "Too many queries.";
+    problemDetails.status = status.value();
+    problemDetails.detail = e.getMessage();
+    return ResponseEntity.status(status)
+        .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfter().getSeconds()))
+        .contentType(MediaType.APPLICATION_PROBLEM_JSON)
+        .body(problemDetails);
+  }
+
   /**
    * Retrieves the list of people from the dataset.
    *
@@ -339,31 +496,4 @@ public class ExternalConnectorDataService {
     }
     return people;
   }
-
-  /**
-   * Retrieves a {@link Person} from a specified ID.
-   *
-   * @param people The total list of people in the dataset.
-   * @param id The ID of the person to retrieve.
-   * @return The {@link Person} matching the specified ID.
-   */
-  private Person getPersonFromId(List<Person> people, String id) {
-    for (Person person : people) {
-      if (person.id.equals(id)) {
-        return person;
-      }
-    }
-    return null;
-  }
-
-  /**
-   * Updates the status of a query.
-   *
-   * @param state The state to update the query with.
-   * @param queryId The ID of the query to update.
-   */
-  private void updateStatus(StateEnum state, String queryId) {
-    status.state = state;
-    asyncStatuses.put(queryId, status);
-  }
 }
@@ -0,0 +1,240 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.auth.rest.transport;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs asynchronous queries on a dedicated pool of threads, so that they do not hold up the
+ * common pool used by parallel streams. Queries wait in a bounded queue when every thread is
+ * busy, and each principal may only have a limited number of queries waiting or running. A query
+ * which is not admitted is rejected rather than queued without bound.
+ *
+ * <p>Cancelling the future of a query interrupts its thread if it is running, or takes it out of
+ * the queue if it is waiting, so that it stops using capacity which other queries can use. The
+ * time between a cancellation and the query stopping is recorded.
+ */
+@Component
+public class AsyncQueryExecutor {
+  private static final String ANONYMOUS = "";
+
+  private final ThreadPoolExecutor executor;
+  private final int maxQueriesPerPrincipal;
+  private final Duration retryAfter;
+  private final ConcurrentMap<String, Integer> activeQueries = new ConcurrentHashMap<>();
+  private long cancellations;
+  private long totalCancelNanos;
+  private long maxCancelNanos;
+
+  /**
+   * Constructor used to configure the executor.
+   *
+   * @param threads The number of queries which run at once.
+   * @param queueSize The number of queries which wait for a thread.
+   * @param maxQueriesPerPrincipal The number of queries which each principal may have waiting or
+   *     running at once.
+   * @param retryAfter The time, in seconds, after which clients of rejected queries are told to
+   *     try again.
+   */
+  public AsyncQueryExecutor(
+      @Value("${connector.async.threads:4}") int threads,
+      @Value("${connector.async.queue-size:16}") int queueSize,
+      @Value("${connector.async.max-queries-per-principal:4}") int maxQueriesPerPrincipal,
+      @Value("${connector.async.retry-after-seconds:5}") long retryAfter) {
+    final AtomicInteger threadCount = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(Math.max(1, queueSize)), runnable -> {
+          final Thread thread =
+              new Thread(runnable, "async-query-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+    this.maxQueriesPerPrincipal = maxQueriesPerPrincipal;
+    this.retryAfter = Duration.ofSeconds(retryAfter);
+  }
+
+  /**
+   * Submit a query to run once a thread is free. The query counts against the limit of its
+   * principal until its future completes, including when it is cancelled. Cancelling the future
+   * interrupts the query.
+   *
+   * @param principal The principal who made the query, or null if it is not known.
+   * @param query The query.
+   * @return The future which completes when the query has run.
+   * @throws RejectedQueryException If the principal already has too many queries, or the queue
+   *     is full.
+   */
+  public CompletableFuture<Void> submit(String principal, Runnable query) {
+    final String key = principal == null ? ANONYMOUS : principal;
+    if (!acquire(key)) {
+      throw new RejectedQueryException(
+          "Too many asynchronous queries are already running for this user", retryAfter);
+    }
+
+    final QueryFuture future = new QueryFuture(query);
+    try {
+      executor.execute(future.task);
+    } catch (RejectedExecutionException e) {
+      release(key);
+      throw new RejectedQueryException(
+          "Too many asynchronous queries are already running", retryAfter);
+    }
+    future.whenComplete((result, failure) -> release(key));
+    return future;
+  }
+
+  /**
+   * Get a snapshot of the executor statistics.
+   *
+   * @return The current statistics.
+   */
+  public synchronized Statistics getStatistics() {
+    return new Statistics(executor.getActiveCount(), executor.getQueue().size(), cancellations,
+        cancellations == 0 ? 0 : totalCancelNanos / cancellations / 1e6, maxCancelNanos / 1e6);
+  }
+
+  private synchronized void recordCancellation(long nanos) {
+    cancellations++;
+    totalCancelNanos += nanos;
+    maxCancelNanos = Math.max(maxCancelNanos, nanos);
+  }
+
+  private boolean acquire(String principal) {
+    final boolean[] acquired = {false};
+    activeQueries.compute(principal, (key, count) -> {
+      final int active = count == null ? 0 : count;
+      if (active >= maxQueriesPerPrincipal) {
+        return count;
+      }
+      acquired[0] = true;
+      return active + 1;
+    });
+    return acquired[0];
+  }
+
+  private void release(String principal) {
+    activeQueries.computeIfPresent(principal, (key, count) -> count > 1 ? count - 1 : null);
+  }
+
+  /**
+   * The future of a query, which runs the query in a task of the executor. The state of the
+   * query decides whether its cancellation is recorded when it is cancelled, because it never
+   * ran, or when it stops running.
+   */
+  private final class QueryFuture extends CompletableFuture<Void> {
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int STOPPED = 2;
+
+    private final FutureTask<Void> task;
+    private final AtomicInteger state = new AtomicInteger(QUEUED);
+    private volatile long cancelledAt;
+
+    private QueryFuture(Runnable query) {
+      this.task = new FutureTask<>(() -> run(query), null);
+    }
+
+    private void run(Runnable query) {
+      if (!state.compareAndSet(QUEUED, RUNNING)) {
+        return;
+      }
+      try {
+        query.run();
+        complete(null);
+      } catch (RuntimeException | Error e) {
+        completeExceptionally(e);
+      } finally {
+        state.set(STOPPED);
+        if (isCancelled()) {
+          recordCancellation(System.nanoTime() - cancelledAt);
+        }
+      }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      cancelledAt = System.nanoTime();
+      if (!super.cancel(mayInterruptIfRunning)) {
+        return false;
+      }
+      if (state.compareAndSet(QUEUED, STOPPED)) {
+        executor.remove(task);
+        recordCancellation(0);
+      } else {
+        task.cancel(mayInterruptIfRunning);
+      }
+      return true;
+    }
+  }
+
+  /** A snapshot of the executor statistics. */
+  public static class Statistics {
+    public final int running;
+    public final int queued;
+    public final long cancellations;
+    public final double meanCancelMillis;
+    public final double maxCancelMillis;
+
+    Statistics(int running, int queued, long cancellations, double meanCancelMillis,
+        double maxCancelMillis) {
+      this.running = running;
+      this.queued = queued;
+      this.cancellations = cancellations;
+      this.meanCancelMillis = meanCancelMillis;
+      this.maxCancelMillis = maxCancelMillis;
+    }
+  }
+
+  /** Thrown when a query is not admitted to the executor. */
+  public static class RejectedQueryException extends RuntimeException {
+    private final Duration retryAfter;
+
+    RejectedQueryException(String message, Duration retryAfter) {
+      super(message);
+      this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Get the time after which the client should try again.
+     *
+     * @return The time to wait.
+     */
+    public Duration getRetryAfter() {
+      return retryAfter;
+    }
+  }
+}
@@ -0,0 +1,471 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.auth.rest.transport;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.i2group.connector.spi.rest.transport.AsyncQueryStatus.StateEnum;
+import com.i2group.connector.spi.rest.transport.I2ConnectData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the asynchronous queries, each with its own state, start and finish times, future and
+ * results. Queries can be read from any thread while they are being completed by another.
+ *
+ * <p>Finished queries are removed once they have been finished for longer than the time-to-live.
+ * The size of the results held is measured as the length of their JSON, and when it passes the
+ * limit, the queries which finished first are removed until it is back under the limit. A removed
+ * query is no longer known to the registry.
+ *
+ * <p>Results larger than the spill threshold are written to a {@link ResultFile} instead of being
+ * held in memory, and count towards a separate limit on the total size of the files. A result
+ * file is deleted when its query is removed, and when the registry is shut down.
+ *
+ * <p>Whoever is waiting for a query to finish is told once the query has changed state, outside
+ * of any lock held by the registry or the query.
+ */
+@Component
+public class AsyncQueryRegistry implements DisposableBean {
+  private static final Logger LOGGER = LoggerFactory.getLogger(AsyncQueryRegistry.class);
+  // Expired queries are looked for at most this often, so that polling does not walk every query
+  private static final Duration SWEEP_INTERVAL = Duration.ofSeconds(1);
+
+  private final ConcurrentMap<String, Query> queries = new ConcurrentHashMap<>();
+  private final Duration ttl;
+  private final long maxResultBytes;
+  private final long spillThreshold;
+  private final Path spillDirectory;
+  private final long maxSpilledBytes;
+  private final ObjectMapper objectMapper;
+  private long resultBytes;
+  private long spilledBytes;
+  private Instant nextSweep = Instant.MIN;
+
+  /**
+   * Constructor used to configure the registry.
+   *
+   * @param ttl The time, in seconds, for which finished queries are kept.
+   * @param maxResultBytes The maximum total size, in bytes of JSON, of the results kept in
+   *     memory.
+   * @param spillThreshold The size, in bytes of JSON, above which results are written to a file,
+   *     or 0 to keep all results in memory.
+   * @param spillDirectory The directory in which result files are written, or empty for the
+   *     temporary directory of the system.
+   * @param maxSpilledBytes The maximum total size, in bytes, of the result files kept.
+   * @param objectMapper The mapper used to measure the size of results, and to write them to
+   *     files.
+   */
+  public AsyncQueryRegistry(
+      @Value("${connector.async.ttl-seconds:600}") long ttl,
+      @Value("${connector.async.max-result-bytes:67108864}") long maxResultBytes,
+      @Value("${connector.async.spill-threshold-bytes:1048576}") long spillThreshold,
+      @Value("${connector.async.spill-directory:}") String spillDirectory,
+      @Value("${connector.async.max-spilled-bytes:1073741824}") long maxSpilledBytes,
+      ObjectMapper objectMapper) {
+    this.ttl = Duration.ofSeconds(ttl);
+    this.maxResultBytes = maxResultBytes;
+    this.spillThreshold = spillThreshold;
+    this.spillDirectory = Paths.get(spillDirectory.isEmpty()
+        ? System.getProperty("java.io.tmpdir") : spillDirectory);
+    this.maxSpilledBytes = maxSpilledBytes;
+    this.objectMapper = objectMapper;
+  }
+
+  /**
+   * Register a new query, which has started.
+   *
+   * @return The query.
+   */
+  public Query start() {
+    sweep();
+    final Query query = new Query(UUID.randomUUID().toString());
+    queries.put(query.id, query);
+    return query;
+  }
+
+  /**
+   * Get a query.
+   *
+   * @param queryId The identifier of the query.
+   * @return The query, or null if it is unknown or has expired.
+   */
+  public Query get(String queryId) {
+    sweep();
+    final Query query = queries.get(queryId);
+    if (query != null && query.isExpired(Instant.now())) {
+      evict(query);
+      return null;
+    }
+    return query;
+  }
+
+  /**
+   * Remove a query, and fail it if it has not finished.
+   *
+   * @param queryId The identifier of the query.
+   * @return The query, or null if it is unknown.
+   */
+  public Query remove(String queryId) {
+    final Query query = queries.get(queryId);
+    if (query == null || !evict(query)) {
+      return null;
+    }
+    query.fail();
+    return query;
+  }
+
+  /**
+   * Complete a query with its results, unless it has already finished. The results are kept,
+   * in memory or in a file, until the query expires, or until later results need the space.
+   *
+   * @param query The query.
+   * @param result The results of the query.
+   */
+  public void succeed(Query query, I2ConnectData result) {
+    final ResultFile.Measurement measurement = measure(query, result);
+    final long size = measurement != null ? measurement.getLength() : 0;
+    final ResultFile file = measurement != null ? measurement.getFile() : null;
+    synchronized (this) {
+      if (!query.finish(StateEnum.SUCCEEDED, file == null ? result : null, file, size)) {
+        delete(file);
+        return;
+      }
+      if (queries.get(query.id) != query) {
+        delete(file);
+      } else if (file == null) {
+        resultBytes += size;
+      } else {
+        spilledBytes += size;
+      }
+      if (resultBytes > maxResultBytes || spilledBytes > maxSpilledBytes) {
+        evictOldest();
+      }
+    }
+    query.finished.complete(StateEnum.SUCCEEDED);
+  }
+
+  /**
+   * Get the total size of the results kept in memory.
+   *
+   * @return The size, in bytes of JSON.
+   */
+  public synchronized long getResultBytes() {
+    return resultBytes;
+  }
+
+  /**
+   * Get the total size of the results kept in files.
+   *
+   * @return The size, in bytes.
+   */
+  public synchronized long getSpilledBytes() {
+    return spilledBytes;
+  }
+
+  /**
+   * Get the number of queries kept.
+   *
+   * @return The number of queries.
+   */
+  public int size() {
+    return queries.size();
+  }
+
+  /** Delete the result files of the queries which are still kept. */
+  @Override
+  public synchronized void destroy() {
+    for (Query query : queries.values()) {
+      evict(query);
+    }
+  }
+
+  private synchronized boolean evict(Query query) {
+    if (!queries.remove(query.id, query)) {
+      return false;
+    }
+    if (query.resultFile == null) {
+      resultBytes -= query.resultBytes;
+    } else {
+      spilledBytes -= query.resultBytes;
+      delete(query.resultFile);
+    }
+    return true;
+  }
+
+  private synchronized void sweep() {
+    final Instant now = Instant.now();
+    if (now.isBefore(nextSweep)) {
+      return;
+    }
+    nextSweep = now.plus(SWEEP_INTERVAL);
+    for (Query query : queries.values()) {
+      if (query.isExpired(now)) {
+        evict(query);
+      }
+    }
+  }
+
+  private void evictOldest() {
+    final List<Query> finished = new ArrayList<>();
+    for (Query query : queries.values()) {
+      if (query.resultBytes > 0) {
+        finished.add(query);
+      }
+    }
+    finished.sort(Comparator.comparing(query -> query.finishedAt));
+    for (Query query : finished) {
+      if (resultBytes <= maxResultBytes && spilledBytes <= maxSpilledBytes) {
+        break;
+      }
+      if (query.resultFile == null && resultBytes > maxResultBytes) {
+        evict(query);
+        LOGGER.info("Removed the results of query {} to keep results under {} bytes", query.id,
+            maxResultBytes);
+      } else if (query.resultFile != null && spilledBytes > maxSpilledBytes) {
+        evict(query);
+        LOGGER.info("Removed the results of query {} to keep result files under {} bytes",
+            query.id, maxSpilledBytes);
+      }
+    }
+  }
+
+  /**
+   * Measure the results of a query, writing them to a file if they are larger than the spill
+   * threshold. The results are only serialized once, unless they cannot be written to a file.
+   */
+  private ResultFile.Measurement measure(Query query, I2ConnectData result) {
+    if (spillThreshold > 0) {
+      try {
+        return ResultFile.measure(spillDirectory, objectMapper, result, spillThreshold);
+      } catch (IOException e) {
+        LOGGER.warn("Unable to write the results of query {} to a file, so they are kept in memory",
+            query.id, e);
+      }
+    }
+    try {
+      return ResultFile.measure(spillDirectory, objectMapper, result, Long.MAX_VALUE);
+    } catch (IOException e) {
+      LOGGER.warn("Unable to measure the results of query {}", query.id, e);
+      return null;
+    }
+  }
+
+  private static void delete(ResultFile file) {
+    if (file == null) {
+      return;
+    }
+    try {
+      file.delete();
+    } catch (IOException e) {
+      LOGGER.warn("Unable to delete the result file {}", file.getPath(), e);
+    }
+  }
+
+  /** An asynchronous query, and its results once it has succeeded. */
+  public final class Query {
+    private final String id;
+    private final Instant startedAt = Instant.now();
+    private volatile StateEnum state = StateEnum.STARTED;
+    private volatile Instant finishedAt;
+    private volatile CompletableFuture<?> future;
+    private volatile I2ConnectData result;
+    private volatile ResultFile resultFile;
+    private volatile long resultBytes;
+    private final CompletableFuture<StateEnum> finished = new CompletableFuture<>();
+
+    private Query(String id) {
+      this.id = id;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public StateEnum getState() {
+      return state;
+    }
+
+    public Instant getStartedAt() {
+      return startedAt;
+    }
+
+    /**
+     * Get the time at which the query succeeded or failed.
+     *
+     * @return The finish time, or null if the query is still running.
+     */
+    public Instant getFinishedAt() {
+      return finishedAt;
+    }
+
+    public CompletableFuture<?> getFuture() {
+      return future;
+    }
+
+    /**
+     * Set the future of the work of the query. If the query has already failed, as when it is
+     * removed before its work is submitted, the future is cancelled.
+     *
+     * @param future The future.
+     */
+    public void setFuture(CompletableFuture<?> future) {
+      this.future = future;
+      if (state == StateEnum.FAILED) {
+        future.cancel(true);
+      }
+    }
+
+    /**
+     * Get the results of the query. Results which are kept in a file are read from the file as
+     * they are written out, and cannot be written out once the query has been removed.
+     *
+     * @return The results, or null if the query has not succeeded.
+     */
+    public I2ConnectData getResult() {
+      final ResultFile file = resultFile;
+      return file != null ? new SpilledI2ConnectData(file, 0, file.getItemCount()) : result;
+    }
+
+    /**
+     * Get a run of the items in the results of the query, counting the entities and then the
+     * links.
+     *
+     * @param offset The index of the first item.
+     * @param limit The maximum number of items.
+     * @return The items, or null if the query has not succeeded.
+     */
+    public I2ConnectData getResult(int offset, int limit) {
+      final int count = getItemCount();
+      final int from = Math.min(offset, count);
+      final int to = (int) Math.min((long) offset + limit, count);
+      final ResultFile file = resultFile;
+      if (file != null) {
+        return new SpilledI2ConnectData(file, from, to);
+      }
+      final I2ConnectData result = this.result;
+      if (result == null) {
+        return null;
+      }
+      final int entityCount = size(result.entities);
+      final I2ConnectData page = new I2ConnectData();
+      page.entities = slice(result.entities, from, to);
+      page.errorMessage = result.errorMessage;
+      page.links = slice(result.links, from - entityCount, to - entityCount);
+      return page;
+    }
+
+    /**
+     * Get the number of items in the results of the query.
+     *
+     * @return The number of entities and links, or 0 if the query has not succeeded.
+     */
+    public int getItemCount() {
+      final ResultFile file = resultFile;
+      if (file != null) {
+        return file.getItemCount();
+      }
+      final I2ConnectData result = this.result;
+      return result != null ? size(result.entities) + size(result.links) : 0;
+    }
+
+    /**
+     * Find whether the results of the query are kept in a file.
+     *
+     * @return Whether the results are in a file.
+     */
+    public boolean isSpilled() {
+      return resultFile != null;
+    }
+
+    /**
+     * Fail the query, unless it has already finished.
+     *
+     * @return Whether the query failed.
+     */
+    public boolean fail() {
+      if (!finish(StateEnum.FAILED, null, null, 0)) {
+        return false;
+      }
+      finished.complete(StateEnum.FAILED);
+      return true;
+    }
+
+    /**
+     * Get a future which completes with the final state of the query once it has succeeded or
+     * failed. Completing or cancelling the future does not affect the query.
+     *
+     * @return The future.
+     */
+    public CompletableFuture<StateEnum> whenFinished() {
+      return finished.copy();
+    }
+
+    private synchronized boolean finish(
+        StateEnum state, I2ConnectData result, ResultFile resultFile, long resultBytes) {
+      if (this.state != StateEnum.STARTED) {
+        return false;
+      }
+      this.result = result;
+      this.resultFile = resultFile;
+      this.resultBytes = resultBytes;
+      finishedAt = Instant.now();
+      this.state = state;
+      return true;
+    }
+
+    private boolean isExpired(Instant now) {
+      final Instant finished = finishedAt;
+      return finished != null && finished.plus(ttl).isBefore(now);
+    }
+  }
+
+  private static int size(List<?> items) {
+    return items != null ? items.size() : 0;
+  }
+
+  private static <T> List<T> slice(List<T> items, int from, int to) {
+    final int size = size(items);
+    final int start = Math.max(Math.min(from, size), 0);
+    final int end = Math.max(Math.min(to, size), 0);
+    return start < end ? new ArrayList<>(items.subList(start, end)) : Collections.emptyList();
+  }
+}
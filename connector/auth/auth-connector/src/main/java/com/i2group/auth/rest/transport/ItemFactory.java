@@ -29,13 +29,20 @@ import com.i2group.connector.spi.rest.transport.I2ConnectLinkData;
 import com.i2group.connector.spi.rest.transport.LinkDirection;
 import com.i2group.connector.spi.rest.transport.SchemaTypeLocation;
 
-import java.util.HashMap;
-
 /**
  * Used to generate entity and link objects
  */
 public class ItemFactory {
 
+  private static final PropertyMapping<Person> PERSON_PROPERTIES =
+      PropertyMapping.<Person>into(PropertyLayout.fromSchema("auth-schema.xml").get("Person"))
+          .map("PER1", person -> person.forename)
+          .map("PER2", person -> person.surname)
+          .map("PER3", person -> person.dob)
+          .map("PER4", person -> person.ssn)
+          .map("PER5", person -> person.issuedDateAndTime)
+          .build();
+
   public ItemFactory() {
   }
 
@@ -46,18 +53,11 @@ public class ItemFactory {
    * @return The created person object.
    */
   public I2ConnectEntityData createPerson(Person person) {
-    final HashMap<String, Object> properties = new HashMap<>();
-    properties.put("PER1", person.forename);
-    properties.put("PER2", person.surname);
-    properties.put("PER3", person.dob);
-    properties.put("PER4", person.ssn);
-    properties.put("PER5", person.issuedDateAndTime);
-
     final I2ConnectEntityData entity = new I2ConnectEntityData();
     entity.id = "PER" + person.id;
-    entity.typeId = "Person";
+    entity.typeId = PERSON_PROPERTIES.getItemTypeId();
     entity.typeLocation = SchemaTypeLocation.CONNECTOR;
-    entity.properties = properties;
+    entity.properties = PERSON_PROPERTIES.apply(person);
 
     return entity;
   }
@@ -0,0 +1,225 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.auth.rest.transport;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The properties of an entity or link, held in an array with one slot for each property type of
+ * the item type, rather than in a hash table. Only the property types in the item type's
+ * {@link PropertyLayout} can be set. Properties are written to JSON in the order of the schema,
+ * using the keys which the layout has already encoded.
+ */
+@JsonSerialize(using = PropertyMap.Serializer.class)
+public final class PropertyMap extends AbstractMap<String, Object> {
+  /** Held in the slot of a property which is set to null, as empty slots hold null. */
+  private static final Object NULL = new Object();
+
+  private final PropertyLayout layout;
+  private final Object[] values;
+  private int size;
+
+  PropertyMap(PropertyLayout layout) {
+    this.layout = layout;
+    this.values = new Object[layout.size()];
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    final int ordinal = layout.ordinal(key);
+    return ordinal >= 0 && values[ordinal] != null;
+  }
+
+  @Override
+  public Object get(Object key) {
+    final int ordinal = layout.ordinal(key);
+    return ordinal >= 0 ? unmask(values[ordinal]) : null;
+  }
+
+  @Override
+  public Object put(String key, Object value) {
+    final int ordinal = layout.ordinal(key);
+    if (ordinal < 0) {
+      throw new IllegalArgumentException(
+          "The item type " + layout.getItemTypeId() + " has no property type " + key);
+    }
+    final Object previous = values[ordinal];
+    values[ordinal] = value != null ? value : NULL;
+    if (previous == null) {
+      size++;
+    }
+    return unmask(previous);
+  }
+
+  /**
+   * Set the property in a slot of the layout, without looking up its property type.
+   *
+   * @param ordinal The slot of the property type.
+   * @param value The value of the property, which may be null.
+   */
+  void set(int ordinal, Object value) {
+    if (values[ordinal] == null) {
+      size++;
+    }
+    values[ordinal] = value != null ? value : NULL;
+  }
+
+  @Override
+  public Object remove(Object key) {
+    final int ordinal = layout.ordinal(key);
+    return ordinal >= 0 ? removeAt(ordinal) : null;
+  }
+
+  @Override
+  public void clear() {
+    for (int ordinal = 0; ordinal < values.length; ordinal++) {
+      values[ordinal] = null;
+    }
+    size = 0;
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    return new AbstractSet<>() {
+      @Override
+      public Iterator<Entry<String, Object>> iterator() {
+        return new EntryIterator();
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  private Object removeAt(int ordinal) {
+    final Object previous = values[ordinal];
+    if (previous != null) {
+      values[ordinal] = null;
+      size--;
+    }
+    return unmask(previous);
+  }
+
+  private static Object unmask(Object value) {
+    return value == NULL ? null : value;
+  }
+
+  /** Iterates over the properties which are set, in the order of the schema. */
+  private final class EntryIterator implements Iterator<Entry<String, Object>> {
+    private int next = advance(0);
+    private int last = -1;
+
+    private int advance(int from) {
+      int ordinal = from;
+      while (ordinal < values.length && values[ordinal] == null) {
+        ordinal++;
+      }
+      return ordinal;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next < values.length;
+    }
+
+    @Override
+    public Entry<String, Object> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      last = next;
+      next = advance(next + 1);
+      final int ordinal = last;
+      return new SimpleEntry<>(layout.propertyTypeId(ordinal), unmask(values[ordinal])) {
+        @Override
+        public Object setValue(Object value) {
+          super.setValue(value);
+          return put(getKey(), value);
+        }
+      };
+    }
+
+    @Override
+    public void remove() {
+      if (last < 0) {
+        throw new IllegalStateException();
+      }
+      removeAt(last);
+      last = -1;
+    }
+  }
+
+  /** Writes the properties which are set, using the pre-encoded keys of the layout. */
+  static final class Serializer extends StdSerializer<PropertyMap> {
+
+    Serializer() {
+      super(PropertyMap.class);
+    }
+
+    @Override
+    public boolean isEmpty(SerializerProvider provider, PropertyMap value) {
+      return value.isEmpty();
+    }
+
+    @Override
+    public void serialize(PropertyMap value, JsonGenerator gen, SerializerProvider provider)
+        throws IOException {
+      final boolean writeNulls = provider.isEnabled(SerializationFeature.WRITE_NULL_MAP_VALUES);
+      gen.writeStartObject(value);
+      for (int ordinal = 0; ordinal < value.values.length; ordinal++) {
+        final Object property = value.values[ordinal];
+        if (property == null || (property == NULL && !writeNulls)) {
+          continue;
+        }
+        gen.writeFieldName(value.layout.key(ordinal));
+        if (property == NULL) {
+          gen.writeNull();
+        } else {
+          provider.defaultSerializeValue(property, gen);
+        }
+      }
+      gen.writeEndObject();
+    }
+  }
+}
@@ -0,0 +1,329 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.auth.rest.transport;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.util.MinimalPrettyPrinter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.i2group.connector.spi.rest.transport.I2ConnectData;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The results of a query, written to a file so that they are not held in memory.
+ *
+ * <p>The file holds the results as compact JSON, in the same form as a response, and is written
+ * once, from start to end. The positions at which each entity and link starts and ends are kept,
+ * so that any run of items can be read back from the file without reading the rest.
+ */
+public final class ResultFile {
+  private final Path path;
+  private final long length;
+  private final long entitiesStart;
+  private final Items entities;
+  private final long linksStart;
+  private final Items links;
+
+  private ResultFile(Path path, long length, long entitiesStart, Items entities,
+      long linksStart, Items links) {
+    this.path = path;
+    this.length = length;
+    this.entitiesStart = entitiesStart;
+    this.entities = entities;
+    this.linksStart = linksStart;
+    this.links = links;
+  }
+
+  /**
+   * Measure the length of the JSON of the results of a query, writing them to a new file if they
+   * are longer than a threshold. The JSON is held in memory until it is longer than the threshold,
+   * and only then moved to the file, so the results are only written once either way.
+   *
+   * @param directory The directory in which the file is created.
+   * @param objectMapper The object mapper used to write each entity and link.
+   * @param result The results.
+   * @param threshold The length, in bytes, above which the results are written to a file, or
+   *     {@link Long#MAX_VALUE} to only measure them.
+   * @return The length of the results, and their file if they were written to one.
+   * @throws IOException If the file cannot be written, in which case it is deleted.
+   */
+  public static Measurement measure(
+      Path directory, ObjectMapper objectMapper, I2ConnectData result, long threshold)
+      throws IOException {
+    // Items are written without indentation, so that only the item boundaries are needed to
+    // read any run of them back
+    final ObjectWriter itemWriter = objectMapper.writer()
+        .without(SerializationFeature.INDENT_OUTPUT)
+        .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    final List<?> entities = result.entities != null ? result.entities : Collections.emptyList();
+    final List<?> links = result.links != null ? result.links : Collections.emptyList();
+    final SpillingOutputStream out = new SpillingOutputStream(directory, threshold);
+    try (out;
+        JsonGenerator generator =
+            objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+      final ItemBoundaries boundaries = new ItemBoundaries(out);
+      generator.setPrettyPrinter(boundaries);
+      generator.writeStartObject();
+      generator.writeArrayFieldStart("entities");
+      final long entitiesStart = out.count + generator.getOutputBuffered();
+      final Items entityItems = writeItems(generator, itemWriter, entities, boundaries);
+      generator.writeEndArray();
+      generator.writeStringField("errorMessage", result.errorMessage);
+      generator.writeArrayFieldStart("links");
+      final long linksStart = out.count + generator.getOutputBuffered();
+      final Items linkItems = writeItems(generator, itemWriter, links, boundaries);
+      generator.writeEndArray();
+      generator.writeEndObject();
+      generator.flush();
+      return new Measurement(out.count, out.path == null ? null
+          : new ResultFile(out.path, out.count, entitiesStart, entityItems, linksStart, linkItems));
+    } catch (IOException | RuntimeException e) {
+      if (out.path != null) {
+        Files.deleteIfExists(out.path);
+      }
+      throw e;
+    }
+  }
+
+  private static Items writeItems(JsonGenerator generator, ObjectWriter itemWriter,
+      List<?> items, ItemBoundaries boundaries) throws IOException {
+    final Items written = boundaries.start(generator, items.size());
+    for (int i = 0; i < items.size(); i++) {
+      itemWriter.writeValue(generator, items.get(i));
+      written.ends[i] = boundaries.out.count + generator.getOutputBuffered();
+    }
+    return written;
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  /**
+   * Get the length of the file.
+   *
+   * @return The length, in bytes.
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Get the number of items in the results, counting the entities and then the links.
+   *
+   * @return The number of items.
+   */
+  public int getItemCount() {
+    return entities.ends.length + links.ends.length;
+  }
+
+  /**
+   * Get the parts of the file which make up a response with a run of the items. Read one after
+   * the other, the parts are the JSON of the response.
+   *
+   * @param from The index of the first item, counting the entities and then the links.
+   * @param to The index after the last item.
+   * @return The start and end positions of each part.
+   */
+  public List<long[]> getRanges(int from, int to) {
+    final int entityCount = entities.ends.length;
+    final List<long[]> ranges = new ArrayList<>();
+    ranges.add(new long[] {0, entitiesStart});
+    entities.addRange(ranges, Math.min(from, entityCount), Math.min(to, entityCount));
+    ranges.add(new long[] {entities.end(entitiesStart), linksStart});
+    links.addRange(ranges, Math.max(from - entityCount, 0), Math.max(to - entityCount, 0));
+    ranges.add(new long[] {links.end(linksStart), length});
+    return ranges;
+  }
+
+  /**
+   * Delete the file.
+   *
+   * @throws IOException If the file exists but cannot be deleted.
+   */
+  public void delete() throws IOException {
+    Files.deleteIfExists(path);
+  }
+
+  /** The length of the JSON of the results of a query, and the file they were written to. */
+  public static final class Measurement {
+    private final long length;
+    private final ResultFile file;
+
+    private Measurement(long length, ResultFile file) {
+      this.length = length;
+      this.file = file;
+    }
+
+    /**
+     * Get the length of the JSON of the results.
+     *
+     * @return The length, in bytes.
+     */
+    public long getLength() {
+      return length;
+    }
+
+    /**
+     * Get the file the results were written to.
+     *
+     * @return The file, or null if the results were no longer than the threshold.
+     */
+    public ResultFile getFile() {
+      return file;
+    }
+  }
+
+  /** The positions at which each item of an array starts and ends. */
+  private static final class Items {
+    private final long[] starts;
+    private final long[] ends;
+
+    private Items(int count) {
+      starts = new long[count];
+      ends = new long[count];
+    }
+
+    private void addRange(List<long[]> ranges, int from, int to) {
+      if (from < to) {
+        ranges.add(new long[] {starts[from], ends[to - 1]});
+      }
+    }
+
+    private long end(long arrayStart) {
+      return ends.length > 0 ? ends[ends.length - 1] : arrayStart;
+    }
+  }
+
+  /**
+   * Records the position at which each item of an array starts. The generator calls its pretty
+   * printer just before it writes each value of an array, after the separator, if any. Otherwise,
+   * this writes the same compact JSON as a generator without a pretty printer.
+   */
+  private static final class ItemBoundaries extends MinimalPrettyPrinter {
+    private final SpillingOutputStream out;
+    private JsonStreamContext array;
+    private Items items;
+    private int index;
+
+    private ItemBoundaries(SpillingOutputStream out) {
+      this.out = out;
+    }
+
+    private Items start(JsonGenerator generator, int count) {
+      array = generator.getOutputContext();
+      items = new Items(count);
+      index = 0;
+      return items;
+    }
+
+    @Override
+    public void beforeArrayValues(JsonGenerator generator) throws IOException {
+      super.beforeArrayValues(generator);
+      record(generator);
+    }
+
+    @Override
+    public void writeArrayValueSeparator(JsonGenerator generator) throws IOException {
+      super.writeArrayValueSeparator(generator);
+      record(generator);
+    }
+
+    private void record(JsonGenerator generator) {
+      // Arrays nested within the items are written with their own context
+      if (generator.getOutputContext() == array) {
+        items.starts[index++] = out.count + generator.getOutputBuffered();
+      }
+    }
+  }
+
+  /**
+   * Counts the bytes written through it, holding them in memory until there are more than the
+   * threshold, and then moving them to a new file which receives the rest.
+   */
+  private static final class SpillingOutputStream extends OutputStream {
+    private final Path directory;
+    private final long threshold;
+    private ByteArrayOutputStream memory;
+    private OutputStream file;
+    private Path path;
+    private long count;
+
+    private SpillingOutputStream(Path directory, long threshold) {
+      this.directory = directory;
+      this.threshold = threshold;
+      if (threshold < Long.MAX_VALUE) {
+        memory = new ByteArrayOutputStream();
+      }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      count += len;
+      if (file == null && count > threshold) {
+        path = Files.createTempFile(directory, "async-results-", ".json");
+        file = Files.newOutputStream(path);
+        memory.writeTo(file);
+        memory = null;
+      }
+      if (file != null) {
+        file.write(b, off, len);
+      } else if (memory != null) {
+        memory.write(b, off, len);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (file != null) {
+        file.flush();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      memory = null;
+      if (file != null) {
+        file.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.auth.rest.transport;
+
+import com.i2group.connector.spi.rest.transport.I2ConnectEntityData;
+import com.i2group.connector.spi.rest.transport.I2ConnectLinkData;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Assembles the entities and links of a response from source records, in time linear in the
+ * number of records. Entities which several records refer to are created once, using an
+ * {@link EntityIndex} for each kind of entity, and repeated links are left out using a
+ * {@link LinkIndex} for each kind of link. Every item is passed on to a sink as soon as it is
+ * created.
+ */
+public final class ResultGraphAssembler implements I2ConnectDataSink {
+  private final I2ConnectDataSink sink;
+
+  /**
+   * Constructor.
+   *
+   * @param sink The sink which receives the entities and links.
+   */
+  public ResultGraphAssembler(I2ConnectDataSink sink) {
+    this.sink = sink;
+  }
+
+  /**
+   * Create an index of one kind of entity, which creates each entity the first time it is asked
+   * for.
+   *
+   * @param factory Creates an entity from a source record.
+   * @param <T> The type of the source records.
+   * @return The index.
+   */
+  public <T> EntityIndex<T> entities(Function<? super T, I2ConnectEntityData> factory) {
+    return new EntityIndex<>(factory);
+  }
+
+  /**
+   * Create an index of one kind of link, which records the links which have been added.
+   *
+   * @return The index.
+   */
+  public LinkIndex links() {
+    return new LinkIndex();
+  }
+
+  /**
+   * Add an entity which no other record refers to.
+   *
+   * @param entity The entity.
+   */
+  @Override
+  public void addEntity(I2ConnectEntityData entity) {
+    sink.addEntity(entity);
+  }
+
+  /**
+   * Add a link.
+   *
+   * @param link The link.
+   */
+  @Override
+  public void addLink(I2ConnectLinkData link) {
+    sink.addLink(link);
+  }
+
+  /**
+   * The entities of one kind, by the key of the source record they were created from.
+   *
+   * @param <T> The type of the source records.
+   */
+  public final class EntityIndex<T> {
+    private final Map<Object, I2ConnectEntityData> entities = new HashMap<>();
+    private final Function<? super T, I2ConnectEntityData> factory;
+
+    private EntityIndex(Function<? super T, I2ConnectEntityData> factory) {
+      this.factory = factory;
+    }
+
+    /**
+     * Get the entity with a key. The first time a key is asked for, the entity is created from
+     * the record and added to the response.
+     *
+     * @param key The key which identifies the entity among entities of its kind.
+     * @param record The source record the entity is created from.
+     * @return The entity.
+     */
+    public I2ConnectEntityData get(Object key, T record) {
+      I2ConnectEntityData entity = entities.get(key);
+      if (entity == null) {
+        entity = factory.apply(record);
+        entities.put(key, entity);
+        sink.addEntity(entity);
+      }
+      return entity;
+    }
+
+  }
+
+  /** The keys of the links of one kind which have been added to the response. */
+  public static final class LinkIndex {
+    private final Set<Object> keys = new HashSet<>();
+
+    private LinkIndex() {
+    }
+
+    /**
+     * Record the key of a link.
+     *
+     * @param key The key which identifies the link among links of its kind.
+     * @return Whether the key is new, in which case the link should be added.
+     */
+    public boolean add(Object key) {
+      return keys.add(key);
+    }
+
+    /**
+     * Record the key of a link which has no direction, so that the link between the same ends in
+     * the opposite order has the same key.
+     *
+     * @param endId One end of the link.
+     * @param otherEndId The other end of the link.
+     * @return Whether the key is new, in which case the link should be added.
+     */
+    public boolean addUndirected(String endId, String otherEndId) {
+      return keys.add(endId.compareTo(otherEndId) <= 0
+          ? List.of(endId, otherEndId)
+          : List.of(otherEndId, endId));
+    }
+  }
+}
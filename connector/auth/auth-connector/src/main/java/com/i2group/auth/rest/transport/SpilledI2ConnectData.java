@@ -0,0 +1,75 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.auth.rest.transport;
+
+import com.i2group.connector.spi.rest.transport.I2ConnectData;
+
+import java.util.List;
+
+/**
+ * A response whose entities and links are not held in memory, but are read from a {@link
+ * ResultFile} while the response is being written by {@link SpilledI2ConnectDataConverter}.
+ */
+public class SpilledI2ConnectData extends I2ConnectData {
+  private final ResultFile file;
+  private final int from;
+  private final int to;
+
+  /**
+   * Initialise the response.
+   *
+   * @param file The file which holds the results.
+   * @param from The index of the first item of the response, counting the entities and then the
+   *     links.
+   * @param to The index after the last item of the response.
+   */
+  public SpilledI2ConnectData(ResultFile file, int from, int to) {
+    this.file = file;
+    this.from = from;
+    this.to = to;
+  }
+
+  public ResultFile getFile() {
+    return file;
+  }
+
+  /**
+   * Find whether the response holds all of the results, and so is the whole of the file.
+   *
+   * @return Whether the response holds every item.
+   */
+  public boolean isWhole() {
+    return from == 0 && to == file.getItemCount();
+  }
+
+  /**
+   * Get the parts of the file which make up the response.
+   *
+   * @return The start and end positions of each part.
+   */
+  public List<long[]> getRanges() {
+    return file.getRanges(from, to);
+  }
+}
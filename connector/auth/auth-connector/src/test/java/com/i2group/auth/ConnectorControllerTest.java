@@ -0,0 +1,186 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.auth;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import static org.springframework.http.HttpHeaders.AUTHORIZATION;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.i2group.auth.rest.transport.AsyncQueryExecutor;
+import com.i2group.auth.rest.transport.AsyncQueryRegistry;
+import com.i2group.auth.rest.transport.auth.TokenManager;
+import com.i2group.connector.spi.rest.transport.AsyncQueryResponse;
+import com.i2group.connector.spi.rest.transport.AsyncQueryStatus;
+import com.i2group.connector.spi.rest.transport.AsyncQueryStatus.StateEnum;
+import com.i2group.connector.spi.rest.transport.DaodRequest;
+import com.i2group.connector.spi.rest.transport.DaodRequestCondition;
+import com.i2group.connector.spi.rest.transport.DaodRequestPayload;
+import com.i2group.connector.spi.rest.transport.FormLogicalType;
+import com.i2group.connector.spi.rest.transport.I2ConnectData;
+import com.i2group.connector.spi.rest.transport.I2ConnectEntityData;
+import com.i2group.connector.spi.rest.transport.ProblemDetails;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ConnectorControllerTest {
+  private final String auth = "Bearer " + TokenManager.generateToken();
+  private final AsyncQueryRegistry queries = new AsyncQueryRegistry(600, 1_000_000, 1_000_000, "",
+      1_000_000, Jackson2ObjectMapperBuilder.json().build());
+  private final ConnectorController controller = new ConnectorController(
+      new ExternalConnectorDataService(new ClassPathResource("people.json"), queries,
+          new AsyncQueryExecutor(1, 1, 1, 5), 30, 30),
+      new ClassPathResource("config.json"), new ClassPathResource("auth-schema.xml"),
+      new ClassPathResource("auth-charting-schemes.xml"), false);
+  private final MockMvc mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+
+  @After
+  public void tearDown() {
+    queries.destroy();
+  }
+
+  @Test
+  public void queriesNeedAValidToken() {
+    final ResponseEntity<?> response =
+        controller.asyncAcquire("Bearer unknown", "alice", query("duration", 30));
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+    assertThat(response.getBody()).hasFieldOrPropertyWithValue("status", 401);
+  }
+
+  @Test
+  public void queriesBeyondThePrincipalsLimitAreTooManyRequests() {
+    final ResponseEntity<?> running =
+        controller.asyncAcquire(auth, "alice", query("duration", 30));
+    try {
+      final ResponseEntity<?> rejected =
+          controller.asyncAcquire(auth, "alice", query("duration", 30));
+
+      assertThat(running.getStatusCode()).isEqualTo(HttpStatus.OK);
+      assertThat(rejected.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+      assertThat(rejected.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("5");
+      assertThat(((ProblemDetails) rejected.getBody()).getStatus()).isEqualTo(429);
+    } finally {
+      controller.asyncDelete(((AsyncQueryResponse) running.getBody()).queryId);
+    }
+  }
+
+  @Test
+  public void queriesWhichShouldFailAreFailedWithoutRunning() {
+    final ResponseEntity<?> response =
+        controller.asyncAcquire(auth, "alice", query("shouldFail", true));
+    final String queryId = ((AsyncQueryResponse) response.getBody()).queryId;
+
+    final ResponseEntity<?> status = controller.asyncStatus(auth, queryId);
+
+    assertThat(((AsyncQueryStatus) status.getBody()).state).isEqualTo(StateEnum.FAILED);
+  }
+
+  @Test
+  public void waitingForAStatusWithoutAValidTokenRespondsAtOnce() throws Exception {
+    final AsyncQueryRegistry.Query query = queries.start();
+
+    final MvcResult result = mockMvc.perform(get("/async/" + query.getId()).param("wait", "30"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+    mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isUnauthorized());
+  }
+
+  @Test
+  public void eventsNeedAValidToken() throws Exception {
+    final AsyncQueryRegistry.Query query = queries.start();
+
+    mockMvc.perform(get("/async/" + query.getId() + "/events")
+        .header(AUTHORIZATION, "Bearer unknown"))
+        .andExpect(status().isUnauthorized());
+  }
+
+  @Test
+  public void resultsArePagedWithALinkToTheNextPage() throws Exception {
+    final AsyncQueryRegistry.Query query = queries.start();
+    queries.succeed(query, result(3));
+
+    mockMvc.perform(get("/async/{id}/results?limit=2", query.getId())
+        .header(AUTHORIZATION, auth))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.LINK, "<http://localhost/async/" + query.getId()
+            + "/results?limit=2&offset=2>; rel=\"next\""))
+        .andExpect(jsonPath("$.entities.length()").value(2));
+    mockMvc.perform(get("/async/{id}/results?limit=2&offset=2", query.getId())
+        .header(AUTHORIZATION, auth))
+        .andExpect(status().isOk())
+        .andExpect(header().doesNotExist(HttpHeaders.LINK))
+        .andExpect(jsonPath("$.entities[0].id").value("PER2"));
+  }
+
+  @Test
+  public void resultsPagesNeedAPositiveLimit() throws Exception {
+    final AsyncQueryRegistry.Query query = queries.start();
+    queries.succeed(query, result(3));
+
+    mockMvc.perform(get("/async/" + query.getId() + "/results").param("limit", "0")
+        .header(AUTHORIZATION, auth))
+        .andExpect(status().isBadRequest());
+  }
+
+  private static DaodRequest query(String id, Object value) {
+    final DaodRequestPayload payload = new DaodRequestPayload();
+    final FormLogicalType logicalType =
+        value instanceof Boolean ? FormLogicalType.BOOLEAN : FormLogicalType.INTEGER;
+    payload.conditions = List.of(new DaodRequestCondition(id, logicalType, value));
+    return new DaodRequest(payload);
+  }
+
+  private static I2ConnectData result(int entityCount) {
+    final I2ConnectData result = new I2ConnectData();
+    result.entities = new ArrayList<>();
+    result.links = new ArrayList<>();
+    for (int i = 0; i < entityCount; i++) {
+      final I2ConnectEntityData entity = new I2ConnectEntityData();
+      entity.id = "PER" + i;
+      entity.typeId = "Person";
+      result.entities.add(entity);
+    }
+    return result;
+  }
+}
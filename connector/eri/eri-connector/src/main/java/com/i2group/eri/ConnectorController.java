@@ -26,70 +26,117 @@ package com.i2group.eri;
 
 import com.i2group.connector.spi.rest.transport.DaodRequest;
 import com.i2group.connector.spi.rest.transport.I2ConnectData;
+import com.i2group.eri.rest.externalsource.SocrataMirrorSync;
+import com.i2group.eri.rest.externalsource.SocrataQueryCache;
+import com.i2group.eri.rest.transport.response.StaticDocument;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 
+import static com.i2group.eri.rest.transport.response.BinaryFormats.CBOR_VALUE;
+import static com.i2group.eri.rest.transport.response.BinaryFormats.SMILE_VALUE;
 import static org.springframework.util.MimeTypeUtils.APPLICATION_JSON_VALUE;
 
 @RestController
 public class ConnectorController {
     private final ExternalConnectorDataService connectorDataService;
 
-    @Value("classpath:config.json")
-    private Resource configResource;
+    private final StaticDocument config;
 
-    @Value("classpath:emergency-response-incidents-schema.xml")
-    private Resource schemaResource;
+    private final StaticDocument schema;
 
-    @Value("classpath:emergency-response-incidents-schema-charting-schemes.xml")
-    private Resource chartingSchemesResource;
+    private final StaticDocument chartingSchemes;
 
     /**
      * Creates an instance of the ExternalConnectorDataService used to
      * complete acquire requests.
      *
      * @param connectorDataService The service which performs operations on external data..
+     * @param configResource The connector configuration.
+     * @param schemaResource The connector schema.
+     * @param chartingSchemesResource The connector charting schemes.
+     * @param compress Whether compressed copies of the configuration and schemas are held.
      */
-    public ConnectorController(ExternalConnectorDataService connectorDataService) {
+    public ConnectorController(
+        ExternalConnectorDataService connectorDataService,
+        @Value("classpath:config.json") Resource configResource,
+        @Value("classpath:emergency-response-incidents-schema.xml") Resource schemaResource,
+        @Value("classpath:emergency-response-incidents-schema-charting-schemes.xml")
+            Resource chartingSchemesResource,
+        @Value("${connector.compression.enabled:true}") boolean compress) {
         this.connectorDataService = connectorDataService;
+        this.config = StaticDocument.load(configResource, MediaType.APPLICATION_JSON, compress);
+        // The schemas have always been served as JSON by this connector.
+        this.schema = StaticDocument.load(schemaResource, MediaType.APPLICATION_JSON, compress);
+        this.chartingSchemes =
+            StaticDocument.load(chartingSchemesResource, MediaType.APPLICATION_JSON, compress);
     }
 
     /**
      * Defines the /config endpoint which retrieves the connector's configuration.
      *
+     * @param request The request for the configuration.
      * @return The connector configuration.
      */
     @RequestMapping(method = RequestMethod.GET, value = "/config", produces =
         APPLICATION_JSON_VALUE)
-    public Resource config() {
-        return configResource;
+    public ResponseEntity<byte[]> config(HttpServletRequest request) {
+        return config.serve(request);
     }
 
     /**
      * Defines the /schema endpoint which retrieves the connector schema.
      *
+     * @param request The request for the schema.
      * @return The connector schema.
      */
     @RequestMapping(method = RequestMethod.GET, value = "/schema", produces =
         APPLICATION_JSON_VALUE)
-    public Resource schema() {
-        return schemaResource;
+    public ResponseEntity<byte[]> schema(HttpServletRequest request) {
+        return schema.serve(request);
     }
     /**
      * Defines the /charting-schemes endpoint which retrieves the connector's charting schemes.
      *
+     * @param request The request for the charting schemes.
      * @return The connector's charting schemes resource.
      */
     @RequestMapping(method = RequestMethod.GET, value = "/charting-schemes", produces =
         APPLICATION_JSON_VALUE)
-    public Resource chartingSchemes() {
-        return chartingSchemesResource;
+    public ResponseEntity<byte[]> chartingSchemes(HttpServletRequest request) {
+        return chartingSchemes.serve(request);
+    }
+
+    /**
+     * Defines the /cache-statistics endpoint which reports the hits, misses and evictions of the
+     * Socrata query cache.
+     *
+     * @return The current cache statistics.
+     */
+    @RequestMapping(method = RequestMethod.GET, value = "/cache-statistics", produces =
+        APPLICATION_JSON_VALUE)
+    public SocrataQueryCache.Statistics cacheStatistics() {
+        return connectorDataService.getCacheStatistics();
+    }
+
+    /**
+     * Defines the /mirror-statistics endpoint which reports the size of the dataset mirror, and the
+     * lag and row counts of its sync.
+     *
+     * @return The current mirror statistics, or nothing if there is no mirror.
+     */
+    @RequestMapping(method = RequestMethod.GET, value = "/mirror-statistics", produces =
+        APPLICATION_JSON_VALUE)
+    public SocrataMirrorSync.Statistics mirrorStatistics() {
+        return connectorDataService.getMirrorStatistics();
     }
 
     /**
@@ -97,8 +144,9 @@ public class ConnectorController {
      *
      * @return The response containing all entities and links.
      */
-    @RequestMapping(method = RequestMethod.POST, value = "/all", consumes =
-        APPLICATION_JSON_VALUE, produces = APPLICATION_JSON_VALUE)
+    @RequestMapping(method = RequestMethod.POST, value = "/all",
+        consumes = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE},
+        produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
     public I2ConnectData all() {
         return connectorDataService.all();
     }
@@ -109,8 +157,9 @@ public class ConnectorController {
      * @param request The request containing the payload.
      * @return The resulting entities and links after a conditional search.
      */
-    @RequestMapping(method = RequestMethod.POST, value = "/search", consumes =
-        APPLICATION_JSON_VALUE, produces = APPLICATION_JSON_VALUE)
+    @RequestMapping(method = RequestMethod.POST, value = "/search",
+        consumes = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE},
+        produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
     public I2ConnectData searchService(@Valid @RequestBody DaodRequest request) {
         return connectorDataService.search(request.payload.conditions);
     }
@@ -122,8 +171,9 @@ public class ConnectorController {
      * @param request The request containing the payload.
      * @return The entities found which are similar to the selected incident.
      */
-    @RequestMapping(method = RequestMethod.POST, value = "/find-like-this-incident", consumes =
-        APPLICATION_JSON_VALUE, produces = APPLICATION_JSON_VALUE)
+    @RequestMapping(method = RequestMethod.POST, value = "/find-like-this-incident",
+        consumes = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE},
+        produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
     public I2ConnectData findLikeThis(@Valid @RequestBody DaodRequest request) {
         return connectorDataService.findLikeThisIncident(request.payload.seeds);
     }
@@ -134,8 +184,9 @@ public class ConnectorController {
      * @param request The request containing the payload.
      * @return The resulting entities and links connected to the selected entities.
      */
-    @RequestMapping(method = RequestMethod.POST, value = "/expand", consumes =
-        APPLICATION_JSON_VALUE, produces = APPLICATION_JSON_VALUE)
+    @RequestMapping(method = RequestMethod.POST, value = "/expand",
+        consumes = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE},
+        produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
     public I2ConnectData expand(@Valid @RequestBody DaodRequest request) {
         return connectorDataService.expand(request.payload.seeds);
     }
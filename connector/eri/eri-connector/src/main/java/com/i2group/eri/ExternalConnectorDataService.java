@@ -29,27 +29,75 @@ import com.i2group.connector.spi.rest.transport.DaodSeedEntityData;
 import com.i2group.connector.spi.rest.transport.DaodSeeds;
 import com.i2group.connector.spi.rest.transport.I2ConnectData;
 import com.i2group.connector.spi.rest.transport.I2ConnectEntityData;
-import com.i2group.connector.spi.rest.transport.I2ConnectLinkData;
+import com.i2group.eri.rest.externalsource.SocrataBatchedCondition;
 import com.i2group.eri.rest.externalsource.SocrataClient;
-import com.i2group.eri.rest.externalsource.transport.SocrataResponse;
+import com.i2group.eri.rest.externalsource.SocrataLookupBatcher;
+import com.i2group.eri.rest.externalsource.SocrataMirror;
+import com.i2group.eri.rest.externalsource.SocrataMirrorSync;
+import com.i2group.eri.rest.externalsource.SocrataPager;
+import com.i2group.eri.rest.externalsource.SocrataProjection;
+import com.i2group.eri.rest.externalsource.SocrataQueryCache;
+import com.i2group.eri.rest.externalsource.SocrataRequestCoalescer;
+import com.i2group.eri.rest.externalsource.SocrataResultGovernor;
+import com.i2group.eri.rest.externalsource.transport.SocrataResponseData;
+import com.i2group.eri.rest.transport.response.I2ConnectDataSink;
 import com.i2group.eri.rest.transport.response.ItemFactory;
+import com.i2group.eri.rest.transport.response.ResultGraphAssembler;
+import com.i2group.eri.rest.transport.response.StreamingI2ConnectData;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class ExternalConnectorDataService {
-    private final SocrataClient socrataClient;
-    private static final String LIMIT_FIELD = "limitValue";
-    private static final int LIMIT_VALUE = 50;
+    private final SocrataPager socrataPager;
+    private final SocrataQueryCache queryCache;
+    private final SocrataRequestCoalescer requestCoalescer = new SocrataRequestCoalescer();
+    private final int maxConditionLength;
+    private final SocrataLookupBatcher lookupBatcher;
+    private final SocrataMirror mirror;
+    private final SocrataMirrorSync mirrorSync;
+    private final SocrataResultGovernor governor;
+    private final boolean streamResponses;
     private static final String BASE_QUERY = "?$limit={limitValue}";
+    // The row identifier breaks ties between incidents created at the same time when they are
+    // ranked
+    private static final String INCIDENT_SELECT = SocrataProjection.select(
+        SocrataResponseData.class, List.of("rowId"), ItemFactory.INCIDENT_FIELDS);
+    // The row identifier is selected so that rows matched by more than one batch of an expand
+    // are only used once
+    private static final String RECORD_SELECT = SocrataProjection.select(SocrataResponseData.class,
+        List.of("rowId"), ItemFactory.INCIDENT_FIELDS, ItemFactory.LOCATION_FIELDS);
+    // The mirror also holds the update time of each row, from which it is kept up to date
+    private static final String MIRROR_SELECT = SocrataProjection.select(SocrataResponseData.class,
+        List.of("rowId", "updatedAt"), ItemFactory.INCIDENT_FIELDS, ItemFactory.LOCATION_FIELDS);
+    // Incidents are ranked by the time they were created, latest first, in the order Socrata
+    // gives them for the governor's $order
+    private static final String RANK_COLUMN = "creation_date";
+    private static final Comparator<SocrataResponseData> RANKING = Comparator
+        .comparing((SocrataResponseData row) -> row.creationDateTime,
+            Comparator.nullsLast(Comparator.reverseOrder()))
+        .thenComparing(row -> row.rowId, Comparator.nullsLast(Comparator.naturalOrder()));
 
     private static final String WHERE = "&$where=";
     private static final String LIKE = " like ";
@@ -60,17 +108,121 @@ public class ExternalConnectorDataService {
     private static final String FIELD_BOROUGH = "borough";
     private static final String FIELD_ADDRESS = "location";
 
+    private static final SocrataLookupBatcher.Lookup INCIDENT_LOOKUP =
+        new SocrataLookupBatcher.Lookup(FIELD_INCIDENT_TYPE, "'{0}'", row -> row.incidentType);
+
     /**
      * Constructor used to initialise the Socrata client used to retrieve
      * external data.
      *
-     * @param baseUrl  The URL of the Emergency Response Incident dataset.
-     * @param apiToken The API token required to access the dataset.
+     * @param baseUrl        The URL of the Emergency Response Incident dataset.
+     * @param apiToken       The API token required to access the dataset.
+     * @param connectTimeout The connect timeout, in milliseconds, for requests to the dataset.
+     * @param readTimeout    The read timeout, in milliseconds, for requests to the dataset.
+     * @param maxConnections   The maximum number of concurrent requests to the dataset.
+     * @param pageSize         The number of rows requested from the dataset in each page.
+     * @param maxParallelPages The maximum number of pages requested from the dataset at once.
+     * @param rowBudget        The maximum number of rows retrieved from the dataset for one
+     *                         request.
+     * @param cacheMaxRows     The maximum total number of rows held in the query cache.
+     * @param cacheDefaultTtl  The time-to-live, in seconds, of cached query results.
+     * @param cacheTtls        The time-to-live, in seconds, of cached query results for each
+     *                         service.
+     * @param maxConditionLength The maximum length of the batched condition in each request.
+     * @param lookupWindow     The time, in milliseconds, for which expand lookups are held so
+     *                         that they can be combined with others. Zero disables the combining
+     *                         of lookups.
+     * @param mirrorEnabled    Whether queries are answered from an in-memory mirror of the
+     *                         dataset.
+     * @param mirrorSnapshot   The snapshot file the mirror is loaded from. If the file does not
+     *                         exist, the mirror is loaded from the dataset and saved to it. Empty
+     *                         to always load from the dataset.
+     * @param mirrorMaxRows    The maximum number of rows loaded from the dataset into the mirror,
+     *                         and of changed rows applied to it at once.
+     * @param mirrorSyncInterval The time, in seconds, between retrievals of the rows which have
+     *                         changed since the mirror was loaded. Zero disables the retrieval of
+     *                         changes.
+     * @param defaultTopK      The maximum number of rows which results are built from, for
+     *                         services without their own setting. Queries matching more rows are
+     *                         built from the most recently created incidents.
+     * @param topKs            The maximum number of rows which results are built from, for each
+     *                         service.
+     * @param streamResponses  Whether entities are written to the response as they are created,
+     *                         rather than once every entity and link has been created.
      */
     @Autowired
     public ExternalConnectorDataService(
-        @Value("${socrata.url}") String baseUrl, @Value("${socrata.api.token}") String apiToken) {
-        socrataClient = new SocrataClient(baseUrl, apiToken);
+        @Value("${socrata.url}") String baseUrl, @Value("${socrata.api.token}") String apiToken,
+        @Value("${socrata.client.connect-timeout-ms:5000}") long connectTimeout,
+        @Value("${socrata.client.read-timeout-ms:30000}") long readTimeout,
+        @Value("${socrata.client.max-connections:8}") int maxConnections,
+        @Value("${socrata.paging.page-size:1000}") int pageSize,
+        @Value("${socrata.paging.max-parallel-pages:4}") int maxParallelPages,
+        @Value("${socrata.paging.row-budget:5000}") int rowBudget,
+        @Value("${socrata.cache.max-rows:50000}") long cacheMaxRows,
+        @Value("${socrata.cache.default-ttl-seconds:300}") long cacheDefaultTtl,
+        @Value("#{${socrata.cache.ttl-seconds:{:}}}") Map<String, Long> cacheTtls,
+        @Value("${socrata.batch.max-condition-length:2000}") int maxConditionLength,
+        @Value("${socrata.batch.lookup-window-ms:0}") long lookupWindow,
+        @Value("${socrata.mirror.enabled:false}") boolean mirrorEnabled,
+        @Value("${socrata.mirror.snapshot:}") String mirrorSnapshot,
+        @Value("${socrata.mirror.max-rows:1000000}") int mirrorMaxRows,
+        @Value("${socrata.mirror.sync-interval-seconds:0}") long mirrorSyncInterval,
+        @Value("${socrata.governor.default-top-k:5000}") int defaultTopK,
+        @Value("#{${socrata.governor.top-k:{:}}}") Map<String, Integer> topKs,
+        @Value("${connector.response.streaming:false}") boolean streamResponses) {
+        final SocrataClient socrataClient = new SocrataClient(baseUrl, apiToken,
+            Duration.ofMillis(connectTimeout), Duration.ofMillis(readTimeout), maxConnections);
+        socrataPager = new SocrataPager(socrataClient, pageSize, maxParallelPages, rowBudget);
+
+        final Map<String, Duration> serviceTtls = new HashMap<>();
+        cacheTtls.forEach((service, ttl) -> serviceTtls.put(service, Duration.ofSeconds(ttl)));
+        queryCache =
+            new SocrataQueryCache(cacheMaxRows, Duration.ofSeconds(cacheDefaultTtl), serviceTtls);
+        this.maxConditionLength = maxConditionLength;
+        this.lookupBatcher = new SocrataLookupBatcher(Duration.ofMillis(lookupWindow),
+            maxConditionLength, rowBudget, (url, params) -> query("expand", url, params));
+        this.governor = new SocrataResultGovernor(
+            socrataClient, RANK_COLUMN, RANKING, defaultTopK, topKs, rowBudget);
+        this.streamResponses = streamResponses;
+
+        if (mirrorEnabled) {
+            final SocrataPager mirrorPager =
+                new SocrataPager(socrataClient, pageSize, maxParallelPages, mirrorMaxRows);
+            try {
+                final Path snapshot = mirrorSnapshot.isEmpty() ? null : Path.of(mirrorSnapshot);
+                mirror = SocrataMirror.load(snapshot,
+                    () -> mirrorPager.stream(BASE_QUERY + MIRROR_SELECT, Collections.emptyMap()));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to load the dataset mirror", e);
+            }
+            mirrorSync = new SocrataMirrorSync(
+                    mirror, mirrorPager, BASE_QUERY + MIRROR_SELECT, mirrorMaxRows);
+            if (mirrorSyncInterval > 0) {
+                mirrorSync.start(Duration.ofSeconds(mirrorSyncInterval));
+            }
+        } else {
+            mirror = null;
+            mirrorSync = null;
+        }
+    }
+
+    /**
+     * Get the hit, miss and eviction statistics of the query cache.
+     *
+     * @return The current cache statistics.
+     */
+    public SocrataQueryCache.Statistics getCacheStatistics() {
+        return queryCache.getStatistics();
+    }
+
+    /**
+     * Get the size of the dataset mirror and the progress of its sync.
+     *
+     * @return The current mirror statistics, or null if there is no mirror.
+     */
+    public SocrataMirrorSync.Statistics getMirrorStatistics() {
+        return mirrorSync != null ? mirrorSync.getStatistics() : null;
     }
 
     /**
@@ -79,12 +231,11 @@ public class ExternalConnectorDataService {
      * @return A response containing the entities and links.
      */
     public I2ConnectData all() {
-        final Map<String, Object> params = new HashMap<>();
-        params.put(LIMIT_FIELD, LIMIT_VALUE);
-
-        final SocrataResponse response = socrataClient.get(BASE_QUERY, SocrataResponse.class,
-            params);
-        return marshalItemsFromResponse(response);
+        final SocrataResultGovernor.Source source = mirror != null
+            ? mirrorSource(mirror.match())
+            : querySource("all", RECORD_SELECT, "", Collections.emptyMap());
+        return respond("all", source,
+            (rows, sink) -> marshalItemsFromResponse(rows, new ResultGraphAssembler(sink)));
     }
 
     /**
@@ -95,166 +246,348 @@ public class ExternalConnectorDataService {
      */
     public I2ConnectData search(List<DaodRequestCondition> conditions) {
         final Map<String, Object> params = new HashMap<>();
-        params.put(LIMIT_FIELD, LIMIT_VALUE);
-        String url = BASE_QUERY;
+        final List<SocrataMirror.Condition> mirrorConditions = new ArrayList<>();
+        String where = "";
 
         int count = 0;
         for (DaodRequestCondition condition : conditions) {
             if (condition.value != null) {
-                url += count == 0 ? WHERE : AND;
+                where += count == 0 ? WHERE : AND;
                 params.put(condition.id, condition.value);
-                url += condition.id + LIKE + "'{" + condition.id + "}%'";
+                where += condition.id + LIKE + "'{" + condition.id + "}%'";
+                mirrorConditions.add(
+                    SocrataMirror.Condition.like(condition.id, condition.value + "%"));
                 count++;
             }
         }
 
-        final SocrataResponse response = socrataClient.get(url, SocrataResponse.class, params);
-        final AtomicInteger index = new AtomicInteger();
-
-        final I2ConnectData connectorResponse = new I2ConnectData();
-        connectorResponse.entities = response.stream()
-            .map(entry -> ItemFactory.createIncident(entry,
-                entry.getIncidentKey(index.getAndIncrement())))
-            .collect(Collectors.toList());
-        return connectorResponse;
+        final SocrataResultGovernor.Source source = mirror != null
+            ? mirrorSource(mirror.matchAny(List.of(mirrorConditions)))
+            : querySource("search", INCIDENT_SELECT, where, params);
+        return respond("search", source, (rows, sink) -> {
+            final AtomicInteger index = new AtomicInteger();
+            rows.map(entry -> ItemFactory.createIncident(entry,
+                    entry.getIncidentKey(index.getAndIncrement())))
+                .forEach(sink::addEntity);
+        });
     }
 
     /**
      * Performs a Find-Like-This operation, finding incidents with similar
-     * properties to a selected incident.
+     * properties to the selected incidents.
      *
      * @param seeds The selected entities provided by the user via the
      *              interface.
      * @return A response containing the entities and links.
      */
     public I2ConnectData findLikeThisIncident(DaodSeeds seeds) {
-        DaodSeedEntityData seed = seeds.entities.get(0);
+        final SocrataBatchedCondition incidentTypes =
+            SocrataBatchedCondition.anyOf(FIELD_INCIDENT_TYPE + LIKE + "'{0}%'", maxConditionLength);
+        final List<List<SocrataMirror.Condition>> mirrorConditions = new ArrayList<>();
+        for (DaodSeedEntityData seed : seeds.entities) {
+            incidentTypes.add(seed.properties.get("PT1"));
+            mirrorConditions.add(List.of(SocrataMirror.Condition.like(FIELD_INCIDENT_TYPE,
+                seed.properties.get("PT1") + "%")));
+        }
 
-        final Map<String, Object> params = new HashMap<>();
-        params.put(LIMIT_FIELD, LIMIT_VALUE);
-        params.put("incidentType", seed.properties.get("PT1"));
-        String url = BASE_QUERY + WHERE + FIELD_INCIDENT_TYPE + LIKE + "'{incidentType}%'";
-
-        final SocrataResponse response = socrataClient.get(url, SocrataResponse.class, params);
-        final AtomicInteger index = new AtomicInteger();
-
-        final I2ConnectData connectorResponse = new I2ConnectData();
-        connectorResponse.entities = response.stream()
-            .map(entry -> ItemFactory.createIncident(entry,
-                entry.getIncidentKey(index.getAndIncrement())))
-            .collect(Collectors.toList());
-        return connectorResponse;
+        final SocrataResultGovernor.Source source = mirror != null
+            ? mirrorSource(mirror.matchAny(mirrorConditions))
+            : batchSource("find-like-this", INCIDENT_SELECT, incidentTypes.getBatches());
+        return respond("find-like-this", source, (rows, sink) -> {
+            final AtomicInteger index = new AtomicInteger();
+            rows.map(entry -> ItemFactory.createIncident(entry,
+                    entry.getIncidentKey(index.getAndIncrement())))
+                .forEach(sink::addEntity);
+        });
     }
 
     /**
      * Performs an Expand operation on selected entities, finding entities which stem from the same
-     * source records.
+     * source records. Incidents are matched by incident type and locations by borough and address.
      *
      * @param seeds The selected entities provided by the user via the interface.
      * @return A response containing the entities and links.
      */
     public I2ConnectData expand(DaodSeeds seeds) {
-        final DaodSeedEntityData seed = seeds.entities.get(0);
+        final Set<String> incidentTypes = new LinkedHashSet<>();
+        final Set<List<String>> locations = new LinkedHashSet<>();
+
+        for (DaodSeedEntityData seed : seeds.entities) {
+            if (seed.typeId.equals("ET1")) {
+                final String incidentType = seed.properties.get("PT1")
+                    .toString();
+                final String incidentSubtype = seed.properties.get("PT2")
+                    .toString();
+                incidentTypes.add(String.format("%s-%s", incidentType, incidentSubtype));
+            } else if (seed.typeId.equals("ET2")) {
+                final String borough = seed.properties.get("PT7")
+                    .toString();
+                final String address = seed.properties.get("PT8")
+                    .toString();
+                locations.add(List.of(borough, address));
+            }
+        }
 
-        final Map<String, Object> params = new HashMap<>();
-        params.put(LIMIT_FIELD, LIMIT_VALUE);
-        String url = BASE_QUERY;
-
-        if (seed.typeId.equals("ET1")) {
-            final String incidentType = seed.properties.get("PT1")
-                .toString();
-            final String incidentSubtype = seed.properties.get("PT2")
-                .toString();
-            params.put("field", FIELD_INCIDENT_TYPE);
-            params.put("value", String.format("%s-%s", incidentType, incidentSubtype));
-            url += WHERE + "{field}" + IS + "'{value}'";
-        } else if (seed.typeId.equals("ET2")) {
-            final String borough = seed.properties.get("PT7")
-                .toString();
-            final String address = seed.properties.get("PT8")
-                .toString();
-            params.put("field_borough", FIELD_BOROUGH);
-            params.put("field_address", FIELD_ADDRESS);
-            params.put("value_borough", borough);
-            params.put("value_address", address);
-            url += WHERE + "{field_borough}" + IS + "'{value_borough}'" + AND + "{field_address}" + IS + "'{value_address}'";
+        final SocrataResultGovernor.Source source = mirror != null
+            ? mirrorSource(findInMirror(incidentTypes, locations))
+            : queryExpand(incidentTypes, locations);
+        return respond("expand", source, (rows, sink) ->
+            marshalItemsFromResponse(rows, new ResultGraphAssembler(sink, seeds.entities)));
+    }
+
+    /**
+     * Find the incidents of the given types, and the incidents at the given locations, in the
+     * dataset mirror.
+     *
+     * @param incidentTypes The incident types.
+     * @param locations     The borough and address of each location.
+     * @return The matching rows.
+     */
+    private SocrataMirror.Matches findInMirror(
+        Set<String> incidentTypes, Set<List<String>> locations) {
+        final List<List<SocrataMirror.Condition>> alternatives = new ArrayList<>();
+        alternatives.add(List.of(SocrataMirror.Condition.in(FIELD_INCIDENT_TYPE, incidentTypes)));
+        for (List<String> location : locations) {
+            alternatives.add(List.of(
+                SocrataMirror.Condition.in(FIELD_BOROUGH, List.of(location.get(0))),
+                SocrataMirror.Condition.in(FIELD_ADDRESS, List.of(location.get(1)))));
+        }
+        return mirror.matchAny(alternatives);
+    }
+
+    /**
+     * Query Socrata for the incidents of the given types, and the incidents at the given
+     * locations. Rows matched by more than one query are only returned once.
+     *
+     * @param incidentTypes The incident types.
+     * @param locations     The borough and address of each location.
+     * @return The rows matching the query.
+     */
+    private SocrataResultGovernor.Source queryExpand(
+        Set<String> incidentTypes, Set<List<String>> locations) {
+        final String url = BASE_QUERY + RECORD_SELECT + WHERE;
+        final SocrataResultGovernor.Source incidentRows;
+        if (lookupBatcher.isEnabled()) {
+            incidentRows =
+                listSource(lookupBatcher.lookup(url, Map.of(INCIDENT_LOOKUP, incidentTypes)));
+        } else {
+            final SocrataBatchedCondition incidents =
+                SocrataBatchedCondition.in(FIELD_INCIDENT_TYPE, "'{0}'", maxConditionLength);
+            incidentTypes.forEach(incidents::add);
+            incidentRows = batchSource("expand", RECORD_SELECT, incidents.getBatches());
         }
 
-        final SocrataResponse socrataResponse = socrataClient.get(url, SocrataResponse.class,
-            params);
-        final I2ConnectData response = marshalItemsFromResponse(socrataResponse);
-        response.links = linkToSeedIds(response, seed);
+        // Locations are matched on two columns, so they are not combined with other lookups
+        final SocrataBatchedCondition locationConditions = SocrataBatchedCondition.anyOf(
+            "(" + FIELD_BOROUGH + IS + "'{0}'" + AND + FIELD_ADDRESS + IS + "'{1}')",
+            maxConditionLength);
+        for (List<String> location : locations) {
+            locationConditions.add(location.get(0), location.get(1));
+        }
+        final SocrataResultGovernor.Source locationRows =
+            batchSource("expand", RECORD_SELECT, locationConditions.getBatches());
 
-        return response;
+        return union(incidentRows, locationRows);
     }
 
     /**
-     * Marshal the response items into a list of entities and links. Ensures no duplicate
-     * incidents or locations are included.
+     * Query the rows of the dataset mirror which matched.
      *
-     * @param response The resulting source records returned from the request.
-     * @return The response containing entities and links.
+     * @param matches The matching rows.
+     * @return The rows matching the query.
      */
-    private I2ConnectData marshalItemsFromResponse(SocrataResponse response) {
-        final List<I2ConnectEntityData> entities = new ArrayList<>();
-        final List<I2ConnectLinkData> links = new ArrayList<>();
+    private SocrataResultGovernor.Source mirrorSource(SocrataMirror.Matches matches) {
+        return SocrataResultGovernor.Source.of(matches::count, matches::rows,
+            limit -> matches.latest(governor.getRankColumn(), limit));
+    }
 
-        final Map<String, I2ConnectEntityData> incidents = new HashMap<>();
-        final Map<String, I2ConnectEntityData> locations = new HashMap<>();
+    /**
+     * Query rows which have already been retrieved.
+     *
+     * @param rows The rows.
+     * @return The rows matching the query.
+     */
+    private SocrataResultGovernor.Source listSource(List<SocrataResponseData> rows) {
+        return SocrataResultGovernor.Source.of(rows::size, rows::stream,
+            limit -> governor.top(rows.stream(), limit));
+    }
 
-        final AtomicInteger count = new AtomicInteger();
+    /**
+     * Query Socrata, counting the rows with a single request.
+     *
+     * @param service The name of the service making the query.
+     * @param select  The $select parameter of the request.
+     * @param where   The $where parameter of the request, or empty to match every row.
+     * @param params  The map of parameters used by the condition.
+     * @return The rows matching the query.
+     */
+    private SocrataResultGovernor.Source querySource(
+        String service, String select, String where, Map<String, ?> params) {
+        final String url = BASE_QUERY + select + where;
+        return SocrataResultGovernor.Source.of(
+            () -> count(service, where, params).join(),
+            () -> query(service, url, params),
+            limit -> queryRanked(service, url, params, limit));
+    }
 
-        response.forEach(entry -> {
-            count.getAndIncrement();
+    /**
+     * Query Socrata with each batch of a batched condition. Rows matched by more than one batch
+     * are only returned once. The batches are counted at the same time, and the sum of their
+     * counts is the count of the query. The highest ranking rows of each batch are ranked
+     * together.
+     *
+     * @param service The name of the service making the query.
+     * @param select  The $select parameter of the request.
+     * @param batches The batches of the condition.
+     * @return The rows matching the query.
+     */
+    private SocrataResultGovernor.Source batchSource(
+        String service, String select, List<SocrataBatchedCondition.Batch> batches) {
+        final String url = BASE_QUERY + select + WHERE;
+        return SocrataResultGovernor.Source.of(
+            () -> batches.stream()
+                .map(batch -> count(service, WHERE + batch.condition, batch.variables))
+                .collect(Collectors.toList())
+                .stream()
+                .mapToLong(CompletableFuture::join)
+                .sum(),
+            () -> distinctRows(batches.stream()
+                .flatMap(batch -> query(service, url + batch.condition, batch.variables))),
+            limit -> governor.top(distinctRows(batches.stream().flatMap(batch ->
+                queryRanked(service, url + batch.condition, batch.variables, limit))), limit));
+    }
 
-          I2ConnectEntityData incident;
-            final String incidentKey = entry.getIncidentKey();
-            if (incidents.containsKey(incidentKey)) {
-                incident = incidents.get(incidentKey);
-            } else {
-                incident = ItemFactory.createIncident(entry, incidentKey);
-                incidents.put(incidentKey, incident);
-                entities.add(incident);
-            }
+    /**
+     * Query the rows of either of two queries. Rows matched by both are only returned once, and
+     * the count of the union is the sum of their counts.
+     *
+     * @param first  The rows matching the first query.
+     * @param second The rows matching the second query.
+     * @return The rows matching either query.
+     */
+    private SocrataResultGovernor.Source union(
+        SocrataResultGovernor.Source first, SocrataResultGovernor.Source second) {
+        return SocrataResultGovernor.Source.of(
+            () -> first.count() + second.count(),
+            () -> distinctRows(Stream.concat(first.rows(), second.rows())),
+            limit -> governor.top(
+                distinctRows(Stream.concat(first.ranked(limit), second.ranked(limit))), limit));
+    }
 
-          I2ConnectEntityData location;
-            final String locationKey = entry.getLocationKey();
-            if (locations.containsKey(locationKey)) {
-                location = locations.get(locationKey);
-            } else {
-                location = ItemFactory.createLocation(entry, locationKey);
-                locations.put(locationKey, location);
-                entities.add(location);
-            }
+    private static Stream<SocrataResponseData> distinctRows(Stream<SocrataResponseData> rows) {
+        final Set<String> rowIds = new HashSet<>();
+        return rows.filter(row -> row.rowId == null || rowIds.add(row.rowId));
+    }
 
-            final I2ConnectLinkData locationLink = ItemFactory.createLocationLink(incident, location,
-                count.get());
-            links.add(locationLink);
-        });
+    /**
+     * Retrieve the rows matching a query, from the query cache if possible. Otherwise, the
+     * request to Socrata is shared with any identical query which is already in flight.
+     *
+     * @param service The name of the service making the query.
+     * @param url     The constructed URL extension of the request.
+     * @param params  The map of parameters to be included within the request.
+     * @return The rows matching the query.
+     */
+    private Stream<SocrataResponseData> query(String service, String url, Map<String, ?> params) {
+        return queryCache.stream(service, url, params, () -> requestCoalescer.stream(url, params,
+            () -> socrataPager.stream(url, params)));
+    }
 
-        final I2ConnectData connectorResponse = new I2ConnectData();
-        connectorResponse.entities = entities;
-        connectorResponse.links = links;
-        return connectorResponse;
+    /**
+     * Count the rows matching a query, from the query cache if possible. Otherwise, the count
+     * request to Socrata is shared with any identical count which is already in flight.
+     *
+     * @param service The name of the service making the query.
+     * @param where   The $where parameter of the query, or empty to count every row.
+     * @param params  The map of parameters used by the condition.
+     * @return A future which completes with the number of matching rows.
+     */
+    private CompletableFuture<Long> count(String service, String where, Map<String, ?> params) {
+        final String url = governor.getCountUrl(where);
+        return queryCache.count(service, url, params, () -> requestCoalescer.count(url, params,
+            () -> governor.count(where, params)));
     }
 
     /**
-     * Match link ends to seed identifiers.
+     * Retrieve the rows of a query which rank highest, from the query cache if possible.
      *
-     * @param response The response containing the marshaled entities and links.
-     * @param seed     The selected entity provided by the user via the interface.
-     * @return The list of links matched to the corresponding seed identifiers.
+     * @param service The name of the service making the query.
+     * @param url     The constructed URL extension of the request.
+     * @param params  The map of parameters to be included within the request.
+     * @param limit   The maximum number of rows.
+     * @return The rows, latest first.
      */
-    private List<I2ConnectLinkData> linkToSeedIds(I2ConnectData response, DaodSeedEntityData seed) {
-        for (I2ConnectLinkData link : response.links) {
-            String sourceId = seed.sourceIds.get(0).key.get(2);
-            if (link.fromEndId.equals(sourceId)) {
-                link.fromEndId = seed.seedId;
-            } else if (link.toEndId.equals(sourceId)) {
-                link.toEndId = seed.seedId;
+    private Stream<SocrataResponseData> queryRanked(
+        String service, String url, Map<String, ?> params, int limit) {
+        // The order and limit are only part of the key, so that ranked rows are cached apart from
+        // the rows of the same query in the usual order
+        final String key = url + "&$order=" + governor.getOrder() + "&$top=" + limit;
+        return queryCache.stream(service, key, params, () -> requestCoalescer.stream(key, params,
+            () -> socrataPager.stream(url, params, governor.getOrder(), limit)));
+    }
+
+    /**
+     * Build a response from the rows of a query, whose number is bounded by the governor. If the
+     * governor leaves rows out, the response says so in its error message.
+     *
+     * @param service  The name of the service making the query.
+     * @param source   The rows matching the query.
+     * @param producer Produces the entities and links of the response from the rows.
+     * @return The response.
+     */
+    private I2ConnectData respond(String service, SocrataResultGovernor.Source source,
+        BiConsumer<Stream<SocrataResponseData>, I2ConnectDataSink> producer) {
+        return respond(sink -> {
+            final SocrataResultGovernor.Selection selection = governor.select(service, source);
+            try (Stream<SocrataResponseData> rows = selection.rows()) {
+                producer.accept(rows, sink);
             }
+            sink.setErrorMessage(selection.getNotice());
+        });
+    }
+
+    /**
+     * Build a response from the entities and links which a producer gives to a sink. When
+     * responses are streamed, the producer runs while the response is written, so the entities
+     * are never all held in memory. Otherwise, the producer runs now and the items are collected
+     * into the response.
+     *
+     * @param producer Produces the entities and links of the response.
+     * @return The response.
+     */
+    private I2ConnectData respond(Consumer<I2ConnectDataSink> producer) {
+        if (streamResponses) {
+            return new StreamingI2ConnectData(producer);
         }
+        final I2ConnectData response = new I2ConnectData();
+        producer.accept(I2ConnectDataSink.collectingInto(response));
+        return response;
+    }
+
+    /**
+     * Marshal the response items into entities and links. Ensures no duplicate incidents or
+     * locations are included. Each source record is marshaled as soon as it is read from the
+     * response.
+     *
+     * @param rows The resulting source records returned from the request.
+     * @param graph The assembler which receives the entities and links.
+     */
+    private void marshalItemsFromResponse(
+        Stream<SocrataResponseData> rows, ResultGraphAssembler graph) {
+        final ResultGraphAssembler.EntityIndex<SocrataResponseData> incidents =
+            graph.entities(entry -> ItemFactory.createIncident(entry, entry.getIncidentKey()));
+        final ResultGraphAssembler.EntityIndex<SocrataResponseData> locations =
+            graph.entities(entry -> ItemFactory.createLocation(entry, entry.getLocationKey()));
 
-        return response.links;
+        final AtomicInteger count = new AtomicInteger();
+
+        rows.forEach(entry -> {
+            count.getAndIncrement();
+
+            final I2ConnectEntityData incident = incidents.get(entry.getIncidentKey(), entry);
+            final I2ConnectEntityData location = locations.get(entry.getLocationKey(), entry);
+
+            graph.addLink(ItemFactory.createLocationLink(incident, location, count.get()));
+        });
     }
 }
@@ -24,95 +24,345 @@
 
 package com.i2group.eri.rest.externalsource;
 
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.LoggerFactory;
-import org.springframework.http.HttpRequest;
-import org.springframework.http.ResponseEntity;
-import org.springframework.http.client.ClientHttpRequestExecution;
-import org.springframework.http.client.ClientHttpRequestInterceptor;
-import org.springframework.http.client.ClientHttpResponse;
-import org.springframework.web.client.HttpClientErrorException;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.util.DefaultUriBuilderFactory;
+import org.springframework.web.util.DefaultUriBuilderFactory.EncodingMode;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 /**
  * Connects to Socrata open APIs, setting the X-App-Token API header
  * https://dev.socrata.com/docs/app-tokens.html
+ *
+ * <p>Requests are sent through a single non-blocking HTTP client which keeps its connections to
+ * the Socrata host alive between requests. At most {@code maxConnections} requests are in flight
+ * at once; further requests queue without holding a thread until a connection is released. A
+ * streamed response holds its connection until its body has been read to the end or closed.
+ *
+ * <p>The read timeout bounds the wait for the response headers and, for a streamed response, each
+ * read of its body. A body which stalls for longer is abandoned, cancelling the exchange.
  */
 public class SocrataClient {
-    private final RestTemplate restTemplate;
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper;
+    private final DefaultUriBuilderFactory uriBuilderFactory;
+    private final Semaphore connections;
+    private final ScheduledThreadPoolExecutor readDeadlines;
+    private final Queue<Runnable> waitingRequests = new ConcurrentLinkedQueue<>();
     private final String baseUrl;
+    private final String apiToken;
+    private final Duration readTimeout;
 
     /**
      * Initialise the Socrata client.
      *
-     * @param baseUrl  The base URL for all requests.
+     * @param baseUrl The base URL for all requests.
      * @param apiToken The API token to be included in all requests.
+     * @param connectTimeout The maximum time to wait when opening a connection to Socrata.
+     * @param readTimeout The maximum time to wait for Socrata to respond to a request, or to send
+     *     more of a streamed response body.
+     * @param maxConnections The maximum number of requests sent to Socrata at the same time.
      */
-    public SocrataClient(String baseUrl, String apiToken) {
+    public SocrataClient(
+            String baseUrl, String apiToken, Duration connectTimeout, Duration readTimeout,
+            int maxConnections) {
         if (baseUrl == null || baseUrl.isEmpty()) {
             throw new IllegalStateException("baseUrl must be specified");
         }
         if (apiToken == null || apiToken.isEmpty()) {
             LoggerFactory.getLogger(getClass()).warn("WARNING: apiToken is not specified, requests may be rejected!");
         }
+        if (maxConnections < 1) {
+            throw new IllegalStateException("maxConnections must be at least 1");
+        }
 
-        final List<ClientHttpRequestInterceptor> interceptors = new ArrayList<>();
-        interceptors.add(new ApiTokenInterceptor(apiToken));
-        restTemplate = new RestTemplate();
-        restTemplate.setInterceptors(interceptors);
+        final AtomicInteger threadCount = new AtomicInteger();
+        httpClient = HttpClient.newBuilder()
+                .connectTimeout(connectTimeout)
+                .executor(Executors.newFixedThreadPool(maxConnections, runnable -> {
+                    final Thread thread = new Thread(runnable, "socrata-client-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }))
+                .build();
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        uriBuilderFactory = new DefaultUriBuilderFactory();
+        uriBuilderFactory.setEncodingMode(EncodingMode.URI_COMPONENT);
+        connections = new Semaphore(maxConnections);
+        readDeadlines = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "socrata-client-deadlines");
+            thread.setDaemon(true);
+            return thread;
+        });
+        readDeadlines.setRemoveOnCancelPolicy(true);
         this.baseUrl = baseUrl;
+        this.apiToken = apiToken;
+        this.readTimeout = readTimeout;
     }
 
     /**
      * Send the request and retrieve results.
      *
-     * @param url          The constructed URL extension of the request.
+     * @param url The constructed URL extension of the request.
      * @param responseType The template type of the list of POJOs to which the response is mapped.
      * @param uriVariables The map of parameters to be included within the request.
      * @return The body of the response.
      */
     public <T> T get(String url, Class<T> responseType, Map<String, ?> uriVariables) {
         try {
-            final String requestUrl = baseUrl + url;
-            final ResponseEntity<T> responseEntity =
-                    restTemplate.getForEntity(requestUrl, responseType, uriVariables);
-            if (!responseEntity.getStatusCode().is2xxSuccessful()) {
-                throw new IllegalStateException(
-                        "Request failed. Response code: " + responseEntity.getStatusCode());
+            return getAsync(url, responseType, uriVariables).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
-            return responseEntity.getBody();
-        } catch (HttpClientErrorException e) {
-            if (e.getStatusCode().value() == 403) {
-                throw new IllegalStateException("403 response means the API_TOKEN is invalid", e);
+            if (e.getCause() instanceof IOException) {
+                throw new UncheckedIOException("Request to Socrata failed", (IOException) e.getCause());
             }
             throw e;
         }
     }
 
     /**
-     * For inclusion of the API token in requests.
+     * Send the request without blocking the calling thread. Several requests can be issued at once
+     * and combined when they complete.
+     *
+     * @param url The constructed URL extension of the request.
+     * @param responseType The template type of the list of POJOs to which the response is mapped.
+     * @param uriVariables The map of parameters to be included within the request.
+     * @return A future which completes with the body of the response.
+     */
+    public <T> CompletableFuture<T> getAsync(
+            String url, Class<T> responseType, Map<String, ?> uriVariables) {
+        final HttpRequest request = buildRequest(url, uriVariables);
+        return whenConnectionAvailable(release -> httpClient
+                .sendAsync(request, BodyHandlers.ofByteArray())
+                .whenComplete((response, error) -> release.run()))
+                .thenApply(response -> readBody(checkStatus(response), responseType));
+    }
+
+    /**
+     * Send the request and decode the rows of the JSON array in the response body one at a time,
+     * as they are received. The returned iterator must be closed if it is not read to the end.
+     *
+     * @param url The constructed URL extension of the request.
+     * @param rowType The type of the POJO to which each row of the response is mapped.
+     * @param uriVariables The map of parameters to be included within the request.
+     * @return A future which completes, once the response headers are received, with an iterator
+     *     over the rows of the response.
      */
-    private static class ApiTokenInterceptor implements ClientHttpRequestInterceptor {
-        private final String apiToken;
+    public <T> CompletableFuture<MappingIterator<T>> stream(
+            String url, Class<T> rowType, Map<String, ?> uriVariables) {
+        final HttpRequest request = buildRequest(url, uriVariables);
+        return whenConnectionAvailable(release -> httpClient
+                .sendAsync(request, BodyHandlers.ofInputStream())
+                .whenComplete((response, error) -> {
+                    if (error != null) {
+                        release.run();
+                    }
+                })
+                .thenApply(response -> readRows(response, new ResponseBody(response.body(), release),
+                        rowType)));
+    }
+
+    private HttpRequest buildRequest(String url, Map<String, ?> uriVariables) {
+        final URI requestUri = uriBuilderFactory.expand(baseUrl + url, uriVariables);
+        final HttpRequest.Builder request = HttpRequest.newBuilder(requestUri)
+                .timeout(readTimeout)
+                .header("Accept", "application/json")
+                .GET();
+        if (apiToken != null && !apiToken.isEmpty()) {
+            request.header("X-App-Token", apiToken);
+        }
+        return request.build();
+    }
 
-        /**
-         * Initialise the interceptor.
-         *
-         * @param apiToken The API token to be included.
-         */
-        ApiTokenInterceptor(String apiToken) {
-            this.apiToken = apiToken;
+    private <T> HttpResponse<T> checkStatus(HttpResponse<T> response) {
+        if (response.statusCode() == 403) {
+            throw new IllegalStateException("403 response means the API_TOKEN is invalid");
+        }
+        if (response.statusCode() < 200 || response.statusCode() >= 300) {
+            throw new IllegalStateException("Request failed. Response code: " + response.statusCode());
+        }
+        return response;
+    }
+
+    private <T> T readBody(HttpResponse<byte[]> response, Class<T> responseType) {
+        try {
+            return objectMapper.readValue(response.body(), responseType);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read the Socrata response", e);
+        }
+    }
+
+    private <T> MappingIterator<T> readRows(
+            HttpResponse<InputStream> response, InputStream body, Class<T> rowType) {
+        try {
+            checkStatus(response);
+            return objectMapper.readerFor(rowType).readValues(body);
+        } catch (IOException | RuntimeException e) {
+            try {
+                body.close();
+            } catch (IOException closeError) {
+                e.addSuppressed(closeError);
+            }
+            if (e instanceof IOException) {
+                throw new UncheckedIOException("Unable to read the Socrata response", (IOException) e);
+            }
+            throw (RuntimeException) e;
+        }
+    }
+
+    /**
+     * Start the request as soon as one of the bounded connections is free. The request is queued
+     * rather than blocking the calling thread while every connection is in use.
+     *
+     * @param request Sends the request once a connection is available, and runs the action it is
+     *     given once it has finished with the connection. The action may be run more than once.
+     * @return A future which completes with the response.
+     */
+    private <T> CompletableFuture<T> whenConnectionAvailable(
+            Function<Runnable, CompletableFuture<T>> request) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        waitingRequests.add(() -> {
+            final AtomicBoolean released = new AtomicBoolean();
+            final Runnable release = () -> {
+                if (released.compareAndSet(false, true)) {
+                    connections.release();
+                    startWaitingRequests();
+                }
+            };
+            try {
+                request.apply(release).whenComplete((response, error) -> {
+                    if (error != null) {
+                        result.completeExceptionally(error);
+                    } else {
+                        result.complete(response);
+                    }
+                });
+            } catch (RuntimeException e) {
+                release.run();
+                result.completeExceptionally(e);
+            }
+        });
+        startWaitingRequests();
+        return result;
+    }
+
+    private void startWaitingRequests() {
+        while (!waitingRequests.isEmpty() && connections.tryAcquire()) {
+            final Runnable next = waitingRequests.poll();
+            if (next == null) {
+                connections.release();
+            } else {
+                next.run();
+            }
+        }
+    }
+
+    /**
+     * The body of a streamed response, which releases its connection once it has been read to the
+     * end or closed. A read which waits longer than the read timeout closes the body, cancelling the
+     * exchange, and fails.
+     */
+    private class ResponseBody extends FilterInputStream {
+        private final Runnable release;
+        private volatile boolean timedOut;
+
+        ResponseBody(InputStream body, Runnable release) {
+            super(body);
+            this.release = release;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final ScheduledFuture<?> deadline = startDeadline();
+            final int result;
+            try {
+                result = super.read();
+            } catch (IOException e) {
+                throw timedOut ? timeout() : e;
+            } finally {
+                deadline.cancel(false);
+            }
+            return endOfBody(result);
         }
 
         @Override
-        public ClientHttpResponse intercept(
-                HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
-            request.getHeaders().add("X-App-Token", apiToken);
-            return execution.execute(request, body);
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            final ScheduledFuture<?> deadline = startDeadline();
+            final int result;
+            try {
+                result = super.read(buffer, offset, length);
+            } catch (IOException e) {
+                throw timedOut ? timeout() : e;
+            } finally {
+                deadline.cancel(false);
+            }
+            return endOfBody(result);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                release.run();
+            }
+        }
+
+        private ScheduledFuture<?> startDeadline() {
+            return readDeadlines.schedule(this::expire, readTimeout.toNanos(), TimeUnit.NANOSECONDS);
+        }
+
+        private void expire() {
+            timedOut = true;
+            try {
+                close();
+            } catch (IOException e) {
+                // The exchange is being abandoned, so there is nothing left to read from it.
+            }
+        }
+
+        private int endOfBody(int result) throws IOException {
+            // Closing the body wakes a blocked read as if the body had ended, or with an error.
+            if (timedOut) {
+                throw timeout();
+            }
+            if (result < 0) {
+                release.run();
+            }
+            return result;
+        }
+
+        private IOException timeout() {
+            return new HttpTimeoutException(
+                    "Socrata sent no more of the response body within " + readTimeout);
         }
     }
 }
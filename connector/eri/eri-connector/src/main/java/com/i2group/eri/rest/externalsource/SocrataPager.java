@@ -0,0 +1,234 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.eri.rest.externalsource;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.i2group.eri.rest.externalsource.transport.SocrataResponseData;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Retrieves large Socrata result sets as a series of $offset/$limit pages. The request URL must
+ * bind the page size to {limitValue}; the pager binds it for each page and orders the rows by the
+ * system :id field, or by an order which ends with it, so that the pages do not overlap.
+ *
+ * <p>The first page is requested on its own. If it is full, up to {@code maxParallelPages} further
+ * pages are requested at once. Rows are decoded as they arrive and returned in page order.
+ * Retrieval stops at the first page which is not full, or when {@code rowBudget} rows have been
+ * retrieved.
+ */
+public class SocrataPager {
+    private static final String LIMIT_FIELD = "limitValue";
+    private static final String OFFSET_FIELD = "offsetValue";
+    private static final String ORDER_FIELD = "orderValue";
+    private static final String PAGE_PARAMS =
+            "&$offset={" + OFFSET_FIELD + "}&$order={" + ORDER_FIELD + "}";
+    private static final String ROW_ORDER = ":id";
+
+    private final SocrataClient socrataClient;
+    private final int pageSize;
+    private final int maxParallelPages;
+    private final int rowBudget;
+
+    /**
+     * Initialise the pager.
+     *
+     * @param socrataClient The client used to request each page.
+     * @param pageSize The number of rows requested in each page.
+     * @param maxParallelPages The maximum number of pages requested at the same time.
+     * @param rowBudget The maximum number of rows retrieved for a single request.
+     */
+    public SocrataPager(
+            SocrataClient socrataClient, int pageSize, int maxParallelPages, int rowBudget) {
+        if (pageSize < 1 || maxParallelPages < 1 || rowBudget < 1) {
+            throw new IllegalStateException(
+                    "pageSize, maxParallelPages and rowBudget must all be at least 1");
+        }
+        this.socrataClient = socrataClient;
+        this.pageSize = pageSize;
+        this.maxParallelPages = maxParallelPages;
+        this.rowBudget = rowBudget;
+    }
+
+    /**
+     * Retrieve every row matching the request, up to the row budget. Pages are requested lazily as
+     * the stream is consumed, and each row is decoded only when it is read from the stream. The
+     * stream should be closed if it is not read to the end.
+     *
+     * @param url The constructed URL extension of the request.
+     * @param uriVariables The map of parameters to be included within the request.
+     * @return The rows of every page, in order.
+     */
+    public Stream<SocrataResponseData> stream(String url, Map<String, ?> uriVariables) {
+        return stream(url, uriVariables, ROW_ORDER, rowBudget);
+    }
+
+    /**
+     * Retrieve the first rows matching the request in an order, up to a limit. The limit takes the
+     * place of the row budget, so that a caller which bounds its own results can read one row past
+     * them to learn whether any were left out. Pages are requested lazily as the stream is consumed,
+     * as they are by {@link #stream(String, Map)}.
+     *
+     * @param url The constructed URL extension of the request.
+     * @param uriVariables The map of parameters to be included within the request.
+     * @param order The $order of the rows, which must end with :id so that every row has its own
+     *     place in the order.
+     * @param limit The maximum number of rows retrieved.
+     * @return The rows of every page, in order.
+     */
+    public Stream<SocrataResponseData> stream(
+            String url, Map<String, ?> uriVariables, String order, int limit) {
+        final PagedRows rows = new PagedRows(url, uriVariables, order, limit);
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(rows, Spliterator.ORDERED | Spliterator.NONNULL),
+                false).onClose(rows::close);
+    }
+
+    private CompletableFuture<MappingIterator<SocrataResponseData>> requestPage(
+            String url, Map<String, ?> uriVariables, String order, int offset, int limit) {
+        final Map<String, Object> pageVariables = new HashMap<>(uriVariables);
+        pageVariables.put(LIMIT_FIELD, limit);
+        pageVariables.put(OFFSET_FIELD, offset);
+        pageVariables.put(ORDER_FIELD, order);
+        return socrataClient.stream(url + PAGE_PARAMS, SocrataResponseData.class, pageVariables);
+    }
+
+    private static void closeWhenReceived(Page page) {
+        page.rows.thenAccept(rows -> {
+            try {
+                rows.close();
+            } catch (IOException e) {
+                // The page is being discarded, so there is nothing left to read from it.
+            }
+        });
+    }
+
+    /** A page which has been requested, and the number of rows requested in it. */
+    private static class Page {
+        private final int limit;
+        private final CompletableFuture<MappingIterator<SocrataResponseData>> rows;
+
+        Page(int limit, CompletableFuture<MappingIterator<SocrataResponseData>> rows) {
+            this.limit = limit;
+            this.rows = rows;
+        }
+    }
+
+    /** Reads the rows of each page in turn, keeping further pages in flight while it does. */
+    private class PagedRows implements Iterator<SocrataResponseData> {
+        private final String url;
+        private final Map<String, ?> uriVariables;
+        private final String order;
+        private final int maxRows;
+        private final Deque<Page> pages = new ArrayDeque<>();
+        private Page currentPage;
+        private MappingIterator<SocrataResponseData> currentRows;
+        private int currentCount;
+        private int window = 1;
+        private int nextOffset;
+        private boolean finished;
+
+        PagedRows(String url, Map<String, ?> uriVariables, String order, int maxRows) {
+            this.url = url;
+            this.uriVariables = uriVariables;
+            this.order = order;
+            this.maxRows = maxRows;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!finished) {
+                if (currentRows != null) {
+                    if (currentRows.hasNext()) {
+                        return true;
+                    }
+                    closeWhenReceived(currentPage);
+                    currentRows = null;
+                    if (currentCount < currentPage.limit) {
+                        close();
+                        return false;
+                    }
+                    window = maxParallelPages;
+                }
+
+                while (pages.size() < window && nextOffset < maxRows) {
+                    final int limit = Math.min(pageSize, maxRows - nextOffset);
+                    pages.add(new Page(limit, requestPage(url, uriVariables, order, nextOffset, limit)));
+                    nextOffset += limit;
+                }
+                currentPage = pages.poll();
+                if (currentPage == null) {
+                    close();
+                    return false;
+                }
+                currentRows = join(currentPage);
+                currentCount = 0;
+            }
+            return false;
+        }
+
+        @Override
+        public SocrataResponseData next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            currentCount++;
+            return currentRows.next();
+        }
+
+        private MappingIterator<SocrataResponseData> join(Page page) {
+            try {
+                return page.rows.join();
+            } catch (CompletionException e) {
+                close();
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        void close() {
+            finished = true;
+            if (currentPage != null) {
+                closeWhenReceived(currentPage);
+            }
+            pages.forEach(SocrataPager::closeWhenReceived);
+            pages.clear();
+        }
+    }
+}
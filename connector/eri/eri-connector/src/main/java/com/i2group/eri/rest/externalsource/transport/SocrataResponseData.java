@@ -26,6 +26,7 @@ package com.i2group.eri.rest.externalsource.transport;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
 
 /**
@@ -34,6 +35,13 @@ import java.time.LocalDateTime;
  */
 public class SocrataResponseData {
 
+    // Row
+    @JsonProperty(":id")
+    public String rowId;
+
+    @JsonProperty(":updated_at")
+    public Instant updatedAt;
+
     // Incident
     @JsonProperty("incident_type")
     public String incidentType;
@@ -0,0 +1,105 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.eri.rest.transport.response;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.BeanUtils;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The binary Jackson formats which requests and responses can be exchanged in, as well as JSON.
+ * The build includes the Jackson data format modules of both, but a format is only offered if
+ * its module is on the classpath, so either can be left out. JSON remains the default; a binary
+ * format is only used when a client sends it or asks for it.
+ *
+ * <p>Each format is read and written with the same Jackson settings as JSON, and replaces any
+ * converter for the format which Spring adds by default.
+ */
+@Component
+public class BinaryFormats implements WebMvcConfigurer {
+    /** The media type of Smile, a binary form of JSON. */
+    public static final String SMILE_VALUE = "application/x-jackson-smile";
+    /** The media type of CBOR. */
+    public static final String CBOR_VALUE = "application/cbor";
+
+    private final Map<MediaType, ObjectMapper> objectMappers = new LinkedHashMap<>();
+
+    /**
+     * Constructor used to create an object mapper for each binary format which is available.
+     *
+     * @param builder The builder which configures the JSON object mapper.
+     */
+    public BinaryFormats(Jackson2ObjectMapperBuilder builder) {
+        addFormat(builder, SMILE_VALUE, "com.fasterxml.jackson.dataformat.smile.SmileFactory");
+        addFormat(builder, CBOR_VALUE, "com.fasterxml.jackson.dataformat.cbor.CBORFactory");
+    }
+
+    private void addFormat(Jackson2ObjectMapperBuilder builder, String mediaType, String factory) {
+        final ClassLoader classLoader = getClass().getClassLoader();
+        if (ClassUtils.isPresent(factory, classLoader)) {
+            final ObjectMapper objectMapper = new ObjectMapper((JsonFactory) BeanUtils.instantiateClass(
+                    ClassUtils.resolveClassName(factory, classLoader)));
+            builder.configure(objectMapper);
+            objectMappers.put(MediaType.parseMediaType(mediaType), objectMapper);
+        }
+    }
+
+    /**
+     * Gets the object mappers of the binary formats which are available.
+     *
+     * @return The object mapper for each media type.
+     */
+    public Map<MediaType, ObjectMapper> getObjectMappers() {
+        return Collections.unmodifiableMap(objectMappers);
+    }
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        for (Map.Entry<MediaType, ObjectMapper> format : objectMappers.entrySet()) {
+            converters.removeIf(converter -> !(converter instanceof StreamingI2ConnectDataConverter)
+                    && converter.getSupportedMediaTypes().contains(format.getKey()));
+            converters.add(new BinaryConverter(format.getValue(), format.getKey()));
+        }
+    }
+
+    /** Reads and writes any object in a binary format. */
+    private static final class BinaryConverter extends AbstractJackson2HttpMessageConverter {
+        private BinaryConverter(ObjectMapper objectMapper, MediaType mediaType) {
+            super(objectMapper, mediaType);
+        }
+    }
+}
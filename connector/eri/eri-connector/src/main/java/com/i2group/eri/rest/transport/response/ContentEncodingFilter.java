@@ -0,0 +1,747 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.eri.rest.transport.response;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compresses responses with gzip for clients which accept it, and decompresses gzip request
+ * bodies.
+ *
+ * <p>A response is compressed when the client's {@code Accept-Encoding} header accepts gzip, its
+ * content type is one of the configured types, and its body is at least the configured size. A
+ * body of one of those types is held back until that size is reached, whether or not the client
+ * accepts gzip, so small responses are sent as they are, with their length. Other bodies are
+ * passed through as they are written. Once a response is compressed, each flush sends everything
+ * written so far, so streamed responses are still sent as they are written.
+ *
+ * <p>A response which is written with non-blocking I/O is passed through without compression. A
+ * compressed request body which is read with non-blocking I/O is received in full before any of
+ * it is decompressed and passed to the reader. A compressed request body which decompresses to
+ * more than the configured size is cut off there, and the request is rejected with 413 (Payload
+ * Too Large) unless its response has already been committed.
+ *
+ * <p>Spring Boot's {@code server.compression} only compresses responses, at the default level,
+ * with a new deflater for each response. This filter also decompresses request bodies, such as
+ * large sets of seeds, sets the compression level, and reuses deflaters from a
+ * {@link DeflaterPool}.
+ */
+@Component
+public class ContentEncodingFilter extends OncePerRequestFilter {
+    private static final String GZIP = "gzip";
+    private static final String IDENTITY = "identity";
+
+    private final DeflaterPool deflaterPool;
+    private final boolean enabled;
+    private final int minResponseSize;
+    private final List<MediaType> mimeTypes = new ArrayList<>();
+    private final long maxRequestSize;
+
+    /**
+     * Constructor used to configure the filter.
+     *
+     * @param deflaterPool The deflaters used to compress responses.
+     * @param enabled Whether requests and responses are compressed.
+     * @param minResponseSize The smallest response, in bytes, which is compressed.
+     * @param mimeTypes The content types of the responses which are compressed.
+     * @param maxRequestSize The largest request body, in bytes, which a compressed body may
+     *     decompress to.
+     */
+    public ContentEncodingFilter(
+            DeflaterPool deflaterPool,
+            @Value("${connector.compression.enabled:true}") boolean enabled,
+            @Value("${connector.compression.min-response-size:2048}") int minResponseSize,
+            @Value("${connector.compression.mime-types:application/json}") String[] mimeTypes,
+            @Value("${connector.compression.max-request-size:4194304}") long maxRequestSize) {
+        this.deflaterPool = deflaterPool;
+        this.enabled = enabled;
+        this.minResponseSize = Math.max(0, minResponseSize);
+        for (String mimeType : mimeTypes) {
+            this.mimeTypes.add(MediaType.parseMediaType(mimeType.trim()));
+        }
+        this.maxRequestSize = Math.max(0, maxRequestSize);
+    }
+
+    @Override
+    protected void doFilterInternal(
+            HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (!enabled) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        final String requestEncoding = request.getHeader(HttpHeaders.CONTENT_ENCODING);
+        DecompressingRequest decompressingRequest = null;
+        if (requestEncoding != null && !requestEncoding.trim().equalsIgnoreCase(IDENTITY)) {
+            if (!isGzip(requestEncoding.trim())) {
+                response.sendError(HttpStatus.UNSUPPORTED_MEDIA_TYPE.value(),
+                        "Unsupported request content encoding: " + requestEncoding);
+                return;
+            }
+            decompressingRequest = new DecompressingRequest(request, maxRequestSize);
+            request = decompressingRequest;
+        }
+
+        final CompressingResponse compressingResponse =
+                new CompressingResponse(response, acceptsGzip(request));
+        boolean finished = true;
+        try {
+            chain.doFilter(request, compressingResponse);
+            if (request.isAsyncStarted()) {
+                finished = false;
+                request.getAsyncContext().addListener(new FinishingListener(compressingResponse));
+            }
+        } catch (IOException | ServletException e) {
+            // The failure to read a body which was cut off is answered with 413 below
+            if (decompressingRequest == null || !decompressingRequest.isTooLarge()) {
+                throw e;
+            }
+        } finally {
+            if (finished) {
+                if (decompressingRequest != null && decompressingRequest.isTooLarge()
+                        && !response.isCommitted()) {
+                    response.resetBuffer();
+                    response.sendError(HttpStatus.PAYLOAD_TOO_LARGE.value(),
+                            "The decompressed request body is larger than " + maxRequestSize + " bytes");
+                } else {
+                    compressingResponse.finish();
+                }
+            }
+        }
+    }
+
+    private static boolean isGzip(String encoding) {
+        return encoding.equalsIgnoreCase(GZIP) || encoding.equalsIgnoreCase("x-gzip");
+    }
+
+    /**
+     * Find whether the client accepts gzip, either by name or as any encoding, with a quality
+     * greater than zero.
+     */
+    static boolean acceptsGzip(HttpServletRequest request) {
+        final Enumeration<String> headers = request.getHeaders(HttpHeaders.ACCEPT_ENCODING);
+        while (headers != null && headers.hasMoreElements()) {
+            for (String value : headers.nextElement().split(",")) {
+                final String[] parts = value.split(";");
+                final String coding = parts[0].trim();
+                if (!isGzip(coding) && !coding.equals("*")) {
+                    continue;
+                }
+                double quality = 1;
+                for (int i = 1; i < parts.length; i++) {
+                    final String parameter = parts[i].trim();
+                    if (parameter.startsWith("q=")) {
+                        try {
+                            quality = Double.parseDouble(parameter.substring(2));
+                        } catch (NumberFormatException e) {
+                            quality = 0;
+                        }
+                    }
+                }
+                if (quality > 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        final MediaType mediaType;
+        try {
+            mediaType = MediaType.parseMediaType(contentType);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        for (MediaType mimeType : mimeTypes) {
+            if (mimeType.includes(mediaType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Finishes a response once the asynchronous processing of its request completes. */
+    private static final class FinishingListener implements AsyncListener {
+        private final CompressingResponse response;
+
+        private FinishingListener(CompressingResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+            response.finish();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+
+    /** A request whose body is decompressed as it is read. */
+    private static final class DecompressingRequest extends HttpServletRequestWrapper {
+        private final long maxSize;
+        private DecompressingInputStream inputStream;
+        private BufferedReader reader;
+
+        private DecompressingRequest(HttpServletRequest request, long maxSize) {
+            super(request);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (reader != null) {
+                throw new IllegalStateException("getReader() has already been called");
+            }
+            if (inputStream == null) {
+                inputStream = new DecompressingInputStream(super.getInputStream(), maxSize);
+            }
+            return inputStream;
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            if (reader == null) {
+                final String encoding = getCharacterEncoding();
+                final Charset charset = encoding != null
+                        ? Charset.forName(encoding)
+                        : StandardCharsets.UTF_8;
+                reader = new BufferedReader(new InputStreamReader(getInputStream(), charset));
+            }
+            return reader;
+        }
+
+        /** Find whether the body was cut off for decompressing to more than the largest size. */
+        private boolean isTooLarge() {
+            return inputStream != null && inputStream.tooLarge;
+        }
+
+        @Override
+        public int getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return -1;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return isHidden(name) ? null : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            return isHidden(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+            final List<String> names = new ArrayList<>();
+            for (String name : Collections.list(super.getHeaderNames())) {
+                if (!isHidden(name)) {
+                    names.add(name);
+                }
+            }
+            return Collections.enumeration(names);
+        }
+
+        private static boolean isHidden(String name) {
+            return HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name)
+                    || HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name);
+        }
+    }
+
+    /**
+     * The body of a decompressed request. A body read with blocking I/O is decompressed as it is
+     * read. A body read with non-blocking I/O is received in full first, and the reader is told
+     * that data is available once it has all been received. Either way, reading more than the
+     * largest size fails.
+     */
+    private static final class DecompressingInputStream extends ServletInputStream {
+        private final ServletInputStream source;
+        private final long maxSize;
+        private InputStream in;
+        private ReadListener readListener;
+        private boolean finished;
+        private long size;
+        private boolean tooLarge;
+
+        private DecompressingInputStream(ServletInputStream source, long maxSize) {
+            this.source = source;
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = decompressed().read();
+            finished = b < 0;
+            if (!finished) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int count = decompressed().read(b, off, len);
+            finished = count < 0;
+            if (count > 0) {
+                count(count);
+            }
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+            } else {
+                source.close();
+            }
+        }
+
+        @Override
+        public boolean isFinished() {
+            return finished;
+        }
+
+        @Override
+        public boolean isReady() {
+            return readListener == null || in != null;
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            if (this.readListener != null || in != null) {
+                throw new IllegalStateException(
+                        "The read listener must be set once, before the body is read");
+            }
+            this.readListener = readListener;
+            final ByteArrayOutputStream received = new ByteArrayOutputStream();
+            source.setReadListener(new ReadListener() {
+                @Override
+                public void onDataAvailable() throws IOException {
+                    final byte[] buffer = new byte[8192];
+                    int count;
+                    while (source.isReady() && (count = source.read(buffer)) != -1) {
+                        received.write(buffer, 0, count);
+                    }
+                }
+
+                @Override
+                public void onAllDataRead() throws IOException {
+                    in = new GZIPInputStream(new ByteArrayInputStream(received.toByteArray()));
+                    readListener.onDataAvailable();
+                    if (finished) {
+                        readListener.onAllDataRead();
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    readListener.onError(t);
+                }
+            });
+        }
+
+        private void count(int bytes) throws IOException {
+            size += bytes;
+            if (size > maxSize) {
+                tooLarge = true;
+                throw tooLargeException();
+            }
+        }
+
+        private IOException tooLargeException() {
+            return new IOException("The decompressed request body is larger than " + maxSize + " bytes");
+        }
+
+        private InputStream decompressed() throws IOException {
+            if (tooLarge) {
+                throw tooLargeException();
+            }
+            if (in == null) {
+                if (readListener != null) {
+                    throw new IllegalStateException("The body cannot be read until isReady() returns true");
+                }
+                in = new GZIPInputStream(source);
+            }
+            return in;
+        }
+    }
+
+    /**
+     * A response whose body is held back until it is known whether it should be compressed, and
+     * which is then either compressed or passed through as it is.
+     */
+    private final class CompressingResponse extends HttpServletResponseWrapper {
+        private final boolean gzipAccepted;
+        private long contentLength = -1;
+        private EncodingOutputStream outputStream;
+        private PrintWriter writer;
+
+        private CompressingResponse(HttpServletResponse response, boolean gzipAccepted) {
+            super(response);
+            this.gzipAccepted = gzipAccepted;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writer != null) {
+                throw new IllegalStateException("getWriter() has already been called");
+            }
+            return getEncodingOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                if (outputStream != null) {
+                    throw new IllegalStateException("getOutputStream() has already been called");
+                }
+                writer = new PrintWriter(new OutputStreamWriter(
+                        getEncodingOutputStream(), Charset.forName(getCharacterEncoding())));
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            } else if (outputStream != null) {
+                outputStream.flush();
+            } else {
+                // No body has been written, as for a HEAD request, so the length is sent as it is.
+                passContentLength();
+            }
+            if (outputStream == null || outputStream.isDecided()) {
+                super.flushBuffer();
+            }
+        }
+
+        @Override
+        public void resetBuffer() {
+            super.resetBuffer();
+            if (outputStream != null) {
+                outputStream.resetBuffer();
+            }
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            contentLength = -1;
+            if (outputStream != null) {
+                outputStream.resetBuffer();
+            }
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            setContentLengthLong(len);
+        }
+
+        @Override
+        public void setContentLengthLong(long len) {
+            contentLength = len;
+            if (outputStream != null && outputStream.isPassedThrough()) {
+                super.setContentLengthLong(len);
+            }
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                setContentLengthLong(value != null ? Long.parseLong(value) : -1);
+            } else {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                setContentLengthLong(value != null ? Long.parseLong(value) : -1);
+            } else {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                setContentLengthLong(value);
+            } else {
+                super.setIntHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                setContentLengthLong(value);
+            } else {
+                super.addIntHeader(name, value);
+            }
+        }
+
+        private EncodingOutputStream getEncodingOutputStream() {
+            if (outputStream == null) {
+                outputStream = new EncodingOutputStream(this);
+            }
+            return outputStream;
+        }
+
+        /**
+         * Finish the response, writing out the body if it is still held back, and the end of the
+         * compressed data if it is compressed.
+         */
+        private void finish() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (outputStream != null) {
+                outputStream.finish();
+            } else {
+                passContentLength();
+            }
+        }
+
+        private boolean mightCompress() {
+            final int status = getStatus();
+            if (status < HttpServletResponse.SC_OK
+                    || status == HttpServletResponse.SC_NO_CONTENT
+                    || status == HttpServletResponse.SC_PARTIAL_CONTENT
+                    || status == HttpServletResponse.SC_NOT_MODIFIED
+                    || containsHeader(HttpHeaders.CONTENT_ENCODING)
+                    || !ContentEncodingFilter.this.isCompressible(getContentType())) {
+                return false;
+            }
+            if (!isVaryingByEncoding()) {
+                addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            }
+            return true;
+        }
+
+        private boolean isVaryingByEncoding() {
+            for (String vary : getHeaders(HttpHeaders.VARY)) {
+                for (String name : vary.split(",")) {
+                    if (name.trim().equalsIgnoreCase(HttpHeaders.ACCEPT_ENCODING)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private void passContentLength() {
+            if (contentLength >= 0) {
+                super.setContentLengthLong(contentLength);
+            }
+        }
+
+        private ServletOutputStream passThrough(long length) throws IOException {
+            if (length >= 0) {
+                super.setContentLengthLong(length);
+            }
+            return super.getOutputStream();
+        }
+
+        private OutputStream compress() throws IOException {
+            super.setHeader(HttpHeaders.CONTENT_ENCODING, GZIP);
+            return deflaterPool.gzip(super.getOutputStream());
+        }
+    }
+
+    /**
+     * The body of a response. If it might be compressed, up to the minimum compressed size is
+     * buffered, then the body is either compressed or passed through.
+     */
+    private final class EncodingOutputStream extends ServletOutputStream {
+        private final CompressingResponse response;
+        private final ByteArrayOutputStream buffer;
+        private Boolean compressible;
+        private OutputStream target;
+        private ServletOutputStream nonBlockingTarget;
+        private boolean compressed;
+        private boolean finished;
+
+        private EncodingOutputStream(CompressingResponse response) {
+            this.response = response;
+            this.buffer = new ByteArrayOutputStream(Math.min(minResponseSize, 8192));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (target == null) {
+                if (compressible == null) {
+                    compressible = response.mightCompress();
+                }
+                if (!compressible) {
+                    target = response.passThrough(response.contentLength);
+                } else if (buffer.size() + len < minResponseSize) {
+                    buffer.write(b, off, len);
+                    return;
+                } else {
+                    if (response.gzipAccepted) {
+                        target = response.compress();
+                        compressed = true;
+                    } else {
+                        target = response.passThrough(response.contentLength);
+                    }
+                    buffer.writeTo(target);
+                    buffer.reset();
+                }
+            }
+            target.write(b, off, len);
+        }
+
+        /** Flush the body, unless it is still held back. */
+        @Override
+        public void flush() throws IOException {
+            if (target != null) {
+                target.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+        }
+
+        @Override
+        public boolean isReady() {
+            return nonBlockingTarget == null || nonBlockingTarget.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            if (compressed) {
+                throw new IllegalStateException(
+                        "The write listener must be set before a compressed body is written");
+            }
+            if (target == null) {
+                try {
+                    target = response.passThrough(response.contentLength);
+                    buffer.writeTo(target);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                buffer.reset();
+            }
+            nonBlockingTarget = (ServletOutputStream) target;
+            nonBlockingTarget.setWriteListener(writeListener);
+        }
+
+        private boolean isDecided() {
+            return target != null;
+        }
+
+        private boolean isPassedThrough() {
+            return target != null && !compressed;
+        }
+
+        private void resetBuffer() {
+            if (target == null) {
+                buffer.reset();
+                compressible = null;
+            }
+        }
+
+        private void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (target == null) {
+                target = response.passThrough(buffer.size());
+                buffer.writeTo(target);
+            }
+            if (compressed) {
+                target.close();
+            } else {
+                target.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.eri.rest.transport.response;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Holds the deflaters used to compress responses, so that each response does not allocate and
+ * free the native memory of its own deflater. A deflater is taken from the pool when a compressed
+ * response is started, and returned to the pool, reset, once the response is finished. Deflaters
+ * beyond the size of the pool are freed when they are returned.
+ */
+@Component
+public class DeflaterPool {
+    private static final byte[] GZIP_HEADER = {
+            (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    private final int level;
+    private final BlockingQueue<Deflater> deflaters;
+
+    /**
+     * Constructor used to configure the pool.
+     *
+     * @param level The compression level, from 1 (fastest) to 9 (smallest).
+     * @param size The number of idle deflaters held by the pool.
+     */
+    public DeflaterPool(
+            @Value("${connector.compression.level:6}") int level,
+            @Value("${connector.compression.pool-size:16}") int size) {
+        this.level = Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, level));
+        this.deflaters = new ArrayBlockingQueue<>(Math.max(1, size));
+    }
+
+    /**
+     * Start a gzip stream which compresses what is written to it with a pooled deflater. Closing
+     * the stream writes the end of the gzip data and returns the deflater to the pool. Flushing the
+     * stream writes out all the data compressed so far.
+     *
+     * @param out The stream which receives the compressed data.
+     * @return The gzip stream.
+     * @throws IOException If the gzip header cannot be written.
+     */
+    public OutputStream gzip(OutputStream out) throws IOException {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        }
+        out.write(GZIP_HEADER);
+        return new GzipOutputStream(out, deflater);
+    }
+
+    private void release(Deflater deflater) {
+        deflater.reset();
+        if (!deflaters.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    /** Writes raw deflate data between a gzip header and trailer. */
+    private final class GzipOutputStream extends FilterOutputStream {
+        private final Deflater deflater;
+        private final CRC32 crc = new CRC32();
+        private final byte[] buffer = new byte[8192];
+        private boolean closed;
+
+        private GzipOutputStream(OutputStream out, Deflater deflater) {
+            super(out);
+            this.deflater = deflater;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (len == 0) {
+                return;
+            }
+            crc.update(b, off, len);
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput()) {
+                deflate(Deflater.NO_FLUSH);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!closed) {
+                int length;
+                do {
+                    length = deflate(Deflater.SYNC_FLUSH);
+                } while (length == buffer.length);
+            }
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    deflate(Deflater.NO_FLUSH);
+                }
+                writeInt((int) crc.getValue());
+                writeInt((int) deflater.getBytesRead());
+            } finally {
+                release(deflater);
+            }
+            out.close();
+        }
+
+        private int deflate(int flush) throws IOException {
+            final int length = deflater.deflate(buffer, 0, buffer.length, flush);
+            if (length > 0) {
+                out.write(buffer, 0, length);
+            }
+            return length;
+        }
+
+        private void writeInt(int value) throws IOException {
+            out.write(value & 0xff);
+            out.write((value >> 8) & 0xff);
+            out.write((value >> 16) & 0xff);
+            out.write((value >> 24) & 0xff);
+        }
+    }
+}
@@ -32,13 +32,28 @@ import com.i2group.connector.spi.rest.transport.LinkDirection;
 import com.i2group.eri.rest.externalsource.transport.SocrataResponseData;
 import com.i2group.eri.rest.transport.request.IncidentType;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class ItemFactory {
+    /** The fields of each record used by {@link #createIncident}. */
+    public static final List<String> INCIDENT_FIELDS = List.of(
+        "incidentType", "creationDateTime", "closedDateTime");
+    /** The fields of each record used by {@link #createLocation}. */
+    public static final List<String> LOCATION_FIELDS = List.of(
+        "borough", "address", "latitude", "longitude");
+
+    private static final Map<String, PropertyLayout> PROPERTY_LAYOUTS =
+        PropertyLayout.fromSchema("emergency-response-incidents-schema.xml");
+    private static final PropertyLayout INCIDENT_PROPERTIES = PROPERTY_LAYOUTS.get("ET1");
+    private static final PropertyMapping<SocrataResponseData> LOCATION_PROPERTIES =
+        PropertyMapping.<SocrataResponseData>into(PROPERTY_LAYOUTS.get("ET2"))
+            .map("PT7", entry -> entry.borough)
+            .map("PT8", entry -> entry.address)
+            .mapOptional("PT9", ItemFactory::createPoint)
+            .build();
 
     private static final Pattern pattern = Pattern.compile("([A-Za-z\\s]+)-(" + ".*)");
 
@@ -50,7 +65,7 @@ public class ItemFactory {
      * @return The created incident object.
      */
     public static I2ConnectEntityData createIncident(SocrataResponseData entry, String id) {
-        final Map<String, Object> properties = new HashMap<>();
+        final Map<String, Object> properties = INCIDENT_PROPERTIES.newProperties();
 
         final Matcher matcher = pattern.matcher(entry.incidentType);
         if (matcher.find()) {
@@ -84,25 +99,24 @@ public class ItemFactory {
      * @return The created location object.
      */
     public static I2ConnectEntityData createLocation(SocrataResponseData entry, String id) {
-        final Map<String, Object> properties = new HashMap<>();
-        properties.put("PT7", entry.borough);
-        properties.put("PT8", entry.address);
-
-        if (entry.latitude != null) {
-          final GeoJSONPoint geospatial = new GeoJSONPoint();
-          geospatial.type = Geometry.TypeEnum.POINT;
-          geospatial.coordinates = List.of(entry.longitude, entry.latitude);
-          properties.put("PT9", geospatial);
-        }
-
         final I2ConnectEntityData location = new I2ConnectEntityData();
         location.id = "LOC" + id;
-        location.typeId = "ET2";
-        location.properties = properties;
+        location.typeId = LOCATION_PROPERTIES.getItemTypeId();
+        location.properties = LOCATION_PROPERTIES.apply(entry);
 
         return location;
     }
 
+    private static GeoJSONPoint createPoint(SocrataResponseData entry) {
+        if (entry.latitude == null) {
+            return null;
+        }
+        final GeoJSONPoint geospatial = new GeoJSONPoint();
+        geospatial.type = Geometry.TypeEnum.POINT;
+        geospatial.coordinates = List.of(entry.longitude, entry.latitude);
+        return geospatial;
+    }
+
     /**
      * Creates a link from an incident to a location.
      *
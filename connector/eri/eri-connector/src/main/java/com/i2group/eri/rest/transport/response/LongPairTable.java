@@ -0,0 +1,99 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.eri.rest.transport.response;
+
+/**
+ * A map from 128-bit keys, held as pairs of longs, to values. The keys are stored in a flat array
+ * with open addressing, so neither adding nor looking up a key allocates an object for it. The
+ * keys are expected to be well-distributed hashes.
+ *
+ * @param <V> The type of the values.
+ */
+final class LongPairTable<V> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] keys = new long[2 * INITIAL_CAPACITY];
+    private Object[] values = new Object[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Get the value of a key.
+     *
+     * @param high The high half of the key.
+     * @param low The low half of the key.
+     * @return The value, or null if the key has none.
+     */
+    @SuppressWarnings("unchecked")
+    V get(long high, long low) {
+        return (V) values[find(high, low)];
+    }
+
+    /**
+     * Set the value of a key which does not already have one.
+     *
+     * @param high The high half of the key.
+     * @param low The low half of the key.
+     * @param value The value, which must not be null.
+     * @return The existing value of the key, in which case the value is not set, or null.
+     */
+    @SuppressWarnings("unchecked")
+    V putIfAbsent(long high, long low, V value) {
+        final int slot = find(high, low);
+        if (values[slot] != null) {
+            return (V) values[slot];
+        }
+        keys[2 * slot] = high;
+        keys[2 * slot + 1] = low;
+        values[slot] = value;
+        if (++size * 4 > values.length * 3) {
+            grow();
+        }
+        return null;
+    }
+
+    private int find(long high, long low) {
+        final int mask = values.length - 1;
+        int slot = (int) (low ^ (low >>> 32)) & mask;
+        while (values[slot] != null && (keys[2 * slot] != high || keys[2 * slot + 1] != low)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        final long[] oldKeys = keys;
+        final Object[] oldValues = values;
+        keys = new long[2 * 2 * oldValues.length];
+        values = new Object[2 * oldValues.length];
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                final int slot = find(oldKeys[2 * i], oldKeys[2 * i + 1]);
+                keys[2 * slot] = oldKeys[2 * i];
+                keys[2 * slot + 1] = oldKeys[2 * i + 1];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.eri;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.i2group.connector.spi.rest.transport.DaodSeedEntityData;
+import com.i2group.connector.spi.rest.transport.DaodSeeds;
+import com.i2group.connector.spi.rest.transport.I2ConnectData;
+import com.i2group.connector.spi.rest.transport.SeedSourceIdentifier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+public class ExternalConnectorDataServiceTest {
+    private static final Pattern INCIDENT_TYPES = Pattern.compile("incident_type IN \\((.*)\\)");
+    private static final Pattern LOCATION =
+        Pattern.compile("\\(borough='([^']*)' AND location='([^']*)'\\)");
+    private static final Pattern QUOTED = Pattern.compile("'([^']*)'");
+
+    private final List<Map<String, String>> table = new ArrayList<>();
+    private final List<String> conditions = new ArrayList<>();
+    private FakeSocrata socrata;
+
+    @Before
+    public void setUp() throws Exception {
+        table.add(row("row-1", "Fire-Structural", "BRONX", "1 MAIN ST"));
+        table.add(row("row-2", "Medical-Cardiac", "BRONX", "2 MAIN ST"));
+        table.add(row("row-3", "Medical-Cardiac", "QUEENS", "1 MAIN ST"));
+        table.add(row("row-4", "Fire-Structural", "QUEENS", "3 MAIN ST"));
+        socrata = new FakeSocrata();
+        socrata.respond("/rows.json", this::answer);
+    }
+
+    @After
+    public void tearDown() {
+        socrata.close();
+    }
+
+    @Test
+    public void locationsAreMatchedByBoroughAndAddressTogether() {
+        final I2ConnectData response = service(2000).expand(seeds(location("BRONX", "1 MAIN ST")));
+
+        assertThat(conditions).containsExactly("((borough='BRONX' AND location='1 MAIN ST'))");
+        assertThat(response.entities).extracting(entity -> entity.id)
+            .containsExactlyInAnyOrder("INCFire-Structural", "LOCBRONX1 MAIN ST");
+        assertThat(response.links).hasSize(1);
+        assertThat(response.links.get(0).fromEndId).isEqualTo("INCFire-Structural");
+        assertThat(response.links.get(0).toEndId).isEqualTo("seed-LOCBRONX1 MAIN ST");
+    }
+
+    @Test
+    public void locationsBeyondTheMaximumConditionLengthAreSplitAcrossRequests() {
+        final I2ConnectData response = service(70).expand(seeds(
+            location("BRONX", "1 MAIN ST"), location("BRONX", "2 MAIN ST"),
+            location("QUEENS", "3 MAIN ST")));
+
+        assertThat(conditions.size()).isGreaterThan(1);
+        for (String condition : conditions) {
+            assertThat(condition).startsWith("(").endsWith(")");
+        }
+        assertThat(response.entities).extracting(entity -> entity.id).containsExactlyInAnyOrder(
+            "INCFire-Structural", "INCMedical-Cardiac",
+            "LOCBRONX1 MAIN ST", "LOCBRONX2 MAIN ST", "LOCQUEENS3 MAIN ST");
+        assertThat(response.links).hasSize(3);
+    }
+
+    @Test
+    public void rowsMatchedByIncidentTypeAndLocationAreAssembledOnce() {
+        final I2ConnectData response = service(2000).expand(seeds(
+            incident("Fire", "Structural"), location("BRONX", "1 MAIN ST")));
+
+        assertThat(conditions).containsExactlyInAnyOrder(
+            "incident_type IN ('Fire-Structural')",
+            "((borough='BRONX' AND location='1 MAIN ST'))");
+        // Rows 1 and 4 share their incident type, so they share one incident entity
+        assertThat(response.entities).extracting(entity -> entity.id).containsExactlyInAnyOrder(
+            "INCFire-Structural", "LOCBRONX1 MAIN ST", "LOCQUEENS3 MAIN ST");
+        // Each link is matched to the seed at one of its ends
+        assertThat(response.links).extracting(link -> link.fromEndId + " - " + link.toEndId)
+            .containsExactlyInAnyOrder(
+                "seed-INCFire-Structural - LOCBRONX1 MAIN ST",
+                "seed-INCFire-Structural - LOCQUEENS3 MAIN ST");
+    }
+
+    private ExternalConnectorDataService service(int maxConditionLength) {
+        return new ExternalConnectorDataService(socrata.getBaseUrl() + "/rows.json", "token",
+            5000, 5000, 4, 100, 1, 1000, 1000, 300, Collections.emptyMap(), maxConditionLength,
+            0, false, "", 1000, 0, 1000, Collections.emptyMap(), false);
+    }
+
+    /** Answer a rows or count request with the rows of the table matching its condition. */
+    private String answer(Map<String, String> parameters) {
+        final String where = parameters.get("$where");
+        final List<Map<String, String>> matches = table.stream()
+            .filter(row -> matches(where, row))
+            .collect(Collectors.toList());
+        if (parameters.getOrDefault("$select", "").startsWith("count(*)")) {
+            return "[{\"count\":\"" + matches.size() + "\"}]";
+        }
+        synchronized (conditions) {
+            if (parameters.get("$offset").equals("0")) {
+                conditions.add(where);
+            }
+        }
+        return matches.stream()
+            .skip(Long.parseLong(parameters.get("$offset")))
+            .limit(Long.parseLong(parameters.get("$limit")))
+            .map(row -> row.entrySet().stream()
+                .map(field -> "\"" + field.getKey() + "\":\"" + field.getValue() + "\"")
+                .collect(Collectors.joining(",", "{", "}")))
+            .collect(Collectors.joining(",", "[", "]"));
+    }
+
+    private static boolean matches(String where, Map<String, String> row) {
+        final Matcher incidentTypes = INCIDENT_TYPES.matcher(where);
+        if (incidentTypes.matches()) {
+            final Set<String> values = new HashSet<>();
+            final Matcher value = QUOTED.matcher(incidentTypes.group(1));
+            while (value.find()) {
+                values.add(value.group(1));
+            }
+            return values.contains(row.get("incident_type"));
+        }
+        final Matcher location = LOCATION.matcher(where);
+        while (location.find()) {
+            if (location.group(1).equals(row.get("borough"))
+                && location.group(2).equals(row.get("location"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Map<String, String> row(
+        String rowId, String incidentType, String borough, String address) {
+        return Map.of(":id", rowId, "incident_type", incidentType,
+            "creation_date", "2023-01-01T10:00:00.000", "borough", borough, "location", address);
+    }
+
+    private static DaodSeeds seeds(DaodSeedEntityData... entities) {
+        final DaodSeeds seeds = new DaodSeeds();
+        seeds.entities = List.of(entities);
+        return seeds;
+    }
+
+    private static DaodSeedEntityData incident(String type, String subtype) {
+        final DaodSeedEntityData seed = seed("ET1", "INC" + type + "-" + subtype);
+        seed.properties.put("PT1", type);
+        seed.properties.put("PT2", subtype);
+        return seed;
+    }
+
+    private static DaodSeedEntityData location(String borough, String address) {
+        final DaodSeedEntityData seed = seed("ET2", "LOC" + borough + address);
+        seed.properties.put("PT7", borough);
+        seed.properties.put("PT8", address);
+        return seed;
+    }
+
+    private static DaodSeedEntityData seed(String typeId, String recordId) {
+        final SeedSourceIdentifier sourceId = new SeedSourceIdentifier();
+        sourceId.key = List.of("eri", typeId, recordId);
+        final DaodSeedEntityData seed = new DaodSeedEntityData();
+        seed.seedId = "seed-" + recordId;
+        seed.typeId = typeId;
+        seed.sourceIds = List.of(sourceId);
+        return seed;
+    }
+}
@@ -28,18 +28,26 @@ import com.i2group.connector.spi.rest.transport.DaodRequest;
 import com.i2group.connector.spi.rest.transport.DaodRequestCondition;
 import com.i2group.connector.spi.rest.transport.I2ConnectData;
 import com.i2group.connector.spi.rest.transport.PayloadValidationResponse;
+import com.i2group.kcpd.rest.externalsource.SocrataMirrorSync;
+import com.i2group.kcpd.rest.externalsource.SocrataQueryCache;
+import com.i2group.kcpd.rest.transport.StaticDocument;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
 
+import static com.i2group.kcpd.rest.transport.BinaryFormats.CBOR_VALUE;
+import static com.i2group.kcpd.rest.transport.BinaryFormats.SMILE_VALUE;
 import static org.springframework.util.MimeTypeUtils.APPLICATION_JSON_VALUE;
 import static org.springframework.util.MimeTypeUtils.APPLICATION_XML_VALUE;
 
 import java.util.List;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 
 /** Defines endpoints used by i2 Analyze to acquire data */
@@ -47,52 +55,90 @@ import javax.validation.Valid;
 public class ConnectorController {
 
   private final ExternalConnectorDataService connectorDataService;
-  @Value("classpath:config.json")
-  private Resource configResource;
-  @Value("classpath:kcpd-crime-data-schema.xml")
-  private Resource schemaResource;
-  @Value("classpath:kcpd-crime-data-schema-charting-schemes.xml")
-  private Resource chartingSchemesResource;
+  private final StaticDocument config;
+  private final StaticDocument schema;
+  private final StaticDocument chartingSchemes;
 
   /**
    * Creates an instance of the ExternalConnectorDataService used to complete acquires.
    *
    * @param connectorDataService The class containing operations which perform the operation defined
    *     by the various services.
+   * @param configResource The connector configuration.
+   * @param schemaResource The connector schema.
+   * @param chartingSchemesResource The connector charting schemes.
+   * @param compress Whether compressed copies of the configuration and schemas are held.
    */
-  public ConnectorController(ExternalConnectorDataService connectorDataService) {
+  public ConnectorController(
+      ExternalConnectorDataService connectorDataService,
+      @Value("classpath:config.json") Resource configResource,
+      @Value("classpath:kcpd-crime-data-schema.xml") Resource schemaResource,
+      @Value("classpath:kcpd-crime-data-schema-charting-schemes.xml")
+          Resource chartingSchemesResource,
+      @Value("${connector.compression.enabled:true}") boolean compress) {
     this.connectorDataService = connectorDataService;
+    this.config = StaticDocument.load(configResource, MediaType.APPLICATION_JSON, compress);
+    this.schema = StaticDocument.load(schemaResource, MediaType.APPLICATION_XML, compress);
+    this.chartingSchemes =
+        StaticDocument.load(chartingSchemesResource, MediaType.APPLICATION_XML, compress);
   }
 
   /**
    * Defines the /config endpoint which acquires the connector configuration data.
    *
+   * @param request The request for the configuration.
    * @return The connector configuration.
    */
   @RequestMapping(method = RequestMethod.GET, value = "/config", produces = APPLICATION_JSON_VALUE)
-  public Resource config() {
-    return configResource;
+  public ResponseEntity<byte[]> config(HttpServletRequest request) {
+    return config.serve(request);
   }
 
   /**
    * Defines the /schema endpoint used to retrieve the connector schema.
    * 
+   * @param request The request for the schema.
    * @return The connector schema.
    */
   @RequestMapping(method = RequestMethod.GET, value = "/schema", produces = APPLICATION_XML_VALUE)
-  public Resource schema() {
-    return schemaResource;
+  public ResponseEntity<byte[]> schema(HttpServletRequest request) {
+    return schema.serve(request);
   }
 
   /**
    * Defines the /charting-schemes endpoint used to retrieve the connector charting schemes.
    * 
+   * @param request The request for the charting schemes.
    * @return The connector charting schemes.
    */
   @RequestMapping(method = RequestMethod.GET, value = "/charting-schemes",
       produces = APPLICATION_XML_VALUE)
-  public Resource chartingSchemes() {
-    return chartingSchemesResource;
+  public ResponseEntity<byte[]> chartingSchemes(HttpServletRequest request) {
+    return chartingSchemes.serve(request);
+  }
+
+  /**
+   * Defines the /cache-statistics endpoint which reports the hits, misses and evictions of the
+   * Socrata query cache.
+   *
+   * @return The current cache statistics.
+   */
+  @RequestMapping(method = RequestMethod.GET, value = "/cache-statistics",
+      produces = APPLICATION_JSON_VALUE)
+  public SocrataQueryCache.Statistics cacheStatistics() {
+    return connectorDataService.getCacheStatistics();
+  }
+
+  /**
+   * Defines the /mirror-statistics endpoint which reports the size of the dataset mirror, and the
+   * lag and row counts of its sync.
+   *
+   * @return The current mirror statistics, or nothing if there is no mirror.
+   */
+  @RequestMapping(method = RequestMethod.GET, value = "/mirror-statistics",
+      produces = APPLICATION_JSON_VALUE)
+  public SocrataMirrorSync.Statistics mirrorStatistics() {
+    return connectorDataService.getMirrorStatistics();
   }
 
   /**
@@ -100,11 +146,9 @@ public class ConnectorController {
    *
    * @return The response containing all entities and links.
    */
-  @RequestMapping(
-      method = RequestMethod.POST,
-      value = "/all",
-      consumes = APPLICATION_JSON_VALUE,
-      produces = APPLICATION_JSON_VALUE)
+  @RequestMapping(method = RequestMethod.POST, value = "/all",
+      consumes = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE},
+      produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
   public I2ConnectData allService() {
     return connectorDataService.retrieveAll();
   }
@@ -115,8 +159,9 @@ public class ConnectorController {
    * @param request The request containing the payload.
    * @return The resulting entities and links after a conditional search.
    */
-  @RequestMapping(method = RequestMethod.POST, value = "/search", consumes = APPLICATION_JSON_VALUE,
-      produces = APPLICATION_JSON_VALUE)
+  @RequestMapping(method = RequestMethod.POST, value = "/search",
+      consumes = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE},
+      produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
   public I2ConnectData searchService(@Valid @RequestBody DaodRequest request) {
     return connectorDataService.search(request.payload.conditions);
   }
@@ -128,7 +173,8 @@ public class ConnectorController {
    * @return A response containing an error message or nothing.
    */
   @RequestMapping(method = RequestMethod.POST, value = "/search/validate",
-      consumes = APPLICATION_JSON_VALUE, produces = APPLICATION_JSON_VALUE)
+      consumes = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE},
+      produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
   public PayloadValidationResponse searchValidate(@Valid @RequestBody DaodRequest request) {
     final PayloadValidationResponse validationResponse = new PayloadValidationResponse();
     final List<DaodRequestCondition> conditions = request.payload.conditions;
@@ -147,7 +193,8 @@ public class ConnectorController {
    * @return The entities found which have the same location as the selected location.
    */
   @RequestMapping(method = RequestMethod.POST, value = "/find-like-this-location",
-      consumes = APPLICATION_JSON_VALUE, produces = APPLICATION_JSON_VALUE)
+      consumes = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE},
+      produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
   public I2ConnectData findLikeThisLocationService(
       @Valid @RequestBody DaodRequest request) {
     return connectorDataService.findLikeThisLocation(request.payload.seeds);
@@ -159,8 +206,9 @@ public class ConnectorController {
    * @param request The request containing the payload.
    * @return The resulting entities and links connected to the selected entities.
    */
-  @RequestMapping(method = RequestMethod.POST, value = "/expand", consumes = APPLICATION_JSON_VALUE,
-      produces = APPLICATION_JSON_VALUE)
+  @RequestMapping(method = RequestMethod.POST, value = "/expand",
+      consumes = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE},
+      produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
   public I2ConnectData expandService(@Valid @RequestBody DaodRequest request) {
     return connectorDataService.expand(request.payload.seeds);
   }
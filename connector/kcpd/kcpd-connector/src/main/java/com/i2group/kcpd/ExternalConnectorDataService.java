@@ -29,25 +29,74 @@ import com.i2group.connector.spi.rest.transport.DaodSeedEntityData;
 import com.i2group.connector.spi.rest.transport.DaodSeeds;
 import com.i2group.connector.spi.rest.transport.I2ConnectData;
 import com.i2group.connector.spi.rest.transport.I2ConnectEntityData;
-import com.i2group.connector.spi.rest.transport.I2ConnectLinkData;
+import com.i2group.kcpd.rest.externalsource.SocrataBatchedCondition;
 import com.i2group.kcpd.rest.externalsource.SocrataClient;
-import com.i2group.kcpd.rest.externalsource.transport.SocrataResponse;
+import com.i2group.kcpd.rest.externalsource.SocrataLookupBatcher;
+import com.i2group.kcpd.rest.externalsource.SocrataMirror;
+import com.i2group.kcpd.rest.externalsource.SocrataMirrorSync;
+import com.i2group.kcpd.rest.externalsource.SocrataPager;
+import com.i2group.kcpd.rest.externalsource.SocrataProjection;
+import com.i2group.kcpd.rest.externalsource.SocrataQueryCache;
+import com.i2group.kcpd.rest.externalsource.SocrataRequestCoalescer;
+import com.i2group.kcpd.rest.externalsource.SocrataResultGovernor;
 import com.i2group.kcpd.rest.externalsource.transport.SocrataResponseData;
+import com.i2group.kcpd.rest.transport.CompositeKey;
+import com.i2group.kcpd.rest.transport.I2ConnectDataSink;
 import com.i2group.kcpd.rest.transport.ItemFactory;
+import com.i2group.kcpd.rest.transport.ResultGraphAssembler;
+import com.i2group.kcpd.rest.transport.StreamingI2ConnectData;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /** Used to query the KCPD Crime Data, turning the raw data into entities and links. */
 @Service
 public class ExternalConnectorDataService {
   private static final String LIMIT_FIELD = "limitValue";
   private static final String BASE_URL = "?$limit={" + LIMIT_FIELD + "}";
-  private final SocrataClient socrataClient;
-  private final int limitFieldValue = 50;
+  private static final SocrataLookupBatcher.Lookup REPORT_LOOKUP =
+      new SocrataLookupBatcher.Lookup("report_no", "'{0}'", row -> row.reportNumber);
+  private static final SocrataLookupBatcher.Lookup ADDRESS_LOOKUP =
+      new SocrataLookupBatcher.Lookup("address", "'{0}'", row -> row.address);
+  // The row identifier breaks ties between reports made on the same date when they are ranked
+  private static final String REPORT_SELECT = SocrataProjection.select(
+      SocrataResponseData.class, List.of("rowId"), ItemFactory.REPORT_FIELDS);
+  // The row identifier is selected so that rows matched by more than one batch of an expand
+  // are only used once
+  private static final String RECORD_SELECT = SocrataProjection.select(SocrataResponseData.class,
+      List.of("rowId"), ItemFactory.REPORT_FIELDS, ItemFactory.LOCATION_FIELDS, ItemFactory.PERSON_FIELDS);
+  // The mirror also holds the update time of each row, from which it is kept up to date
+  private static final String MIRROR_SELECT = SocrataProjection.select(SocrataResponseData.class,
+      List.of("rowId", "updatedAt"), ItemFactory.REPORT_FIELDS, ItemFactory.LOCATION_FIELDS,
+      ItemFactory.PERSON_FIELDS);
+  // Reports are ranked by the date they were made, latest first, in the order Socrata gives them
+  // for the governor's $order
+  private static final String RANK_COLUMN = "reported_date";
+  private static final Comparator<SocrataResponseData> RANKING = Comparator
+      .comparing((SocrataResponseData row) -> row.reportDate,
+          Comparator.nullsLast(Comparator.reverseOrder()))
+      .thenComparing(row -> row.rowId, Comparator.nullsLast(Comparator.naturalOrder()));
+  private final SocrataPager socrataPager;
+  private final SocrataQueryCache queryCache;
+  private final SocrataRequestCoalescer requestCoalescer = new SocrataRequestCoalescer();
+  private final int maxConditionLength;
+  private final SocrataLookupBatcher lookupBatcher;
+  private final SocrataMirror mirror;
+  private final SocrataMirrorSync mirrorSync;
+  private final SocrataResultGovernor governor;
+  private final boolean streamResponses;
 
   /**
    * Constructor used to initialise the Socrata client and factory objects used to retrieve
@@ -55,11 +104,106 @@ public class ExternalConnectorDataService {
    *
    * @param baseUrl The URL of the KCPD crime data.
    * @param apiToken The API token used to access the KCPD crime data.
+   * @param connectTimeout The connect timeout, in milliseconds, for requests to the dataset.
+   * @param readTimeout The read timeout, in milliseconds, for requests to the dataset.
+   * @param maxConnections The maximum number of concurrent requests to the dataset.
+   * @param pageSize The number of rows requested from the dataset in each page.
+   * @param maxParallelPages The maximum number of pages requested from the dataset at once.
+   * @param rowBudget The maximum number of rows retrieved from the dataset for one request.
+   * @param cacheMaxRows The maximum total number of rows held in the query cache.
+   * @param cacheDefaultTtl The time-to-live, in seconds, of cached query results.
+   * @param cacheTtls The time-to-live, in seconds, of cached query results for each service.
+   * @param maxConditionLength The maximum length of the batched condition in each request.
+   * @param lookupWindow The time, in milliseconds, for which expand lookups are held so that they
+   *     can be combined with others. Zero disables the combining of lookups.
+   * @param mirrorEnabled Whether queries are answered from an in-memory mirror of the dataset.
+   * @param mirrorSnapshot The snapshot file the mirror is loaded from. If the file does not exist,
+   *     the mirror is loaded from the dataset and saved to it. Empty to always load from the
+   *     dataset.
+   * @param mirrorMaxRows The maximum number of rows loaded from the dataset into the mirror,
+   *     and of changed rows applied to it at once.
+   * @param mirrorSyncInterval The time, in seconds, between retrievals of the rows which have
+   *     changed since the mirror was loaded. Zero disables the retrieval of changes.
+   * @param defaultTopK The maximum number of rows which results are built from, for services
+   *     without their own setting. Queries matching more rows are built from the most recently
+   *     made reports.
+   * @param topKs The maximum number of rows which results are built from, for each service.
+   * @param streamResponses Whether entities are written to the response as they are created,
+   *     rather than once every entity and link has been created.
    */
   @Autowired
   public ExternalConnectorDataService(
-      @Value("${socrata.url}") String baseUrl, @Value("${socrata.api.token}") String apiToken) {
-    socrataClient = new SocrataClient(baseUrl, apiToken);
+      @Value("${socrata.url}") String baseUrl, @Value("${socrata.api.token}") String apiToken,
+      @Value("${socrata.client.connect-timeout-ms:5000}") long connectTimeout,
+      @Value("${socrata.client.read-timeout-ms:30000}") long readTimeout,
+      @Value("${socrata.client.max-connections:8}") int maxConnections,
+      @Value("${socrata.paging.page-size:1000}") int pageSize,
+      @Value("${socrata.paging.max-parallel-pages:4}") int maxParallelPages,
+      @Value("${socrata.paging.row-budget:5000}") int rowBudget,
+      @Value("${socrata.cache.max-rows:50000}") long cacheMaxRows,
+      @Value("${socrata.cache.default-ttl-seconds:300}") long cacheDefaultTtl,
+      @Value("#{${socrata.cache.ttl-seconds:{:}}}") Map<String, Long> cacheTtls,
+      @Value("${socrata.batch.max-condition-length:2000}") int maxConditionLength,
+      @Value("${socrata.batch.lookup-window-ms:0}") long lookupWindow,
+      @Value("${socrata.mirror.enabled:false}") boolean mirrorEnabled,
+      @Value("${socrata.mirror.snapshot:}") String mirrorSnapshot,
+      @Value("${socrata.mirror.max-rows:1000000}") int mirrorMaxRows,
+      @Value("${socrata.mirror.sync-interval-seconds:0}") long mirrorSyncInterval,
+      @Value("${socrata.governor.default-top-k:5000}") int defaultTopK,
+      @Value("#{${socrata.governor.top-k:{:}}}") Map<String, Integer> topKs,
+      @Value("${connector.response.streaming:false}") boolean streamResponses) {
+    ItemFactory.setBaseUrl(baseUrl);
+    final SocrataClient socrataClient = new SocrataClient(baseUrl, apiToken,
+        Duration.ofMillis(connectTimeout), Duration.ofMillis(readTimeout), maxConnections);
+    socrataPager = new SocrataPager(socrataClient, pageSize, maxParallelPages, rowBudget);
+
+    final Map<String, Duration> serviceTtls = new HashMap<>();
+    cacheTtls.forEach((service, ttl) -> serviceTtls.put(service, Duration.ofSeconds(ttl)));
+    queryCache =
+        new SocrataQueryCache(cacheMaxRows, Duration.ofSeconds(cacheDefaultTtl), serviceTtls);
+    this.maxConditionLength = maxConditionLength;
+    this.lookupBatcher = new SocrataLookupBatcher(Duration.ofMillis(lookupWindow),
+        maxConditionLength, rowBudget, (url, params) -> query("expand", url, params));
+    this.governor = new SocrataResultGovernor(
+        socrataClient, RANK_COLUMN, RANKING, defaultTopK, topKs, rowBudget);
+    this.streamResponses = streamResponses;
+
+    if (mirrorEnabled) {
+      final SocrataPager mirrorPager =
+          new SocrataPager(socrataClient, pageSize, maxParallelPages, mirrorMaxRows);
+      try {
+        mirror = SocrataMirror.load(mirrorSnapshot.isEmpty() ? null : Path.of(mirrorSnapshot),
+            () -> mirrorPager.stream(BASE_URL + MIRROR_SELECT, Collections.emptyMap()));
+      } catch (IOException e) {
+        throw new UncheckedIOException("Unable to load the dataset mirror", e);
+      }
+      mirrorSync = new SocrataMirrorSync(
+          mirror, mirrorPager, BASE_URL + MIRROR_SELECT, mirrorMaxRows);
+      if (mirrorSyncInterval > 0) {
+        mirrorSync.start(Duration.ofSeconds(mirrorSyncInterval));
+      }
+    } else {
+      mirror = null;
+      mirrorSync = null;
+    }
+  }
+
+  /**
+   * Get the hit, miss and eviction statistics of the query cache.
+   *
+   * @return The current cache statistics.
+   */
+  public SocrataQueryCache.Statistics getCacheStatistics() {
+    return queryCache.getStatistics();
+  }
+
+  /**
+   * Get the size of the dataset mirror and the progress of its sync.
+   *
+   * @return The current mirror statistics, or null if there is no mirror.
+   */
+  public SocrataMirrorSync.Statistics getMirrorStatistics() {
+    return mirrorSync != null ? mirrorSync.getStatistics() : null;
   }
 
   /**
@@ -68,11 +212,11 @@ public class ExternalConnectorDataService {
    * @return A response containing the entities and links.
    */
   public I2ConnectData retrieveAll() {
-    final Map<String, Object> params = new HashMap<>();
-    params.put(LIMIT_FIELD, limitFieldValue);
-
-    final SocrataResponse response = socrataClient.get(BASE_URL, SocrataResponse.class, params);
-    return marshalItemsFromResponse(response);
+    final SocrataResultGovernor.Source source = mirror != null
+        ? mirrorSource(mirror.match())
+        : querySource("all", RECORD_SELECT, "", Collections.emptyMap());
+    return respond("all", source,
+        (rows, sink) -> marshalItemsFromResponse(rows, new ResultGraphAssembler(sink)));
   }
 
   /**
@@ -83,211 +227,357 @@ public class ExternalConnectorDataService {
    */
   public I2ConnectData search(List<DaodRequestCondition> conditions) {
     final Map<String, Object> params = new HashMap<>();
-    params.put(LIMIT_FIELD, limitFieldValue);
-    String url = BASE_URL;
+    final List<SocrataMirror.Condition> mirrorConditions = new ArrayList<>();
+    String where = "";
 
     int count = 0;
     for (DaodRequestCondition condition : conditions) {
-      url += count == 0 ? "&$where=" : " AND ";
+      where += count == 0 ? "&$where=" : " AND ";
       params.put(condition.id, condition.value);
       if (condition.id.equals("offense")) {
-        url += condition.id + " like '%{" + condition.id + "}%'";
+        where += condition.id + " like '%{" + condition.id + "}%'";
+        mirrorConditions.add(
+            SocrataMirror.Condition.like(condition.id, "%" + condition.value + "%"));
       } else {
-        url += condition.id + "='{" + condition.id + "}'";
+        where += condition.id + "='{" + condition.id + "}'";
+        mirrorConditions.add(
+            SocrataMirror.Condition.in(condition.id, Collections.singletonList(condition.value)));
       }
       count++;
     }
 
-    final SocrataResponse response = socrataClient.get(url, SocrataResponse.class, params);
-    final I2ConnectData connectorResponse = new I2ConnectData();
-
-    connectorResponse.entities = buildEntities(response);
-
-    return connectorResponse;
+    final SocrataResultGovernor.Source source = mirror != null
+        ? mirrorSource(mirror.matchAny(List.of(mirrorConditions)))
+        : querySource("search", REPORT_SELECT, where, params);
+    return respond("search", source,
+        (rows, sink) -> buildEntities(rows, new ResultGraphAssembler(sink)));
   }
 
   /**
-   * Performs a Find-Like-This-Location operation, finding entities with similar properties to a selected
-   * entity.
+   * Performs a Find-Like-This-Location operation, finding entities with similar properties to the
+   * selected entities.
    *
    * @param seeds The selected entities provided by the user via the interface.
    * @return A response containing the entities and links.
    */
   public I2ConnectData findLikeThisLocation(DaodSeeds seeds) {
-    final DaodSeedEntityData seed = seeds.entities.get(0);
-    final Map<String, Object> params = new HashMap<>();
+    final Set<Object> addresses = new LinkedHashSet<>();
+    for (DaodSeedEntityData seed : seeds.entities) {
+      addresses.add(seed.properties.get("PT10"));
+    }
 
-    params.put(LIMIT_FIELD, limitFieldValue);
-    params.put("address", seed.properties.get("PT10"));
-    final String url = BASE_URL + "&$where=address='{address}'";
+    final SocrataResultGovernor.Source source = mirror != null
+        ? mirrorSource(mirror.match(SocrataMirror.Condition.in("address", addresses)))
+        : queryAddresses(addresses);
+    return respond("find-like-this", source,
+        (rows, sink) -> buildEntities(rows, new ResultGraphAssembler(sink)));
+  }
 
-    final SocrataResponse response = socrataClient.get(url, SocrataResponse.class, params);
+  /**
+   * Query Socrata for the reports at any of the addresses.
+   *
+   * @param addresses The addresses.
+   * @return The rows matching the query.
+   */
+  private SocrataResultGovernor.Source queryAddresses(Set<Object> addresses) {
+    final SocrataBatchedCondition condition =
+        SocrataBatchedCondition.in("address", "'{0}'", maxConditionLength);
+    addresses.forEach(condition::add);
 
-    final I2ConnectData connectorResponse = new I2ConnectData();
-    connectorResponse.entities = buildEntities(response);
-    return connectorResponse;
+    return batchSource("find-like-this", REPORT_SELECT, condition.getBatches());
   }
 
-  
   /**
    * Performs an Expand operation on selected entities, finding entities which stem from the same
-   * source records.
+   * source records. Reports are matched by report number and locations by address.
    *
    * @param seeds The selected entities provided by the user via the interface.
    * @return A response containing the entities and links.
    */
   public I2ConnectData expand(DaodSeeds seeds) {
-    final DaodSeedEntityData seed = seeds.entities.get(0);
-    String field = "", value = "";
-
-    if (seed.typeId.equals("ET1")) {
-      field = "report_no";
-      value = seed.properties.get("PT1").toString();
-    } else if (seed.typeId.equals("ET2")) {
-      field = "address";
-      value = seed.properties.get("PT10").toString();
+    final Map<SocrataLookupBatcher.Lookup, Set<String>> seedValues = new LinkedHashMap<>();
+    seedValues.put(REPORT_LOOKUP, new LinkedHashSet<>());
+    seedValues.put(ADDRESS_LOOKUP, new LinkedHashSet<>());
+
+    for (DaodSeedEntityData seed : seeds.entities) {
+      if (seed.typeId.equals("ET1")) {
+        seedValues.get(REPORT_LOOKUP).add(seed.properties.get("PT1").toString());
+      } else if (seed.typeId.equals("ET2")) {
+        seedValues.get(ADDRESS_LOOKUP).add(seed.properties.get("PT10").toString());
+      }
     }
 
-    final Map<String, Object> params = new HashMap<>();
-    params.put(LIMIT_FIELD, limitFieldValue);
-    params.put("field", field);
-    params.put("value", value);
-    final String url = BASE_URL + "&{field}={value}";
+    final String url = BASE_URL + RECORD_SELECT + "&$where=";
 
-    final SocrataResponse socrataResponse = socrataClient.get(url, SocrataResponse.class, params);
-    I2ConnectData response = marshalItemsFromResponse(socrataResponse);
-    response.links = linkToSeedIds(response, seed);
+    final SocrataResultGovernor.Source source = mirror != null
+        ? mirrorSource(findInMirror(seedValues))
+        : lookupBatcher.isEnabled()
+        ? listSource(lookupBatcher.lookup(url, seedValues))
+        : batchSource("expand", RECORD_SELECT, buildExpandConditions(seedValues));
+    return respond("expand", source, (rows, sink) -> marshalItemsFromResponse(
+        rows, new ResultGraphAssembler(sink, seeds.entities, ItemFactory::parseEntityId)));
+  }
 
-    return response;
+  /**
+   * Find the source records of the selected entities in the dataset mirror.
+   *
+   * @param seedValues The values to look up in each column.
+   * @return The matching rows.
+   */
+  private SocrataMirror.Matches findInMirror(
+      Map<SocrataLookupBatcher.Lookup, Set<String>> seedValues) {
+    final List<List<SocrataMirror.Condition>> alternatives = new ArrayList<>();
+    seedValues.forEach((lookup, values) ->
+        alternatives.add(List.of(SocrataMirror.Condition.in(lookup.getColumn(), values))));
+    return mirror.matchAny(alternatives);
   }
 
   /**
-   * Marshal the response items into a list of entities and links. Ensures no duplicate reports
-   * or locations are included.
+   * Build the conditions matching the source records of the selected entities, with one batched
+   * condition for each column.
    *
-   * @param response The resulting source records returned from the request.
-   * @return The response containing entities and links.
+   * @param seedValues The values to look up in each column.
+   * @return The batches of the conditions.
    */
-  private I2ConnectData marshalItemsFromResponse(SocrataResponse response) {
-    final List<I2ConnectEntityData> entities = new ArrayList<>();
-    final List<I2ConnectLinkData> links = new ArrayList<>();
-    final Set<String> personLinks = new HashSet<>();
+  private List<SocrataBatchedCondition.Batch> buildExpandConditions(
+      Map<SocrataLookupBatcher.Lookup, Set<String>> seedValues) {
+    final List<SocrataBatchedCondition.Batch> batches = new ArrayList<>();
+    seedValues.forEach((lookup, values) -> {
+      final SocrataBatchedCondition condition = SocrataBatchedCondition.in(
+          lookup.getColumn(), lookup.getValueTemplate(), maxConditionLength);
+      values.forEach(condition::add);
+      batches.addAll(condition.getBatches());
+    });
+    return batches;
+  }
 
-    final Map<String, I2ConnectEntityData> reports = new HashMap<>();
-    final Map<String, I2ConnectEntityData> locations = new HashMap<>();
-    final Map<String, I2ConnectEntityData> people = new HashMap<>();
-    final Map<String, I2ConnectLinkData> locationLinks = new HashMap<>();
+  /**
+   * Query the rows of the dataset mirror which matched.
+   *
+   * @param matches The matching rows.
+   * @return The rows matching the query.
+   */
+  private SocrataResultGovernor.Source mirrorSource(SocrataMirror.Matches matches) {
+    return SocrataResultGovernor.Source.of(matches::count, matches::rows,
+        limit -> matches.latest(governor.getRankColumn(), limit));
+  }
 
-    response
-        .forEach(
-            entry -> {
-              I2ConnectEntityData report;
-              String uniqueReport = entry.reportNumber;
-              if (reports.containsKey(uniqueReport)) {
-                report = reports.get(uniqueReport);
-              } else {
-                report = ItemFactory.createReport(entry);
-                reports.put(uniqueReport, report);
-                entities.add(report);
-              }
+  /**
+   * Query rows which have already been retrieved.
+   *
+   * @param rows The rows.
+   * @return The rows matching the query.
+   */
+  private SocrataResultGovernor.Source listSource(List<SocrataResponseData> rows) {
+    return SocrataResultGovernor.Source.of(rows::size, rows::stream,
+        limit -> governor.top(rows.stream(), limit));
+  }
 
-              I2ConnectEntityData location;
-              String uniqueLocation = entry.address + entry.zipCode;
-              if (locations.containsKey(uniqueLocation)) {
-                location = locations.get(uniqueLocation);
-              } else {
-                location = ItemFactory.createLocation(entry);
-                locations.put(uniqueLocation, location);
-                entities.add(location);
-              }
+  /**
+   * Query Socrata, counting the rows with a single request.
+   *
+   * @param service The name of the service making the query.
+   * @param select The $select parameter of the request.
+   * @param where The $where parameter of the request, or empty to match every row.
+   * @param params The map of parameters used by the condition.
+   * @return The rows matching the query.
+   */
+  private SocrataResultGovernor.Source querySource(
+      String service, String select, String where, Map<String, ?> params) {
+    final String url = BASE_URL + select + where;
+    return SocrataResultGovernor.Source.of(
+        () -> count(service, where, params).join(),
+        () -> query(service, url, params),
+        limit -> queryRanked(service, url, params, limit));
+  }
 
-              I2ConnectEntityData person;
-              String uniquePerson = ItemFactory.buildId(entry);
-              if (people.containsKey(uniquePerson)) {
-                person = people.get(uniquePerson);
-              } else {
-                person = ItemFactory.createPerson(entry);
-                people.put(uniquePerson, person);
-                entities.add(person);
-              }
+  /**
+   * Query Socrata with each batch of a batched condition. Rows matched by more than one batch are
+   * only returned once. The batches are counted at the same time, and the sum of their counts is
+   * the count of the query. The highest ranking rows of each batch are ranked together.
+   *
+   * @param service The name of the service making the query.
+   * @param select The $select parameter of the request.
+   * @param batches The batches of the condition.
+   * @return The rows matching the query.
+   */
+  private SocrataResultGovernor.Source batchSource(
+      String service, String select, List<SocrataBatchedCondition.Batch> batches) {
+    final String url = BASE_URL + select + "&$where=";
+    return SocrataResultGovernor.Source.of(
+        () -> batches.stream()
+            .map(batch -> count(service, "&$where=" + batch.condition, batch.variables))
+            .collect(Collectors.toList())
+            .stream()
+            .mapToLong(CompletableFuture::join)
+            .sum(),
+        () -> distinctRows(batches.stream()
+            .flatMap(batch -> query(service, url + batch.condition, batch.variables))),
+        limit -> governor.top(distinctRows(batches.stream().flatMap(batch ->
+            queryRanked(service, url + batch.condition, batch.variables, limit))), limit));
+  }
 
-              I2ConnectLinkData locationLink;
-              String uniqueLocationLink = entry.reportNumber;
-              if (locationLinks.containsKey(uniqueLocationLink)) {
-                locationLink = locationLinks.get(uniqueLocationLink);
-              } else {
-                locationLink = ItemFactory.createLocationLink(entry, report, location);
-                locationLinks.put(uniqueLocationLink, locationLink);
-                links.add(locationLink);
+  private static Stream<SocrataResponseData> distinctRows(Stream<SocrataResponseData> rows) {
+    final Set<String> rowIds = new HashSet<>();
+    return rows.filter(row -> row.rowId == null || rowIds.add(row.rowId));
+  }
+
+  /**
+   * Retrieve the rows matching a query, from the query cache if possible. Otherwise, the
+   * request to Socrata is shared with any identical query which is already in flight.
+   *
+   * @param service The name of the service making the query.
+   * @param url The constructed URL extension of the request.
+   * @param params The map of parameters to be included within the request.
+   * @return The rows matching the query.
+   */
+  private Stream<SocrataResponseData> query(String service, String url, Map<String, ?> params) {
+    return queryCache.stream(service, url, params, () -> requestCoalescer.stream(url, params,
+        () -> socrataPager.stream(url, params)));
+  }
+
+  /**
+   * Count the rows matching a query, from the query cache if possible. Otherwise, the count
+   * request to Socrata is shared with any identical count which is already in flight.
+   *
+   * @param service The name of the service making the query.
+   * @param where The $where parameter of the query, or empty to count every row.
+   * @param params The map of parameters used by the condition.
+   * @return A future which completes with the number of matching rows.
+   */
+  private CompletableFuture<Long> count(String service, String where, Map<String, ?> params) {
+    final String url = governor.getCountUrl(where);
+    return queryCache.count(service, url, params, () -> requestCoalescer.count(url, params,
+        () -> governor.count(where, params)));
+  }
+
+  /**
+   * Retrieve the rows of a query which rank highest, from the query cache if possible.
+   *
+   * @param service The name of the service making the query.
+   * @param url The constructed URL extension of the request.
+   * @param params The map of parameters to be included within the request.
+   * @param limit The maximum number of rows.
+   * @return The rows, latest first.
+   */
+  private Stream<SocrataResponseData> queryRanked(
+      String service, String url, Map<String, ?> params, int limit) {
+    // The order and limit are only part of the key, so that ranked rows are cached apart from the
+    // rows of the same query in the usual order
+    final String key = url + "&$order=" + governor.getOrder() + "&$top=" + limit;
+    return queryCache.stream(service, key, params, () -> requestCoalescer.stream(key, params,
+        () -> socrataPager.stream(url, params, governor.getOrder(), limit)));
+  }
+
+  /**
+   * Build a response from the rows of a query, whose number is bounded by the governor. If the
+   * governor leaves rows out, the response says so in its error message.
+   *
+   * @param service The name of the service making the query.
+   * @param source The rows matching the query.
+   * @param producer Produces the entities and links of the response from the rows.
+   * @return The response.
+   */
+  private I2ConnectData respond(String service, SocrataResultGovernor.Source source,
+      BiConsumer<Stream<SocrataResponseData>, I2ConnectDataSink> producer) {
+    return respond(sink -> {
+      final SocrataResultGovernor.Selection selection = governor.select(service, source);
+      try (Stream<SocrataResponseData> rows = selection.rows()) {
+        producer.accept(rows, sink);
+      }
+      sink.setErrorMessage(selection.getNotice());
+    });
+  }
+
+  /**
+   * Build a response from the entities and links which a producer gives to a sink. When responses
+   * are streamed, the producer runs while the response is written, so the entities are never all
+   * held in memory. Otherwise, the producer runs now and the items are collected into the response.
+   *
+   * @param producer Produces the entities and links of the response.
+   * @return The response.
+   */
+  private I2ConnectData respond(Consumer<I2ConnectDataSink> producer) {
+    if (streamResponses) {
+      return new StreamingI2ConnectData(producer);
+    }
+    final I2ConnectData response = new I2ConnectData();
+    producer.accept(I2ConnectDataSink.collectingInto(response));
+    return response;
+  }
+
+  /**
+   * Marshal the response items into entities and links. Ensures no duplicate reports or locations
+   * are included. Each source record is marshaled as soon as it is read from the response.
+   *
+   * @param rows The resulting source records returned from the request.
+   * @param graph The assembler which receives the entities and links.
+   */
+  private void marshalItemsFromResponse(
+      Stream<SocrataResponseData> rows, ResultGraphAssembler graph) {
+    final ResultGraphAssembler.EntityIndex<SocrataResponseData> reports =
+        graph.entities(ItemFactory::createReport);
+    final ResultGraphAssembler.EntityIndex<SocrataResponseData> locations =
+        graph.entities(ItemFactory::createLocation);
+    final ResultGraphAssembler.EntityIndex<CompositeKey> people =
+        graph.entities(ItemFactory::createPerson);
+    final ResultGraphAssembler.LinkIndex locationLinks = graph.links();
+    final ResultGraphAssembler.LinkIndex personLinks = graph.links();
+
+    rows
+        .forEach(
+            entry -> {
+              final I2ConnectEntityData report = reports.get(entry.reportNumber, entry);
+              final I2ConnectEntityData location =
+                  locations.get(entry.address + entry.zipCode, entry);
+              final CompositeKey personKey = CompositeKey.of(entry);
+              final I2ConnectEntityData person =
+                  people.get(personKey.getHigh(), personKey.getLow(), personKey);
+
+              if (locationLinks.add(entry.reportNumber)) {
+                graph.addLink(ItemFactory.createLocationLink(entry, report, location));
               }
 
-              String uniquePersonLink = ItemFactory.buildId(entry);
-              if (!personLinks.contains(uniquePersonLink)) {
-                addLinks(links, entry, report, person);
-                personLinks.add(uniquePersonLink);
-              } 
+              if (personLinks.add(personKey.getHigh(), personKey.getLow())) {
+                addLinks(graph, personKey, report, person);
+              }
             });
-
-    final I2ConnectData connectorResponse = new I2ConnectData();
-    connectorResponse.entities = entities;
-    connectorResponse.links = links;
-    return connectorResponse;
   }
 
-  private void addLinks(final List<I2ConnectLinkData> links, SocrataResponseData entry, I2ConnectEntityData report, I2ConnectEntityData person) {
+  private void addLinks(final I2ConnectDataSink sink, CompositeKey key, I2ConnectEntityData report, I2ConnectEntityData person) {
+    final SocrataResponseData entry = key.getRecord();
     List<String> involvementList = Arrays.asList(entry.involvement.split("\\s+"));
 
     involvementList.forEach(involvement -> {
       switch(involvement) {
         case "SUS":
-          links.add(ItemFactory.createSuspectLink(entry, report, person));
+          sink.addLink(ItemFactory.createSuspectLink(key, report, person));
           break;
         case "VIC":
-          links.add(ItemFactory.createVictimLink(entry, report, person));
+          sink.addLink(ItemFactory.createVictimLink(key, report, person));
           break;
         case "ARR":
-          links.add(ItemFactory.createArrestedLink(entry, report, person));
+          sink.addLink(ItemFactory.createArrestedLink(key, report, person));
           break;
         case "CHA":
-          links.add(ItemFactory.createChargedLink(entry, report, person));
+          sink.addLink(ItemFactory.createChargedLink(key, report, person));
           break;
         case "CMP":
-          links.add(ItemFactory.createComplicitLink(entry, report, person));
+          sink.addLink(ItemFactory.createComplicitLink(key, report, person));
           break;
       }
     });
   }
 
-    /**
-   * Match link ends to seed identifiers.
+  /**
+   * Build the report entities of the response items. Ensures no duplicate reports are included.
    *
-   * @param response The response containing the marshaled entities and links.
-   * @param seed The selected entity provided by the user via the interface.
-   * @return The list of links matched to the corresponding seed identifiers.
+   * @param rows The resulting source records returned from the request.
+   * @param graph The assembler which receives the entities.
    */
-  private List<I2ConnectLinkData> linkToSeedIds(I2ConnectData response, DaodSeedEntityData seed) {
-    for (I2ConnectLinkData link : response.links) {
-      String sourceId = seed.sourceIds.get(0).key.get(2);
-      if (link.fromEndId.equals(sourceId)) {
-        link.fromEndId = seed.seedId;
-      } else if (link.toEndId.equals(sourceId)) {
-        link.toEndId = seed.seedId;
-      }
-    }
-    return response.links;
-  }
-
-  private List<I2ConnectEntityData> buildEntities(final SocrataResponse response) {
-    List<String> uniqueId = new ArrayList<>();
-    List<I2ConnectEntityData> entities = new ArrayList<>();
-
-    response.forEach(entry -> {
-      if (!uniqueId.contains(entry.reportNumber)) {
-        I2ConnectEntityData entity = ItemFactory.createReport(entry);
-        entities.add(entity);
-        uniqueId.add(entry.reportNumber);
-      }
-    });
-    return entities;
+  private void buildEntities(final Stream<SocrataResponseData> rows, ResultGraphAssembler graph) {
+    final ResultGraphAssembler.EntityIndex<SocrataResponseData> reports =
+        graph.entities(ItemFactory::createReport);
+    rows.forEach(entry -> reports.get(entry.reportNumber, entry));
   }
 }
@@ -0,0 +1,174 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.kcpd.rest.externalsource;
+
+import org.springframework.web.util.UriUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds SoQL conditions which match any of many values, such as {@code cmplnt_num IN ('1','2')}.
+ * Each value is bound as a separate URI variable, with its single quotes escaped. The values are
+ * split into batches so that the condition in each request stays within a maximum length.
+ */
+public class SocrataBatchedCondition {
+  private static final String VARIABLE_PREFIX = "batch";
+
+  private final String prefix;
+  private final String separator;
+  private final String suffix;
+  private final String termTemplate;
+  private final int maxLength;
+  private final Set<List<Object>> added = new HashSet<>();
+  private final List<Batch> batches = new ArrayList<>();
+  private StringBuilder condition;
+  private Map<String, Object> variables;
+  private List<List<Object>> terms;
+  private int length;
+  private int variableCount;
+
+  private SocrataBatchedCondition(
+      String prefix, String separator, String suffix, String termTemplate, int maxLength) {
+    this.prefix = prefix;
+    this.separator = separator;
+    this.suffix = suffix;
+    this.termTemplate = termTemplate;
+    this.maxLength = maxLength;
+  }
+
+  /**
+   * Create a condition matching rows whose column has any of the added values.
+   *
+   * @param column The name of the column.
+   * @param valueTemplate The SoQL for each value, where {0} is replaced by the value. For example,
+   *     {@code '{0}'} for a text column or {@code {0}} for a number column.
+   * @param maxLength The maximum length of the encoded condition in each batch.
+   * @return The empty condition.
+   */
+  public static SocrataBatchedCondition in(String column, String valueTemplate, int maxLength) {
+    return new SocrataBatchedCondition(column + " IN (", ",", ")", valueTemplate, maxLength);
+  }
+
+  /**
+   * Create a condition matching rows which match any of the added terms.
+   *
+   * @param termTemplate The SoQL for each term, where {0}, {1} and so on are replaced by the
+   *     values of the term. For example, {@code (borough='{0}' AND location='{1}')}.
+   * @param maxLength The maximum length of the encoded condition in each batch.
+   * @return The empty condition.
+   */
+  public static SocrataBatchedCondition anyOf(String termTemplate, int maxLength) {
+    return new SocrataBatchedCondition("(", " OR ", ")", termTemplate, maxLength);
+  }
+
+  /**
+   * Add a term to the condition. Terms which have already been added are ignored.
+   *
+   * @param values The values of the term.
+   * @return This condition.
+   */
+  public SocrataBatchedCondition add(Object... values) {
+    final List<Object> addedTerm = Arrays.asList(values);
+    if (!added.add(addedTerm)) {
+      return this;
+    }
+
+    String term = termTemplate;
+    String expandedTerm = termTemplate;
+    final Map<String, Object> termVariables = new HashMap<>();
+    for (int i = 0; i < values.length; i++) {
+      final String name = VARIABLE_PREFIX + variableCount++;
+      final String value = String.valueOf(values[i]).replace("'", "''");
+      term = term.replace("{" + i + "}", "{" + name + "}");
+      expandedTerm = expandedTerm.replace("{" + i + "}", value);
+      termVariables.put(name, value);
+    }
+    final int termLength = encodedLength(expandedTerm);
+
+    if (condition != null && length + encodedLength(separator) + termLength > maxLength) {
+      finishBatch();
+    }
+    if (condition == null) {
+      condition = new StringBuilder(prefix);
+      variables = new HashMap<>();
+      terms = new ArrayList<>();
+      length = encodedLength(prefix) + encodedLength(suffix);
+    } else {
+      condition.append(separator);
+      length += encodedLength(separator);
+    }
+    condition.append(term);
+    variables.putAll(termVariables);
+    terms.add(addedTerm);
+    length += termLength;
+    return this;
+  }
+
+  /**
+   * Get the batches of the condition, each of which is sent in a separate request.
+   *
+   * @return The batches, or an empty list if no terms were added.
+   */
+  public List<Batch> getBatches() {
+    finishBatch();
+    return Collections.unmodifiableList(batches);
+  }
+
+  /** Measure SoQL as the {@link SocrataClient} encodes it, as a component of a query parameter. */
+  private static int encodedLength(String soql) {
+    return UriUtils.encodeQueryParam(soql, StandardCharsets.UTF_8).length();
+  }
+
+  private void finishBatch() {
+    if (condition != null) {
+      batches.add(new Batch(condition.append(suffix).toString(), variables, terms));
+      condition = null;
+    }
+  }
+
+  /**
+   * A condition to be sent in one request, the values of the URI variables it uses, and the values
+   * of each of its terms as they were added.
+   */
+  public static class Batch {
+    public final String condition;
+    public final Map<String, Object> variables;
+    public final List<List<Object>> terms;
+
+    Batch(String condition, Map<String, Object> variables, List<List<Object>> terms) {
+      this.condition = condition;
+      this.variables = variables;
+      this.terms = terms;
+    }
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.kcpd.rest.externalsource;
+
+import com.i2group.kcpd.rest.externalsource.transport.SocrataResponseData;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Combines lookups on the same column which are made at about the same time. Lookups are held for
+ * a short window, after which the values of every lookup on a column are sent in one batched
+ * {@code IN (...)} query. Each lookup then receives the rows which match its own values.
+ *
+ * <p>A query returns at most the row budget, so a batched query which returns that many rows may
+ * have been cut short. The lookups whose values it combined are then each made on their own, and
+ * receive the rows they would have received without batching.
+ */
+public class SocrataLookupBatcher {
+  private final Duration window;
+  private final int maxConditionLength;
+  private final int rowBudget;
+  private final BiFunction<String, Map<String, ?>, Stream<SocrataResponseData>> query;
+  private final Executor flushExecutor;
+  private final Map<List<Object>, PendingLookups> pending = new HashMap<>();
+
+  /**
+   * Initialise the batcher.
+   *
+   * @param window The time for which lookups are held before they are sent. A zero window
+   *     disables batching.
+   * @param maxConditionLength The maximum length of the batched condition in each request.
+   * @param rowBudget The maximum number of rows returned by a query.
+   * @param query Runs a query, given the URL extension of the request and its parameters.
+   */
+  public SocrataLookupBatcher(Duration window, int maxConditionLength, int rowBudget,
+      BiFunction<String, Map<String, ?>, Stream<SocrataResponseData>> query) {
+    this.window = window;
+    this.maxConditionLength = maxConditionLength;
+    this.rowBudget = rowBudget;
+    this.query = query;
+
+    final AtomicInteger threadCount = new AtomicInteger();
+    final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+      final Thread thread = new Thread(runnable, "socrata-lookup-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.flushExecutor =
+        CompletableFuture.delayedExecutor(window.toMillis(), TimeUnit.MILLISECONDS, executor);
+  }
+
+  /**
+   * Whether lookups are batched. When they are not, callers should query Socrata directly.
+   *
+   * @return true if the batching window is greater than zero.
+   */
+  public boolean isEnabled() {
+    return !window.isZero() && !window.isNegative();
+  }
+
+  /**
+   * Look up the rows whose columns have any of the given values, waiting until the batches
+   * containing the lookups have been sent. Rows matched by more than one lookup are only returned
+   * once.
+   *
+   * @param url The URL extension of the request, ending with the $where parameter.
+   * @param lookups The values to look up for each column.
+   * @return The rows matching any of the lookups.
+   */
+  public List<SocrataResponseData> lookup(
+      String url, Map<Lookup, ? extends Collection<String>> lookups) {
+    final List<CompletableFuture<List<SocrataResponseData>>> results = new ArrayList<>();
+    lookups.forEach((lookup, values) -> {
+      if (!values.isEmpty()) {
+        results.add(submit(url, lookup, new HashSet<>(values)));
+      }
+    });
+
+    final Set<String> rowIds = new HashSet<>();
+    final List<SocrataResponseData> rows = new ArrayList<>();
+    for (CompletableFuture<List<SocrataResponseData>> result : results) {
+      for (SocrataResponseData row : await(result)) {
+        if (row.rowId == null || rowIds.add(row.rowId)) {
+          rows.add(row);
+        }
+      }
+    }
+    return rows;
+  }
+
+  private synchronized CompletableFuture<List<SocrataResponseData>> submit(
+      String url, Lookup lookup, Set<String> values) {
+    final List<Object> key = Arrays.asList(url, lookup.column, lookup.valueTemplate);
+    PendingLookups batch = pending.get(key);
+    if (batch == null) {
+      batch = new PendingLookups(key, url, lookup);
+      pending.put(key, batch);
+      final PendingLookups flushed = batch;
+      flushExecutor.execute(() -> flush(flushed));
+    }
+
+    final Waiter waiter = new Waiter(values);
+    batch.waiters.add(waiter);
+    return waiter.result;
+  }
+
+  private void flush(PendingLookups batch) {
+    synchronized (this) {
+      pending.remove(batch.key, batch);
+    }
+
+    try {
+      final Map<String, List<Waiter>> waitersByValue = new LinkedHashMap<>();
+      for (Waiter waiter : batch.waiters) {
+        for (String value : waiter.values) {
+          waitersByValue.computeIfAbsent(value, unused -> new ArrayList<>()).add(waiter);
+        }
+      }
+
+      final Set<Waiter> cutShort = new LinkedHashSet<>();
+      for (SocrataBatchedCondition.Batch request : batches(batch, waitersByValue.keySet())) {
+        final Set<Waiter> requesters = new HashSet<>();
+        for (List<Object> term : request.terms) {
+          requesters.addAll(waitersByValue.get((String) term.get(0)));
+        }
+        final List<SocrataResponseData> rows = run(batch, request);
+        if (rows.size() >= rowBudget && requesters.size() > 1) {
+          // The rows may have been cut short, so each of the lookups is made on its own
+          cutShort.addAll(requesters);
+          continue;
+        }
+        for (SocrataResponseData row : rows) {
+          final String value = batch.lookup.columnValue.apply(row);
+          for (Waiter waiter : waitersByValue.getOrDefault(value, Collections.emptyList())) {
+            waiter.rows.add(row);
+          }
+        }
+      }
+      for (Waiter waiter : cutShort) {
+        waiter.rows.clear();
+        for (SocrataBatchedCondition.Batch request : batches(batch, waiter.values)) {
+          waiter.rows.addAll(run(batch, request));
+        }
+      }
+      batch.waiters.forEach(waiter -> waiter.result.complete(waiter.rows));
+    } catch (RuntimeException e) {
+      batch.waiters.forEach(waiter -> waiter.result.completeExceptionally(e));
+    }
+  }
+
+  private List<SocrataBatchedCondition.Batch> batches(
+      PendingLookups batch, Collection<String> values) {
+    final SocrataBatchedCondition condition = SocrataBatchedCondition.in(
+        batch.lookup.column, batch.lookup.valueTemplate, maxConditionLength);
+    values.forEach(condition::add);
+    return condition.getBatches();
+  }
+
+  private List<SocrataResponseData> run(
+      PendingLookups batch, SocrataBatchedCondition.Batch request) {
+    try (Stream<SocrataResponseData> rows =
+        query.apply(batch.url + request.condition, request.variables)) {
+      return rows.collect(Collectors.toList());
+    }
+  }
+
+  private static List<SocrataResponseData> await(
+      CompletableFuture<List<SocrataResponseData>> result) {
+    try {
+      return result.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /** A column which can be looked up, and how to read its value from a row. */
+  public static class Lookup {
+    private final String column;
+    private final String valueTemplate;
+    private final Function<SocrataResponseData, String> columnValue;
+
+    /**
+     * Define a column which can be looked up.
+     *
+     * @param column The name of the column.
+     * @param valueTemplate The SoQL for each value, where {0} is replaced by the value.
+     * @param columnValue Reads the value of the column from a row, in the same form as the values
+     *     which are looked up.
+     */
+    public Lookup(String column, String valueTemplate,
+        Function<SocrataResponseData, String> columnValue) {
+      this.column = column;
+      this.valueTemplate = valueTemplate;
+      this.columnValue = columnValue;
+    }
+
+    /**
+     * Get the name of the column.
+     *
+     * @return The name of the column.
+     */
+    public String getColumn() {
+      return column;
+    }
+
+    /**
+     * Get the SoQL for each value.
+     *
+     * @return The SoQL for each value, where {0} is replaced by the value.
+     */
+    public String getValueTemplate() {
+      return valueTemplate;
+    }
+  }
+
+  /** The lookups on a column which are waiting to be sent. */
+  private static class PendingLookups {
+    private final List<Object> key;
+    private final String url;
+    private final Lookup lookup;
+    private final List<Waiter> waiters = new ArrayList<>();
+
+    PendingLookups(List<Object> key, String url, Lookup lookup) {
+      this.key = key;
+      this.url = url;
+      this.lookup = lookup;
+    }
+  }
+
+  /** A lookup which is waiting for its rows. */
+  private static class Waiter {
+    private final Set<String> values;
+    private final List<SocrataResponseData> rows = new ArrayList<>();
+    private final CompletableFuture<List<SocrataResponseData>> result = new CompletableFuture<>();
+
+    Waiter(Set<String> values) {
+      this.values = values;
+    }
+  }
+}
@@ -0,0 +1,859 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.kcpd.rest.externalsource;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.i2group.kcpd.rest.externalsource.transport.SocrataResponseData;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.IntPredicate;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * An in-memory copy of a Socrata dataset, which answers queries without making requests to
+ * Socrata. Each field of {@link SocrataResponseData} is held in its own column. Text is
+ * dictionary-encoded, with each row holding the code of its value, and numbers, dates and times
+ * are held in primitive arrays. Text columns also index the rows holding each code, so conditions
+ * on text only visit the rows which match them.
+ *
+ * <p>A snapshot of the mirror can be saved to a file, which holds the rows as a JSON array in the
+ * format returned by Socrata, and the mirror can be loaded from that file without Socrata.
+ *
+ * <p>Changed rows are applied by building a new copy of the columns and then replacing the current
+ * copy, so queries are never blocked by an update, and each query sees either every change of an
+ * update or none of them.
+ */
+public class SocrataMirror {
+  private static final ObjectMapper OBJECT_MAPPER = Jackson2ObjectMapperBuilder.json()
+      .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+      .build();
+
+  private static final String ROW_ID = ":id";
+
+  private volatile Store store;
+
+  /**
+   * Load the mirror from a stream of rows. The stream is read to the end and closed.
+   *
+   * @param rows The rows of the dataset.
+   */
+  public SocrataMirror(Stream<SocrataResponseData> rows) {
+    try (rows) {
+      store = new Store(null, rows.iterator());
+    }
+  }
+
+  /**
+   * Load a mirror from a snapshot file if it exists. Otherwise, load the mirror from the dataset
+   * and, if a snapshot file is named, save the snapshot so that later loads do not need Socrata.
+   *
+   * @param snapshot The snapshot file, or null to always load from the dataset.
+   * @param dataset Supplies every row of the dataset.
+   * @return The loaded mirror.
+   * @throws IOException If the snapshot cannot be read or written.
+   */
+  public static SocrataMirror load(Path snapshot, Supplier<Stream<SocrataResponseData>> dataset)
+      throws IOException {
+    final SocrataMirror mirror;
+    if (snapshot != null && Files.exists(snapshot)) {
+      mirror = readSnapshot(snapshot);
+    } else {
+      mirror = new SocrataMirror(dataset.get());
+      if (snapshot != null) {
+        mirror.writeSnapshot(snapshot);
+      }
+    }
+    LoggerFactory.getLogger(SocrataMirror.class)
+        .info("Loaded {} rows into the dataset mirror", mirror.size());
+    return mirror;
+  }
+
+  /**
+   * Load a mirror from a snapshot file.
+   *
+   * @param snapshot The snapshot file.
+   * @return The loaded mirror.
+   * @throws IOException If the snapshot cannot be read.
+   */
+  public static SocrataMirror readSnapshot(Path snapshot) throws IOException {
+    try (MappingIterator<SocrataResponseData> rows =
+        OBJECT_MAPPER.readerFor(SocrataResponseData.class).readValues(snapshot.toFile())) {
+      return new SocrataMirror(StreamSupport.stream(
+          Spliterators.spliteratorUnknownSize(rows, Spliterator.ORDERED | Spliterator.NONNULL),
+          false));
+    }
+  }
+
+  /**
+   * Save a snapshot of the mirror. The snapshot is written to a temporary file which then replaces
+   * the snapshot file, so an existing snapshot is never left half written.
+   *
+   * @param snapshot The snapshot file.
+   * @throws IOException If the snapshot cannot be written.
+   */
+  public void writeSnapshot(Path snapshot) throws IOException {
+    final Store current = store;
+    final Path temporary = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+    try (SequenceWriter writer = OBJECT_MAPPER.writerFor(SocrataResponseData.class)
+        .writeValuesAsArray(temporary.toFile())) {
+      for (int row = 0; row < current.size; row++) {
+        writer.write(current.get(row));
+      }
+    }
+    Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Get the number of rows in the mirror.
+   *
+   * @return The number of rows.
+   */
+  public int size() {
+    return store.size;
+  }
+
+  /**
+   * Get the latest time at which any row of the mirror was updated in the dataset.
+   *
+   * @return The latest update time, or null if no row has an update time.
+   */
+  public Instant getUpdatedAt() {
+    return store.updatedAt;
+  }
+
+  /**
+   * Apply changed rows to the mirror. A row with the same row identifier as an existing row
+   * replaces it, and any other row is added. Queries which are already running continue to see the
+   * rows from before the update.
+   *
+   * @param changes The changed rows.
+   */
+  public synchronized void update(Collection<SocrataResponseData> changes) {
+    store = new Store(store, changes.iterator());
+  }
+
+  /**
+   * Find the rows which match every condition, in the order in which they were loaded. With no
+   * conditions, every row is returned.
+   *
+   * @param conditions The conditions.
+   * @return The matching rows.
+   */
+  public Stream<SocrataResponseData> find(Condition... conditions) {
+    return match(conditions).rows();
+  }
+
+  /**
+   * Find the rows which match every condition of at least one of the alternatives, in the order
+   * in which they were loaded. Rows matching more than one alternative are only returned once.
+   *
+   * @param alternatives The alternatives, each a list of conditions.
+   * @return The matching rows.
+   */
+  public Stream<SocrataResponseData> findAny(List<List<Condition>> alternatives) {
+    return matchAny(alternatives).rows();
+  }
+
+  /**
+   * Find the rows which match every condition, without reading them. With no conditions, every
+   * row matches.
+   *
+   * @param conditions The conditions.
+   * @return The matching rows.
+   */
+  public Matches match(Condition... conditions) {
+    return matchAny(List.of(Arrays.asList(conditions)));
+  }
+
+  /**
+   * Find the rows which match every condition of at least one of the alternatives, without
+   * reading them. The matches can be counted before any row is read.
+   *
+   * @param alternatives The alternatives, each a list of conditions.
+   * @return The matching rows.
+   */
+  public Matches matchAny(List<List<Condition>> alternatives) {
+    final Store current = store;
+    final BitSet matches = new BitSet(current.size);
+    for (List<Condition> conditions : alternatives) {
+      current.match(conditions, matches);
+    }
+    return new Matches(current, matches);
+  }
+
+  /**
+   * The rows which matched a query. The matches are those of the mirror at the time of the query,
+   * and do not change if the mirror is updated.
+   */
+  public static class Matches {
+    private final Store store;
+    private final BitSet rows;
+
+    private Matches(Store store, BitSet rows) {
+      this.store = store;
+      this.rows = rows;
+    }
+
+    /**
+     * Get the number of matching rows.
+     *
+     * @return The number of rows.
+     */
+    public int count() {
+      return rows.cardinality();
+    }
+
+    /**
+     * Read the matching rows, in the order in which they were loaded.
+     *
+     * @return The rows.
+     */
+    public Stream<SocrataResponseData> rows() {
+      return rows.stream().mapToObj(store::get);
+    }
+
+    /**
+     * Read the matching rows with the latest values in a date or time column, latest first. Rows
+     * with the same value, and then rows with no value, are in the order in which they were
+     * loaded. Only the kept rows are read, and at most {@code limit} rows are held while they are
+     * ranked.
+     *
+     * @param column The name of the date or time column.
+     * @param limit The maximum number of rows.
+     * @return The rows.
+     */
+    public Stream<SocrataResponseData> latest(String column, int limit) {
+      final Column values = store.columns.get(column);
+      if (!(values instanceof LongColumn)) {
+        throw new IllegalArgumentException("The dataset has no date or time column named " + column);
+      }
+      if (limit < 1) {
+        return Stream.empty();
+      }
+      final Comparator<Integer> ranking = ((LongColumn) values)::compareLatest;
+      final PriorityQueue<Integer> kept = new PriorityQueue<>(limit + 1, ranking.reversed());
+      rows.stream().forEach(row -> {
+        kept.add(row);
+        if (kept.size() > limit) {
+          kept.poll();
+        }
+      });
+      return kept.stream().sorted(ranking).map(store::get);
+    }
+  }
+
+  /** The columns of every row, which are not changed once they have been built. */
+  private static class Store {
+    private final Map<String, Column> columns = new LinkedHashMap<>();
+    private final int size;
+    private final Instant updatedAt;
+
+    /**
+     * Build the columns from the rows of an existing store, if there is one, and then the given
+     * rows. A given row replaces any earlier row with the same row identifier.
+     */
+    Store(Store base, Iterator<SocrataResponseData> rows) {
+      if (base == null) {
+        for (Field field : SocrataResponseData.class.getFields()) {
+          final JsonProperty property = field.getAnnotation(JsonProperty.class);
+          if (property != null && !Modifier.isStatic(field.getModifiers())) {
+            columns.put(property.value(), Column.forField(field));
+          }
+        }
+      } else {
+        base.columns.forEach((name, column) -> columns.put(name, column.copy()));
+      }
+
+      final Map<String, Integer> added = new HashMap<>();
+      int count = base == null ? 0 : base.size;
+      Instant latest = base == null ? null : base.updatedAt;
+      while (rows.hasNext()) {
+        final SocrataResponseData row = rows.next();
+        int target = base == null || row.rowId == null ? -1 : base.rowOf(row.rowId);
+        if (target < 0 && row.rowId != null) {
+          target = added.getOrDefault(row.rowId, -1);
+        }
+        if (target < 0) {
+          target = count++;
+          if (row.rowId != null) {
+            added.put(row.rowId, target);
+          }
+        }
+        for (Column column : columns.values()) {
+          column.add(target, column.read(row));
+        }
+        if (row.updatedAt != null && (latest == null || row.updatedAt.isAfter(latest))) {
+          latest = row.updatedAt;
+        }
+      }
+      size = count;
+      updatedAt = latest;
+      columns.values().forEach(column -> column.seal(size));
+    }
+
+    /** Find the row with a row identifier, or return -1 if there is none. */
+    private int rowOf(String rowId) {
+      final Column column = columns.get(ROW_ID);
+      return column == null ? -1 : ((TextColumn) column).firstRowOf(rowId);
+    }
+
+    /**
+     * Mark the rows which match every condition. The indexed condition which matches the fewest
+     * rows selects the candidate rows, which are checked against the other conditions.
+     */
+    private void match(List<Condition> conditions, BitSet matches) {
+      Condition driver = null;
+      int[] candidates = null;
+      for (Condition condition : conditions) {
+        final int[] indexed = column(condition).index(condition);
+        if (indexed != null && (candidates == null || indexed.length < candidates.length)) {
+          driver = condition;
+          candidates = indexed;
+        }
+      }
+
+      IntPredicate filter = row -> true;
+      for (Condition condition : conditions) {
+        if (condition != driver) {
+          filter = filter.and(column(condition).matcher(condition));
+        }
+      }
+
+      if (candidates != null) {
+        for (int row : candidates) {
+          if (filter.test(row)) {
+            matches.set(row);
+          }
+        }
+      } else {
+        for (int row = 0; row < size; row++) {
+          if (filter.test(row)) {
+            matches.set(row);
+          }
+        }
+      }
+    }
+
+    private Column column(Condition condition) {
+      final Column column = columns.get(condition.column);
+      if (column == null) {
+        throw new IllegalArgumentException("The dataset has no column named " + condition.column);
+      }
+      return column;
+    }
+
+    private SocrataResponseData get(int row) {
+      final SocrataResponseData data = new SocrataResponseData();
+      for (Column column : columns.values()) {
+        column.write(data, column.get(row));
+      }
+      return data;
+    }
+  }
+
+  /**
+   * A condition on the value of one column. The value must either be one of a set of values, or
+   * match a like pattern in which % matches any characters and _ matches one character. Values
+   * are compared as text, except in numeric columns, where a set of values is compared as numbers.
+   */
+  public static class Condition {
+    private final String column;
+    private final Set<String> values;
+    private final Pattern pattern;
+
+    private Condition(String column, Set<String> values, Pattern pattern) {
+      this.column = column;
+      this.values = values;
+      this.pattern = pattern;
+    }
+
+    /**
+     * Create a condition matching rows whose value is one of a set of values.
+     *
+     * @param column The column name.
+     * @param values The values to match.
+     * @return The condition.
+     */
+    public static Condition in(String column, Collection<?> values) {
+      return new Condition(column,
+          values.stream().map(String::valueOf).collect(Collectors.toSet()), null);
+    }
+
+    /**
+     * Create a condition matching rows whose value matches a like pattern.
+     *
+     * @param column The column name.
+     * @param pattern The pattern, in which % matches any characters and _ matches one character.
+     * @return The condition.
+     */
+    public static Condition like(String column, String pattern) {
+      final StringBuilder regex = new StringBuilder();
+      final StringBuilder literal = new StringBuilder();
+      for (char character : pattern.toCharArray()) {
+        if (character == '%' || character == '_') {
+          regex.append(Pattern.quote(literal.toString())).append(character == '%' ? ".*" : ".");
+          literal.setLength(0);
+        } else {
+          literal.append(character);
+        }
+      }
+      regex.append(Pattern.quote(literal.toString()));
+      return new Condition(column, null, Pattern.compile(regex.toString(), Pattern.DOTALL));
+    }
+
+    private boolean test(String value) {
+      return pattern != null ? pattern.matcher(value).matches() : values.contains(value);
+    }
+  }
+
+  /** The values of one field of every row. */
+  private abstract static class Column {
+    final Field field;
+
+    Column(Field field) {
+      this.field = field;
+    }
+
+    static Column forField(Field field) {
+      final Class<?> type = field.getType();
+      if (type == String.class) {
+        return new TextColumn(field);
+      } else if (type == int.class || type == Integer.class) {
+        return new IntColumn(field);
+      } else if (type == double.class || type == Double.class) {
+        return new DoubleColumn(field);
+      } else if (type == LocalDate.class) {
+        return new LongColumn(field, value -> ((LocalDate) value).toEpochDay(),
+            LocalDate::ofEpochDay);
+      } else if (type == LocalDateTime.class) {
+        return new LongColumn(field, value -> {
+          final LocalDateTime dateTime = (LocalDateTime) value;
+          return dateTime.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + dateTime.getNano();
+        }, nanos -> LocalDateTime.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L),
+            (int) Math.floorMod(nanos, 1_000_000_000L), ZoneOffset.UTC));
+      } else if (type == Instant.class) {
+        return new LongColumn(field, value -> {
+          final Instant instant = (Instant) value;
+          return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+        }, nanos -> Instant.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L),
+            Math.floorMod(nanos, 1_000_000_000L)));
+      } else if (type == LocalTime.class) {
+        return new LongColumn(field, value -> ((LocalTime) value).toNanoOfDay(),
+            LocalTime::ofNanoOfDay);
+      }
+      return new ObjectColumn(field);
+    }
+
+    Object read(SocrataResponseData row) {
+      try {
+        return field.get(row);
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException("Unable to read " + field.getName(), e);
+      }
+    }
+
+    void write(SocrataResponseData row, Object value) {
+      try {
+        if (value != null || !field.getType().isPrimitive()) {
+          field.set(row, value);
+        }
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException("Unable to write " + field.getName(), e);
+      }
+    }
+
+    /**
+     * Set the value of a row. New rows are added in order, after the existing rows, and existing
+     * rows can be set again.
+     */
+    abstract void add(int row, Object value);
+
+    /** Copy the column, so the copy can be changed without changing this column. */
+    abstract Column copy();
+
+    /** Trim the column to its final number of rows, once every row has been added. */
+    abstract void seal(int size);
+
+    abstract Object get(int row);
+
+    /** Create a test of whether a row matches the condition. */
+    IntPredicate matcher(Condition condition) {
+      return row -> {
+        final Object value = get(row);
+        return value != null && condition.test(value.toString());
+      };
+    }
+
+    /** Find the rows matching the condition from an index, or return null if there is none. */
+    int[] index(Condition condition) {
+      return null;
+    }
+  }
+
+  /** Text values, held as codes into a dictionary of the distinct values. */
+  private static class TextColumn extends Column {
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> dictionary = new ArrayList<>();
+    private int[] rowCodes = new int[1024];
+    private int[][] postings;
+
+    TextColumn(Field field) {
+      super(field);
+    }
+
+    @Override
+    Column copy() {
+      final TextColumn copy = new TextColumn(field);
+      copy.codes.putAll(codes);
+      copy.dictionary.addAll(dictionary);
+      copy.rowCodes = rowCodes.clone();
+      return copy;
+    }
+
+    @Override
+    void add(int row, Object value) {
+      if (row == rowCodes.length) {
+        rowCodes = Arrays.copyOf(rowCodes, Math.max(1024, row * 2));
+      }
+      rowCodes[row] = value == null ? -1 : codes.computeIfAbsent((String) value, text -> {
+        dictionary.add(text);
+        return dictionary.size() - 1;
+      });
+    }
+
+    @Override
+    void seal(int size) {
+      rowCodes = Arrays.copyOf(rowCodes, size);
+      final int[] counts = new int[dictionary.size()];
+      for (int code : rowCodes) {
+        if (code >= 0) {
+          counts[code]++;
+        }
+      }
+      postings = new int[counts.length][];
+      for (int code = 0; code < counts.length; code++) {
+        postings[code] = new int[counts[code]];
+        counts[code] = 0;
+      }
+      for (int row = 0; row < size; row++) {
+        final int code = rowCodes[row];
+        if (code >= 0) {
+          postings[code][counts[code]++] = row;
+        }
+      }
+    }
+
+    @Override
+    Object get(int row) {
+      final int code = rowCodes[row];
+      return code < 0 ? null : dictionary.get(code);
+    }
+
+    @Override
+    IntPredicate matcher(Condition condition) {
+      final boolean[] matching = matchingCodes(condition);
+      return row -> rowCodes[row] >= 0 && matching[rowCodes[row]];
+    }
+
+    @Override
+    int[] index(Condition condition) {
+      final boolean[] matching = matchingCodes(condition);
+      int count = 0;
+      for (int code = 0; code < matching.length; code++) {
+        count += matching[code] ? postings[code].length : 0;
+      }
+      final int[] rows = new int[count];
+      int offset = 0;
+      for (int code = 0; code < matching.length; code++) {
+        if (matching[code]) {
+          System.arraycopy(postings[code], 0, rows, offset, postings[code].length);
+          offset += postings[code].length;
+        }
+      }
+      return rows;
+    }
+
+    /** Find the first row holding a value, or return -1 if there is none. */
+    int firstRowOf(String value) {
+      final Integer code = codes.get(value);
+      return code == null || postings[code].length == 0 ? -1 : postings[code][0];
+    }
+
+    /** Test the condition once against each distinct value, rather than against every row. */
+    private boolean[] matchingCodes(Condition condition) {
+      final boolean[] matching = new boolean[dictionary.size()];
+      if (condition.pattern == null) {
+        for (String value : condition.values) {
+          final Integer code = codes.get(value);
+          if (code != null) {
+            matching[code] = true;
+          }
+        }
+      } else {
+        for (int code = 0; code < matching.length; code++) {
+          matching[code] = condition.test(dictionary.get(code));
+        }
+      }
+      return matching;
+    }
+  }
+
+  /** Whole number values. */
+  private static class IntColumn extends Column {
+    private final BitSet nulls = new BitSet();
+    private int[] values = new int[1024];
+
+    IntColumn(Field field) {
+      super(field);
+    }
+
+    @Override
+    Column copy() {
+      final IntColumn copy = new IntColumn(field);
+      copy.nulls.or(nulls);
+      copy.values = values.clone();
+      return copy;
+    }
+
+    @Override
+    void add(int row, Object value) {
+      if (row == values.length) {
+        values = Arrays.copyOf(values, Math.max(1024, row * 2));
+      }
+      nulls.set(row, value == null);
+      if (value != null) {
+        values[row] = (Integer) value;
+      }
+    }
+
+    @Override
+    void seal(int size) {
+      values = Arrays.copyOf(values, size);
+    }
+
+    @Override
+    Object get(int row) {
+      return nulls.get(row) ? null : values[row];
+    }
+
+    @Override
+    IntPredicate matcher(Condition condition) {
+      if (condition.pattern != null) {
+        return super.matcher(condition);
+      }
+      final Set<Integer> numbers = new HashSet<>();
+      for (String value : condition.values) {
+        try {
+          numbers.add(new BigDecimal(value).intValueExact());
+        } catch (NumberFormatException | ArithmeticException e) {
+          // The value is not a whole number, so it cannot match any row.
+        }
+      }
+      return row -> !nulls.get(row) && numbers.contains(values[row]);
+    }
+  }
+
+  /** Decimal values, such as coordinates. */
+  private static class DoubleColumn extends Column {
+    private final BitSet nulls = new BitSet();
+    private double[] values = new double[1024];
+
+    DoubleColumn(Field field) {
+      super(field);
+    }
+
+    @Override
+    Column copy() {
+      final DoubleColumn copy = new DoubleColumn(field);
+      copy.nulls.or(nulls);
+      copy.values = values.clone();
+      return copy;
+    }
+
+    @Override
+    void add(int row, Object value) {
+      if (row == values.length) {
+        values = Arrays.copyOf(values, Math.max(1024, row * 2));
+      }
+      nulls.set(row, value == null);
+      if (value != null) {
+        values[row] = (Double) value;
+      }
+    }
+
+    @Override
+    void seal(int size) {
+      values = Arrays.copyOf(values, size);
+    }
+
+    @Override
+    Object get(int row) {
+      return nulls.get(row) ? null : values[row];
+    }
+
+    @Override
+    IntPredicate matcher(Condition condition) {
+      if (condition.pattern != null) {
+        return super.matcher(condition);
+      }
+      final Set<Double> numbers = new HashSet<>();
+      for (String value : condition.values) {
+        try {
+          numbers.add(Double.valueOf(value));
+        } catch (NumberFormatException e) {
+          // The value is not a number, so it cannot match any row.
+        }
+      }
+      return row -> !nulls.get(row) && numbers.contains(values[row]);
+    }
+  }
+
+  /** Dates and times, each held as a single number. */
+  private static class LongColumn extends Column {
+    private final ToLongFunction<Object> encoder;
+    private final LongFunction<Object> decoder;
+    private final BitSet nulls = new BitSet();
+    private long[] values = new long[1024];
+
+    LongColumn(Field field, ToLongFunction<Object> encoder, LongFunction<Object> decoder) {
+      super(field);
+      this.encoder = encoder;
+      this.decoder = decoder;
+    }
+
+    @Override
+    Column copy() {
+      final LongColumn copy = new LongColumn(field, encoder, decoder);
+      copy.nulls.or(nulls);
+      copy.values = values.clone();
+      return copy;
+    }
+
+    @Override
+    void add(int row, Object value) {
+      if (row == values.length) {
+        values = Arrays.copyOf(values, Math.max(1024, row * 2));
+      }
+      nulls.set(row, value == null);
+      if (value != null) {
+        values[row] = encoder.applyAsLong(value);
+      }
+    }
+
+    @Override
+    void seal(int size) {
+      values = Arrays.copyOf(values, size);
+    }
+
+    @Override
+    Object get(int row) {
+      return nulls.get(row) ? null : decoder.apply(values[row]);
+    }
+
+    /** Order two rows so that the later value comes first, then no value, then the earlier row. */
+    int compareLatest(int row, int other) {
+      final boolean noValue = nulls.get(row);
+      if (noValue != nulls.get(other)) {
+        return noValue ? 1 : -1;
+      }
+      if (!noValue && values[row] != values[other]) {
+        return Long.compare(values[other], values[row]);
+      }
+      return Integer.compare(row, other);
+    }
+  }
+
+  /** Values of any other type, held as they are. */
+  private static class ObjectColumn extends Column {
+    private Object[] values = new Object[1024];
+
+    ObjectColumn(Field field) {
+      super(field);
+    }
+
+    @Override
+    Column copy() {
+      final ObjectColumn copy = new ObjectColumn(field);
+      copy.values = values.clone();
+      return copy;
+    }
+
+    @Override
+    void add(int row, Object value) {
+      if (row == values.length) {
+        values = Arrays.copyOf(values, Math.max(1024, row * 2));
+      }
+      values[row] = value;
+    }
+
+    @Override
+    void seal(int size) {
+      values = Arrays.copyOf(values, size);
+    }
+
+    @Override
+    Object get(int row) {
+      return values[row];
+    }
+  }
+}
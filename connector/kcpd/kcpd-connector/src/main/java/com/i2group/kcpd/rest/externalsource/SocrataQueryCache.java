@@ -0,0 +1,268 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.kcpd.rest.externalsource;
+
+import com.i2group.kcpd.rest.externalsource.transport.SocrataResponseData;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Caches the rows returned by Socrata queries, and the results of count queries, keyed by the
+ * request URL and its bound variables. Entries expire after a time-to-live which can be set for
+ * each connector service, and the least recently used entries are evicted when the total number of
+ * cached rows exceeds the maximum weight. A cached count weighs the same as one row.
+ */
+public class SocrataQueryCache {
+  private final Map<List<Object>, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final long maxWeight;
+  private final Duration defaultTtl;
+  private final Map<String, Duration> serviceTtls;
+  private long weight;
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * Initialise the cache.
+   *
+   * @param maxWeight The maximum total number of rows held in the cache.
+   * @param defaultTtl The time-to-live of entries for services without their own setting.
+   * @param serviceTtls The time-to-live of entries for each service. A zero time-to-live stops the
+   *     results of that service from being cached.
+   */
+  public SocrataQueryCache(long maxWeight, Duration defaultTtl, Map<String, Duration> serviceTtls) {
+    this.maxWeight = maxWeight;
+    this.defaultTtl = defaultTtl;
+    this.serviceTtls = serviceTtls;
+  }
+
+  /**
+   * Stream the rows of a query from the cache if they are present. Otherwise, stream them from the
+   * upstream query, and cache them once the stream has been read to the end.
+   *
+   * @param service The name of the service making the query, which determines the time-to-live.
+   * @param url The constructed URL extension of the request.
+   * @param uriVariables The map of parameters to be included within the request.
+   * @param upstream Supplies the rows from Socrata when they are not cached.
+   * @return The rows matching the query.
+   */
+  public Stream<SocrataResponseData> stream(
+      String service, String url, Map<String, ?> uriVariables,
+      Supplier<Stream<SocrataResponseData>> upstream) {
+    final Duration ttl = serviceTtls.getOrDefault(service, defaultTtl);
+    if (ttl.isZero() || ttl.isNegative()) {
+      return upstream.get();
+    }
+
+    final List<Object> key = buildKey(url, uriVariables);
+    final Entry cached = lookup(key);
+    if (cached != null) {
+      return cached.rows.stream();
+    }
+
+    final Stream<SocrataResponseData> rows = upstream.get();
+    final RecordingIterator recording = new RecordingIterator(rows.iterator(), key, ttl);
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(recording, Spliterator.ORDERED | Spliterator.NONNULL),
+        false).onClose(rows::close);
+  }
+
+  /**
+   * Get the result of a count query from the cache if it is present. Otherwise, get it from the
+   * upstream query, and cache it once it completes.
+   *
+   * @param service The name of the service making the query, which determines the time-to-live.
+   * @param url The constructed URL extension of the count request.
+   * @param uriVariables The map of parameters to be included within the request.
+   * @param upstream Supplies the count from Socrata when it is not cached.
+   * @return A future which completes with the number of matching rows.
+   */
+  public CompletableFuture<Long> count(
+      String service, String url, Map<String, ?> uriVariables,
+      Supplier<CompletableFuture<Long>> upstream) {
+    final Duration ttl = serviceTtls.getOrDefault(service, defaultTtl);
+    if (ttl.isZero() || ttl.isNegative()) {
+      return upstream.get();
+    }
+
+    final List<Object> key = buildKey(url, uriVariables);
+    final Entry cached = lookup(key);
+    if (cached != null) {
+      return CompletableFuture.completedFuture(cached.count);
+    }
+    return upstream.get().thenApply(count -> {
+      store(key, new Entry(null, count, System.nanoTime() + ttl.toNanos()));
+      return count;
+    });
+  }
+
+  /**
+   * Get a snapshot of the cache statistics.
+   *
+   * @return The current statistics.
+   */
+  public synchronized Statistics getStatistics() {
+    return new Statistics(hits, misses, evictions, entries.size(), weight);
+  }
+
+  private synchronized Entry lookup(List<Object> key) {
+    final Entry entry = entries.get(key);
+    if (entry != null && entry.expiresAt - System.nanoTime() > 0) {
+      hits++;
+      return entry;
+    }
+    if (entry != null) {
+      remove(key);
+    }
+    misses++;
+    return null;
+  }
+
+  private synchronized void store(List<Object> key, Entry entry) {
+    if (entries.containsKey(key)) {
+      remove(key);
+    }
+    entries.put(key, entry);
+    weight += entry.weight();
+
+    final long now = System.nanoTime();
+    final Iterator<Map.Entry<List<Object>, Entry>> eldest = entries.entrySet().iterator();
+    while (weight > maxWeight && eldest.hasNext()) {
+      final Map.Entry<List<Object>, Entry> candidate = eldest.next();
+      weight -= candidate.getValue().weight();
+      eldest.remove();
+      if (candidate.getValue().expiresAt - now > 0) {
+        evictions++;
+      }
+    }
+  }
+
+  private void remove(List<Object> key) {
+    weight -= entries.remove(key).weight();
+  }
+
+  /**
+   * Build the key of a query, which is equal for requests with the same URL and variable values,
+   * whatever the order of the variables.
+   *
+   * @param url The constructed URL extension of the request.
+   * @param uriVariables The map of parameters to be included within the request.
+   * @return The key of the query.
+   */
+  static List<Object> buildKey(String url, Map<String, ?> uriVariables) {
+    final Map<String, String> variables = new TreeMap<>();
+    uriVariables.forEach((name, value) -> variables.put(name, String.valueOf(value)));
+    return Arrays.asList(url.trim(), variables);
+  }
+
+  /**
+   * The cached rows of a query, or the result of a count query, and the time, in nanoseconds, at
+   * which they expire.
+   */
+  private static class Entry {
+    private final List<SocrataResponseData> rows;
+    private final long count;
+    private final long expiresAt;
+
+    Entry(List<SocrataResponseData> rows, long count, long expiresAt) {
+      this.rows = rows;
+      this.count = count;
+      this.expiresAt = expiresAt;
+    }
+
+    long weight() {
+      return rows != null ? rows.size() : 1;
+    }
+  }
+
+  /**
+   * Passes on the rows of an upstream query, keeping them so they can be cached when the last row
+   * has been read. Results which are larger than the cache are not kept.
+   */
+  private class RecordingIterator implements Iterator<SocrataResponseData> {
+    private final Iterator<SocrataResponseData> rows;
+    private final List<Object> key;
+    private final Duration ttl;
+    private List<SocrataResponseData> received = new ArrayList<>();
+
+    RecordingIterator(Iterator<SocrataResponseData> rows, List<Object> key, Duration ttl) {
+      this.rows = rows;
+      this.key = key;
+      this.ttl = ttl;
+    }
+
+    @Override
+    public boolean hasNext() {
+      final boolean hasNext = rows.hasNext();
+      if (!hasNext && received != null) {
+        store(key, new Entry(received, received.size(), System.nanoTime() + ttl.toNanos()));
+        received = null;
+      }
+      return hasNext;
+    }
+
+    @Override
+    public SocrataResponseData next() {
+      final SocrataResponseData row = rows.next();
+      if (received != null) {
+        received.add(row);
+        if (received.size() > maxWeight) {
+          received = null;
+        }
+      }
+      return row;
+    }
+  }
+
+  /** A snapshot of the number of cache hits, misses and evictions, and of the cache size. */
+  public static class Statistics {
+    public final long hits;
+    public final long misses;
+    public final long evictions;
+    public final int entries;
+    public final long weight;
+
+    Statistics(long hits, long misses, long evictions, int entries, long weight) {
+      this.hits = hits;
+      this.misses = misses;
+      this.evictions = evictions;
+      this.entries = entries;
+      this.weight = weight;
+    }
+  }
+}
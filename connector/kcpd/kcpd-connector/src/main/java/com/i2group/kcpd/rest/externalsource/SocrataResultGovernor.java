@@ -0,0 +1,264 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.kcpd.rest.externalsource;
+
+import com.i2group.kcpd.rest.externalsource.transport.SocrataCount;
+import com.i2group.kcpd.rest.externalsource.transport.SocrataResponseData;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntFunction;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Bounds the number of rows from which each service builds its results. The rows matching a query
+ * are counted before any of them are retrieved. If there are no more than the service's top-K,
+ * every row is retrieved as usual. Otherwise only the K rows which rank highest are retrieved,
+ * latest first by a date column of the dataset, and the results carry a notice that they are
+ * incomplete. So however broad a query is, the rows it retrieves and holds are bounded by K.
+ */
+public class SocrataResultGovernor {
+  private static final String COUNT_SELECT = "?$select=count(*) AS count";
+  private static final String NOTICE =
+      "Only the %d most recent of about %d matching records are shown. "
+          + "Add conditions to narrow the results.";
+
+  private final SocrataClient socrataClient;
+  private final String rankColumn;
+  private final Comparator<SocrataResponseData> ranking;
+  private final int defaultTopK;
+  private final Map<String, Integer> serviceTopKs;
+  private final int rowBudget;
+
+  /**
+   * Initialise the governor.
+   *
+   * @param socrataClient The client used to count the rows matching a query.
+   * @param rankColumn The date column of the dataset by which rows are ranked, latest first.
+   * @param ranking The order of the rows, latest first by the rank column and then by row
+   *     identifier, which Socrata gives them in.
+   * @param defaultTopK The number of rows kept for services without their own setting.
+   * @param serviceTopKs The number of rows kept for each service.
+   * @param rowBudget The maximum number of rows retrieved for one request, which also bounds the
+   *     number of rows kept.
+   */
+  public SocrataResultGovernor(
+      SocrataClient socrataClient, String rankColumn, Comparator<SocrataResponseData> ranking,
+      int defaultTopK, Map<String, Integer> serviceTopKs, int rowBudget) {
+    if (defaultTopK < 1 || serviceTopKs.values().stream().anyMatch(topK -> topK < 1)) {
+      throw new IllegalStateException("The top-K of every service must be at least 1");
+    }
+    this.socrataClient = socrataClient;
+    this.rankColumn = rankColumn;
+    this.ranking = ranking;
+    this.defaultTopK = defaultTopK;
+    this.serviceTopKs = serviceTopKs;
+    this.rowBudget = rowBudget;
+  }
+
+  /**
+   * Get the name of the date column by which rows are ranked.
+   *
+   * @return The column name.
+   */
+  public String getRankColumn() {
+    return rankColumn;
+  }
+
+  /**
+   * Get the $order in which Socrata returns ranked rows.
+   *
+   * @return The order, latest first and then by row identifier.
+   */
+  public String getOrder() {
+    return rankColumn + " DESC,:id";
+  }
+
+  /**
+   * Get the URL extension of the request which counts the rows of the dataset matching a
+   * condition, by which counts can be cached and shared.
+   *
+   * @param where The $where parameter of the query, starting with {@code &$where=}, or empty to
+   *     count every row.
+   * @return The URL extension of the count request.
+   */
+  public String getCountUrl(String where) {
+    return COUNT_SELECT + where;
+  }
+
+  /**
+   * Count the rows of the dataset which match a condition, without blocking the calling thread.
+   *
+   * @param where The $where parameter of the query, starting with {@code &$where=}, or empty to
+   *     count every row.
+   * @param params The map of parameters used by the condition.
+   * @return A future which completes with the number of matching rows.
+   */
+  public CompletableFuture<Long> count(String where, Map<String, ?> params) {
+    return socrataClient.getAsync(getCountUrl(where), SocrataCount[].class, params)
+        .thenApply(counts -> counts.length == 0 ? 0L : counts[0].count);
+  }
+
+  /**
+   * Keep the rows of a stream which rank highest, in rank order. The stream is read to the end
+   * and closed, holding at most {@code limit} rows at once.
+   *
+   * @param rows The rows.
+   * @param limit The maximum number of rows kept.
+   * @return The kept rows, latest first.
+   */
+  public Stream<SocrataResponseData> top(Stream<SocrataResponseData> rows, int limit) {
+    final PriorityQueue<SocrataResponseData> kept =
+        new PriorityQueue<>(limit + 1, ranking.reversed());
+    try (rows) {
+      rows.forEach(row -> {
+        kept.add(row);
+        if (kept.size() > limit) {
+          kept.poll();
+        }
+      });
+    }
+    return kept.stream().sorted(ranking);
+  }
+
+  /**
+   * Decide how the rows of a query are retrieved for a service, counting them first.
+   *
+   * @param service The name of the service making the query, which determines its top-K.
+   * @param source The rows matching the query.
+   * @return The selection of the rows to retrieve.
+   */
+  public Selection select(String service, Source source) {
+    final int topK = Math.min(serviceTopKs.getOrDefault(service, defaultTopK), rowBudget);
+    final long count = source.count();
+    return count <= topK ? new Selection(source, count, 0) : new Selection(source, count, topK);
+  }
+
+  /**
+   * The rows matching a query, which can be counted, and retrieved either as they are or ranked.
+   */
+  public interface Source {
+
+    /**
+     * Count the matching rows. The count can be more than the number of rows, but not fewer.
+     *
+     * @return The number of rows.
+     */
+    long count();
+
+    /**
+     * Retrieve every matching row, up to the row budget.
+     *
+     * @return The rows.
+     */
+    Stream<SocrataResponseData> rows();
+
+    /**
+     * Retrieve the matching rows which rank highest, latest first.
+     *
+     * @param limit The maximum number of rows.
+     * @return The rows.
+     */
+    Stream<SocrataResponseData> ranked(int limit);
+
+    /**
+     * Create a source from functions.
+     *
+     * @param count Counts the matching rows.
+     * @param rows Retrieves every matching row.
+     * @param ranked Retrieves the matching rows which rank highest.
+     * @return The source.
+     */
+    static Source of(LongSupplier count, Supplier<Stream<SocrataResponseData>> rows,
+        IntFunction<Stream<SocrataResponseData>> ranked) {
+      return new Source() {
+        @Override
+        public long count() {
+          return count.getAsLong();
+        }
+
+        @Override
+        public Stream<SocrataResponseData> rows() {
+          return rows.get();
+        }
+
+        @Override
+        public Stream<SocrataResponseData> ranked(int limit) {
+          return ranked.apply(limit);
+        }
+      };
+    }
+  }
+
+  /**
+   * The rows of a query which a service builds its results from. When the query matched more rows
+   * than the service keeps, one more row than it keeps is ranked, so that the results are only
+   * said to be incomplete when a row was really left out.
+   */
+  public static class Selection {
+    private final Source source;
+    private final long count;
+    private final int topK;
+    private int read;
+    private boolean truncated;
+
+    private Selection(Source source, long count, int topK) {
+      this.source = source;
+      this.count = count;
+      this.topK = topK;
+    }
+
+    /**
+     * Retrieve the rows.
+     *
+     * @return The rows.
+     */
+    public Stream<SocrataResponseData> rows() {
+      if (topK == 0) {
+        return source.rows();
+      }
+      return source.ranked(topK + 1).filter(row -> {
+        if (++read <= topK) {
+          return true;
+        }
+        truncated = true;
+        return false;
+      });
+    }
+
+    /**
+     * Get the notice that the results are incomplete, once the rows have been read.
+     *
+     * @return The notice, or null if no row was left out.
+     */
+    public String getNotice() {
+      return truncated ? String.format(NOTICE, topK, count) : null;
+    }
+  }
+}
@@ -28,6 +28,7 @@ import com.i2group.kcpd.rest.transport.Location;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.ToString;
 
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalTime;
 
@@ -38,6 +39,13 @@ import java.time.LocalTime;
 @ToString
 public class SocrataResponseData {
 
+  // Row
+  @JsonProperty(":id")
+  public String rowId;
+
+  @JsonProperty(":updated_at")
+  public Instant updatedAt;
+
   // Report
   @JsonProperty("report_no")
   public String reportNumber;
@@ -0,0 +1,256 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.kcpd.rest.transport;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.i2group.kcpd.rest.externalsource.transport.SocrataResponseData;
+
+/**
+ * The identity of the person in a record, and of the items created for them. The identifiers of
+ * these items are made from several fields of the record, so rather than concatenating the
+ * fields each time an identifier is needed, a 128-bit hash of the identifier's characters is
+ * computed once for each record. Items are matched by comparing the two halves of the hash, and
+ * each identifier is only rendered as a string when it is first written out.
+ */
+public final class CompositeKey {
+  private static final long HIGH_SEED = 0xcbf29ce484222325L;
+  private static final long LOW_SEED = 0x84222325cbf29ce4L;
+  private static final long HIGH_MULTIPLIER = 0x100000001b3L;
+  private static final long LOW_MULTIPLIER = 0x9e3779b97f4a7c15L;
+
+  private final SocrataResponseData record;
+  private final long high;
+  private final long low;
+
+  private CompositeKey(SocrataResponseData record, long high, long low) {
+    this.record = record;
+    this.high = high;
+    this.low = low;
+  }
+
+  /**
+   * Compute the key of a record.
+   *
+   * @param record The single record from the dataset.
+   * @return The key.
+   */
+  public static CompositeKey of(SocrataResponseData record) {
+    final Hasher hasher = new Hasher();
+    hasher.add(record.reportNumber);
+    hasher.add("-R");
+    hasher.add(record.race);
+    hasher.add("S");
+    hasher.add(record.sex);
+    hasher.add("A");
+    hasher.add(record.age);
+    hasher.add("-I");
+    hasher.addInvolvement(record.involvement);
+    hasher.add("-C");
+    hasher.add(record.ibrs);
+    return hasher.finish(record);
+  }
+
+  /**
+   * Get the identifier of an item from its string form, without the record it was created from.
+   * The identifier is equal to the one created by {@link #id(String)} for the same item.
+   *
+   * @param prefix The prefix which identifies the kind of item.
+   * @param id The string form of the identifier, which starts with the prefix.
+   * @return The identifier.
+   */
+  public static Id parseId(String prefix, String id) {
+    final Hasher hasher = new Hasher();
+    hasher.add(id.substring(prefix.length()));
+    return new Id(prefix, hasher.finish(null), id);
+  }
+
+  /**
+   * Gets the record the key was computed from.
+   *
+   * @return The record, or null if the key was parsed from an identifier.
+   */
+  public SocrataResponseData getRecord() {
+    return record;
+  }
+
+  /**
+   * Gets the high half of the hash.
+   *
+   * @return The high 64 bits.
+   */
+  public long getHigh() {
+    return high;
+  }
+
+  /**
+   * Gets the low half of the hash.
+   *
+   * @return The low 64 bits.
+   */
+  public long getLow() {
+    return low;
+  }
+
+  /**
+   * Create the identifier of an item of the record.
+   *
+   * @param prefix The prefix which identifies the kind of item.
+   * @return The identifier.
+   */
+  public Id id(String prefix) {
+    return new Id(prefix, this, null);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof CompositeKey)) {
+      return false;
+    }
+    final CompositeKey other = (CompositeKey) o;
+    return high == other.high && low == other.low;
+  }
+
+  @Override
+  public int hashCode() {
+    return (int) low;
+  }
+
+  @Override
+  public String toString() {
+    return render("");
+  }
+
+  private String render(String prefix) {
+    return prefix + record.reportNumber + "-R" + record.race + "S" + record.sex + "A" + record.age
+        + "-I" + String.valueOf(record.involvement).replace(" ", "&") + "-C" + record.ibrs;
+  }
+
+  /**
+   * The identifier of an item, which is rendered as a string when it is first asked for. Seeds
+   * refer to items by the string form of their identifiers, which is parsed back into an
+   * identifier to match link ends against.
+   */
+  public static final class Id {
+    private final String prefix;
+    private final CompositeKey key;
+    private String rendered;
+
+    private Id(String prefix, CompositeKey key, String rendered) {
+      this.prefix = prefix;
+      this.key = key;
+      this.rendered = rendered;
+    }
+
+    @JsonValue
+    @Override
+    public String toString() {
+      if (rendered == null) {
+        rendered = key.render(prefix);
+      }
+      return rendered;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Id)) {
+        return false;
+      }
+      final Id other = (Id) o;
+      return prefix.equals(other.prefix) && key.equals(other.key);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * prefix.hashCode() + key.hashCode();
+    }
+  }
+
+  /** Hashes the characters of an identifier without building it. */
+  private static final class Hasher {
+    private long high = HIGH_SEED;
+    private long low = LOW_SEED;
+
+    private void add(char c) {
+      high = (high ^ c) * HIGH_MULTIPLIER;
+      low = (low ^ c) * LOW_MULTIPLIER;
+      low ^= low >>> 29;
+    }
+
+    private void add(String value) {
+      if (value == null) {
+        add("null");
+        return;
+      }
+      for (int i = 0; i < value.length(); i++) {
+        add(value.charAt(i));
+      }
+    }
+
+    private void add(int value) {
+      long remaining = value;
+      if (remaining < 0) {
+        add('-');
+        remaining = -remaining;
+      }
+      long divisor = 1;
+      while (divisor * 10 <= remaining) {
+        divisor *= 10;
+      }
+      for (; divisor > 0; divisor /= 10) {
+        add((char) ('0' + remaining / divisor % 10));
+      }
+    }
+
+    private void addInvolvement(String value) {
+      if (value == null) {
+        add("null");
+        return;
+      }
+      for (int i = 0; i < value.length(); i++) {
+        final char c = value.charAt(i);
+        add(c == ' ' ? '&' : c);
+      }
+    }
+
+    private CompositeKey finish(SocrataResponseData record) {
+      return new CompositeKey(record, mix(high + low), mix(low ^ (high >>> 32)));
+    }
+
+    private static long mix(long h) {
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb9fe1a85ec53L;
+      h ^= h >>> 33;
+      return h;
+    }
+  }
+}
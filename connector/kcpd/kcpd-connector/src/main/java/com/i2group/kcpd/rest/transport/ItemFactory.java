@@ -29,19 +29,91 @@ import com.i2group.connector.spi.rest.transport.I2ConnectEntityData;
 import com.i2group.connector.spi.rest.transport.I2ConnectLinkData;
 import com.i2group.connector.spi.rest.transport.LinkDirection;
 import com.i2group.connector.spi.rest.transport.SourceReference;
-import com.i2group.connector.spi.rest.transport.SourceReferenceInfo;
 import com.i2group.kcpd.rest.externalsource.transport.SocrataResponseData;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /** Used to generate entity and link objects */
 public class ItemFactory {
-  @Autowired
-  @Value("${socrata.url}")
-  private static String baseUrl;
+  private static final String REPORT_ID_PREFIX = "REP";
+  private static final String PERSON_ID_PREFIX = "PER";
+  /** The fields of each record used by {@link CompositeKey}. */
+  private static final List<String> ID_FIELDS = List.of(
+      "reportNumber", "race", "sex", "age", "involvement", "ibrs");
+  /** The fields of each record used by {@link #createReport}. */
+  public static final List<String> REPORT_FIELDS = concat(ID_FIELDS, List.of(
+      "reportDate", "fromDate", "toDate", "fromTime", "toTime", "offense", "offenseDescription"));
+  /** The fields of each record used by {@link #createLocation}. */
+  public static final List<String> LOCATION_FIELDS = List.of(
+      "reportNumber", "city", "address", "zipCode", "location");
+  /** The fields of each record used by {@link #createPerson} and the link factory methods. */
+  public static final List<String> PERSON_FIELDS = ID_FIELDS;
+
+  private static final Map<String, PropertyLayout> PROPERTY_LAYOUTS =
+      PropertyLayout.fromSchema("kcpd-crime-data-schema.xml");
+
+  private static final PropertyMapping<SocrataResponseData> REPORT_PROPERTIES =
+      PropertyMapping.<SocrataResponseData>into(PROPERTY_LAYOUTS.get("ET1"))
+          .map("PT1", entry -> entry.reportNumber)
+          .map("PT2", entry -> entry.reportDate)
+          .map("PT3", entry -> entry.fromDate)
+          .map("PT4", entry -> entry.toDate)
+          .map("PT5", entry -> entry.fromTime)
+          .map("PT6", entry -> entry.toTime)
+          .map("PT7", entry -> entry.offense)
+          .map("PT17", entry -> entry.offenseDescription)
+          .build();
+
+  private static final PropertyMapping<SocrataResponseData> LOCATION_PROPERTIES =
+      PropertyMapping.<SocrataResponseData>into(PROPERTY_LAYOUTS.get("ET2"))
+          .map("PT9", entry -> entry.city)
+          .map("PT10", entry -> entry.address)
+          .map("PT11", entry -> entry.zipCode)
+          .mapOptional("PT12", ItemFactory::createPoint)
+          .build();
+
+  private static final PropertyMapping<SocrataResponseData> PERSON_PROPERTIES =
+      PropertyMapping.<SocrataResponseData>into(PROPERTY_LAYOUTS.get("ET3"))
+          .map("PT13", entry -> entry.race)
+          .map("PT14", entry -> entry.sex)
+          .map("PT15", entry -> String.valueOf(entry.age))
+          .build();
+
+  private static SourceReferenceTemplate sourceReference;
+
+  /**
+   * Sets the URL of the dataset, which the source reference of each item points into.
+   *
+   * @param baseUrl The URL of the dataset.
+   */
+  public static void setBaseUrl(String baseUrl) {
+    sourceReference = new SourceReferenceTemplate(
+        "KCPD Crime Data",
+        "Open source data",
+        "A source reference to the corresponding record from the KCPD Crime Data.",
+        null,
+        baseUrl + "?report_no=");
+  }
+
+  /**
+   * Gets the identifier which link ends refer to an entity by, from the string form of the
+   * entity's identifier.
+   *
+   * @param id The string form of the identifier.
+   * @return The identifier of the entity.
+   */
+  public static Object parseEntityId(String id) {
+    if (id.startsWith(REPORT_ID_PREFIX)) {
+      return CompositeKey.parseId(REPORT_ID_PREFIX, id);
+    }
+    if (id.startsWith(PERSON_ID_PREFIX)) {
+      return CompositeKey.parseId(PERSON_ID_PREFIX, id);
+    }
+    return id;
+  }
 
   /**
    * Creates report from a single record of data.
@@ -50,22 +122,11 @@ public class ItemFactory {
    * @return The created report object.
    */
   public static I2ConnectEntityData createReport(SocrataResponseData entry) {
-    HashMap<String, Object> properties = new HashMap<>();
-
-    properties.put("PT1", entry.reportNumber);
-    properties.put("PT2", entry.reportDate);
-    properties.put("PT3", entry.fromDate);
-    properties.put("PT4", entry.toDate);
-    properties.put("PT5", entry.fromTime);
-    properties.put("PT6", entry.toTime);
-    properties.put("PT7", entry.offense);
-    properties.put("PT17", entry.offenseDescription);
-
     I2ConnectEntityData report = new I2ConnectEntityData();
-    report.id = buildId("REP", entry);
-    report.typeId = "ET1";
+    report.id = CompositeKey.of(entry).id(REPORT_ID_PREFIX);
+    report.typeId = REPORT_PROPERTIES.getItemTypeId();
     report.version = 1L;
-    report.properties = properties;
+    report.properties = REPORT_PROPERTIES.apply(entry);
     report.sourceReference = generateSourceReference(entry.reportNumber);
 
     return report;
@@ -78,46 +139,39 @@ public class ItemFactory {
    * @return The created location object.
    */
   public static I2ConnectEntityData createLocation(SocrataResponseData entry) {
-    HashMap<String, Object> properties = new HashMap<>();
-
-    properties.put("PT9", entry.city);
-    properties.put("PT10", entry.address);
-    properties.put("PT11", entry.zipCode);
-
-    if (entry.location != null) {
-      final GeoJSONPoint geoJSONPoint = new GeoJSONPoint();
-      geoJSONPoint.type = GeoJSONPoint.TypeEnum.POINT;
-      geoJSONPoint.coordinates = List.of(entry.location.getLongitude(), entry.location.getLatitude());
-      properties.put("PT12", geoJSONPoint);
-    }
-
     I2ConnectEntityData location = new I2ConnectEntityData();
     location.id = "LOC" + entry.address + entry.zipCode;
-    location.typeId = "ET2";
+    location.typeId = LOCATION_PROPERTIES.getItemTypeId();
     location.version = 1L;
-    location.properties = properties;
+    location.properties = LOCATION_PROPERTIES.apply(entry);
     location.sourceReference = generateSourceReference(entry.reportNumber);
 
     return location;
   }
 
+  private static GeoJSONPoint createPoint(SocrataResponseData entry) {
+    if (entry.location == null) {
+      return null;
+    }
+    final GeoJSONPoint geoJSONPoint = new GeoJSONPoint();
+    geoJSONPoint.type = GeoJSONPoint.TypeEnum.POINT;
+    geoJSONPoint.coordinates = List.of(entry.location.getLongitude(), entry.location.getLatitude());
+    return geoJSONPoint;
+  }
+
   /**
    * Creates person from a single record of data.
    *
-   * @param entry The single record from the dataset.
+   * @param key The key of the single record from the dataset.
    * @return The created person object.
    */
-  public static I2ConnectEntityData createPerson(SocrataResponseData entry) {
-    HashMap<String, Object> properties = new HashMap<>();
-    properties.put("PT13", entry.race);
-    properties.put("PT14", entry.sex);
-    properties.put("PT15", String.valueOf(entry.age));
-
+  public static I2ConnectEntityData createPerson(CompositeKey key) {
+    final SocrataResponseData entry = key.getRecord();
     I2ConnectEntityData person = new I2ConnectEntityData();
-    person.id = buildId("PER", entry); 
-    person.typeId = "ET3";
+    person.id = key.id(PERSON_ID_PREFIX);
+    person.typeId = PERSON_PROPERTIES.getItemTypeId();
     person.version = 1L;
-    person.properties = properties;
+    person.properties = PERSON_PROPERTIES.apply(entry);
     person.sourceReference = generateSourceReference(entry.reportNumber);
 
     return person;
@@ -147,20 +201,20 @@ public class ItemFactory {
   /**
    * Creates a suspect link from a single record of data.
    *
-   * @param entry The single record from the dataset.
+   * @param key The key of the single record from the dataset.
    * @param report The report from the row of the dataset.
    * @param suspect The suspect from the row of the dataset.
    * @return The created link object.
    */
   public static I2ConnectLinkData createSuspectLink(
-      SocrataResponseData entry, I2ConnectEntityData report, I2ConnectEntityData suspect) {
+      CompositeKey key, I2ConnectEntityData report, I2ConnectEntityData suspect) {
     I2ConnectLinkData suspectLink = new I2ConnectLinkData();
-    suspectLink.id = buildId("LINKSUS", entry);
+    suspectLink.id = key.id("LINKSUS");
     suspectLink.typeId = "LT2";
     suspectLink.fromEndId = suspect.id;
     suspectLink.toEndId = report.id;
     suspectLink.linkDirection = LinkDirection.WITH;
-    suspectLink.sourceReference = generateSourceReference(entry.reportNumber);
+    suspectLink.sourceReference = generateSourceReference(key.getRecord().reportNumber);
 
     return suspectLink;
   }
@@ -168,20 +222,20 @@ public class ItemFactory {
   /**
    * Creates a victim link from a single record of data.
    *
-   * @param entry The single record from the dataset.
+   * @param key The key of the single record from the dataset.
    * @param report The report from the row of the dataset.
    * @param victim The victim from the row of the dataset.
    * @return The created link object.
    */
   public static I2ConnectLinkData createVictimLink(
-      SocrataResponseData entry, I2ConnectEntityData report, I2ConnectEntityData victim) {
+      CompositeKey key, I2ConnectEntityData report, I2ConnectEntityData victim) {
     I2ConnectLinkData victimLink = new I2ConnectLinkData();
-    victimLink.id = buildId("LINKVIC", entry);
+    victimLink.id = key.id("LINKVIC");
     victimLink.typeId = "LT3";
     victimLink.fromEndId = victim.id;
     victimLink.toEndId = report.id;
     victimLink.linkDirection = LinkDirection.WITH;
-    victimLink.sourceReference = generateSourceReference(entry.reportNumber);
+    victimLink.sourceReference = generateSourceReference(key.getRecord().reportNumber);
 
     return victimLink;
   }
@@ -189,20 +243,20 @@ public class ItemFactory {
   /**
    * Creates an arrested link from a single record of data.
    *
-   * @param entry The single record from the dataset.
+   * @param key The key of the single record from the dataset.
    * @param report The report from the row of the dataset.
    * @param arrested The arrested from the row of the dataset.
    * @return The created link object.
    */
   public static I2ConnectLinkData createArrestedLink(
-      SocrataResponseData entry, I2ConnectEntityData report, I2ConnectEntityData arrested) {
+      CompositeKey key, I2ConnectEntityData report, I2ConnectEntityData arrested) {
     I2ConnectLinkData arrestedLink = new I2ConnectLinkData();
-    arrestedLink.id = buildId("LINKARR", entry);
+    arrestedLink.id = key.id("LINKARR");
     arrestedLink.typeId = "LT4";
     arrestedLink.fromEndId = arrested.id;
     arrestedLink.toEndId = report.id;
     arrestedLink.linkDirection = LinkDirection.WITH;
-    arrestedLink.sourceReference = generateSourceReference(entry.reportNumber);
+    arrestedLink.sourceReference = generateSourceReference(key.getRecord().reportNumber);
 
     return arrestedLink;
   }
@@ -210,20 +264,20 @@ public class ItemFactory {
   /**
    * Creates a charged link from a single record of data.
    *
-   * @param entry The single record from the dataset.
+   * @param key The key of the single record from the dataset.
    * @param report The report from the row of the dataset.
    * @param charged The charged from the row of the dataset.
    * @return The created link object.
    */
   public static I2ConnectLinkData createChargedLink(
-      SocrataResponseData entry, I2ConnectEntityData report, I2ConnectEntityData charged) {
+      CompositeKey key, I2ConnectEntityData report, I2ConnectEntityData charged) {
     I2ConnectLinkData chargedLink = new I2ConnectLinkData();
-    chargedLink.id = buildId("LINKCHA", entry);
+    chargedLink.id = key.id("LINKCHA");
     chargedLink.typeId = "LT5";
     chargedLink.fromEndId = charged.id;
     chargedLink.toEndId = report.id;
     chargedLink.linkDirection = LinkDirection.WITH;
-    chargedLink.sourceReference = generateSourceReference(entry.reportNumber);
+    chargedLink.sourceReference = generateSourceReference(key.getRecord().reportNumber);
 
     return chargedLink;
   }
@@ -231,20 +285,20 @@ public class ItemFactory {
     /**
    * Creates a complicit link from a single record of data.
    *
-   * @param entry The single record from the dataset.
+   * @param key The key of the single record from the dataset.
    * @param report The report from the row of the dataset.
    * @param complicit The complicit from the row of the dataset.
    * @return The created link object.
    */
   public static I2ConnectLinkData createComplicitLink(
-      SocrataResponseData entry, I2ConnectEntityData report, I2ConnectEntityData complicit) {
+      CompositeKey key, I2ConnectEntityData report, I2ConnectEntityData complicit) {
     I2ConnectLinkData complicitLink = new I2ConnectLinkData();
-    complicitLink.id = buildId("LINKCMP", entry);
+    complicitLink.id = key.id("LINKCMP");
     complicitLink.typeId = "LT6";
     complicitLink.fromEndId = complicit.id;
     complicitLink.toEndId = report.id;
     complicitLink.linkDirection = LinkDirection.WITH;
-    complicitLink.sourceReference = generateSourceReference(entry.reportNumber);
+    complicitLink.sourceReference = generateSourceReference(key.getRecord().reportNumber);
 
     return complicitLink;
   }
@@ -257,26 +311,12 @@ public class ItemFactory {
    * @return The SourceReference object containing details of the source.
    */
   private static SourceReference generateSourceReference(String reportNum) {
-    SourceReferenceInfo source = new SourceReferenceInfo();
-    source.name = "KCPD Crime Data";
-    source.type = "Open source data";
-    source.description =
-        "A source reference to the corresponding record from the KCPD Crime Data.";
-    source.location = baseUrl + "?report_no=" + reportNum;
-
-    SourceReference reference = new SourceReference();
-    reference.source = source;
-
-    return reference;
-  }
-
-  private static String buildId(String identifier, SocrataResponseData entry) {
-    String involvement = entry.involvement.replace(" ", "&");
-    return identifier + entry.reportNumber + "-R" + entry.race + "S"+ entry.sex + "A" + entry.age 
-      + "-I" + involvement + "-C" + entry.ibrs;
+    return sourceReference.create(reportNum);
   }
 
-  public static String buildId(SocrataResponseData entry) {
-    return buildId("", entry);
+  private static List<String> concat(List<String> first, List<String> second) {
+    final List<String> fields = new ArrayList<>(first);
+    fields.addAll(second);
+    return Collections.unmodifiableList(fields);
   }
 }
@@ -0,0 +1,153 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.kcpd.rest.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Copies the fields of a source record into the properties of an entity or link. Each property
+ * type is resolved to its slot in the item type's {@link PropertyLayout} when the mapping is
+ * built, so a property type which is not in the schema is reported when the connector starts,
+ * and each record is copied straight into the slots without looking up any property types.
+ *
+ * @param <T> The type of the source records.
+ */
+public final class PropertyMapping<T> {
+  private final PropertyLayout layout;
+  private final int[] ordinals;
+  private final Function<T, ?>[] accessors;
+  private final boolean[] optional;
+
+  @SuppressWarnings("unchecked")
+  private PropertyMapping(Builder<T> builder) {
+    this.layout = builder.layout;
+    final int size = builder.accessors.size();
+    this.ordinals = new int[size];
+    this.accessors = builder.accessors.toArray(new Function[size]);
+    this.optional = new boolean[size];
+    for (int i = 0; i < size; i++) {
+      ordinals[i] = builder.ordinals.get(i);
+      optional[i] = builder.optional.get(i);
+    }
+  }
+
+  /**
+   * Start a mapping into the properties of an item type.
+   *
+   * @param layout The property layout of the item type.
+   * @param <T> The type of the source records.
+   * @return The builder of the mapping.
+   */
+  public static <T> Builder<T> into(PropertyLayout layout) {
+    return new Builder<>(layout);
+  }
+
+  /**
+   * Get the identifier of the item type which the properties belong to.
+   *
+   * @return The identifier of the entity or link type.
+   */
+  public String getItemTypeId() {
+    return layout.getItemTypeId();
+  }
+
+  /**
+   * Copy the fields of a record into a new set of properties.
+   *
+   * @param record The source record.
+   * @return The properties.
+   */
+  public PropertyMap apply(T record) {
+    final PropertyMap properties = layout.newProperties();
+    for (int i = 0; i < accessors.length; i++) {
+      final Object value = accessors[i].apply(record);
+      if (value != null || !optional[i]) {
+        properties.set(ordinals[i], value);
+      }
+    }
+    return properties;
+  }
+
+  /**
+   * Builds a mapping from the fields of a record to property types.
+   *
+   * @param <T> The type of the source records.
+   */
+  public static final class Builder<T> {
+    private final PropertyLayout layout;
+    private final List<Integer> ordinals = new ArrayList<>();
+    private final List<Function<T, ?>> accessors = new ArrayList<>();
+    private final List<Boolean> optional = new ArrayList<>();
+
+    private Builder(PropertyLayout layout) {
+      this.layout = layout;
+    }
+
+    /**
+     * Map a value to a property type. A null value is written as null.
+     *
+     * @param propertyTypeId The identifier of the property type.
+     * @param accessor Gets the value of the property from a record.
+     * @return This builder.
+     */
+    public Builder<T> map(String propertyTypeId, Function<T, ?> accessor) {
+      return add(propertyTypeId, accessor, false);
+    }
+
+    /**
+     * Map a value to a property type, leaving the property out when the value is null.
+     *
+     * @param propertyTypeId The identifier of the property type.
+     * @param accessor Gets the value of the property from a record.
+     * @return This builder.
+     */
+    public Builder<T> mapOptional(String propertyTypeId, Function<T, ?> accessor) {
+      return add(propertyTypeId, accessor, true);
+    }
+
+    /**
+     * Build the mapping.
+     *
+     * @return The mapping.
+     */
+    public PropertyMapping<T> build() {
+      return new PropertyMapping<>(this);
+    }
+
+    private Builder<T> add(String propertyTypeId, Function<T, ?> accessor, boolean optional) {
+      final int ordinal = layout.ordinal(propertyTypeId);
+      if (ordinal < 0) {
+        throw new IllegalArgumentException("The item type " + layout.getItemTypeId()
+            + " has no property type " + propertyTypeId);
+      }
+      this.ordinals.add(ordinal);
+      this.accessors.add(accessor);
+      this.optional.add(optional);
+      return this;
+    }
+  }
+}
@@ -0,0 +1,245 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.kcpd.rest.transport;
+
+import com.i2group.connector.spi.rest.transport.DaodSeedEntityData;
+import com.i2group.connector.spi.rest.transport.I2ConnectEntityData;
+import com.i2group.connector.spi.rest.transport.I2ConnectLinkData;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Assembles the entities and links of a response from source records, in time linear in the
+ * number of records. Entities which several records refer to are created once, using an
+ * {@link EntityIndex} for each kind of entity, and repeated links are left out using a
+ * {@link LinkIndex} for each kind of link. Every item is passed on to a sink as soon as it is
+ * created. Records can be keyed by an object, or by a 128-bit hash held as two longs, which is
+ * looked up without allocating.
+ *
+ * <p>When the response is for a set of seeds, the link ends which refer to a seed's record are
+ * changed to the seed's identifier. The identifiers are converted to the form link ends refer to
+ * them by once, when the assembler is created.
+ */
+public final class ResultGraphAssembler implements I2ConnectDataSink {
+  private final I2ConnectDataSink sink;
+  private final Map<Object, String> seedIds;
+
+  /**
+   * Constructor used to assemble a response with no seeds.
+   *
+   * @param sink The sink which receives the entities and links.
+   */
+  public ResultGraphAssembler(I2ConnectDataSink sink) {
+    this.sink = sink;
+    this.seedIds = Collections.emptyMap();
+  }
+
+  /**
+   * Constructor used to assemble a response for a set of seeds.
+   *
+   * @param sink The sink which receives the entities and links.
+   * @param seeds The selected entities provided by the user via the interface.
+   */
+  public ResultGraphAssembler(I2ConnectDataSink sink, List<DaodSeedEntityData> seeds) {
+    this(sink, seeds, Function.identity());
+  }
+
+  /**
+   * Constructor used to assemble a response for a set of seeds, whose link ends do not refer to
+   * entities by the string form of their identifiers.
+   *
+   * @param sink The sink which receives the entities and links.
+   * @param seeds The selected entities provided by the user via the interface.
+   * @param endIdOf Converts the identifier of the record a seed came from to the identifier that
+   *     link ends refer to it by.
+   */
+  public ResultGraphAssembler(I2ConnectDataSink sink, List<DaodSeedEntityData> seeds,
+      Function<String, ?> endIdOf) {
+    this.sink = sink;
+    this.seedIds = new HashMap<>();
+    for (DaodSeedEntityData seed : seeds) {
+      seedIds.put(endIdOf.apply(seed.sourceIds.get(0).key.get(2)), seed.seedId);
+    }
+  }
+
+  /**
+   * Create an index of one kind of entity, which creates each entity the first time it is asked
+   * for.
+   *
+   * @param factory Creates an entity from a source record.
+   * @param <T> The type of the source records.
+   * @return The index.
+   */
+  public <T> EntityIndex<T> entities(Function<? super T, I2ConnectEntityData> factory) {
+    return new EntityIndex<>(factory);
+  }
+
+  /**
+   * Create an index of one kind of link, which records the links which have been added.
+   *
+   * @return The index.
+   */
+  public LinkIndex links() {
+    return new LinkIndex();
+  }
+
+  /**
+   * Add an entity which no other record refers to.
+   *
+   * @param entity The entity.
+   */
+  @Override
+  public void addEntity(I2ConnectEntityData entity) {
+    sink.addEntity(entity);
+  }
+
+  /**
+   * Add a link, matching its ends to the seed identifiers.
+   *
+   * @param link The link.
+   */
+  @Override
+  public void addLink(I2ConnectLinkData link) {
+    if (!seedIds.isEmpty()) {
+      final String fromSeedId = seedIds.get(link.fromEndId);
+      if (fromSeedId != null) {
+        link.fromEndId = fromSeedId;
+      } else {
+        final String toSeedId = seedIds.get(link.toEndId);
+        if (toSeedId != null) {
+          link.toEndId = toSeedId;
+        }
+      }
+    }
+    sink.addLink(link);
+  }
+
+  @Override
+  public void setErrorMessage(String errorMessage) {
+    sink.setErrorMessage(errorMessage);
+  }
+
+  /**
+   * The entities of one kind, by the key of the source record they were created from.
+   *
+   * @param <T> The type of the source records.
+   */
+  public final class EntityIndex<T> {
+    private final Map<Object, I2ConnectEntityData> entities = new HashMap<>();
+    private final LongPairTable<I2ConnectEntityData> hashedEntities = new LongPairTable<>();
+    private final Function<? super T, I2ConnectEntityData> factory;
+
+    private EntityIndex(Function<? super T, I2ConnectEntityData> factory) {
+      this.factory = factory;
+    }
+
+    /**
+     * Get the entity with a key. The first time a key is asked for, the entity is created from
+     * the record and added to the response.
+     *
+     * @param key The key which identifies the entity among entities of its kind.
+     * @param record The source record the entity is created from.
+     * @return The entity.
+     */
+    public I2ConnectEntityData get(Object key, T record) {
+      I2ConnectEntityData entity = entities.get(key);
+      if (entity == null) {
+        entity = factory.apply(record);
+        entities.put(key, entity);
+        sink.addEntity(entity);
+      }
+      return entity;
+    }
+
+    /**
+     * Get the entity with a 128-bit key. The first time a key is asked for, the entity is created
+     * from the record and added to the response.
+     *
+     * @param high The high half of the key which identifies the entity among entities of its kind.
+     * @param low The low half of the key.
+     * @param record The source record the entity is created from.
+     * @return The entity.
+     */
+    public I2ConnectEntityData get(long high, long low, T record) {
+      I2ConnectEntityData entity = hashedEntities.get(high, low);
+      if (entity == null) {
+        entity = factory.apply(record);
+        hashedEntities.putIfAbsent(high, low, entity);
+        sink.addEntity(entity);
+      }
+      return entity;
+    }
+  }
+
+  /** The keys of the links of one kind which have been added to the response. */
+  public static final class LinkIndex {
+    private final Set<Object> keys = new HashSet<>();
+    private final LongPairTable<Boolean> hashedKeys = new LongPairTable<>();
+
+    private LinkIndex() {
+    }
+
+    /**
+     * Record the key of a link.
+     *
+     * @param key The key which identifies the link among links of its kind.
+     * @return Whether the key is new, in which case the link should be added.
+     */
+    public boolean add(Object key) {
+      return keys.add(key);
+    }
+
+    /**
+     * Record the 128-bit key of a link.
+     *
+     * @param high The high half of the key which identifies the link among links of its kind.
+     * @param low The low half of the key.
+     * @return Whether the key is new, in which case the link should be added.
+     */
+    public boolean add(long high, long low) {
+      return hashedKeys.putIfAbsent(high, low, Boolean.TRUE) == null;
+    }
+
+    /**
+     * Record the key of a link which has no direction, so that the link between the same ends in
+     * the opposite order has the same key.
+     *
+     * @param endId One end of the link.
+     * @param otherEndId The other end of the link.
+     * @return Whether the key is new, in which case the link should be added.
+     */
+    public boolean addUndirected(String endId, String otherEndId) {
+      return keys.add(endId.compareTo(otherEndId) <= 0
+          ? List.of(endId, otherEndId)
+          : List.of(otherEndId, endId));
+    }
+  }
+}
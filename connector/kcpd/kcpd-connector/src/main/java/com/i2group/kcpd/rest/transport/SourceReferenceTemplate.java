@@ -0,0 +1,172 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.kcpd.rest.transport;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.core.json.JsonGeneratorImpl;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.i2group.connector.spi.rest.transport.SourceReference;
+import com.i2group.connector.spi.rest.transport.SourceReferenceInfo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Objects;
+
+/**
+ * The source reference shared by every record of a dataset. Only the end of the location varies
+ * from one record to the next, so the name, type, description and image are resolved once, and
+ * each reference only holds the part of its location which identifies the record.
+ *
+ * <p>The shared part of the reference is also encoded as JSON once. When a reference is written
+ * as JSON, only its record identifier is encoded.
+ */
+public final class SourceReferenceTemplate {
+  private static final String LOCATION_MARKER = "\u0000";
+  private static final String ENCODED_LOCATION_MARKER = "\\u0000";
+
+  private final String name;
+  private final String type;
+  private final String description;
+  private final String image;
+  private final String locationPrefix;
+  private final String jsonPrefix;
+  private final String jsonSuffix;
+
+  /**
+   * Constructor used to resolve and encode the information shared by the source references.
+   *
+   * @param name The name of the source.
+   * @param type The type of the source.
+   * @param description The description of the source.
+   * @param image The URL of an image of the source, or null.
+   * @param locationPrefix The start of the location of every record from the source.
+   */
+  public SourceReferenceTemplate(
+      String name, String type, String description, String image, String locationPrefix) {
+    this.name = name;
+    this.type = type;
+    this.description = description;
+    this.image = image;
+    this.locationPrefix = locationPrefix;
+
+    final String json;
+    try {
+      json = new ObjectMapper()
+          .writeValueAsString(new SourceReference(toSourceInfo(LOCATION_MARKER)));
+    } catch (JsonProcessingException e) {
+      throw new UncheckedIOException("Unable to encode the source reference", e);
+    }
+    final int marker = json.indexOf(ENCODED_LOCATION_MARKER);
+    jsonPrefix = json.substring(0, marker);
+    jsonSuffix = json.substring(marker + ENCODED_LOCATION_MARKER.length());
+  }
+
+  /**
+   * Create the source reference of a record.
+   *
+   * @param recordId The identifier of the record, which is appended to the location prefix.
+   * @return The source reference.
+   */
+  public SourceReference create(String recordId) {
+    return new Reference(this, recordId);
+  }
+
+  private SourceReferenceInfo toSourceInfo(String recordId) {
+    final SourceReferenceInfo source = new SourceReferenceInfo();
+    source.name = name;
+    source.type = type;
+    source.description = description;
+    source.image = image;
+    source.location = locationPrefix + recordId;
+    return source;
+  }
+
+  /**
+   * A source reference which holds its template and record identifier in place of its source
+   * information. The source information is created if it is asked for.
+   */
+  @JsonSerialize(using = ReferenceSerializer.class)
+  private static final class Reference extends SourceReference {
+    private final SourceReferenceTemplate template;
+    private final String recordId;
+
+    private Reference(SourceReferenceTemplate template, String recordId) {
+      this.template = template;
+      this.recordId = recordId;
+    }
+
+    @Override
+    public SourceReferenceInfo getSource() {
+      return source != null ? source : template.toSourceInfo(recordId);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof SourceReference)) {
+        return false;
+      }
+      return Objects.equals(getSource(), ((SourceReference) o).getSource());
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(getSource());
+    }
+  }
+
+  /**
+   * Writes the pre-encoded JSON of the template around the encoded record identifier. Formats
+   * other than JSON cannot take pre-encoded values, so the source information is written instead.
+   */
+  private static final class ReferenceSerializer extends StdSerializer<Reference> {
+
+    private ReferenceSerializer() {
+      super(Reference.class);
+    }
+
+    @Override
+    public void serialize(Reference value, JsonGenerator gen, SerializerProvider provider)
+        throws IOException {
+      if (value.source == null && gen instanceof JsonGeneratorImpl) {
+        final SourceReferenceTemplate template = value.template;
+        final StringBuilder json = new StringBuilder(template.jsonPrefix);
+        JsonStringEncoder.getInstance().quoteAsString(value.recordId, json);
+        gen.writeRawValue(json.append(template.jsonSuffix).toString());
+      } else {
+        gen.writeStartObject();
+        provider.defaultSerializeField("source", value.getSource(), gen);
+        gen.writeEndObject();
+      }
+    }
+  }
+}
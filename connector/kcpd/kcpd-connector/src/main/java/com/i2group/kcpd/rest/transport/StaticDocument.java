@@ -0,0 +1,122 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.kcpd.rest.transport;
+
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StreamUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A document which does not change while the connector runs, such as its configuration or
+ * schema. The document is read once, and is held along with a gzip-compressed copy and a strong
+ * entity tag for each, so that serving it only writes out bytes. A client which sends the entity
+ * tag of the copy it already has in {@code If-None-Match} receives 304 Not Modified.
+ */
+public final class StaticDocument {
+  private final MediaType mediaType;
+  private final byte[] content;
+  private final String eTag;
+  private final byte[] gzipContent;
+  private final String gzipETag;
+
+  private StaticDocument(MediaType mediaType, byte[] content, byte[] gzipContent) {
+    final String hash = DigestUtils.md5DigestAsHex(content);
+    this.mediaType = mediaType;
+    this.content = content;
+    this.eTag = "\"" + hash + "\"";
+    this.gzipContent = gzipContent;
+    this.gzipETag = "\"" + hash + "-gzip\"";
+  }
+
+  /**
+   * Load a document from a resource.
+   *
+   * @param resource The resource which contains the document.
+   * @param mediaType The media type of the document.
+   * @param compress Whether a compressed copy of the document is also held.
+   * @return The document.
+   */
+  public static StaticDocument load(Resource resource, MediaType mediaType, boolean compress) {
+    final byte[] content;
+    try (InputStream in = resource.getInputStream()) {
+      content = StreamUtils.copyToByteArray(in);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to read " + resource.getDescription(), e);
+    }
+    final byte[] gzipContent = compress ? gzip(content) : null;
+    return new StaticDocument(
+        mediaType,
+        content,
+        gzipContent != null && gzipContent.length < content.length ? gzipContent : null);
+  }
+
+  private static byte[] gzip(byte[] content) {
+    final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (GZIPOutputStream out = new GZIPOutputStream(compressed) {
+      {
+        def.setLevel(Deflater.BEST_COMPRESSION);
+      }
+    }) {
+      out.write(content);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to compress the document", e);
+    }
+    return compressed.toByteArray();
+  }
+
+  /**
+   * Create the response to a request for the document. The compressed copy is sent if the client
+   * accepts gzip. If the request is conditional, and the client has the same copy, the response
+   * is turned into 304 Not Modified when it is written.
+   *
+   * @param request The request for the document.
+   * @return The response.
+   */
+  public ResponseEntity<byte[]> serve(HttpServletRequest request) {
+    final ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(mediaType);
+    if (gzipContent == null) {
+      return response.eTag(eTag).body(content);
+    }
+    response.varyBy(HttpHeaders.ACCEPT_ENCODING);
+    if (ContentEncodingFilter.acceptsGzip(request)) {
+      return response
+          .eTag(gzipETag)
+          .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+          .body(gzipContent);
+    }
+    return response.eTag(eTag).body(content);
+  }
+}
@@ -0,0 +1,237 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.kcpd.rest.transport;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.i2group.connector.spi.rest.transport.I2ConnectEntityData;
+import com.i2group.connector.spi.rest.transport.I2ConnectLinkData;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a {@link StreamingI2ConnectData} response in the same form as any other response, as
+ * JSON or in one of the {@link BinaryFormats}, but writes each entity as soon as it is produced.
+ * The response is flushed to the client after every {@code flushItems} entities. Links refer to
+ * entities, and are written after them. Up to {@code maxBufferedLinks} links are held in memory
+ * until the last entity has been written; beyond that, links are written to a temporary file as
+ * they are produced, and copied from it into the response.
+ *
+ * <p>Nothing is sent until the first flush, so a failure while producing the first entities still
+ * results in an error response.
+ */
+@Component
+public class StreamingI2ConnectDataConverter
+    extends AbstractHttpMessageConverter<StreamingI2ConnectData> {
+  private final Map<MediaType, ObjectMapper> objectMappers = new LinkedHashMap<>();
+  private final int flushItems;
+  private final int maxBufferedLinks;
+
+  /**
+   * Initialise the converter.
+   *
+   * @param objectMapper The object mapper used to write each entity and link as JSON.
+   * @param binaryFormats The binary formats which responses can also be written in.
+   * @param flushItems The number of entities written between each flush.
+   * @param maxBufferedLinks The number of links held in memory before links are written to a
+   *     temporary file instead.
+   */
+  public StreamingI2ConnectDataConverter(ObjectMapper objectMapper, BinaryFormats binaryFormats,
+      @Value("${connector.response.flush-items:100}") int flushItems,
+      @Value("${connector.response.max-buffered-links:1000}") int maxBufferedLinks) {
+    this.objectMappers.put(MediaType.APPLICATION_JSON, objectMapper);
+    this.objectMappers.putAll(binaryFormats.getObjectMappers());
+    this.flushItems = Math.max(1, flushItems);
+    this.maxBufferedLinks = Math.max(0, maxBufferedLinks);
+    setSupportedMediaTypes(new ArrayList<>(objectMappers.keySet()));
+  }
+
+  @Override
+  protected boolean supports(Class<?> clazz) {
+    return StreamingI2ConnectData.class.isAssignableFrom(clazz);
+  }
+
+  @Override
+  protected boolean canRead(MediaType mediaType) {
+    return false;
+  }
+
+  @Override
+  protected StreamingI2ConnectData readInternal(
+      Class<? extends StreamingI2ConnectData> clazz, HttpInputMessage inputMessage) {
+    throw new HttpMessageNotReadableException("Streaming responses cannot be read", inputMessage);
+  }
+
+  @Override
+  protected void writeInternal(StreamingI2ConnectData response, HttpOutputMessage outputMessage)
+      throws IOException {
+    final ObjectMapper objectMapper = getObjectMapper(outputMessage.getHeaders().getContentType());
+    final ObjectWriter itemWriter =
+        objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    final JsonGenerator generator =
+        objectMapper.getFactory().createGenerator(outputMessage.getBody(), JsonEncoding.UTF8);
+    try (LinkBuffer links = new LinkBuffer(objectMapper, itemWriter)) {
+      generator.writeStartObject();
+      generator.writeArrayFieldStart("entities");
+      produce(response, generator, itemWriter, links);
+      generator.writeEndArray();
+
+      generator.writeStringField("errorMessage", response.errorMessage);
+      generator.writeArrayFieldStart("links");
+      links.writeTo(generator);
+      generator.writeEndArray();
+      generator.writeEndObject();
+      generator.flush();
+    }
+  }
+
+  private void produce(StreamingI2ConnectData response, JsonGenerator generator,
+      ObjectWriter itemWriter, LinkBuffer links) {
+    response.produce(new I2ConnectDataSink() {
+      private int unflushed;
+
+      @Override
+      public void addEntity(I2ConnectEntityData entity) {
+        try {
+          itemWriter.writeValue(generator, entity);
+          if (++unflushed == flushItems) {
+            generator.flush();
+            unflushed = 0;
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException("Unable to write the response", e);
+        }
+      }
+
+      @Override
+      public void addLink(I2ConnectLinkData link) {
+        try {
+          links.add(link);
+        } catch (IOException e) {
+          throw new UncheckedIOException("Unable to hold a link of the response", e);
+        }
+      }
+
+      @Override
+      public void setErrorMessage(String errorMessage) {
+        response.errorMessage = errorMessage;
+      }
+    });
+  }
+
+  private ObjectMapper getObjectMapper(MediaType contentType) {
+    if (contentType != null) {
+      for (Map.Entry<MediaType, ObjectMapper> format : objectMappers.entrySet()) {
+        if (format.getKey().isCompatibleWith(contentType)) {
+          return format.getValue();
+        }
+      }
+    }
+    return objectMappers.get(MediaType.APPLICATION_JSON);
+  }
+
+  /**
+   * Holds the links of a response until they can be written. Links are held in memory until there
+   * are more than {@code maxBufferedLinks} of them, and are then written, in the format of the
+   * response, to a temporary file which is deleted once the response has been written.
+   */
+  private class LinkBuffer implements AutoCloseable {
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter itemWriter;
+    private final List<I2ConnectLinkData> links = new ArrayList<>();
+    private Path file;
+    private JsonGenerator fileGenerator;
+
+    LinkBuffer(ObjectMapper objectMapper, ObjectWriter itemWriter) {
+      this.objectMapper = objectMapper;
+      this.itemWriter = itemWriter;
+    }
+
+    void add(I2ConnectLinkData link) throws IOException {
+      if (fileGenerator == null && links.size() < maxBufferedLinks) {
+        links.add(link);
+        return;
+      }
+      if (fileGenerator == null) {
+        file = Files.createTempFile("i2connect-links-", ".tmp");
+        final OutputStream out = Files.newOutputStream(file);
+        fileGenerator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        for (I2ConnectLinkData buffered : links) {
+          itemWriter.writeValue(fileGenerator, buffered);
+        }
+        links.clear();
+      }
+      itemWriter.writeValue(fileGenerator, link);
+    }
+
+    void writeTo(JsonGenerator generator) throws IOException {
+      if (fileGenerator == null) {
+        for (I2ConnectLinkData link : links) {
+          itemWriter.writeValue(generator, link);
+        }
+        return;
+      }
+      fileGenerator.close();
+      fileGenerator = null;
+      try (JsonParser parser = objectMapper.getFactory().createParser(file.toFile())) {
+        while (parser.nextToken() != null) {
+          generator.copyCurrentStructure(parser);
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        if (fileGenerator != null) {
+          fileGenerator.close();
+        }
+      } finally {
+        if (file != null) {
+          Files.deleteIfExists(file);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.kcpd.rest.transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.i2group.kcpd.rest.externalsource.transport.SocrataResponseData;
+import org.junit.Test;
+
+public class CompositeKeyTest {
+
+  @Test
+  public void equalFieldsHaveEqualKeys() {
+    assertThat(CompositeKey.of(record("KC1", 30))).isEqualTo(CompositeKey.of(record("KC1", 30)));
+    assertThat(CompositeKey.of(record("KC1", 30))).isNotEqualTo(CompositeKey.of(record("KC1", 31)));
+    assertThat(CompositeKey.of(record("KC1", 30))).isNotEqualTo(CompositeKey.of(record("KC2", 30)));
+  }
+
+  @Test
+  public void identifierIsRenderedFromTheFields() {
+    assertThat(CompositeKey.of(record("KC1", 30)).id("PER"))
+        .hasToString("PERKC1-RWSFA30-ISUS&VIC-C13A");
+  }
+
+  @Test
+  public void parsedIdentifierEqualsTheIdentifierOfTheRecord() {
+    final CompositeKey.Id id = CompositeKey.of(record("KC1", -4)).id("REP");
+    final CompositeKey.Id parsed = CompositeKey.parseId("REP", id.toString());
+
+    assertThat(parsed).isEqualTo(id);
+    assertThat(parsed.hashCode()).isEqualTo(id.hashCode());
+    assertThat(parsed).hasToString(id.toString());
+    assertThat(parsed).isNotEqualTo(CompositeKey.of(record("KC1", -4)).id("PER"));
+  }
+
+  static SocrataResponseData record(String reportNumber, int age) {
+    final SocrataResponseData record = new SocrataResponseData();
+    record.reportNumber = reportNumber;
+    record.race = "W";
+    record.sex = "F";
+    record.age = age;
+    record.involvement = "SUS VIC";
+    record.ibrs = "13A";
+    return record;
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.kcpd.rest.transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.i2group.connector.spi.rest.transport.DaodSeedEntityData;
+import com.i2group.connector.spi.rest.transport.I2ConnectData;
+import com.i2group.connector.spi.rest.transport.I2ConnectEntityData;
+import com.i2group.connector.spi.rest.transport.I2ConnectLinkData;
+import com.i2group.connector.spi.rest.transport.SeedSourceIdentifier;
+import org.junit.Test;
+
+import java.util.List;
+
+public class ResultGraphAssemblerTest {
+  private final I2ConnectData response = new I2ConnectData();
+
+  @Test
+  public void entitiesWithTheSameHashedKeyAreCreatedOnce() {
+    final ResultGraphAssembler graph =
+        new ResultGraphAssembler(I2ConnectDataSink.collectingInto(response));
+    final ResultGraphAssembler.EntityIndex<CompositeKey> people =
+        graph.entities(ResultGraphAssemblerTest::person);
+    final ResultGraphAssembler.LinkIndex links = graph.links();
+    final CompositeKey first = CompositeKey.of(CompositeKeyTest.record("KC1", 30));
+    final CompositeKey same = CompositeKey.of(CompositeKeyTest.record("KC1", 30));
+    final CompositeKey other = CompositeKey.of(CompositeKeyTest.record("KC1", 31));
+
+    assertThat(people.get(first.getHigh(), first.getLow(), first))
+        .isSameAs(people.get(same.getHigh(), same.getLow(), same));
+    people.get(other.getHigh(), other.getLow(), other);
+    assertThat(links.add(first.getHigh(), first.getLow())).isTrue();
+    assertThat(links.add(same.getHigh(), same.getLow())).isFalse();
+    assertThat(links.add(other.getHigh(), other.getLow())).isTrue();
+
+    assertThat(response.entities).hasSize(2);
+  }
+
+  @Test
+  public void linkEndsAreMatchedToSeedsByIdentifier() {
+    final CompositeKey key = CompositeKey.of(CompositeKeyTest.record("KC1", 30));
+    final ResultGraphAssembler graph = new ResultGraphAssembler(
+        I2ConnectDataSink.collectingInto(response),
+        List.of(seed("seed-1", key.id("PER").toString()), seed("seed-2", "LOC1 MAIN ST64106")),
+        ItemFactory::parseEntityId);
+
+    graph.addLink(link(key.id("PER"), key.id("REP")));
+    graph.addLink(link(key.id("REP"), "LOC1 MAIN ST64106"));
+    graph.addLink(link(key.id("REP"), "LOC2 MAIN ST64106"));
+
+    assertThat(response.links).extracting(link -> link.fromEndId.toString())
+        .containsExactly("seed-1", key.id("REP").toString(), key.id("REP").toString());
+    assertThat(response.links).extracting(link -> link.toEndId.toString())
+        .containsExactly(key.id("REP").toString(), "seed-2", "LOC2 MAIN ST64106");
+  }
+
+  private static I2ConnectEntityData person(CompositeKey key) {
+    return new I2ConnectEntityData(key.id("PER"));
+  }
+
+  private static I2ConnectLinkData link(Object fromEndId, Object toEndId) {
+    final I2ConnectLinkData link = new I2ConnectLinkData();
+    link.fromEndId = fromEndId;
+    link.toEndId = toEndId;
+    return link;
+  }
+
+  private static DaodSeedEntityData seed(String seedId, String sourceKey) {
+    final SeedSourceIdentifier sourceId = new SeedSourceIdentifier();
+    sourceId.key = List.of("kcpd", "ET3", sourceKey);
+    final DaodSeedEntityData seed = new DaodSeedEntityData();
+    seed.seedId = seedId;
+    seed.sourceIds = List.of(sourceId);
+    return seed;
+  }
+}
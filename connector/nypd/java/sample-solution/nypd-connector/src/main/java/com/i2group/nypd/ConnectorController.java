@@ -28,13 +28,23 @@ import com.i2group.connector.spi.rest.transport.DaodRequest;
 import com.i2group.connector.spi.rest.transport.DaodRequestCondition;
 import com.i2group.connector.spi.rest.transport.I2ConnectData;
 import com.i2group.connector.spi.rest.transport.PayloadValidationResponse;
+import com.i2group.nypd.rest.externalsource.SocrataMirrorSync;
+import com.i2group.nypd.rest.externalsource.SocrataQueryCache;
+import com.i2group.nypd.rest.transport.StaticDocument;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import static com.i2group.nypd.rest.transport.BinaryFormats.CBOR_VALUE;
+import static com.i2group.nypd.rest.transport.BinaryFormats.SMILE_VALUE;
 import static org.springframework.util.MimeTypeUtils.APPLICATION_JSON_VALUE;
 import static org.springframework.util.MimeTypeUtils.APPLICATION_XML_VALUE;
 
@@ -44,36 +54,70 @@ public class ConnectorController {
 
   private static final int CONNECTOR_MAJOR_VERSION = 1;
   private static final int CONNECTOR_MINOR_VERSION = 2;
+  private static final int MAX_NEGOTIATED_VERSIONS = 32;
   private final ExternalConnectorDataService connectorDataService;
-  @Value("classpath:config.json")
-  private Resource configResource;
-  @Value("classpath:nypd-complaint-data-schema.xml")
-  private Resource schemaResource;
-  @Value("classpath:nypd-complaint-data-schema-charting-schemes.xml")
-  private Resource chartingSchemesResource;
+  private final StaticDocument config;
+  private final StaticDocument schema;
+  private final StaticDocument chartingSchemes;
+  private final Map<List<String>, Boolean> negotiatedVersions = new ConcurrentHashMap<>();
 
   /**
    * Creates an instance of the ExternalConnectorDataService used to complete acquires.
    *
    * @param connectorDataService The class containing operations which perform the operation defined
    *                             by the various services.
+   * @param configResource The connector configuration.
+   * @param schemaResource The connector schema.
+   * @param chartingSchemesResource The connector charting schemes.
+   * @param compress Whether compressed copies of the configuration and schemas are held.
    */
-  public ConnectorController(ExternalConnectorDataService connectorDataService) {
+  public ConnectorController(
+      ExternalConnectorDataService connectorDataService,
+      @Value("classpath:config.json") Resource configResource,
+      @Value("classpath:nypd-complaint-data-schema.xml") Resource schemaResource,
+      @Value("classpath:nypd-complaint-data-schema-charting-schemes.xml")
+          Resource chartingSchemesResource,
+      @Value("${connector.compression.enabled:true}") boolean compress) {
     this.connectorDataService = connectorDataService;
+    this.config = StaticDocument.load(configResource, MediaType.APPLICATION_JSON, compress);
+    this.schema = StaticDocument.load(schemaResource, MediaType.APPLICATION_XML, compress);
+    this.chartingSchemes =
+        StaticDocument.load(chartingSchemesResource, MediaType.APPLICATION_XML, compress);
   }
 
   /**
    * Defines the /config endpoint which acquires the connector configuration data.
    *
+   * @param gatewaySupportedVersions The connector versions which the gateway supports.
+   * @param request The request for the configuration.
    * @return The config.json file.
    */
   @RequestMapping(method = RequestMethod.GET, value = "/config", produces = APPLICATION_JSON_VALUE)
-  public Resource config(@RequestHeader(value = "I2-Spi-Versions", required = false) List<String> gatewaySupportedVersions) {
-    if (gatewaySupportedVersions == null) {
-      return configResource;
+  public ResponseEntity<byte[]> config(
+      @RequestHeader(value = "I2-Spi-Versions", required = false) List<String> gatewaySupportedVersions,
+      HttpServletRequest request) {
+    if (gatewaySupportedVersions != null) {
+      if (negotiatedVersions.size() < MAX_NEGOTIATED_VERSIONS) {
+        negotiatedVersions.computeIfAbsent(gatewaySupportedVersions, this::negotiateVersion);
+      } else if (!negotiatedVersions.containsKey(gatewaySupportedVersions)) {
+        negotiateVersion(gatewaySupportedVersions);
+      }
     }
+    return config.serve(request);
+  }
+
+  /**
+   * Reports whether the gateway supports this version of the connector. The gateway sends the same
+   * versions on every poll, so the result is remembered for each distinct set of versions.
+   *
+   * @param gatewaySupportedVersions The connector versions which the gateway supports.
+   * @return Whether any of the versions includes this version of the connector.
+   */
+  private boolean negotiateVersion(List<String> gatewaySupportedVersions) {
     System.out.println("Latest gateway supported versions: " + gatewaySupportedVersions);
 
+    boolean supported = false;
+
     for (String supportedVersion: gatewaySupportedVersions) {
       final String[] supportedVersionParts = supportedVersion.split("\\.");
       final double supportedMajorVersion = Double.parseDouble(supportedVersionParts[0]);
@@ -82,32 +126,59 @@ public class ConnectorController {
       final String connectorVersion = CONNECTOR_MAJOR_VERSION + "." + CONNECTOR_MINOR_VERSION;
       if ((CONNECTOR_MAJOR_VERSION == supportedMajorVersion) && (CONNECTOR_MINOR_VERSION <= supportedMinorVersion)) {
         System.out.print("The gateway supports connector version " + connectorVersion + "\n");
+        supported = true;
       } else {
         System.out.print("The gateway does not support connector version " + connectorVersion + "\n");
       }
     }
-    return configResource;
+    return supported;
   }
 
   /**
    * Defines the endpoint used to retrieve the connector schema.
    *
+   * @param request The request for the schema.
    * @return The connector schema.
    */
   @RequestMapping(method = RequestMethod.GET, value = "/schema", produces = APPLICATION_XML_VALUE)
-  public Resource schema() {
-    return schemaResource;
+  public ResponseEntity<byte[]> schema(HttpServletRequest request) {
+    return schema.serve(request);
   }
 
   /**
    * Defines the endpoint used to retrieve the connector charting schemes.
    *
+   * @param request The request for the charting schemes.
    * @return The connector charting schemes.
    */
   @RequestMapping(method = RequestMethod.GET, value = "/charting-schemes",
       produces = APPLICATION_XML_VALUE)
-  public Resource chartingSchemes() {
-    return chartingSchemesResource;
+  public ResponseEntity<byte[]> chartingSchemes(HttpServletRequest request) {
+    return chartingSchemes.serve(request);
+  }
+
+  /**
+   * Defines the /cache-statistics endpoint which reports the hits, misses and evictions of the
+   * Socrata query cache.
+   *
+   * @return The current cache statistics.
+   */
+  @RequestMapping(method = RequestMethod.GET, value = "/cache-statistics",
+      produces = APPLICATION_JSON_VALUE)
+  public SocrataQueryCache.Statistics cacheStatistics() {
+    return connectorDataService.getCacheStatistics();
+  }
+
+  /**
+   * Defines the /mirror-statistics endpoint which reports the size of the dataset mirror, and the
+   * lag and row counts of its sync.
+   *
+   * @return The current mirror statistics, or nothing if there is no mirror.
+   */
+  @RequestMapping(method = RequestMethod.GET, value = "/mirror-statistics",
+      produces = APPLICATION_JSON_VALUE)
+  public SocrataMirrorSync.Statistics mirrorStatistics() {
+    return connectorDataService.getMirrorStatistics();
   }
 
   /**
@@ -115,8 +186,9 @@ public class ConnectorController {
    *
    * @return The response containing all entities and links.
    */
-  @RequestMapping(method = RequestMethod.POST, value = "/all", consumes = APPLICATION_JSON_VALUE,
-      produces = APPLICATION_JSON_VALUE)
+  @RequestMapping(method = RequestMethod.POST, value = "/all",
+      consumes = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE},
+      produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
   public I2ConnectData allService() {
     return connectorDataService.retrieveAll();
   }
@@ -127,8 +199,9 @@ public class ConnectorController {
    * @param request The request containing the payload.
    * @return The resulting entities and links after a conditional search.
    */
-  @RequestMapping(method = RequestMethod.POST, value = "/search", consumes = APPLICATION_JSON_VALUE,
-      produces = APPLICATION_JSON_VALUE)
+  @RequestMapping(method = RequestMethod.POST, value = "/search",
+      consumes = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE},
+      produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
   public I2ConnectData searchService(@Valid @RequestBody DaodRequest request) {
     return connectorDataService.search(request.payload.conditions);
   }
@@ -140,7 +213,8 @@ public class ConnectorController {
    * @return A response containing an error message or nothing.
    */
   @RequestMapping(method = RequestMethod.POST, value = "/search/validate",
-      consumes = APPLICATION_JSON_VALUE, produces = APPLICATION_JSON_VALUE)
+      consumes = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE},
+      produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
   public PayloadValidationResponse searchValidate(@Valid @RequestBody DaodRequest request) {
     return validateSearchForm(request);
   }
@@ -153,7 +227,8 @@ public class ConnectorController {
    * @return The entities found which are similar to the selected complaint.
    */
   @RequestMapping(method = RequestMethod.POST, value = "/find-like-this-complaint",
-      consumes = APPLICATION_JSON_VALUE, produces = APPLICATION_JSON_VALUE)
+      consumes = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE},
+      produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
   public I2ConnectData findLikeThisComplaintService(
       @Valid @RequestBody DaodRequest request) {
     return connectorDataService.findLikeThisComplaint(request.payload.seeds);
@@ -165,8 +240,9 @@ public class ConnectorController {
    * @param request The request containing the payload.
    * @return The resulting entities and links connected to the selected entities.
    */
-  @RequestMapping(method = RequestMethod.POST, value = "/expand", consumes = APPLICATION_JSON_VALUE,
-      produces = APPLICATION_JSON_VALUE)
+  @RequestMapping(method = RequestMethod.POST, value = "/expand",
+      consumes = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE},
+      produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
   public I2ConnectData expandService(@Valid @RequestBody DaodRequest request) {
     return connectorDataService.expand(request.payload.seeds);
   }
@@ -179,7 +255,8 @@ public class ConnectorController {
    * @return The resulting entities and links which meet the requirements.
    */
   @RequestMapping(method = RequestMethod.POST, value = "/expand-with-conditions",
-      consumes = APPLICATION_JSON_VALUE, produces = APPLICATION_JSON_VALUE)
+      consumes = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE},
+      produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
   public I2ConnectData expandWithConditionsService(
       @Valid @RequestBody DaodRequest request) {
     return connectorDataService.expandWithConditions(request.payload);
@@ -192,7 +269,8 @@ public class ConnectorController {
    * @return A response containing an error message or nothing.
    */
   @RequestMapping(method = RequestMethod.POST, value = "/expand-with-conditions/validate",
-      consumes = APPLICATION_JSON_VALUE, produces = APPLICATION_JSON_VALUE)
+      consumes = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE},
+      produces = {APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
   public PayloadValidationResponse expandWithConditionsValidate(
       @Valid @RequestBody DaodRequest request) {
     return validateSearchForm(request);
@@ -31,42 +31,195 @@ import com.i2group.connector.spi.rest.transport.DaodSeeds;
 import com.i2group.connector.spi.rest.transport.I2ConnectData;
 import com.i2group.connector.spi.rest.transport.I2ConnectEntityData;
 import com.i2group.connector.spi.rest.transport.I2ConnectLinkData;
+import com.i2group.nypd.rest.externalsource.SocrataBatchedCondition;
 import com.i2group.nypd.rest.externalsource.SocrataClient;
-import com.i2group.nypd.rest.externalsource.transport.SocrataResponse;
+import com.i2group.nypd.rest.externalsource.SocrataLookupBatcher;
+import com.i2group.nypd.rest.externalsource.SocrataMirror;
+import com.i2group.nypd.rest.externalsource.SocrataMirrorSync;
+import com.i2group.nypd.rest.externalsource.SocrataPager;
+import com.i2group.nypd.rest.externalsource.SocrataProjection;
+import com.i2group.nypd.rest.externalsource.SocrataQueryCache;
+import com.i2group.nypd.rest.externalsource.SocrataRequestCoalescer;
+import com.i2group.nypd.rest.externalsource.SocrataResultGovernor;
+import com.i2group.nypd.rest.externalsource.transport.SocrataResponseData;
+import com.i2group.nypd.rest.transport.I2ConnectDataSink;
 import com.i2group.nypd.rest.transport.ItemFactory;
+import com.i2group.nypd.rest.transport.ResultGraphAssembler;
+import com.i2group.nypd.rest.transport.StreamingI2ConnectData;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /** Used to query the NYPD complaint dataset, turning the raw data into entities and links. */
 @Service
 public class ExternalConnectorDataService {
-  private final SocrataClient socrataClient;
+  private final SocrataPager socrataPager;
+  private final SocrataQueryCache queryCache;
+  private final SocrataRequestCoalescer requestCoalescer = new SocrataRequestCoalescer();
+  private final int maxConditionLength;
+  private final SocrataLookupBatcher lookupBatcher;
+  private final SocrataMirror mirror;
+  private final SocrataMirrorSync mirrorSync;
+  private final SocrataResultGovernor governor;
+  private final boolean streamResponses;
   private final ItemFactory itemFactory;
 
   private final static String LIMIT_PARAM = "?$limit={limitValue}";
+  private final static SocrataLookupBatcher.Lookup COMPLAINT_LOOKUP =
+      new SocrataLookupBatcher.Lookup("cmplnt_num", "'{0}'", row -> row.complaintNum);
+  private final static SocrataLookupBatcher.Lookup PRECINCT_LOOKUP =
+      new SocrataLookupBatcher.Lookup("addr_pct_cd", "{0}",
+          row -> String.valueOf(row.precinctCode));
+  // The row identifier breaks ties between complaints reported on the same date when they are
+  // ranked
+  private final static String COMPLAINT_SELECT = SocrataProjection.select(
+      SocrataResponseData.class, List.of("rowId"), ItemFactory.COMPLAINT_FIELDS);
+  // The row identifier is selected so that rows matched by more than one batch of an expand
+  // are only used once
+  private final static String RECORD_SELECT = SocrataProjection.select(SocrataResponseData.class,
+      List.of("rowId"), ItemFactory.COMPLAINT_FIELDS, ItemFactory.LOCATION_FIELDS, ItemFactory.SUSPECT_FIELDS,
+      ItemFactory.VICTIM_FIELDS);
+  // The mirror also holds the update time of each row, from which it is kept up to date
+  private final static String MIRROR_SELECT = SocrataProjection.select(SocrataResponseData.class,
+      List.of("rowId", "updatedAt"), ItemFactory.COMPLAINT_FIELDS, ItemFactory.LOCATION_FIELDS,
+      ItemFactory.SUSPECT_FIELDS, ItemFactory.VICTIM_FIELDS);
+  // Complaints are ranked by the date they were reported, latest first, in the order Socrata
+  // gives them for the governor's $order
+  private final static String RANK_COLUMN = "rpt_dt";
+  private final static Comparator<SocrataResponseData> RANKING = Comparator
+      .comparing((SocrataResponseData row) -> row.dateReported,
+          Comparator.nullsLast(Comparator.reverseOrder()))
+      .thenComparing(row -> row.rowId, Comparator.nullsLast(Comparator.naturalOrder()));
 
   /**
    * Constructor used to initialise the Socrata client and factory objects used to retrieve
    * complaint data.
    * @param baseUrl The URL of the NYPD complaint dataset.
    * @param apiToken The API token used to access the NYPD complaint dataset.
+   * @param connectTimeout The connect timeout, in milliseconds, for requests to the dataset.
+   * @param readTimeout The read timeout, in milliseconds, for requests to the dataset.
+   * @param maxConnections The maximum number of concurrent requests to the dataset.
+   * @param pageSize The number of rows requested from the dataset in each page.
+   * @param maxParallelPages The maximum number of pages requested from the dataset at once.
+   * @param rowBudget The maximum number of rows retrieved from the dataset for one request.
+   * @param cacheMaxRows The maximum total number of rows held in the query cache.
+   * @param cacheDefaultTtl The time-to-live, in seconds, of cached query results.
+   * @param cacheTtls The time-to-live, in seconds, of cached query results for each service.
+   * @param maxConditionLength The maximum length of the batched condition in each request.
+   * @param lookupWindow The time, in milliseconds, for which expand lookups are held so that they
+   *     can be combined with others. Zero disables the combining of lookups.
+   * @param mirrorEnabled Whether queries are answered from an in-memory mirror of the dataset.
+   * @param mirrorSnapshot The snapshot file the mirror is loaded from. If the file does not exist,
+   *     the mirror is loaded from the dataset and saved to it. Empty to always load from the
+   *     dataset.
+   * @param mirrorMaxRows The maximum number of rows loaded from the dataset into the mirror,
+   *     and of changed rows applied to it at once.
+   * @param mirrorSyncInterval The time, in seconds, between retrievals of the rows which have
+   *     changed since the mirror was loaded. Zero disables the retrieval of changes.
+   * @param defaultTopK The maximum number of rows which results are built from, for services
+   *     without their own setting. Queries matching more rows are built from the most recently
+   *     reported rows.
+   * @param topKs The maximum number of rows which results are built from, for each service.
+   * @param streamResponses Whether entities are written to the response as they are created,
+   *     rather than once every entity and link has been created.
    */
   @Autowired
   public ExternalConnectorDataService(
       @Value("${socrata.url}") String baseUrl,
       @Value("${socrata.api.token}") String apiToken,
+      @Value("${socrata.client.connect-timeout-ms:5000}") long connectTimeout,
+      @Value("${socrata.client.read-timeout-ms:30000}") long readTimeout,
+      @Value("${socrata.client.max-connections:8}") int maxConnections,
+      @Value("${socrata.paging.page-size:1000}") int pageSize,
+      @Value("${socrata.paging.max-parallel-pages:4}") int maxParallelPages,
+      @Value("${socrata.paging.row-budget:5000}") int rowBudget,
+      @Value("${socrata.cache.max-rows:50000}") long cacheMaxRows,
+      @Value("${socrata.cache.default-ttl-seconds:300}") long cacheDefaultTtl,
+      @Value("#{${socrata.cache.ttl-seconds:{:}}}") Map<String, Long> cacheTtls,
+      @Value("${socrata.batch.max-condition-length:2000}") int maxConditionLength,
+      @Value("${socrata.batch.lookup-window-ms:0}") long lookupWindow,
+      @Value("${socrata.mirror.enabled:false}") boolean mirrorEnabled,
+      @Value("${socrata.mirror.snapshot:}") String mirrorSnapshot,
+      @Value("${socrata.mirror.max-rows:1000000}") int mirrorMaxRows,
+      @Value("${socrata.mirror.sync-interval-seconds:0}") long mirrorSyncInterval,
+      @Value("${socrata.governor.default-top-k:5000}") int defaultTopK,
+      @Value("#{${socrata.governor.top-k:{:}}}") Map<String, Integer> topKs,
+      @Value("${connector.response.streaming:false}") boolean streamResponses,
       @Value("classpath:nypd-dataset-webpage.png") Resource resource) {
     this.itemFactory = new ItemFactory(baseUrl, resource);
-    this.socrataClient = new SocrataClient(baseUrl, apiToken);
+    final SocrataClient socrataClient = new SocrataClient(baseUrl, apiToken,
+        Duration.ofMillis(connectTimeout), Duration.ofMillis(readTimeout), maxConnections);
+    this.socrataPager = new SocrataPager(socrataClient, pageSize, maxParallelPages, rowBudget);
+
+    final Map<String, Duration> serviceTtls = new HashMap<>();
+    cacheTtls.forEach((service, ttl) -> serviceTtls.put(service, Duration.ofSeconds(ttl)));
+    this.queryCache =
+        new SocrataQueryCache(cacheMaxRows, Duration.ofSeconds(cacheDefaultTtl), serviceTtls);
+    this.maxConditionLength = maxConditionLength;
+    this.lookupBatcher = new SocrataLookupBatcher(Duration.ofMillis(lookupWindow),
+        maxConditionLength, rowBudget, (url, params) -> query("expand", url, params));
+    this.governor = new SocrataResultGovernor(
+        socrataClient, RANK_COLUMN, RANKING, defaultTopK, topKs, rowBudget);
+    this.streamResponses = streamResponses;
+
+    if (mirrorEnabled) {
+      final SocrataPager mirrorPager =
+          new SocrataPager(socrataClient, pageSize, maxParallelPages, mirrorMaxRows);
+      try {
+        this.mirror = SocrataMirror.load(mirrorSnapshot.isEmpty() ? null : Path.of(mirrorSnapshot),
+            () -> mirrorPager.stream(LIMIT_PARAM + MIRROR_SELECT, Collections.emptyMap()));
+      } catch (IOException e) {
+        throw new UncheckedIOException("Unable to load the dataset mirror", e);
+      }
+      this.mirrorSync = new SocrataMirrorSync(
+          mirror, mirrorPager, LIMIT_PARAM + MIRROR_SELECT, mirrorMaxRows);
+      if (mirrorSyncInterval > 0) {
+        mirrorSync.start(Duration.ofSeconds(mirrorSyncInterval));
+      }
+    } else {
+      this.mirror = null;
+      this.mirrorSync = null;
+    }
+  }
+
+  /**
+   * Get the hit, miss and eviction statistics of the query cache.
+   *
+   * @return The current cache statistics.
+   */
+  public SocrataQueryCache.Statistics getCacheStatistics() {
+    return queryCache.getStatistics();
+  }
+
+  /**
+   * Get the size of the dataset mirror and the progress of its sync.
+   *
+   * @return The current mirror statistics, or null if there is no mirror.
+   */
+  public SocrataMirrorSync.Statistics getMirrorStatistics() {
+    return mirrorSync != null ? mirrorSync.getStatistics() : null;
   }
 
   /**
@@ -75,11 +228,11 @@ public class ExternalConnectorDataService {
    * @return A response containing the entities and links.
    */
   public I2ConnectData retrieveAll() {
-    final Map<String, Object> params = new HashMap<>();
-    params.put("limitValue", 50);
-
-    final SocrataResponse response = socrataClient.get(LIMIT_PARAM, SocrataResponse.class, params);
-    return marshalItemsFromResponse(response);
+    final SocrataResultGovernor.Source source = mirror != null
+        ? mirrorSource(mirror.match())
+        : querySource("all", RECORD_SELECT, "", Collections.emptyMap());
+    return respond("all", source,
+        (rows, sink) -> marshalItemsFromResponse(rows, new ResultGraphAssembler(sink)));
   }
 
   /**
@@ -90,13 +243,12 @@ public class ExternalConnectorDataService {
    */
   public I2ConnectData search(List<DaodRequestCondition> conditions) {
     final Map<String, Object> params = new HashMap<>();
-    params.put("limitValue", 50);
-    final StringBuilder url = new StringBuilder(LIMIT_PARAM);
+    final StringBuilder where = new StringBuilder();
 
     int count = 0;
     for (DaodRequestCondition condition : conditions) {
       params.put(condition.id, condition.value);
-      url.append(count == 0 ? "&$where=" : "&")
+      where.append(count == 0 ? "&$where=" : "&")
           .append(condition.id)
           .append("='{")
           .append(condition.id)
@@ -104,37 +256,46 @@ public class ExternalConnectorDataService {
       count++;
     }
 
-    final SocrataResponse response = socrataClient.get(url.toString(), SocrataResponse.class, params);
-
-    final I2ConnectData connectorResponse = new I2ConnectData();
-    connectorResponse.entities =
-        response.stream().map(itemFactory::createComplaint).collect(Collectors.toList());
-    connectorResponse.links = Collections.emptyList();
-    return connectorResponse;
+    final SocrataResultGovernor.Source source = mirror != null
+        ? mirrorSource(mirror.match(toMirrorConditions(conditions)))
+        : querySource("search", COMPLAINT_SELECT, where.toString(), params);
+    return respond("search", source,
+        (rows, sink) -> rows.map(itemFactory::createComplaint).forEach(sink::addEntity));
   }
 
   /**
-   * Performs a Find-Like-This operation, finding entities with similar properties to a selected
-   * entity.
+   * Performs a Find-Like-This operation, finding entities with similar properties to the selected
+   * entities.
    *
    * @param seeds The selected entities provided by the user via the interface.
    * @return A response containing the entities and links.
    */
   public I2ConnectData findLikeThisComplaint(DaodSeeds seeds) {
-    final DaodSeedEntityData seed = seeds.entities.get(0);
+    final Set<Object> lawCategories = new LinkedHashSet<>();
+    for (DaodSeedEntityData seed : seeds.entities) {
+      lawCategories.add(seed.properties.get("PT10"));
+    }
 
-    final Map<String, Object> params = new HashMap<>();
-    params.put("limitValue", 50);
-    params.put("lawCategory", seed.properties.get("PT10"));
+    final SocrataResultGovernor.Source source = mirror != null
+        ? mirrorSource(mirror.match(SocrataMirror.Condition.in("law_cat_cd", lawCategories)))
+        : queryLawCategories(lawCategories);
+    return respond("find-like-this", source,
+        (rows, sink) -> rows.map(itemFactory::createComplaint).forEach(sink::addEntity));
+  }
 
-    final String url = LIMIT_PARAM + "&$where=law_cat_cd='{lawCategory}'";
-    final SocrataResponse response = socrataClient.get(url, SocrataResponse.class, params);
+  /**
+   * Query Socrata for the complaints in any of the law categories.
+   *
+   * @param lawCategories The law categories.
+   * @return The rows matching the query.
+   */
+  private SocrataResultGovernor.Source queryLawCategories(Set<Object> lawCategories) {
+    final SocrataBatchedCondition condition =
+        SocrataBatchedCondition.in("law_cat_cd", "'{0}'", maxConditionLength);
+    lawCategories.forEach(condition::add);
 
-    final I2ConnectData connectorResponse = new I2ConnectData();
-    connectorResponse.entities =
-        response.stream().map(itemFactory::createComplaint).collect(Collectors.toList());
-    connectorResponse.links = Collections.emptyList();
-    return connectorResponse;
+    return batchSource("find-like-this", COMPLAINT_SELECT, condition.getBatches(), "",
+        Collections.emptyMap());
   }
 
   /**
@@ -145,16 +306,18 @@ public class ExternalConnectorDataService {
    * @return A response containing the entities and links.
    */
   public I2ConnectData expand(DaodSeeds seeds) {
-    final DaodSeedEntityData seed = seeds.entities.get(0);
-    final Map<String, Object> params = buildExpandParameters(seed);
-
-    final String url = LIMIT_PARAM + "&{field}={value}";
-
-    final SocrataResponse socrataResponse = socrataClient.get(url, SocrataResponse.class, params);
-    final I2ConnectData response = marshalItemsFromResponse(socrataResponse);
-    response.links = linkToSeedIds(response, seed);
-
-    return response;
+    final String url = LIMIT_PARAM + RECORD_SELECT + "&$where=";
+    final Map<SocrataLookupBatcher.Lookup, Set<String>> seedValues =
+        groupSeedValues(seeds.entities);
+
+    final SocrataResultGovernor.Source source = mirror != null
+        ? mirrorSource(findInMirror(seedValues, Collections.emptyList()))
+        : lookupBatcher.isEnabled()
+        ? listSource(lookupBatcher.lookup(url, seedValues))
+        : batchSource("expand", RECORD_SELECT, buildExpandConditions(seedValues), "",
+            Collections.emptyMap());
+    return respond("expand", source, (rows, sink) ->
+        marshalItemsFromResponse(rows, new ResultGraphAssembler(sink, seeds.entities)));
   }
 
   /**
@@ -164,121 +327,306 @@ public class ExternalConnectorDataService {
    * @return A response containing the entities and links.
    */
   public I2ConnectData expandWithConditions(DaodRequestPayload payload) {
-    final DaodSeedEntityData seed = payload.seeds.entities.get(0);
-    final Map<String, Object> params = buildExpandParameters(seed);
-
-    final StringBuilder url = new StringBuilder(LIMIT_PARAM);
-    url.append("&{field}={value}");
+    final Map<String, Object> params = new HashMap<>();
+    final StringBuilder conditions = new StringBuilder();
 
-    int count = 0;
     for (DaodRequestCondition condition : payload.conditions) {
-      url.append(count == 0 ? "&$where=" : "&");
       params.put(condition.id, condition.value);
-      url.append(condition.id)
+      conditions.append(" AND ")
+          .append(condition.id)
           .append("='{")
           .append(condition.id)
           .append("}'");
-      count++;
     }
 
-    final SocrataResponse socrataResponse = socrataClient.get(url.toString(), SocrataResponse.class, params);
-    final I2ConnectData response = marshalItemsFromResponse(socrataResponse);
-    response.links = linkToSeedIds(response, seed);
+    final Map<SocrataLookupBatcher.Lookup, Set<String>> seedValues =
+        groupSeedValues(payload.seeds.entities);
+    final SocrataResultGovernor.Source source = mirror != null
+        ? mirrorSource(findInMirror(seedValues, payload.conditions))
+        : batchSource("expand", RECORD_SELECT, buildExpandConditions(seedValues),
+            conditions.toString(), params);
+    return respond("expand", source, (rows, sink) ->
+        marshalItemsFromResponse(rows, new ResultGraphAssembler(sink, payload.seeds.entities)));
+  }
 
-    return response;
+  /**
+   * Group the values which identify the source records of the selected entities by the column
+   * which holds them. Complaints are identified by complaint number and locations by precinct.
+   *
+   * @param seeds The selected entities provided by the user via the interface.
+   * @return The values to look up in each column.
+   */
+  private Map<SocrataLookupBatcher.Lookup, Set<String>> groupSeedValues(
+      List<DaodSeedEntityData> seeds) {
+    final Map<SocrataLookupBatcher.Lookup, Set<String>> seedValues = new LinkedHashMap<>();
+    seedValues.put(COMPLAINT_LOOKUP, new LinkedHashSet<>());
+    seedValues.put(PRECINCT_LOOKUP, new LinkedHashSet<>());
+
+    for (DaodSeedEntityData seed : seeds) {
+      if (seed.typeId.equals("ET1")) {
+        seedValues.get(COMPLAINT_LOOKUP).add(seed.properties.get("PT1").toString());
+      } else if (seed.typeId.equals("ET2")) {
+        // The precinct code is a number, so it is validated instead of being quoted
+        final String precinct = seed.properties.get("PT15").toString();
+        seedValues.get(PRECINCT_LOOKUP)
+            .add(new BigDecimal(precinct).stripTrailingZeros().toPlainString());
+      }
+    }
+    return seedValues;
   }
 
-  private Map<String, Object> buildExpandParameters(DaodSeedEntityData seed) {
-    String field = "";
-    String value = "";
+  /**
+   * Build the conditions matching the source records of the selected entities, with one batched
+   * condition for each column.
+   *
+   * @param seedValues The values to look up in each column.
+   * @return The batches of the conditions.
+   */
+  private List<SocrataBatchedCondition.Batch> buildExpandConditions(
+      Map<SocrataLookupBatcher.Lookup, Set<String>> seedValues) {
+    final List<SocrataBatchedCondition.Batch> batches = new ArrayList<>();
+    seedValues.forEach((lookup, values) -> {
+      final SocrataBatchedCondition condition = SocrataBatchedCondition.in(
+          lookup.getColumn(), lookup.getValueTemplate(), maxConditionLength);
+      values.forEach(condition::add);
+      batches.addAll(condition.getBatches());
+    });
+    return batches;
+  }
 
-    if (seed.typeId.equals("ET1")) {
-      field = "cmplnt_num";
-      value = seed.properties.get("PT1").toString();
-    } else if (seed.typeId.equals("ET2")) {
-      field = "addr_pct_cd";
-      value = seed.properties.get("PT15").toString();
-    }
+  /**
+   * Find the source records of the selected entities in the dataset mirror.
+   *
+   * @param seedValues The values to look up in each column.
+   * @param conditions Further conditions which every row must also match.
+   * @return The matching rows.
+   */
+  private SocrataMirror.Matches findInMirror(
+      Map<SocrataLookupBatcher.Lookup, Set<String>> seedValues,
+      List<DaodRequestCondition> conditions) {
+    final List<List<SocrataMirror.Condition>> alternatives = new ArrayList<>();
+    seedValues.forEach((lookup, values) -> {
+      final List<SocrataMirror.Condition> alternative = new ArrayList<>();
+      alternative.add(SocrataMirror.Condition.in(lookup.getColumn(), values));
+      Collections.addAll(alternative, toMirrorConditions(conditions));
+      alternatives.add(alternative);
+    });
+    return mirror.matchAny(alternatives);
+  }
 
-    final Map<String, Object> params = new HashMap<>();
-    params.put("limitValue", 50);
-    params.put("field", field);
-    params.put("value", value);
-    return params;
+  /**
+   * Convert the conditions provided by the user into conditions on the dataset mirror.
+   *
+   * @param conditions The conditions provided by the user via the interface.
+   * @return The equivalent mirror conditions.
+   */
+  private static SocrataMirror.Condition[] toMirrorConditions(
+      List<DaodRequestCondition> conditions) {
+    return conditions.stream()
+        .map(condition -> SocrataMirror.Condition.in(condition.id,
+            Collections.singletonList(condition.value)))
+        .toArray(SocrataMirror.Condition[]::new);
+  }
+
+  /**
+   * Query the rows of the dataset mirror which matched.
+   *
+   * @param matches The matching rows.
+   * @return The rows matching the query.
+   */
+  private SocrataResultGovernor.Source mirrorSource(SocrataMirror.Matches matches) {
+    return SocrataResultGovernor.Source.of(matches::count, matches::rows,
+        limit -> matches.latest(governor.getRankColumn(), limit));
   }
 
   /**
-   * Marshal the response items into a list of entities and links. Ensures no duplicate complaints
-   * or locations are included.
+   * Query rows which have already been retrieved.
    *
-   * @param response The resulting source records returned from the request.
-   * @return The response containing entities and links.
+   * @param rows The rows.
+   * @return The rows matching the query.
    */
-  private I2ConnectData marshalItemsFromResponse(SocrataResponse response) {
-    final List<I2ConnectEntityData> entities = new ArrayList<>();
-    final List<I2ConnectLinkData> links = new ArrayList<>();
+  private SocrataResultGovernor.Source listSource(List<SocrataResponseData> rows) {
+    return SocrataResultGovernor.Source.of(rows::size, rows::stream,
+        limit -> governor.top(rows.stream(), limit));
+  }
 
-    final Map<String, I2ConnectEntityData> complaints = new HashMap<>();
-    final Map<String, I2ConnectEntityData> locations = new HashMap<>();
+  /**
+   * Query Socrata, counting the rows with a single request.
+   *
+   * @param service The name of the service making the query.
+   * @param select The $select parameter of the request.
+   * @param where The $where parameter of the request, or empty to match every row.
+   * @param params The map of parameters used by the condition.
+   * @return The rows matching the query.
+   */
+  private SocrataResultGovernor.Source querySource(
+      String service, String select, String where, Map<String, ?> params) {
+    final String url = LIMIT_PARAM + select + where;
+    return SocrataResultGovernor.Source.of(
+        () -> count(service, where, params).join(),
+        () -> query(service, url, params),
+        limit -> queryRanked(service, url, params, limit));
+  }
 
-    response
-        .forEach(
-            entry -> {
-              final I2ConnectEntityData complaint;
-              if (complaints.containsKey(entry.complaintNum)) {
-                complaint = complaints.get(entry.complaintNum);
-              } else {
-                complaint = itemFactory.createComplaint(entry);
-                complaints.put(entry.complaintNum, complaint);
-                entities.add(complaint);
-              }
-
-              final I2ConnectEntityData location;
-              final String key = entry.precinctCode + entry.boroName;
-              if (locations.containsKey(key)) {
-                location = locations.get(key);
-              } else {
-                location = itemFactory.createLocation(entry);
-                locations.put(key, location);
-                entities.add(location);
-              }
+  /**
+   * Query Socrata with each batch of a batched condition. Rows matched by more than one batch are
+   * only returned once. The batches are counted at the same time, and the sum of their counts is
+   * the count of the query. The highest ranking rows of each batch are ranked together.
+   *
+   * @param service The name of the service making the query.
+   * @param select The $select parameter of the request.
+   * @param batches The batches of the condition.
+   * @param conditions Further conditions which every row must also match.
+   * @param params The map of parameters used by the further conditions.
+   * @return The rows matching the query.
+   */
+  private SocrataResultGovernor.Source batchSource(String service, String select,
+      List<SocrataBatchedCondition.Batch> batches, String conditions, Map<String, ?> params) {
+    final String url = LIMIT_PARAM + select + "&$where=";
+    return SocrataResultGovernor.Source.of(
+        () -> batches.stream()
+            .map(batch -> count(
+                service, "&$where=" + batch.condition + conditions, batchParams(batch, params)))
+            .collect(Collectors.toList())
+            .stream()
+            .mapToLong(CompletableFuture::join)
+            .sum(),
+        () -> distinctRows(batches.stream().flatMap(batch -> query(
+            service, url + batch.condition + conditions, batchParams(batch, params)))),
+        limit -> governor.top(distinctRows(batches.stream().flatMap(batch -> queryRanked(
+            service, url + batch.condition + conditions, batchParams(batch, params), limit))),
+            limit));
+  }
 
-              final I2ConnectEntityData suspect = itemFactory.createSuspect(entry);
-              final I2ConnectEntityData victim = itemFactory.createVictim(entry);
-              entities.add(suspect);
-              entities.add(victim);
+  private static Map<String, Object> batchParams(
+      SocrataBatchedCondition.Batch batch, Map<String, ?> params) {
+    final Map<String, Object> batchParams = new HashMap<>(params);
+    batchParams.putAll(batch.variables);
+    return batchParams;
+  }
 
-              final I2ConnectLinkData locationLink = itemFactory.createLocationLink(entry, complaint, location);
-              final I2ConnectLinkData suspectLink = itemFactory.createSuspectLink(entry, complaint, suspect);
-              final I2ConnectLinkData victimLink = itemFactory.createVictimLink(entry, complaint, victim);
-              links.add(locationLink);
-              links.add(suspectLink);
-              links.add(victimLink);
-            });
+  private static Stream<SocrataResponseData> distinctRows(Stream<SocrataResponseData> rows) {
+    final Set<String> rowIds = new HashSet<>();
+    return rows.filter(row -> row.rowId == null || rowIds.add(row.rowId));
+  }
 
-    final I2ConnectData connectorResponse = new I2ConnectData();
-    connectorResponse.entities = entities;
-    connectorResponse.links = links;
-    return connectorResponse;
+  /**
+   * Retrieve the rows matching a query, from the query cache if possible. Otherwise, the
+   * request to Socrata is shared with any identical query which is already in flight.
+   *
+   * @param service The name of the service making the query.
+   * @param url The constructed URL extension of the request.
+   * @param params The map of parameters to be included within the request.
+   * @return The rows matching the query.
+   */
+  private Stream<SocrataResponseData> query(String service, String url, Map<String, ?> params) {
+    return queryCache.stream(service, url, params, () -> requestCoalescer.stream(url, params,
+        () -> socrataPager.stream(url, params)));
   }
 
   /**
-   * Match link ends to seed identifiers.
+   * Count the rows matching a query, from the query cache if possible. Otherwise, the count
+   * request to Socrata is shared with any identical count which is already in flight.
    *
-   * @param response The response containing the marshaled entities and links.
-   * @param seed The selected entity provided by the user via the interface.
-   * @return The list of links matched to the corresponding seed identifiers.
+   * @param service The name of the service making the query.
+   * @param where The $where parameter of the query, or empty to count every row.
+   * @param params The map of parameters used by the condition.
+   * @return A future which completes with the number of matching rows.
    */
-  private List<I2ConnectLinkData> linkToSeedIds(I2ConnectData response, DaodSeedEntityData seed) {
-    for (I2ConnectLinkData link : response.links) {
-      final String sourceId = seed.sourceIds.get(0).key.get(2);
-      if (link.fromEndId.equals(sourceId)) {
-        link.fromEndId = seed.seedId;
-      } else if (link.toEndId.equals(sourceId)) {
-        link.toEndId = seed.seedId;
+  private CompletableFuture<Long> count(String service, String where, Map<String, ?> params) {
+    final String url = governor.getCountUrl(where);
+    return queryCache.count(service, url, params, () -> requestCoalescer.count(url, params,
+        () -> governor.count(where, params)));
+  }
+
+  /**
+   * Retrieve the rows of a query which rank highest, from the query cache if possible.
+   *
+   * @param service The name of the service making the query.
+   * @param url The constructed URL extension of the request.
+   * @param params The map of parameters to be included within the request.
+   * @param limit The maximum number of rows.
+   * @return The rows, latest first.
+   */
+  private Stream<SocrataResponseData> queryRanked(
+      String service, String url, Map<String, ?> params, int limit) {
+    // The order and limit are only part of the key, so that ranked rows are cached apart from the
+    // rows of the same query in the usual order
+    final String key = url + "&$order=" + governor.getOrder() + "&$top=" + limit;
+    return queryCache.stream(service, key, params, () -> requestCoalescer.stream(key, params,
+        () -> socrataPager.stream(url, params, governor.getOrder(), limit)));
+  }
+
+  /**
+   * Build a response from the rows of a query, whose number is bounded by the governor. If the
+   * governor leaves rows out, the response says so in its error message.
+   *
+   * @param service The name of the service making the query.
+   * @param source The rows matching the query.
+   * @param producer Produces the entities and links of the response from the rows.
+   * @return The response.
+   */
+  private I2ConnectData respond(String service, SocrataResultGovernor.Source source,
+      BiConsumer<Stream<SocrataResponseData>, I2ConnectDataSink> producer) {
+    return respond(sink -> {
+      final SocrataResultGovernor.Selection selection = governor.select(service, source);
+      try (Stream<SocrataResponseData> rows = selection.rows()) {
+        producer.accept(rows, sink);
       }
+      sink.setErrorMessage(selection.getNotice());
+    });
+  }
+
+  /**
+   * Build a response from the entities and links which a producer gives to a sink. When responses
+   * are streamed, the producer runs while the response is written, so the entities are never all
+   * held in memory. Otherwise, the producer runs now and the items are collected into the response.
+   *
+   * @param producer Produces the entities and links of the response.
+   * @return The response.
+   */
+  private I2ConnectData respond(Consumer<I2ConnectDataSink> producer) {
+    if (streamResponses) {
+      return new StreamingI2ConnectData(producer);
     }
+    final I2ConnectData response = new I2ConnectData();
+    producer.accept(I2ConnectDataSink.collectingInto(response));
+    return response;
+  }
 
-    return response.links;
+  /**
+   * Marshal the response items into entities and links. Ensures no duplicate complaints or
+   * locations are included. Each source record is marshaled as soon as it is read from the
+   * response.
+   *
+   * @param rows The resulting source records returned from the request.
+   * @param graph The assembler which receives the entities and links.
+   */
+  private void marshalItemsFromResponse(
+      Stream<SocrataResponseData> rows, ResultGraphAssembler graph) {
+    final ResultGraphAssembler.EntityIndex<SocrataResponseData> complaints =
+        graph.entities(itemFactory::createComplaint);
+    final ResultGraphAssembler.EntityIndex<SocrataResponseData> locations =
+        graph.entities(itemFactory::createLocation);
+
+    rows
+        .forEach(
+            entry -> {
+              final I2ConnectEntityData complaint = complaints.get(entry.complaintNum, entry);
+              final I2ConnectEntityData location =
+                  locations.get(entry.precinctCode + entry.boroName, entry);
+
+              final I2ConnectEntityData suspect = itemFactory.createSuspect(entry);
+              final I2ConnectEntityData victim = itemFactory.createVictim(entry);
+              graph.addEntity(suspect);
+              graph.addEntity(victim);
+
+              final I2ConnectLinkData locationLink = itemFactory.createLocationLink(entry, complaint, location);
+              final I2ConnectLinkData suspectLink = itemFactory.createSuspectLink(entry, complaint, suspect);
+              final I2ConnectLinkData victimLink = itemFactory.createVictimLink(entry, complaint, victim);
+              graph.addLink(locationLink);
+              graph.addLink(suspectLink);
+              graph.addLink(victimLink);
+            });
   }
 }
@@ -0,0 +1,208 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.nypd.rest.externalsource;
+
+import com.i2group.nypd.rest.externalsource.transport.SocrataResponseData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps a dataset mirror up to date by periodically retrieving the rows which have changed since
+ * the latest update time in the mirror, as recorded by the Socrata :updated_at system field.
+ * Changed rows are retrieved in order of update time and row identifier, at most
+ * {@code maxRows} at a time, and each retrieval is applied to the mirror in one update, so
+ * queries see all of it or none. A retrieval which reaches {@code maxRows} is followed by another
+ * which starts after its last row, until every change has been applied. So the latest update
+ * time in the mirror never passes a change which has not been retrieved.
+ *
+ * <p>Rows updated at the latest update time are retrieved again by the next sync, because other
+ * rows may have been updated at the same time after the previous sync ran. Rows deleted from the
+ * dataset are not detected; the mirror must be reloaded to remove them.
+ */
+public class SocrataMirrorSync {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SocrataMirrorSync.class);
+  private static final String UPDATED_SINCE_FIELD = "updatedSince";
+  private static final String AFTER_ID_FIELD = "afterId";
+  private static final String ORDER = ":updated_at,:id";
+  private static final DateTimeFormatter TIMESTAMP_FORMAT =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS").withZone(ZoneOffset.UTC);
+
+  private final SocrataMirror mirror;
+  private final SocrataPager socrataPager;
+  private final String url;
+  private final String continuationUrl;
+  private final int maxRows;
+  private Instant upToDateAt;
+  private Instant lastSync;
+  private long lastChangedRows;
+  private long changedRows;
+  private long syncs;
+  private long failures;
+
+  /**
+   * Initialise the sync. No sync runs until it is started.
+   *
+   * @param mirror The mirror to keep up to date.
+   * @param socrataPager The pager used to retrieve the changed rows.
+   * @param url The URL extension of the request for every row of the dataset, with the same
+   *     columns as the mirror.
+   * @param maxRows The maximum number of changed rows retrieved and applied at once.
+   */
+  public SocrataMirrorSync(
+      SocrataMirror mirror, SocrataPager socrataPager, String url, int maxRows) {
+    if (maxRows < 1) {
+      throw new IllegalStateException("maxRows must be at least 1");
+    }
+    this.mirror = mirror;
+    this.socrataPager = socrataPager;
+    this.url = url + "&$where=:updated_at >= '{" + UPDATED_SINCE_FIELD + "}'";
+    // Rows updated at the same time as the last row retrieved come after it by row identifier
+    this.continuationUrl = url + "&$where=:updated_at > '{" + UPDATED_SINCE_FIELD + "}' OR "
+        + "(:updated_at = '{" + UPDATED_SINCE_FIELD + "}' AND :id > '{" + AFTER_ID_FIELD + "}')";
+    this.maxRows = maxRows;
+    this.upToDateAt = mirror.getUpdatedAt();
+  }
+
+  /**
+   * Start running a sync at a fixed interval, on a background thread.
+   *
+   * @param interval The time between the end of one sync and the start of the next.
+   */
+  public void start(Duration interval) {
+    final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+        runnable -> {
+          final Thread thread = new Thread(runnable, "socrata-mirror-sync");
+          thread.setDaemon(true);
+          return thread;
+        });
+    executor.scheduleWithFixedDelay(
+        this::sync, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Retrieve the rows which have changed since the latest update time in the mirror, and apply
+   * them to the mirror. A failed sync is logged, and the next sync retrieves the changes which
+   * were not applied.
+   */
+  public void sync() {
+    final Instant started = Instant.now();
+    final Instant updatedSince = mirror.getUpdatedAt();
+    String request = url;
+    Map<String, String> uriVariables = Map.of(UPDATED_SINCE_FIELD,
+        TIMESTAMP_FORMAT.format(updatedSince == null ? Instant.EPOCH : updatedSince));
+    long applied = 0;
+    while (true) {
+      final List<SocrataResponseData> changes;
+      try (Stream<SocrataResponseData> rows =
+          socrataPager.stream(request, uriVariables, ORDER, maxRows)) {
+        changes = rows.collect(Collectors.toList());
+      } catch (RuntimeException e) {
+        LOGGER.warn("Unable to retrieve the changes to the dataset mirror", e);
+        synchronized (this) {
+          changedRows += applied;
+          failures++;
+        }
+        return;
+      }
+
+      if (!changes.isEmpty()) {
+        mirror.update(changes);
+        applied += changes.size();
+      }
+      if (changes.size() < maxRows) {
+        break;
+      }
+      final SocrataResponseData last = changes.get(changes.size() - 1);
+      if (last.updatedAt == null || last.rowId == null) {
+        LOGGER.warn("Unable to retrieve the changes to the dataset mirror after {} rows, "
+            + "because the last row has no update time or row identifier", applied);
+        break;
+      }
+      request = continuationUrl;
+      uriVariables = Map.of(UPDATED_SINCE_FIELD, TIMESTAMP_FORMAT.format(last.updatedAt),
+          AFTER_ID_FIELD, last.rowId);
+    }
+
+    synchronized (this) {
+      upToDateAt = started;
+      lastSync = started;
+      lastChangedRows = applied;
+      changedRows += applied;
+      syncs++;
+    }
+  }
+
+  /**
+   * Get a snapshot of the sync statistics.
+   *
+   * @return The current statistics.
+   */
+  public synchronized Statistics getStatistics() {
+    final Long lagSeconds = upToDateAt == null
+        ? null : Duration.between(upToDateAt, Instant.now()).getSeconds();
+    return new Statistics(mirror.size(), mirror.getUpdatedAt(), lastSync, lagSeconds,
+        lastChangedRows, changedRows, syncs, failures);
+  }
+
+  /**
+   * A snapshot of the size of the mirror and of the progress of the sync. The lag is the time since
+   * the mirror was last known to be up to date: the start of the last successful sync or, before
+   * the first sync, the latest update time of its rows.
+   */
+  public static class Statistics {
+    public final int rows;
+    public final Instant updatedAt;
+    public final Instant lastSync;
+    public final Long lagSeconds;
+    public final long lastChangedRows;
+    public final long changedRows;
+    public final long syncs;
+    public final long failures;
+
+    Statistics(int rows, Instant updatedAt, Instant lastSync, Long lagSeconds,
+        long lastChangedRows, long changedRows, long syncs, long failures) {
+      this.rows = rows;
+      this.updatedAt = updatedAt;
+      this.lastSync = lastSync;
+      this.lagSeconds = lagSeconds;
+      this.lastChangedRows = lastChangedRows;
+      this.changedRows = changedRows;
+      this.syncs = syncs;
+      this.failures = failures;
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.nypd.rest.externalsource;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/** Builds SoQL $select parameters which request only the columns that are used. */
+public final class SocrataProjection {
+
+  private SocrataProjection() {
+  }
+
+  /**
+   * Build a $select parameter for the dataset columns mapped to the given fields of a response
+   * type. Each column is selected once, in the order the fields are given.
+   *
+   * @param rowType The type of the POJO to which each row of the response is mapped.
+   * @param fieldGroups The names of the fields of the POJO which are used.
+   * @return The $select parameter, to be appended to the request URL.
+   */
+  @SafeVarargs
+  public static String select(Class<?> rowType, List<String>... fieldGroups) {
+    final Set<String> columns = new LinkedHashSet<>();
+    for (List<String> fields : fieldGroups) {
+      for (String field : fields) {
+        try {
+          final JsonProperty property = rowType.getField(field).getAnnotation(JsonProperty.class);
+          columns.add(property != null ? property.value() : field);
+        } catch (NoSuchFieldException e) {
+          throw new IllegalStateException(
+              "No field named " + field + " in " + rowType.getSimpleName(), e);
+        }
+      }
+    }
+    return "&$select=" + String.join(",", columns);
+  }
+}
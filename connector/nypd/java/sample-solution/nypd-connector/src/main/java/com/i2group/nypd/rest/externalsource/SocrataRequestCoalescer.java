@@ -0,0 +1,311 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.nypd.rest.externalsource;
+
+import com.i2group.nypd.rest.externalsource.transport.SocrataResponseData;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Shares one upstream Socrata request between identical queries made at the same time. The rows
+ * of the request are kept in a buffer which every caller making the query reads from at its own
+ * pace. Whichever caller first needs a row which has not been received yet reads it from Socrata,
+ * so no caller waits for another to consume the rows it has already been given. Rows are dropped
+ * from the buffer once every caller has read them, so it only holds the rows between the slowest
+ * caller and the fastest. A query can therefore only share a request whose first row is still
+ * held; otherwise it makes its own. Identical count queries made at the same time share one
+ * upstream request in the same way.
+ */
+public class SocrataRequestCoalescer {
+  private final ConcurrentMap<List<Object>, Flight> inFlight = new ConcurrentHashMap<>();
+  private final ConcurrentMap<List<Object>, CompletableFuture<Long>> countsInFlight =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Stream the rows of a query, sharing the upstream request with any identical query which is
+   * already in flight.
+   *
+   * @param url The constructed URL extension of the request.
+   * @param uriVariables The map of parameters to be included within the request.
+   * @param upstream Supplies the rows from Socrata when no identical query is in flight.
+   * @return The rows matching the query.
+   */
+  public Stream<SocrataResponseData> stream(
+      String url, Map<String, ?> uriVariables, Supplier<Stream<SocrataResponseData>> upstream) {
+    final List<Object> key = SocrataQueryCache.buildKey(url, uriVariables);
+    while (true) {
+      final Flight created = new Flight(key, upstream);
+      final Flight existing = inFlight.putIfAbsent(key, created);
+      final Flight flight = existing != null ? existing : created;
+      // A flight which every caller has left, or which has dropped rows, cannot be joined, so
+      // start another
+      final SharedRows rows = flight.join();
+      if (rows != null) {
+        return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(rows, Spliterator.ORDERED | Spliterator.NONNULL),
+            false).onClose(rows::close);
+      }
+      inFlight.remove(key, flight);
+    }
+  }
+
+  /**
+   * Count the rows matching a query, sharing the upstream request with any identical count which
+   * is already in flight.
+   *
+   * @param url The constructed URL extension of the count request.
+   * @param uriVariables The map of parameters to be included within the request.
+   * @param upstream Supplies the count from Socrata when no identical count is in flight.
+   * @return A future which completes with the number of matching rows.
+   */
+  public CompletableFuture<Long> count(
+      String url, Map<String, ?> uriVariables, Supplier<CompletableFuture<Long>> upstream) {
+    final List<Object> key = SocrataQueryCache.buildKey(url, uriVariables);
+    final CompletableFuture<Long> created = new CompletableFuture<>();
+    final CompletableFuture<Long> existing = countsInFlight.putIfAbsent(key, created);
+    if (existing != null) {
+      // Each caller gets its own future, so that none can complete the shared one
+      return existing.copy();
+    }
+    try {
+      upstream.get().whenComplete((count, error) -> {
+        countsInFlight.remove(key, created);
+        if (error != null) {
+          created.completeExceptionally(error);
+        } else {
+          created.complete(count);
+        }
+      });
+    } catch (RuntimeException e) {
+      countsInFlight.remove(key, created);
+      created.completeExceptionally(e);
+    }
+    return created.copy();
+  }
+
+  /** Count the rows held for the queries in flight, which some caller has still to read. */
+  int bufferedRows() {
+    int rows = 0;
+    for (Flight flight : inFlight.values()) {
+      rows += flight.bufferedRows();
+    }
+    return rows;
+  }
+
+  /**
+   * One upstream request, and the rows received from it which some caller has still to read. The
+   * upstream request is closed once its last row has been received, or once every caller reading
+   * it has closed its stream.
+   */
+  private class Flight {
+    private final List<Object> key;
+    private final Supplier<Stream<SocrataResponseData>> upstream;
+    private final Object fetchLock = new Object();
+    // The rows from position base on. The first dropped of them have been read by every reader,
+    // and are removed together once they are half of the list
+    private final List<SocrataResponseData> received = new ArrayList<>();
+    private final List<SharedRows> readers = new ArrayList<>();
+    private int base;
+    private int dropped;
+    private Stream<SocrataResponseData> upstreamStream;
+    private Iterator<SocrataResponseData> upstreamRows;
+    private RuntimeException error;
+    private boolean complete;
+    private boolean abandoned;
+
+    Flight(List<Object> key, Supplier<Stream<SocrataResponseData>> upstream) {
+      this.key = key;
+      this.upstream = upstream;
+    }
+
+    /**
+     * Join the flight, to read its rows from the first.
+     *
+     * @return The rows, or null if the flight can no longer be joined.
+     */
+    synchronized SharedRows join() {
+      if (abandoned || base + dropped > 0) {
+        return null;
+      }
+      final SharedRows rows = new SharedRows(this);
+      readers.add(rows);
+      return rows;
+    }
+
+    void leave(SharedRows rows) {
+      synchronized (this) {
+        readers.remove(rows);
+        if (!readers.isEmpty() || complete) {
+          drop();
+          return;
+        }
+        abandoned = true;
+      }
+      inFlight.remove(key, this);
+      synchronized (fetchLock) {
+        closeUpstream();
+      }
+    }
+
+    /**
+     * Get the next row of the request for a reader, receiving it from Socrata if no caller has
+     * yet.
+     *
+     * @param rows The reader.
+     * @return The row, or null if the request has no more rows.
+     */
+    SocrataResponseData next(SharedRows rows) {
+      while (true) {
+        synchronized (this) {
+          if (rows.position < base + received.size()) {
+            final SocrataResponseData row = received.get(rows.position - base);
+            rows.position++;
+            drop();
+            return row;
+          }
+          if (error != null) {
+            throw error;
+          }
+          if (complete) {
+            return null;
+          }
+        }
+        synchronized (fetchLock) {
+          synchronized (this) {
+            if (rows.position < base + received.size() || error != null || complete) {
+              continue;
+            }
+          }
+          fetch();
+        }
+      }
+    }
+
+    synchronized int bufferedRows() {
+      return received.size() - dropped;
+    }
+
+    /** Drop the rows which every reader has read. */
+    private synchronized void drop() {
+      int read = base + received.size();
+      for (SharedRows reader : readers) {
+        read = Math.min(read, reader.position);
+      }
+      while (base + dropped < read) {
+        received.set(dropped++, null);
+      }
+      if (dropped > 0 && dropped >= received.size() / 2) {
+        received.subList(0, dropped).clear();
+        base += dropped;
+        dropped = 0;
+      }
+    }
+
+    private void fetch() {
+      try {
+        if (upstreamRows == null) {
+          upstreamStream = upstream.get();
+          upstreamRows = upstreamStream.iterator();
+        }
+        if (upstreamRows.hasNext()) {
+          final SocrataResponseData row = upstreamRows.next();
+          synchronized (this) {
+            received.add(row);
+          }
+          return;
+        }
+        synchronized (this) {
+          complete = true;
+        }
+      } catch (RuntimeException e) {
+        synchronized (this) {
+          error = e;
+          complete = true;
+        }
+      }
+      // Later identical queries make their own request
+      inFlight.remove(key, this);
+      closeUpstream();
+    }
+
+    private void closeUpstream() {
+      if (upstreamStream != null) {
+        upstreamStream.close();
+        upstreamStream = null;
+      }
+    }
+  }
+
+  /** Reads the rows of a flight in order, from the first row whenever the caller joined it. */
+  private static class SharedRows implements Iterator<SocrataResponseData> {
+    private final Flight flight;
+    private SocrataResponseData nextRow;
+    // The position of the next row to read from the flight, guarded by the flight
+    private int position;
+    private boolean finished;
+
+    SharedRows(Flight flight) {
+      this.flight = flight;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (nextRow == null && !finished) {
+        nextRow = flight.next(this);
+        finished = nextRow == null;
+      }
+      return nextRow != null;
+    }
+
+    @Override
+    public SocrataResponseData next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final SocrataResponseData row = nextRow;
+      nextRow = null;
+      return row;
+    }
+
+    void close() {
+      if (!finished) {
+        finished = true;
+        flight.leave(this);
+      }
+    }
+  }
+}
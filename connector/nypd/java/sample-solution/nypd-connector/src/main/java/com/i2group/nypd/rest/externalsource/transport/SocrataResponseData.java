@@ -27,6 +27,7 @@ package com.i2group.nypd.rest.externalsource.transport;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.ToString;
 
+import java.time.Instant;
 import java.time.LocalDate;
 
 /**
@@ -36,6 +37,13 @@ import java.time.LocalDate;
 @ToString
 public class SocrataResponseData {
 
+  // Row
+  @JsonProperty(":id")
+  public String rowId;
+
+  @JsonProperty(":updated_at")
+  public Instant updatedAt;
+
   // Complaint
   @JsonProperty("cmplnt_num")
   public String complaintNum;
@@ -55,7 +63,7 @@ public class SocrataResponseData {
   @JsonProperty("crm_atpt_cptd_cd")
   public String crimeStatus;
 
-  @JsonProperty("jutisdiction_code")
+  @JsonProperty("jurisdiction_code")
   public int jurisdictionCode;
 
   @JsonProperty("juris_desc")
@@ -29,24 +29,89 @@ import com.i2group.connector.spi.rest.transport.I2ConnectEntityData;
 import com.i2group.connector.spi.rest.transport.I2ConnectLinkData;
 import com.i2group.connector.spi.rest.transport.LinkDirection;
 import com.i2group.connector.spi.rest.transport.SourceReference;
-import com.i2group.connector.spi.rest.transport.SourceReferenceInfo;
 import com.i2group.nypd.rest.externalsource.transport.SocrataResponseData;
 import org.springframework.core.io.Resource;
 
 import java.io.IOException;
 import java.time.LocalTime;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /** Used to generate entity and link objects */
 public class ItemFactory {
 
-  private static String BASE_URL;
-  private static Resource SOURCE_REFERENCE_IMAGE;
+  /** The fields of each record used by {@link #createComplaint}. */
+  public static final List<String> COMPLAINT_FIELDS = List.of(
+      "complaintNum", "complaintStartDate", "complaintEndDate", "complaintStartTime",
+      "complaintEndTime", "crimeStatus", "jurisdictionCode", "jurisdictionDesc", "offenceClass",
+      "offenceLevel", "offenceDesc", "classDesc", "dateReported", "occurrenceLocation");
+  /** The fields of each record used by {@link #createLocation}. */
+  public static final List<String> LOCATION_FIELDS = List.of(
+      "complaintNum", "precinctCode", "boroName", "longitude", "latitude");
+  /** The fields of each record used by {@link #createSuspect}. */
+  public static final List<String> SUSPECT_FIELDS = List.of(
+      "complaintNum", "suspAge", "suspRace", "suspSex");
+  /** The fields of each record used by {@link #createVictim}. */
+  public static final List<String> VICTIM_FIELDS = List.of(
+      "complaintNum", "vicAge", "vicRace", "vicSex");
+
+  private static final Map<String, PropertyLayout> PROPERTY_LAYOUTS =
+      PropertyLayout.fromSchema("nypd-complaint-data-schema.xml");
+
+  private static final PropertyMapping<SocrataResponseData> COMPLAINT_PROPERTIES =
+      PropertyMapping.<SocrataResponseData>into(PROPERTY_LAYOUTS.get("ET1"))
+          .map("PT1", entry -> entry.complaintNum)
+          .map("PT2", entry -> entry.complaintStartDate)
+          .map("PT3", entry -> entry.complaintEndDate)
+          .map("PT4", entry -> parseStringToTime(entry.complaintStartTime))
+          .map("PT5", entry -> parseStringToTime(entry.complaintEndTime))
+          .map("PT6", entry -> entry.crimeStatus)
+          .map("PT7", entry -> entry.jurisdictionCode)
+          .map("PT8", entry -> entry.jurisdictionDesc)
+          .map("PT9", entry -> entry.offenceClass)
+          .map("PT10", entry -> entry.offenceLevel)
+          .map("PT11", entry -> entry.offenceDesc)
+          .map("PT13", entry -> entry.classDesc)
+          .map("PT14", entry -> entry.dateReported)
+          .map("PT29", entry -> entry.occurrenceLocation)
+          .build();
+
+  private static final PropertyMapping<SocrataResponseData> LOCATION_PROPERTIES =
+      PropertyMapping.<SocrataResponseData>into(PROPERTY_LAYOUTS.get("ET2"))
+          .map("PT15", entry -> entry.precinctCode)
+          .map("PT16", entry -> entry.boroName)
+          .map("PT18", ItemFactory::createPoint)
+          .build();
+
+  private static final PropertyMapping<SocrataResponseData> SUSPECT_PROPERTIES =
+      PropertyMapping.<SocrataResponseData>into(PROPERTY_LAYOUTS.get("ET3"))
+          .map("PT26", entry -> entry.suspAge)
+          .map("PT27", entry -> entry.suspRace)
+          .map("PT28", entry -> entry.suspSex)
+          .build();
+
+  private static final PropertyMapping<SocrataResponseData> VICTIM_PROPERTIES =
+      PropertyMapping.<SocrataResponseData>into(PROPERTY_LAYOUTS.get("ET3"))
+          .map("PT26", entry -> entry.vicAge)
+          .map("PT27", entry -> entry.vicRace)
+          .map("PT28", entry -> entry.vicSex)
+          .build();
+
+  private static SourceReferenceTemplate SOURCE_REFERENCE;
 
   public ItemFactory(String baseUrl, Resource image) {
-    BASE_URL = baseUrl;
-    SOURCE_REFERENCE_IMAGE = image;
+    String imagePath;
+    try {
+      imagePath = image.getFile().getAbsolutePath();
+    } catch (IOException e) {
+      imagePath = null;
+    }
+    SOURCE_REFERENCE = new SourceReferenceTemplate(
+        "NYPD Complaint Dataset",
+        "Open source data",
+        "A source reference to the corresponding record from the NYPD Complaint Dataset.",
+        imagePath,
+        baseUrl + "?$where=cmplnt_num=");
   }
 
   /**
@@ -56,33 +121,17 @@ public class ItemFactory {
    * @return The created complaint object.
    */
   public I2ConnectEntityData createComplaint(SocrataResponseData entry) {
-    final HashMap<String, Object> properties = new HashMap<>();
-    properties.put("PT1", entry.complaintNum);
-    properties.put("PT2", entry.complaintStartDate);
-    properties.put("PT3", entry.complaintEndDate);
-    properties.put("PT4", parseStringToTime(entry.complaintStartTime));
-    properties.put("PT5", parseStringToTime(entry.complaintEndTime));
-    properties.put("PT6", entry.crimeStatus);
-    properties.put("PT7", entry.jurisdictionCode);
-    properties.put("PT8", entry.jurisdictionDesc);
-    properties.put("PT9", entry.offenceClass);
-    properties.put("PT10", entry.offenceLevel);
-    properties.put("PT11", entry.offenceDesc);
-    properties.put("PT13", entry.classDesc);
-    properties.put("PT14", entry.dateReported);
-    properties.put("PT29", entry.occurrenceLocation);
-
     final I2ConnectEntityData complaint = new I2ConnectEntityData();
     complaint.id = "COMP" + entry.complaintNum;
-    complaint.typeId = "ET1";
+    complaint.typeId = COMPLAINT_PROPERTIES.getItemTypeId();
     complaint.version = 1L;
-    complaint.properties = properties;
+    complaint.properties = COMPLAINT_PROPERTIES.apply(entry);
     complaint.sourceReference = generateSourceReference(entry.complaintNum);
 
     return complaint;
   }
 
-  private LocalTime parseStringToTime(String time) {
+  private static LocalTime parseStringToTime(String time) {
     if (time.equals("(null)")) {
       return null;
     }
@@ -96,24 +145,23 @@ public class ItemFactory {
    * @return The created location object.
    */
   public I2ConnectEntityData createLocation(SocrataResponseData entry) {
-    final HashMap<String, Object> properties = new HashMap<>();
-    properties.put("PT15", entry.precinctCode);
-    properties.put("PT16", entry.boroName);
-    final GeoJSONPoint geoJSONPoint = new GeoJSONPoint();
-    geoJSONPoint.type = GeoJSONPoint.TypeEnum.POINT;
-    geoJSONPoint.coordinates = List.of(entry.longitude, entry.latitude);
-    properties.put("PT18", geoJSONPoint);
-
     final I2ConnectEntityData location = new I2ConnectEntityData();
     location.id = "LOC" + entry.precinctCode + entry.boroName;
-    location.typeId = "ET2";
+    location.typeId = LOCATION_PROPERTIES.getItemTypeId();
     location.version = 1L;
-    location.properties = properties;
+    location.properties = LOCATION_PROPERTIES.apply(entry);
     location.sourceReference = generateSourceReference(entry.complaintNum);
 
     return location;
   }
 
+  private static GeoJSONPoint createPoint(SocrataResponseData entry) {
+    final GeoJSONPoint geoJSONPoint = new GeoJSONPoint();
+    geoJSONPoint.type = GeoJSONPoint.TypeEnum.POINT;
+    geoJSONPoint.coordinates = List.of(entry.longitude, entry.latitude);
+    return geoJSONPoint;
+  }
+
   /**
    * Creates suspect from a single record of data.
    *
@@ -121,16 +169,11 @@ public class ItemFactory {
    * @return The created suspect object.
    */
   public I2ConnectEntityData createSuspect(SocrataResponseData entry) {
-    final HashMap<String, Object> properties = new HashMap<>();
-    properties.put("PT26", entry.suspAge);
-    properties.put("PT27", entry.suspRace);
-    properties.put("PT28", entry.suspSex);
-
     final I2ConnectEntityData suspect = new I2ConnectEntityData();
     suspect.id = "SUSP" + entry.complaintNum;
-    suspect.typeId = "ET3";
+    suspect.typeId = SUSPECT_PROPERTIES.getItemTypeId();
     suspect.version = 1L;
-    suspect.properties = properties;
+    suspect.properties = SUSPECT_PROPERTIES.apply(entry);
     suspect.sourceReference = generateSourceReference(entry.complaintNum);
 
     return suspect;
@@ -143,16 +186,11 @@ public class ItemFactory {
    * @return The created victim object.
    */
   public I2ConnectEntityData createVictim(SocrataResponseData entry) {
-    final HashMap<String, Object> properties = new HashMap<>();
-    properties.put("PT26", entry.vicAge);
-    properties.put("PT27", entry.vicRace);
-    properties.put("PT28", entry.vicSex);
-
     final I2ConnectEntityData victim = new I2ConnectEntityData();
     victim.id = "VIC" + entry.complaintNum;
-    victim.typeId = "ET3";
+    victim.typeId = VICTIM_PROPERTIES.getItemTypeId();
     victim.version = 1L;
-    victim.properties = properties;
+    victim.properties = VICTIM_PROPERTIES.apply(entry);
     victim.sourceReference = generateSourceReference(entry.complaintNum);
 
     return victim;
@@ -217,28 +255,12 @@ public class ItemFactory {
 
   /**
    * Generate a valid source reference, querying a link to an item of data using the unique
-   * complaint number.
+   * complaint number. The details of the source are shared by every reference.
    *
    * @param complaintNum The complaint number of the record associated with the entity.
    * @return The SourceReference object containing details of the source.
    */
   private SourceReference generateSourceReference(String complaintNum) {
-    final SourceReferenceInfo source = new SourceReferenceInfo();
-    source.name = "NYPD Complaint Dataset";
-    source.type = "Open source data";
-    source.description =
-        "A source reference to the corresponding record from the NYPD Complaint Dataset.";
-    source.location = ItemFactory.BASE_URL + "?$where=cmplnt_num=" + complaintNum;
-
-    try {
-      source.image = SOURCE_REFERENCE_IMAGE.getFile().getAbsolutePath();
-    } catch (IOException e) {
-      source.image = null;
-    }
-
-    final SourceReference reference = new SourceReference();
-    reference.source = source;
-
-    return reference;
+    return SOURCE_REFERENCE.create(complaintNum);
   }
 }
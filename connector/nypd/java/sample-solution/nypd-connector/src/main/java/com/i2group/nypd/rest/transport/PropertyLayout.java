@@ -0,0 +1,133 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.nypd.rest.transport;
+
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import org.springframework.core.io.ClassPathResource;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The property types of one entity or link type, in the order they appear in the connector
+ * schema. Each property type has an ordinal, which is its slot in a {@link PropertyMap}, and its
+ * identifier is encoded as a JSON key once, so that it is not encoded again for every item.
+ */
+public final class PropertyLayout {
+  private final String itemTypeId;
+  private final String[] propertyTypeIds;
+  private final SerializableString[] keys;
+  private final Map<String, Integer> ordinals = new HashMap<>();
+
+  private PropertyLayout(String itemTypeId, List<String> propertyTypeIds) {
+    this.itemTypeId = itemTypeId;
+    this.propertyTypeIds = propertyTypeIds.toArray(new String[0]);
+    this.keys = new SerializableString[this.propertyTypeIds.length];
+    for (int ordinal = 0; ordinal < this.propertyTypeIds.length; ordinal++) {
+      keys[ordinal] = new SerializedString(this.propertyTypeIds[ordinal]);
+      ordinals.put(this.propertyTypeIds[ordinal], ordinal);
+    }
+  }
+
+  /**
+   * Read the property layout of every entity and link type in a connector schema.
+   *
+   * @param schemaResource The name of the schema on the classpath.
+   * @return The property layouts, keyed by the identifier of the entity or link type.
+   */
+  public static Map<String, PropertyLayout> fromSchema(String schemaResource) {
+    final Document schema;
+    try (InputStream in = new ClassPathResource(schemaResource).getInputStream()) {
+      final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+      schema = factory.newDocumentBuilder().parse(in);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to read the schema " + schemaResource, e);
+    } catch (ParserConfigurationException | SAXException e) {
+      throw new IllegalStateException("Unable to parse the schema " + schemaResource, e);
+    }
+
+    final Map<String, PropertyLayout> layouts = new LinkedHashMap<>();
+    for (String itemType : List.of("EntityType", "LinkType")) {
+      final NodeList itemTypes = schema.getElementsByTagName(itemType);
+      for (int i = 0; i < itemTypes.getLength(); i++) {
+        final Element element = (Element) itemTypes.item(i);
+        final NodeList propertyTypes = element.getElementsByTagName("PropertyType");
+        final List<String> propertyTypeIds = new ArrayList<>(propertyTypes.getLength());
+        for (int j = 0; j < propertyTypes.getLength(); j++) {
+          propertyTypeIds.add(((Element) propertyTypes.item(j)).getAttribute("Id"));
+        }
+        final String itemTypeId = element.getAttribute("Id");
+        layouts.put(itemTypeId, new PropertyLayout(itemTypeId, propertyTypeIds));
+      }
+    }
+    return Collections.unmodifiableMap(layouts);
+  }
+
+  /**
+   * Create an empty set of properties for an item of this type.
+   *
+   * @return The properties.
+   */
+  public PropertyMap newProperties() {
+    return new PropertyMap(this);
+  }
+
+  String getItemTypeId() {
+    return itemTypeId;
+  }
+
+  int size() {
+    return propertyTypeIds.length;
+  }
+
+  int ordinal(Object propertyTypeId) {
+    final Integer ordinal = ordinals.get(propertyTypeId);
+    return ordinal != null ? ordinal : -1;
+  }
+
+  String propertyTypeId(int ordinal) {
+    return propertyTypeIds[ordinal];
+  }
+
+  SerializableString key(int ordinal) {
+    return keys[ordinal];
+  }
+}
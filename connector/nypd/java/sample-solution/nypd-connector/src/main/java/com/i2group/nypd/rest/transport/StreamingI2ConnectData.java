@@ -0,0 +1,55 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.nypd.rest.transport;
+
+import com.i2group.connector.spi.rest.transport.I2ConnectData;
+
+import java.util.function.Consumer;
+
+/**
+ * A response whose entities and links are not held in memory, but are produced while the response
+ * is being written by {@link StreamingI2ConnectDataConverter}.
+ */
+public class StreamingI2ConnectData extends I2ConnectData {
+  private final Consumer<I2ConnectDataSink> producer;
+
+  /**
+   * Initialise the response.
+   *
+   * @param producer Produces the entities and links of the response, giving each to the sink.
+   */
+  public StreamingI2ConnectData(Consumer<I2ConnectDataSink> producer) {
+    this.producer = producer;
+  }
+
+  /**
+   * Produce the entities and links of the response.
+   *
+   * @param sink The sink which receives each entity and link.
+   */
+  public void produce(I2ConnectDataSink sink) {
+    producer.accept(sink);
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.nypd.rest.externalsource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+import org.springframework.web.util.DefaultUriBuilderFactory;
+import org.springframework.web.util.DefaultUriBuilderFactory.EncodingMode;
+import org.springframework.web.util.UriUtils;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class SocrataBatchedConditionTest {
+
+  @Test
+  public void eachValueIsBoundAsAVariable() {
+    final List<SocrataBatchedCondition.Batch> batches =
+        SocrataBatchedCondition.in("cmplnt_num", "'{0}'", 2000).add("1").add(2).getBatches();
+
+    assertThat(batches).hasSize(1);
+    assertThat(batches.get(0).condition).isEqualTo("cmplnt_num IN ('{batch0}','{batch1}')");
+    assertThat(batches.get(0).variables).isEqualTo(Map.of("batch0", "1", "batch1", "2"));
+  }
+
+  @Test
+  public void singleQuotesInValuesAreEscaped() {
+    final SocrataBatchedCondition.Batch batch =
+        SocrataBatchedCondition.in("name", "'{0}'", 2000).add("O'Brien").getBatches().get(0);
+
+    assertThat(expand(batch)).isEqualTo("name IN ('O''Brien')");
+  }
+
+  @Test
+  public void termsWhichHaveAlreadyBeenAddedAreIgnored() {
+    final SocrataBatchedCondition.Batch batch = SocrataBatchedCondition
+        .anyOf("(boro_nm='{0}' AND addr_pct_cd={1})", 2000)
+        .add("BRONX", 40).add("BRONX", 41).add("BRONX", 40)
+        .getBatches().get(0);
+
+    assertThat(expand(batch)).isEqualTo("((boro_nm='BRONX' AND addr_pct_cd=40)"
+        + " OR (boro_nm='BRONX' AND addr_pct_cd=41))");
+  }
+
+  @Test
+  public void valuesAreSplitIntoBatchesWithinTheMaximumLength() {
+    final SocrataBatchedCondition condition = SocrataBatchedCondition.in("name", "'{0}'", 100);
+    final List<String> added = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      // Spaces and quotes are longer once encoded
+      final String value = "a b'" + i;
+      condition.add(value);
+      added.add(value.replace("'", "''"));
+    }
+
+    final List<SocrataBatchedCondition.Batch> batches = condition.getBatches();
+
+    assertThat(batches.size()).isGreaterThan(1);
+    final List<Object> values = new ArrayList<>();
+    for (SocrataBatchedCondition.Batch batch : batches) {
+      assertThat(UriUtils.encodeQueryParam(expand(batch), StandardCharsets.UTF_8).length())
+          .isLessThanOrEqualTo(100);
+      assertThat(batch.condition).startsWith("name IN (").endsWith(")");
+      values.addAll(batch.variables.values());
+    }
+    assertThat(values).containsExactlyInAnyOrderElementsOf(added);
+  }
+
+  @Test
+  public void batchesStayWithinTheMaximumLengthAsTheClientEncodesThem() {
+    final DefaultUriBuilderFactory uriBuilderFactory = new DefaultUriBuilderFactory();
+    uriBuilderFactory.setEncodingMode(EncodingMode.URI_COMPONENT);
+    final SocrataBatchedCondition condition = SocrataBatchedCondition.in("name", "'{0}'", 120);
+    final List<String> added = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      // Each space is encoded as %20 rather than as +
+      final String value = "a b c d e f g " + i;
+      condition.add(value);
+      added.add(value);
+    }
+
+    final List<SocrataBatchedCondition.Batch> batches = condition.getBatches();
+
+    final List<Object> values = new ArrayList<>();
+    int longest = 0;
+    for (SocrataBatchedCondition.Batch batch : batches) {
+      final URI uri = uriBuilderFactory.expand("/rows.json?$where=" + batch.condition,
+          batch.variables);
+      final int length = uri.getRawQuery().length() - "$where=".length();
+      assertThat(length).isLessThanOrEqualTo(120);
+      longest = Math.max(longest, length);
+      values.addAll(batch.variables.values());
+    }
+    // Each batch is filled as far as the next value allows
+    assertThat(longest).isGreaterThan(120 - ",'a%20b%20c%20d%20e%20f%20g%2039'".length());
+    assertThat(values).containsExactlyInAnyOrderElementsOf(added);
+  }
+
+  @Test
+  public void termLongerThanTheMaximumIsSentOnItsOwn() {
+    final String longValue = "x".repeat(200);
+
+    final List<SocrataBatchedCondition.Batch> batches = SocrataBatchedCondition
+        .in("name", "'{0}'", 100).add("a").add(longValue).add("b").getBatches();
+
+    assertThat(batches).extracting(SocrataBatchedConditionTest::expand).containsExactly(
+        "name IN ('a')", "name IN ('" + longValue + "')", "name IN ('b')");
+  }
+
+  @Test
+  public void noTermsMakeNoBatches() {
+    assertThat(SocrataBatchedCondition.in("name", "'{0}'", 100).getBatches()).isEmpty();
+  }
+
+  /** Replace the variables of a batch with their values, as the request URI would. */
+  private static String expand(SocrataBatchedCondition.Batch batch) {
+    String condition = batch.condition;
+    for (Map.Entry<String, Object> variable : batch.variables.entrySet()) {
+      condition = condition.replace("{" + variable.getKey() + "}", (String) variable.getValue());
+    }
+    return condition;
+  }
+}
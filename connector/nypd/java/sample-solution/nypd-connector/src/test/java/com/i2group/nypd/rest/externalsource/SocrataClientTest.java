@@ -0,0 +1,122 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.nypd.rest.externalsource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.i2group.nypd.rest.externalsource.transport.SocrataCount;
+import com.i2group.nypd.rest.externalsource.transport.SocrataResponseData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class SocrataClientTest {
+  private static final String ROWS = "[{\":id\":\"row-1\"},{\":id\":\"row-2\"}]";
+
+  private FakeSocrata socrata;
+  private SocrataClient client;
+
+  @Before
+  public void setUp() throws Exception {
+    socrata = new FakeSocrata();
+    socrata.respond("/rows.json", ROWS);
+    socrata.respond("/count.json", "[{\"count\":\"2\"}]");
+    client = new SocrataClient(
+        socrata.getBaseUrl(), "token", Duration.ofSeconds(5), Duration.ofSeconds(5), 1);
+  }
+
+  @After
+  public void tearDown() {
+    socrata.close();
+  }
+
+  @Test
+  public void getAsyncReturnsTheDecodedBody() {
+    final SocrataCount[] counts =
+        client.getAsync("/count.json", SocrataCount[].class, Collections.emptyMap()).join();
+
+    assertThat(counts).hasSize(1);
+    assertThat(counts[0].count).isEqualTo(2);
+  }
+
+  @Test
+  public void streamHoldsItsConnectionUntilClosed() throws Exception {
+    final MappingIterator<SocrataResponseData> rows =
+        client.stream("/rows.json", SocrataResponseData.class, Collections.emptyMap()).join();
+    final CompletableFuture<SocrataCount[]> count =
+        client.getAsync("/count.json", SocrataCount[].class, Collections.emptyMap());
+
+    Thread.sleep(200);
+    assertThat(count).isNotDone();
+
+    rows.close();
+    assertThat(count.get(5, TimeUnit.SECONDS)).hasSize(1);
+  }
+
+  @Test
+  public void streamReleasesItsConnectionWhenReadToTheEnd() throws Exception {
+    final MappingIterator<SocrataResponseData> rows =
+        client.stream("/rows.json", SocrataResponseData.class, Collections.emptyMap()).join();
+    final CompletableFuture<SocrataCount[]> count =
+        client.getAsync("/count.json", SocrataCount[].class, Collections.emptyMap());
+
+    assertThat(rows.readAll()).extracting(row -> row.rowId).containsExactly("row-1", "row-2");
+    assertThat(count.get(5, TimeUnit.SECONDS)).hasSize(1);
+  }
+
+  @Test
+  public void failedStreamReleasesItsConnection() throws Exception {
+    final CompletableFuture<MappingIterator<SocrataResponseData>> missing =
+        client.stream("/missing.json", SocrataResponseData.class, Collections.emptyMap());
+
+    assertThatThrownBy(() -> missing.get(5, TimeUnit.SECONDS))
+        .hasCauseInstanceOf(IllegalStateException.class);
+    assertThat(client.getAsync("/count.json", SocrataCount[].class, Collections.emptyMap())
+        .get(5, TimeUnit.SECONDS)).hasSize(1);
+  }
+
+  @Test
+  public void stalledStreamFailsAfterTheReadTimeoutAndReleasesItsConnection() throws Exception {
+    socrata.stall("/stalled.json", "[{\":id\":\"row-1\"},");
+    client = new SocrataClient(
+        socrata.getBaseUrl(), "token", Duration.ofSeconds(5), Duration.ofMillis(300), 1);
+    final MappingIterator<SocrataResponseData> rows =
+        client.stream("/stalled.json", SocrataResponseData.class, Collections.emptyMap())
+            .get(5, TimeUnit.SECONDS);
+
+    assertThat(rows.next().rowId).isEqualTo("row-1");
+    assertThatThrownBy(rows::hasNext).hasRootCauseInstanceOf(HttpTimeoutException.class);
+    assertThat(client.getAsync("/count.json", SocrataCount[].class, Collections.emptyMap())
+        .get(5, TimeUnit.SECONDS)).hasSize(1);
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.nypd.rest.externalsource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.i2group.nypd.rest.externalsource.transport.SocrataResponseData;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+public class SocrataLookupBatcherTest {
+  private static final String URL = "/rows.json?$where=";
+  private static final SocrataLookupBatcher.Lookup COMPLAINT =
+      new SocrataLookupBatcher.Lookup("cmplnt_num", "'{0}'", row -> row.complaintNum);
+  private static final SocrataLookupBatcher.Lookup PRECINCT =
+      new SocrataLookupBatcher.Lookup("addr_pct_cd", "{0}",
+          row -> String.valueOf(row.precinctCode));
+  private static final List<SocrataResponseData> TABLE =
+      IntStream.range(0, 6).mapToObj(SocrataLookupBatcherTest::row).collect(Collectors.toList());
+
+  private final List<String> queries = new CopyOnWriteArrayList<>();
+  private int rowBudget = 1000;
+
+  @Test
+  public void concurrentLookupsShareOneQuery() throws Exception {
+    final SocrataLookupBatcher batcher = batcher(Duration.ofMillis(500), 2000);
+
+    final CompletableFuture<List<SocrataResponseData>> first = CompletableFuture.supplyAsync(
+        () -> batcher.lookup(URL, Map.of(COMPLAINT, Set.of("1", "2"))));
+    final CompletableFuture<List<SocrataResponseData>> second = CompletableFuture.supplyAsync(
+        () -> batcher.lookup(URL, Map.of(COMPLAINT, Set.of("2", "3"))));
+
+    assertThat(first.get(5, TimeUnit.SECONDS)).extracting(row -> row.rowId)
+        .containsExactlyInAnyOrder("row-1", "row-2");
+    assertThat(second.get(5, TimeUnit.SECONDS)).extracting(row -> row.rowId)
+        .containsExactlyInAnyOrder("row-2", "row-3");
+    assertThat(queries).hasSize(1);
+    assertThat(queries.get(0)).startsWith(URL + "cmplnt_num IN (");
+  }
+
+  @Test
+  public void rowsMatchedByLookupsOnSeveralColumnsAreReturnedOnce() {
+    final SocrataLookupBatcher batcher = batcher(Duration.ofMillis(10), 2000);
+
+    final List<SocrataResponseData> rows =
+        batcher.lookup(URL, Map.of(COMPLAINT, Set.of("1", "2"), PRECINCT, Set.of("41")));
+
+    // Rows 1, 3 and 5 are in precinct 41
+    assertThat(rows).extracting(row -> row.rowId)
+        .containsExactlyInAnyOrder("row-1", "row-2", "row-3", "row-5");
+    assertThat(queries).hasSize(2);
+  }
+
+  @Test
+  public void longBatchesAreSplitAcrossQueries() {
+    final SocrataLookupBatcher batcher = batcher(Duration.ofMillis(10), 30);
+
+    final List<SocrataResponseData> rows =
+        batcher.lookup(URL, Map.of(COMPLAINT, Set.of("0", "1", "2", "3", "4", "5")));
+
+    assertThat(rows).hasSize(6);
+    assertThat(queries.size()).isGreaterThan(1);
+  }
+
+  @Test
+  public void lookupsInABatchWhichReachesTheRowBudgetAreMadeOnTheirOwn() throws Exception {
+    rowBudget = 3;
+    final SocrataLookupBatcher batcher = batcher(Duration.ofMillis(500), 2000);
+
+    final CompletableFuture<List<SocrataResponseData>> first = CompletableFuture.supplyAsync(
+        () -> batcher.lookup(URL, Map.of(COMPLAINT, Set.of("0", "1"))));
+    final CompletableFuture<List<SocrataResponseData>> second = CompletableFuture.supplyAsync(
+        () -> batcher.lookup(URL, Map.of(COMPLAINT, Set.of("2", "3"))));
+
+    assertThat(first.get(5, TimeUnit.SECONDS)).extracting(row -> row.rowId)
+        .containsExactlyInAnyOrder("row-0", "row-1");
+    assertThat(second.get(5, TimeUnit.SECONDS)).extracting(row -> row.rowId)
+        .containsExactlyInAnyOrder("row-2", "row-3");
+    assertThat(queries).hasSize(3);
+  }
+
+  @Test
+  public void lookupWhichReachesTheRowBudgetOnItsOwnIsNotRepeated() {
+    rowBudget = 3;
+    final SocrataLookupBatcher batcher = batcher(Duration.ofMillis(10), 2000);
+
+    final List<SocrataResponseData> rows =
+        batcher.lookup(URL, Map.of(COMPLAINT, Set.of("0", "1", "2", "3")));
+
+    assertThat(rows).hasSize(3);
+    assertThat(queries).hasSize(1);
+  }
+
+  @Test
+  public void failedQueriesFailEveryLookupInTheBatch() {
+    final SocrataLookupBatcher batcher = new SocrataLookupBatcher(Duration.ofMillis(10), 2000, 1000,
+        (url, variables) -> {
+          throw new IllegalStateException("Socrata is unavailable");
+        });
+
+    assertThatThrownBy(() -> batcher.lookup(URL, Map.of(COMPLAINT, Set.of("1"))))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessage("Socrata is unavailable");
+  }
+
+  @Test
+  public void aZeroWindowDisablesBatching() {
+    assertThat(batcher(Duration.ZERO, 2000).isEnabled()).isFalse();
+    assertThat(batcher(Duration.ofMillis(1), 2000).isEnabled()).isTrue();
+  }
+
+  private SocrataLookupBatcher batcher(Duration window, int maxConditionLength) {
+    return new SocrataLookupBatcher(window, maxConditionLength, rowBudget, this::query);
+  }
+
+  /**
+   * Answer a batched query with the rows of the table which have one of its values, up to the row
+   * budget.
+   */
+  private Stream<SocrataResponseData> query(String url, Map<String, ?> variables) {
+    queries.add(url);
+    final Function<SocrataResponseData, String> columnValue =
+        url.startsWith(URL + COMPLAINT.getColumn())
+            ? row -> row.complaintNum
+            : row -> String.valueOf(row.precinctCode);
+    return TABLE.stream().filter(row -> variables.containsValue(columnValue.apply(row)))
+        .limit(rowBudget);
+  }
+
+  private static SocrataResponseData row(int index) {
+    final SocrataResponseData row = SocrataRequestCoalescerTest.row(index);
+    row.complaintNum = String.valueOf(index);
+    row.precinctCode = index % 2 == 0 ? 40 : 41;
+    return row;
+  }
+}
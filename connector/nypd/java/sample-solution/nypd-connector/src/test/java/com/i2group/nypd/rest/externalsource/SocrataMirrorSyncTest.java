@@ -0,0 +1,183 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.nypd.rest.externalsource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.i2group.nypd.rest.externalsource.SocrataMirror.Condition;
+import com.i2group.nypd.rest.externalsource.transport.SocrataResponseData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class SocrataMirrorSyncTest {
+  private static final Instant UPDATED_AT = Instant.parse("2023-01-01T00:00:00Z");
+
+  private final List<String> conditions = new CopyOnWriteArrayList<>();
+  private FakeSocrata socrata;
+  private SocrataMirror mirror;
+  private SocrataPager pager;
+  private SocrataMirrorSync sync;
+
+  @Before
+  public void setUp() throws Exception {
+    socrata = new FakeSocrata();
+    final SocrataClient client = new SocrataClient(
+        socrata.getBaseUrl(), "token", Duration.ofSeconds(5), Duration.ofSeconds(5), 4);
+    final SocrataResponseData row = SocrataRequestCoalescerTest.row(1);
+    row.updatedAt = UPDATED_AT;
+    row.boroName = "BRONX";
+    mirror = new SocrataMirror(Stream.of(row));
+    pager = new SocrataPager(client, 100, 1, 1000);
+    sync = new SocrataMirrorSync(mirror, pager, "/rows.json?$limit={limitValue}", 100);
+  }
+
+  @After
+  public void tearDown() {
+    socrata.close();
+  }
+
+  @Test
+  public void changedRowsSinceTheLatestUpdateAreApplied() {
+    changes("{\":id\":\"row-1\",\":updated_at\":\"2023-01-01T00:01:00.000Z\","
+        + "\"boro_nm\":\"QUEENS\"},{\":id\":\"row-2\","
+        + "\":updated_at\":\"2023-01-01T00:02:00.000Z\",\"boro_nm\":\"BRONX\"}");
+
+    sync.sync();
+
+    assertThat(conditions).containsExactly(":updated_at >= '2023-01-01T00:00:00.000'");
+    assertThat(mirror.size()).isEqualTo(2);
+    assertThat(mirror.getUpdatedAt()).isEqualTo(Instant.parse("2023-01-01T00:02:00Z"));
+    assertThat(mirror.find(Condition.in("boro_nm", List.of("BRONX"))))
+        .extracting(row -> row.rowId).containsExactly("row-2");
+
+    final SocrataMirrorSync.Statistics statistics = sync.getStatistics();
+    assertThat(statistics.syncs).isEqualTo(1);
+    assertThat(statistics.lastChangedRows).isEqualTo(2);
+    assertThat(statistics.lagSeconds).isBetween(0L, 5L);
+  }
+
+  @Test
+  public void eachSyncStartsFromTheLatestUpdate() {
+    changes("{\":id\":\"row-2\",\":updated_at\":\"2023-01-01T00:02:00.000Z\"}");
+    sync.sync();
+    changes("");
+    sync.sync();
+
+    assertThat(conditions).containsExactly(":updated_at >= '2023-01-01T00:00:00.000'",
+        ":updated_at >= '2023-01-01T00:02:00.000'");
+    assertThat(mirror.size()).isEqualTo(2);
+    assertThat(sync.getStatistics().changedRows).isEqualTo(1);
+    assertThat(sync.getStatistics().syncs).isEqualTo(2);
+  }
+
+  @Test
+  public void changesBeyondTheMaximumRowsAreRetrievedInUpdateOrder() {
+    // Row identifiers run against the order of update, and several rows share an update time
+    final Map<String, Instant> table = new LinkedHashMap<>();
+    table.put("row-1", UPDATED_AT);
+    table.put("row-8", UPDATED_AT.plusSeconds(60));
+    table.put("row-7", UPDATED_AT.plusSeconds(60));
+    table.put("row-6", UPDATED_AT.plusSeconds(120));
+    table.put("row-5", UPDATED_AT.plusSeconds(120));
+    table.put("row-4", UPDATED_AT.plusSeconds(120));
+    table.put("row-3", UPDATED_AT.plusSeconds(180));
+    table.put("row-2", UPDATED_AT.plusSeconds(240));
+    socrata.respond("/rows.json", parameters -> {
+      conditions.add(parameters.get("$where"));
+      return changedRows(table, parameters);
+    });
+    sync = new SocrataMirrorSync(mirror, pager, "/rows.json?$limit={limitValue}", 3);
+
+    sync.sync();
+
+    assertThat(mirror.size()).isEqualTo(8);
+    assertThat(mirror.getUpdatedAt()).isEqualTo(UPDATED_AT.plusSeconds(240));
+    assertThat(sync.getStatistics().lastChangedRows).isEqualTo(8);
+    assertThat(conditions).containsExactly(
+        ":updated_at >= '2023-01-01T00:00:00.000'",
+        ":updated_at > '2023-01-01T00:01:00.000' OR "
+            + "(:updated_at = '2023-01-01T00:01:00.000' AND :id > 'row-8')",
+        ":updated_at > '2023-01-01T00:02:00.000' OR "
+            + "(:updated_at = '2023-01-01T00:02:00.000' AND :id > 'row-6')");
+  }
+
+  @Test
+  public void failedSyncsLeaveTheMirrorUnchanged() {
+    sync.sync();
+
+    final SocrataMirrorSync.Statistics statistics = sync.getStatistics();
+    assertThat(statistics.failures).isEqualTo(1);
+    assertThat(statistics.syncs).isZero();
+    assertThat(statistics.lastSync).isNull();
+    assertThat(mirror.size()).isEqualTo(1);
+  }
+
+  /**
+   * Answer a page of the rows of a table which match a sync condition, in order of update time
+   * and row identifier, as Socrata would.
+   */
+  private static String changedRows(Map<String, Instant> table, Map<String, String> parameters) {
+    final Matcher where = Pattern.compile(
+        ":updated_at >?=? '([^']*)'(?: OR \\(:updated_at = '[^']*' AND :id > '([^']*)'\\))?")
+        .matcher(parameters.get("$where"));
+    assertThat(where.matches()).isTrue();
+    final Instant since = LocalDateTime.parse(where.group(1)).toInstant(ZoneOffset.UTC);
+    final String afterId = where.group(2);
+    assertThat(parameters.get("$order")).isEqualTo(":updated_at,:id");
+    return table.entrySet().stream()
+        .filter(row -> afterId == null
+            ? !row.getValue().isBefore(since)
+            : row.getValue().isAfter(since)
+                || (row.getValue().equals(since) && row.getKey().compareTo(afterId) > 0))
+        .sorted(Map.Entry.<String, Instant>comparingByValue()
+            .thenComparing(Map.Entry.comparingByKey()))
+        .skip(Long.parseLong(parameters.get("$offset")))
+        .limit(Long.parseLong(parameters.get("$limit")))
+        .map(row -> "{\":id\":\"" + row.getKey() + "\",\":updated_at\":\"" + row.getValue()
+            + "\"}")
+        .collect(Collectors.joining(",", "[", "]"));
+  }
+
+  private void changes(String rows) {
+    socrata.respond("/rows.json", (Map<String, String> parameters) -> {
+      conditions.add(parameters.get("$where"));
+      return "[" + rows + "]";
+    });
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.nypd.rest.externalsource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.i2group.nypd.rest.externalsource.SocrataMirror.Condition;
+import com.i2group.nypd.rest.externalsource.transport.SocrataResponseData;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class SocrataMirrorTest {
+  private static final Instant UPDATED_AT = Instant.parse("2023-01-01T00:00:00Z");
+
+  private final SocrataMirror mirror = new SocrataMirror(Stream.of(
+      row(0, "BRONX", 40, LocalDate.of(2023, 1, 3)),
+      row(1, "BROOKLYN", 60, null),
+      row(2, "BRONX", 41, LocalDate.of(2023, 1, 1)),
+      row(3, "MANHATTAN", 14, LocalDate.of(2023, 1, 3)),
+      row(4, "BRONX", 40, LocalDate.of(2023, 1, 2))));
+
+  @Test
+  public void rowsAreFoundByTextAndNumberInOrder() {
+    assertThat(ids(mirror.find(Condition.in("boro_nm", List.of("BRONX")))))
+        .containsExactly("row-0", "row-2", "row-4");
+    // Numbers are compared as numbers rather than as text
+    assertThat(ids(mirror.find(Condition.in("addr_pct_cd", List.of("40.0", "041")))))
+        .containsExactly("row-0", "row-2", "row-4");
+    assertThat(ids(mirror.find(
+        Condition.in("boro_nm", List.of("BRONX")), Condition.in("addr_pct_cd", List.of(41)))))
+        .containsExactly("row-2");
+    assertThat(mirror.find()).hasSize(5);
+  }
+
+  @Test
+  public void likePatternsMatchAnyAndSingleCharacters() {
+    assertThat(ids(mirror.find(Condition.like("boro_nm", "BR%")))).hasSize(4);
+    assertThat(ids(mirror.find(Condition.like("boro_nm", "BRONX_")))).isEmpty();
+    assertThat(ids(mirror.find(Condition.like("boro_nm", "_ANHATTA_"))))
+        .containsExactly("row-3");
+    // Other regular expression characters are matched literally
+    assertThat(ids(mirror.find(Condition.like("boro_nm", "BR.NX")))).isEmpty();
+  }
+
+  @Test
+  public void rowsMatchingSeveralAlternativesAreFoundOnce() {
+    final SocrataMirror.Matches matches = mirror.matchAny(List.of(
+        List.of(Condition.in("boro_nm", List.of("BRONX"))),
+        List.of(Condition.in("addr_pct_cd", List.of(40, 14)))));
+
+    assertThat(matches.count()).isEqualTo(4);
+    assertThat(ids(matches.rows())).containsExactly("row-0", "row-2", "row-3", "row-4");
+  }
+
+  @Test
+  public void latestRowsAreRankedWithTiesInLoadOrderAndNoValueLast() {
+    final SocrataMirror.Matches matches = mirror.match();
+
+    assertThat(ids(matches.latest("rpt_dt", 3))).containsExactly("row-0", "row-3", "row-4");
+    assertThat(ids(matches.latest("rpt_dt", 10)))
+        .containsExactly("row-0", "row-3", "row-4", "row-2", "row-1");
+    assertThat(matches.latest("rpt_dt", 0)).isEmpty();
+    assertThatThrownBy(() -> matches.latest("boro_nm", 1))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  public void unknownColumnsAreRejected() {
+    assertThatThrownBy(() -> mirror.find(Condition.in("nope", List.of("a"))))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("nope");
+  }
+
+  @Test
+  public void updatesReplaceRowsByIdentifierWithoutChangingEarlierMatches() {
+    final SocrataMirror.Matches before = mirror.match(Condition.in("boro_nm", List.of("BRONX")));
+    final SocrataResponseData moved = row(2, "QUEENS", 105, LocalDate.of(2023, 1, 4));
+    moved.updatedAt = UPDATED_AT.plusSeconds(60);
+
+    mirror.update(List.of(moved, row(5, "BRONX", 42, null)));
+
+    assertThat(mirror.size()).isEqualTo(6);
+    assertThat(mirror.getUpdatedAt()).isEqualTo(moved.updatedAt);
+    assertThat(ids(mirror.find(Condition.in("boro_nm", List.of("BRONX")))))
+        .containsExactly("row-0", "row-4", "row-5");
+    assertThat(mirror.find(Condition.in("boro_nm", List.of("QUEENS"))))
+        .extracting(row -> row.precinctCode).containsExactly(105);
+    assertThat(ids(before.rows())).containsExactly("row-0", "row-2", "row-4");
+  }
+
+  @Test
+  public void snapshotsHoldEveryRow() throws IOException {
+    final Path directory = Files.createTempDirectory("socrata-mirror-test");
+    final Path snapshot = directory.resolve("mirror.json");
+    try {
+      mirror.writeSnapshot(snapshot);
+
+      final SocrataMirror loaded = SocrataMirror.load(snapshot, () -> {
+        throw new AssertionError("The dataset should not be read when there is a snapshot");
+      });
+
+      // The temporary file has replaced the snapshot
+      assertThat(directory.toFile().list()).containsExactly("mirror.json");
+      assertThat(loaded.getUpdatedAt()).isEqualTo(UPDATED_AT);
+      assertThat(loaded.find()).usingElementComparatorOnFields(
+          "rowId", "updatedAt", "boroName", "precinctCode", "dateReported")
+          .containsExactlyElementsOf(mirror.find().collect(Collectors.toList()));
+    } finally {
+      Files.deleteIfExists(snapshot);
+      Files.delete(directory);
+    }
+  }
+
+  private static SocrataResponseData row(int index, String boro, int precinct, LocalDate reported) {
+    final SocrataResponseData row = SocrataRequestCoalescerTest.row(index);
+    row.updatedAt = UPDATED_AT;
+    row.boroName = boro;
+    row.precinctCode = precinct;
+    row.dateReported = reported;
+    return row;
+  }
+
+  private static List<String> ids(Stream<SocrataResponseData> rows) {
+    return rows.map(row -> row.rowId).collect(Collectors.toList());
+  }
+}
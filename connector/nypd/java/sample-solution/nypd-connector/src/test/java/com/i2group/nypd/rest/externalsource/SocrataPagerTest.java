@@ -0,0 +1,148 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.nypd.rest.externalsource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.i2group.nypd.rest.externalsource.transport.SocrataResponseData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+public class SocrataPagerTest {
+  private static final String URL = "/rows.json?$limit={limitValue}";
+
+  private FakeSocrata socrata;
+  private SocrataClient client;
+
+  @Before
+  public void setUp() throws Exception {
+    socrata = new FakeSocrata();
+    client = new SocrataClient(
+        socrata.getBaseUrl(), "token", Duration.ofSeconds(5), Duration.ofSeconds(5), 8);
+  }
+
+  @After
+  public void tearDown() {
+    socrata.close();
+  }
+
+  @Test
+  public void pagesAreReadInOrderUntilOneIsNotFull() {
+    socrata.respond("/rows.json", rows(5));
+
+    assertThat(rowIds(new SocrataPager(client, 2, 3, 100).stream(URL, Collections.emptyMap())))
+        .containsExactly("row-0", "row-1", "row-2", "row-3", "row-4");
+    // The first page is requested on its own, then three at a time until one is not full. The
+    // last page may be discarded before it reaches Socrata.
+    assertThat(socrata.getRequests().get(0))
+        .isEqualTo("/rows.json?$limit=2&$offset=0&$order=:id");
+    assertThat(socrata.getRequests()).extracting(request -> request.split("&")[1])
+        .contains("$offset=2", "$offset=4", "$offset=6")
+        .isSubsetOf("$offset=0", "$offset=2", "$offset=4", "$offset=6", "$offset=8");
+  }
+
+  @Test
+  public void retrievalStopsAtTheRowBudget() {
+    socrata.respond("/rows.json", rows(10));
+
+    assertThat(rowIds(new SocrataPager(client, 2, 3, 3).stream(URL, Collections.emptyMap())))
+        .containsExactly("row-0", "row-1", "row-2");
+    assertThat(socrata.getRequests()).containsExactlyInAnyOrder(
+        "/rows.json?$limit=2&$offset=0&$order=:id", "/rows.json?$limit=1&$offset=2&$order=:id");
+  }
+
+  @Test
+  public void orderedStreamsAreLimited() {
+    socrata.respond("/rows.json", rows(10));
+
+    final Stream<SocrataResponseData> rows = new SocrataPager(client, 5, 3, 100)
+        .stream(URL, Collections.emptyMap(), "cmplnt_fr_dt DESC,:id", 3);
+
+    assertThat(rowIds(rows)).containsExactly("row-0", "row-1", "row-2");
+    assertThat(socrata.getRequests())
+        .containsExactly("/rows.json?$limit=3&$offset=0&$order=cmplnt_fr_dt%20DESC,:id");
+  }
+
+  @Test
+  public void orderedStreamsAreLimitedByTheirLimitRatherThanTheRowBudget() {
+    socrata.respond("/rows.json", rows(10));
+
+    final Stream<SocrataResponseData> rows = new SocrataPager(client, 2, 3, 3)
+        .stream(URL, Collections.emptyMap(), ":id", 4);
+
+    assertThat(rowIds(rows)).containsExactly("row-0", "row-1", "row-2", "row-3");
+  }
+
+  @Test
+  public void pagesAreOnlyRequestedAsTheStreamIsRead() {
+    socrata.respond("/rows.json", rows(100));
+
+    try (Stream<SocrataResponseData> rows =
+        new SocrataPager(client, 2, 1, 100).stream(URL, Collections.emptyMap())) {
+      final Iterator<SocrataResponseData> iterator = rows.iterator();
+      iterator.next();
+      iterator.next();
+    }
+
+    assertThat(socrata.getRequests()).hasSize(1);
+  }
+
+  @Test
+  public void failedPagesFailTheStream() {
+    final Stream<SocrataResponseData> rows =
+        new SocrataPager(client, 2, 3, 100).stream(URL, Collections.emptyMap());
+
+    assertThatThrownBy(() -> rows.forEach(row -> { }))
+        .isInstanceOf(IllegalStateException.class);
+  }
+
+  /** Answer each page with the rows of a table of a number of rows. */
+  static Function<Map<String, String>, String> rows(int total) {
+    return parameters -> {
+      final int offset = Integer.parseInt(parameters.get("$offset"));
+      final int limit = Integer.parseInt(parameters.get("$limit"));
+      return IntStream.range(offset, Math.min(offset + limit, total))
+          .mapToObj(i -> "{\":id\":\"row-" + i + "\"}")
+          .collect(Collectors.joining(",", "[", "]"));
+    };
+  }
+
+  private static Stream<String> rowIds(Stream<SocrataResponseData> rows) {
+    try (rows) {
+      return rows.map(row -> row.rowId).collect(Collectors.toList()).stream();
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.nypd.rest.externalsource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.i2group.connector.spi.rest.transport.I2ConnectEntityData;
+import com.i2group.nypd.rest.externalsource.transport.SocrataResponseData;
+import com.i2group.nypd.rest.transport.ItemFactory;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SocrataProjectionTest {
+  private static final String ROW = "{"
+      + "\":id\":\"row-1\",\":updated_at\":\"2023-01-02T03:04:05Z\",\"cmplnt_num\":\"123\","
+      + "\"cmplnt_fr_dt\":\"2022-12-31T00:00:00.000\",\"cmplnt_to_dt\":\"2023-01-01T00:00:00.000\","
+      + "\"cmplnt_fr_tm\":\"23:30:00\",\"cmplnt_to_tm\":\"00:15:00\","
+      + "\"crm_atpt_cptd_cd\":\"COMPLETED\","
+      + "\"jurisdiction_code\":\"0\",\"juris_desc\":\"N.Y. POLICE DEPT\",\"ky_cd\":\"341\","
+      + "\"law_cat_cd\":\"MISDEMEANOR\",\"ofns_desc\":\"PETIT LARCENY\",\"pd_cd\":\"333\","
+      + "\"pd_desc\":\"LARCENY,PETIT FROM STORE-SHOPL\",\"rpt_dt\":\"2023-01-01T00:00:00.000\","
+      + "\"loc_of_occur_desc\":\"INSIDE\",\"latitude\":\"40.75\",\"longitude\":\"-73.98\","
+      + "\"addr_pct_cd\":\"14\",\"boro_nm\":\"MANHATTAN\",\"hadevelopt\":\"NONE\","
+      + "\"parks_nm\":\"NONE\",\"patrol_boro\":\"PATROL BORO MAN SOUTH\","
+      + "\"prem_typ_desc\":\"DEPARTMENT STORE\",\"station_name\":\"NONE\","
+      + "\"transit_district\":\"NONE\",\"susp_age_group\":\"25-44\",\"susp_race\":\"BLACK\","
+      + "\"susp_sex\":\"M\",\"vic_age_group\":\"45-64\",\"vic_race\":\"WHITE\",\"vic_sex\":\"F\"}";
+
+  private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+  @Test
+  public void fieldsAreSelectedByColumnNameOnceInOrder() {
+    assertThat(SocrataProjection.select(SocrataResponseData.class,
+        List.of("rowId", "complaintNum"), List.of("complaintNum", "boroName")))
+        .isEqualTo("&$select=:id,cmplnt_num,boro_nm");
+  }
+
+  @Test
+  public void fieldsWithoutAColumnNameAreSelectedByName() {
+    assertThat(SocrataProjection.select(Unannotated.class, List.of("column")))
+        .isEqualTo("&$select=column");
+  }
+
+  @Test
+  public void unknownFieldsAreRejected() {
+    assertThatThrownBy(() -> SocrataProjection.select(SocrataResponseData.class, List.of("nope")))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("nope");
+  }
+
+  @Test
+  public void selectedColumnsAreEnoughToCreateEveryItem() throws IOException {
+    final String select = SocrataProjection.select(SocrataResponseData.class,
+        ItemFactory.COMPLAINT_FIELDS, ItemFactory.LOCATION_FIELDS, ItemFactory.SUSPECT_FIELDS,
+        ItemFactory.VICTIM_FIELDS);
+    final ObjectNode projected = (ObjectNode) objectMapper.readTree(ROW);
+    projected.retain(Arrays.asList(select.substring("&$select=".length()).split(",")));
+
+    assertThat(projected.size()).isLessThan(objectMapper.readTree(ROW).size());
+    assertThat(items(objectMapper.treeToValue(projected, SocrataResponseData.class)))
+        .isEqualTo(items(objectMapper.readValue(ROW, SocrataResponseData.class)));
+  }
+
+  private String items(SocrataResponseData row) throws IOException {
+    final ItemFactory itemFactory =
+        new ItemFactory("https://data.cityofnewyork.us", new ClassPathResource("missing.png"));
+    final I2ConnectEntityData complaint = itemFactory.createComplaint(row);
+    final I2ConnectEntityData location = itemFactory.createLocation(row);
+    final I2ConnectEntityData suspect = itemFactory.createSuspect(row);
+    final I2ConnectEntityData victim = itemFactory.createVictim(row);
+    final List<Object> items = new ArrayList<>(List.of(complaint, location, suspect, victim));
+    items.add(itemFactory.createLocationLink(row, complaint, location));
+    items.add(itemFactory.createSuspectLink(row, complaint, suspect));
+    items.add(itemFactory.createVictimLink(row, complaint, victim));
+    return objectMapper.writeValueAsString(items);
+  }
+
+  private static class Unannotated {
+    public String column;
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.nypd.rest.externalsource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.i2group.nypd.rest.externalsource.transport.SocrataResponseData;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+public class SocrataQueryCacheTest {
+  private static final String COUNT_URL = "?$select=count(*) AS count&$where=boro_nm={boro}";
+  private static final Map<String, ?> PARAMS = Collections.singletonMap("boro", "BRONX");
+
+  private static final String URL = "?$limit=1000&$where=boro_nm={boro}";
+
+  private final AtomicInteger requests = new AtomicInteger();
+
+  @Test
+  public void rowsAreCachedOnceReadToTheEnd() {
+    final SocrataQueryCache cache =
+        new SocrataQueryCache(100, Duration.ofMinutes(5), Collections.emptyMap());
+
+    assertThat(ids(cache.stream("search", URL, PARAMS, rows(3)))).hasSize(3);
+    assertThat(ids(cache.stream("search", URL, PARAMS, rows(3))))
+        .containsExactly("row-0", "row-1", "row-2");
+
+    assertThat(requests).hasValue(1);
+    final SocrataQueryCache.Statistics statistics = cache.getStatistics();
+    assertThat(statistics.hits).isEqualTo(1);
+    assertThat(statistics.entries).isEqualTo(1);
+    assertThat(statistics.weight).isEqualTo(3);
+  }
+
+  @Test
+  public void rowsWhichAreNotReadToTheEndAreNotCached() {
+    final SocrataQueryCache cache =
+        new SocrataQueryCache(100, Duration.ofMinutes(5), Collections.emptyMap());
+
+    try (Stream<SocrataResponseData> rows = cache.stream("search", URL, PARAMS, rows(3))) {
+      rows.findFirst();
+    }
+    ids(cache.stream("search", URL, PARAMS, rows(3)));
+
+    assertThat(requests).hasValue(2);
+  }
+
+  @Test
+  public void keysIgnoreTheOrderOfVariablesAndSurroundingSpace() {
+    final Map<String, Object> first = new LinkedHashMap<>();
+    first.put("a", 1);
+    first.put("b", "x");
+    final Map<String, Object> second = new LinkedHashMap<>();
+    second.put("b", "x");
+    second.put("a", "1");
+
+    assertThat(SocrataQueryCache.buildKey(URL, first))
+        .isEqualTo(SocrataQueryCache.buildKey(" " + URL + " ", second));
+    assertThat(SocrataQueryCache.buildKey(URL, first))
+        .isNotEqualTo(SocrataQueryCache.buildKey(URL, Map.of("a", 2, "b", "x")));
+  }
+
+  @Test
+  public void entriesExpireAfterTheirServicesTimeToLive() throws Exception {
+    final SocrataQueryCache cache = new SocrataQueryCache(
+        100, Duration.ofMinutes(5), Collections.singletonMap("expand", Duration.ofMillis(20)));
+
+    ids(cache.stream("expand", URL, PARAMS, rows(2)));
+    ids(cache.stream("search", URL + "&x", PARAMS, rows(2)));
+    Thread.sleep(50);
+    ids(cache.stream("expand", URL, PARAMS, rows(2)));
+    ids(cache.stream("search", URL + "&x", PARAMS, rows(2)));
+
+    assertThat(requests).hasValue(3);
+    // An expired entry is replaced rather than counted as evicted
+    assertThat(cache.getStatistics().evictions).isZero();
+    assertThat(cache.getStatistics().weight).isEqualTo(4);
+  }
+
+  @Test
+  public void leastRecentlyUsedEntriesAreEvictedOverTheMaximumWeight() {
+    final SocrataQueryCache cache =
+        new SocrataQueryCache(5, Duration.ofMinutes(5), Collections.emptyMap());
+
+    ids(cache.stream("search", "first", PARAMS, rows(2)));
+    ids(cache.stream("search", "second", PARAMS, rows(2)));
+    ids(cache.stream("search", "first", PARAMS, rows(2)));
+    ids(cache.stream("search", "third", PARAMS, rows(2)));
+
+    assertThat(requests).hasValue(3);
+    assertThat(cache.getStatistics().evictions).isEqualTo(1);
+    assertThat(cache.getStatistics().weight).isEqualTo(4);
+    ids(cache.stream("search", "first", PARAMS, rows(2)));
+    ids(cache.stream("search", "second", PARAMS, rows(2)));
+    assertThat(requests).hasValue(4);
+  }
+
+  @Test
+  public void resultsLargerThanTheCacheAreNotKept() {
+    final SocrataQueryCache cache =
+        new SocrataQueryCache(5, Duration.ofMinutes(5), Collections.emptyMap());
+
+    assertThat(ids(cache.stream("search", URL, PARAMS, rows(6)))).hasSize(6);
+
+    assertThat(cache.getStatistics().entries).isZero();
+    assertThat(cache.getStatistics().weight).isZero();
+  }
+
+  @Test
+  public void countsAreCachedAndWeighOneRow() {
+    final SocrataQueryCache cache =
+        new SocrataQueryCache(10, Duration.ofMinutes(5), Collections.emptyMap());
+
+    assertThat(cache.count("search", COUNT_URL, PARAMS, count(1234)).join()).isEqualTo(1234);
+    assertThat(cache.count("search", COUNT_URL, PARAMS, count(1234)).join()).isEqualTo(1234);
+
+    assertThat(requests).hasValue(1);
+    final SocrataQueryCache.Statistics statistics = cache.getStatistics();
+    assertThat(statistics.hits).isEqualTo(1);
+    assertThat(statistics.misses).isEqualTo(1);
+    assertThat(statistics.weight).isEqualTo(1);
+  }
+
+  @Test
+  public void countsAreNotCachedForServicesWithoutATimeToLive() {
+    final SocrataQueryCache cache = new SocrataQueryCache(
+        10, Duration.ofMinutes(5), Collections.singletonMap("search", Duration.ZERO));
+
+    cache.count("search", COUNT_URL, PARAMS, count(1234)).join();
+    cache.count("search", COUNT_URL, PARAMS, count(1234)).join();
+
+    assertThat(requests).hasValue(2);
+  }
+
+  @Test
+  public void failedCountsAreNotCached() {
+    final SocrataQueryCache cache =
+        new SocrataQueryCache(10, Duration.ofMinutes(5), Collections.emptyMap());
+    final CompletableFuture<Long> failed = new CompletableFuture<>();
+    failed.completeExceptionally(new IllegalStateException("Request failed"));
+
+    assertThatThrownBy(cache.count("search", COUNT_URL, PARAMS, () -> failed)::join)
+        .hasCauseInstanceOf(IllegalStateException.class);
+    assertThat(cache.count("search", COUNT_URL, PARAMS, count(1234)).join()).isEqualTo(1234);
+    assertThat(cache.getStatistics().entries).isEqualTo(1);
+  }
+
+  private Supplier<Stream<SocrataResponseData>> rows(int rowCount) {
+    return () -> {
+      requests.incrementAndGet();
+      return IntStream.range(0, rowCount).mapToObj(SocrataRequestCoalescerTest::row);
+    };
+  }
+
+  private static List<String> ids(Stream<SocrataResponseData> rows) {
+    try (rows) {
+      return rows.map(row -> row.rowId).collect(Collectors.toList());
+    }
+  }
+
+  private Supplier<CompletableFuture<Long>> count(long count) {
+    return () -> {
+      requests.incrementAndGet();
+      return CompletableFuture.completedFuture(count);
+    };
+  }
+}
@@ -0,0 +1,219 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.nypd.rest.externalsource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.i2group.nypd.rest.externalsource.transport.SocrataResponseData;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+public class SocrataRequestCoalescerTest {
+  private static final String URL = "/rows.json?$where={whereValue}";
+  private static final Map<String, ?> PARAMS = Collections.singletonMap("whereValue", "x = 1");
+
+  private final SocrataRequestCoalescer coalescer = new SocrataRequestCoalescer();
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicBoolean upstreamClosed = new AtomicBoolean();
+
+  @Test
+  public void identicalQueriesShareOneRequest() {
+    final Iterator<SocrataResponseData> first = query(3);
+    final Iterator<SocrataResponseData> second = query(3);
+
+    assertThat(ids(first)).containsExactly("row-0", "row-1", "row-2");
+    assertThat(ids(second)).containsExactly("row-0", "row-1", "row-2");
+    assertThat(requests).hasValue(1);
+  }
+
+  @Test
+  public void followerReceivesRowsWithoutWaitingForTheFirstCaller() throws Exception {
+    final Iterator<SocrataResponseData> first = query(3);
+    final Iterator<SocrataResponseData> follower = query(3);
+    assertThat(first.next().rowId).isEqualTo("row-0");
+
+    final CompletableFuture<List<String>> second = CompletableFuture.supplyAsync(
+        () -> ids(follower));
+
+    assertThat(second.get(5, TimeUnit.SECONDS)).containsExactly("row-0", "row-1", "row-2");
+    assertThat(ids(first)).containsExactly("row-1", "row-2");
+    assertThat(requests).hasValue(1);
+  }
+
+  @Test
+  public void rowsAreHeldOnlyUntilEveryCallerHasReadThem() {
+    final Iterator<SocrataResponseData> first = query(100);
+    final Iterator<SocrataResponseData> second = query(100);
+    for (int i = 0; i < 10; i++) {
+      first.next();
+    }
+    assertThat(coalescer.bufferedRows()).isEqualTo(10);
+
+    for (int i = 0; i < 8; i++) {
+      second.next();
+    }
+    assertThat(coalescer.bufferedRows()).isEqualTo(2);
+
+    for (int i = 0; i < 60; i++) {
+      second.next();
+    }
+    assertThat(coalescer.bufferedRows()).isEqualTo(58);
+
+    assertThat(ids(first)).hasSize(90);
+    assertThat(ids(second)).hasSize(32);
+    assertThat(requests).hasValue(1);
+  }
+
+  @Test
+  public void queryMakesItsOwnRequestOnceRowsHaveBeenDropped() {
+    final Iterator<SocrataResponseData> first = query(3);
+    assertThat(first.next().rowId).isEqualTo("row-0");
+
+    assertThat(ids(query(3))).containsExactly("row-0", "row-1", "row-2");
+    assertThat(ids(first)).containsExactly("row-1", "row-2");
+    assertThat(requests).hasValue(2);
+  }
+
+  @Test
+  public void callerWhichStopsEarlyLeavesTheRequestToTheOthers() {
+    final Stream<SocrataResponseData> first = coalescer.stream(URL, PARAMS, upstream(3));
+    final Stream<SocrataResponseData> second = coalescer.stream(URL, PARAMS, upstream(3));
+    first.iterator().next();
+    first.close();
+
+    assertThat(upstreamClosed).isFalse();
+    assertThat(ids(second.iterator())).containsExactly("row-0", "row-1", "row-2");
+    assertThat(requests).hasValue(1);
+  }
+
+  @Test
+  public void requestIsClosedWhenEveryCallerStopsEarly() {
+    final Stream<SocrataResponseData> first = coalescer.stream(URL, PARAMS, upstream(3));
+    first.iterator().next();
+    first.close();
+
+    assertThat(upstreamClosed).isTrue();
+    assertThat(ids(query(3))).hasSize(3);
+    assertThat(requests).hasValue(2);
+  }
+
+  @Test
+  public void finishedRequestIsNotShared() {
+    assertThat(ids(query(2))).hasSize(2);
+    assertThat(ids(query(2))).hasSize(2);
+
+    assertThat(requests).hasValue(2);
+  }
+
+  @Test
+  public void errorIsPassedToEveryCaller() {
+    final Supplier<Stream<SocrataResponseData>> failing = () -> {
+      requests.incrementAndGet();
+      throw new IllegalStateException("Request failed. Response code: 500");
+    };
+    final Iterator<SocrataResponseData> first = coalescer.stream(URL, PARAMS, failing).iterator();
+    final Iterator<SocrataResponseData> second = coalescer.stream(URL, PARAMS, failing).iterator();
+
+    assertThatThrownBy(first::hasNext).hasMessageContaining("500");
+    assertThatThrownBy(second::hasNext).hasMessageContaining("500");
+    assertThat(requests).hasValue(1);
+  }
+
+  @Test
+  public void identicalCountsShareOneRequest() {
+    final CompletableFuture<Long> upstream = new CompletableFuture<>();
+    final Supplier<CompletableFuture<Long>> count = () -> {
+      requests.incrementAndGet();
+      return upstream;
+    };
+    final CompletableFuture<Long> first = coalescer.count(URL, PARAMS, count);
+    final CompletableFuture<Long> second = coalescer.count(URL, PARAMS, count);
+    upstream.complete(42L);
+
+    assertThat(first.join()).isEqualTo(42);
+    assertThat(second.join()).isEqualTo(42);
+    assertThat(requests).hasValue(1);
+  }
+
+  @Test
+  public void finishedCountIsNotShared() {
+    final Supplier<CompletableFuture<Long>> count = () -> {
+      requests.incrementAndGet();
+      return CompletableFuture.completedFuture(42L);
+    };
+    assertThat(coalescer.count(URL, PARAMS, count).join()).isEqualTo(42);
+    assertThat(coalescer.count(URL, PARAMS, count).join()).isEqualTo(42);
+
+    assertThat(requests).hasValue(2);
+  }
+
+  @Test
+  public void countErrorIsPassedToEveryCaller() {
+    final CompletableFuture<Long> upstream = new CompletableFuture<>();
+    final CompletableFuture<Long> first = coalescer.count(URL, PARAMS, () -> upstream);
+    final CompletableFuture<Long> second = coalescer.count(URL, PARAMS, () -> upstream);
+    upstream.completeExceptionally(new IllegalStateException("Request failed"));
+
+    assertThatThrownBy(first::join).hasCauseInstanceOf(IllegalStateException.class);
+    assertThatThrownBy(second::join).hasCauseInstanceOf(IllegalStateException.class);
+  }
+
+  private Iterator<SocrataResponseData> query(int rowCount) {
+    return coalescer.stream(URL, PARAMS, upstream(rowCount)).iterator();
+  }
+
+  private Supplier<Stream<SocrataResponseData>> upstream(int rowCount) {
+    return () -> {
+      requests.incrementAndGet();
+      return IntStream.range(0, rowCount).mapToObj(SocrataRequestCoalescerTest::row)
+          .onClose(() -> upstreamClosed.set(true));
+    };
+  }
+
+  static SocrataResponseData row(int index) {
+    final SocrataResponseData row = new SocrataResponseData();
+    row.rowId = "row-" + index;
+    return row;
+  }
+
+  private static List<String> ids(Iterator<SocrataResponseData> rows) {
+    final List<String> ids = new ArrayList<>();
+    rows.forEachRemaining(row -> ids.add(row.rowId));
+    return ids;
+  }
+}
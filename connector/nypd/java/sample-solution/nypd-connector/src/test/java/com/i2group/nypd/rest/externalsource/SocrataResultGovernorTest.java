@@ -0,0 +1,166 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.nypd.rest.externalsource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.i2group.nypd.rest.externalsource.transport.SocrataResponseData;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+public class SocrataResultGovernorTest {
+  private static final Comparator<SocrataResponseData> RANKING = Comparator
+      .comparing((SocrataResponseData row) -> row.dateReported, Comparator.reverseOrder())
+      .thenComparing(row -> row.rowId);
+
+  private final List<String> reads = new ArrayList<>();
+  private final SocrataResultGovernor governor = new SocrataResultGovernor(
+      null, "rpt_dt", RANKING, 3, Map.of("expand", 5, "search", 100), 10);
+
+  @Test
+  public void queriesWithinTheTopKAreReadInFull() {
+    final SocrataResultGovernor.Selection selection = governor.select("all", source(3, 3));
+
+    assertThat(ids(selection.rows())).containsExactly("row-0", "row-1", "row-2");
+    assertThat(selection.getNotice()).isNull();
+    assertThat(reads).containsExactly("rows");
+  }
+
+  @Test
+  public void broaderQueriesKeepTheRowsWhichRankHighestAndSaySo() {
+    final SocrataResultGovernor.Selection selection = governor.select("all", source(10, 10));
+
+    assertThat(ids(selection.rows())).containsExactly("row-9", "row-8", "row-7");
+    assertThat(selection.getNotice()).isEqualTo(
+        "Only the 3 most recent of about 10 matching records are shown. "
+            + "Add conditions to narrow the results.");
+    assertThat(reads).containsExactly("ranked 4");
+  }
+
+  @Test
+  public void overestimatedCountsOnlyGiveANoticeWhenARowIsLeftOut() {
+    // A union counts rows matched by both of its queries twice
+    final SocrataResultGovernor.Selection selection = governor.select("all", source(6, 3));
+
+    assertThat(ids(selection.rows())).hasSize(3);
+    assertThat(selection.getNotice()).isNull();
+  }
+
+  @Test
+  public void servicesUseTheirOwnTopKUpToTheRowBudget() {
+    final SocrataResultGovernor.Selection expand = governor.select("expand", source(8, 8));
+    assertThat(ids(expand.rows())).hasSize(5);
+
+    final SocrataResultGovernor.Selection search = governor.select("search", source(20, 20));
+    assertThat(ids(search.rows())).hasSize(10);
+    assertThat(search.getNotice()).startsWith("Only the 10 most recent of about 20");
+  }
+
+  @Test
+  public void queriesBroaderThanATopKEqualToTheRowBudgetSaySo() throws Exception {
+    try (FakeSocrata socrata = new FakeSocrata()) {
+      socrata.respond("/rows.json", SocrataPagerTest.rows(10));
+      final SocrataClient client = new SocrataClient(
+          socrata.getBaseUrl(), "token", Duration.ofSeconds(5), Duration.ofSeconds(5), 4);
+      final SocrataPager pager = new SocrataPager(client, 2, 2, 3);
+      final SocrataResultGovernor budgetGovernor = new SocrataResultGovernor(
+          client, "rpt_dt", RANKING, 3, Collections.emptyMap(), 3);
+      final SocrataResultGovernor.Source source = SocrataResultGovernor.Source.of(
+          () -> 10, () -> pager.stream("/rows.json?$limit={limitValue}", Map.of()),
+          limit -> pager.stream(
+              "/rows.json?$limit={limitValue}", Map.of(), budgetGovernor.getOrder(), limit));
+
+      final SocrataResultGovernor.Selection selection = budgetGovernor.select("all", source);
+
+      assertThat(ids(selection.rows())).containsExactly("row-0", "row-1", "row-2");
+      assertThat(selection.getNotice()).startsWith("Only the 3 most recent of about 10");
+    }
+  }
+
+  @Test
+  public void topKeepsTheRowsWhichRankHighestInOrder() {
+    final Stream<SocrataResponseData> rows =
+        IntStream.of(4, 1, 7, 0, 9, 3).mapToObj(SocrataResultGovernorTest::row);
+
+    assertThat(ids(governor.top(rows, 3))).containsExactly("row-9", "row-7", "row-4");
+  }
+
+  @Test
+  public void countsAreReadFromSocrata() throws Exception {
+    try (FakeSocrata socrata = new FakeSocrata()) {
+      socrata.respond("/rows.json", "[{\"count\":\"1234\"}]");
+      final SocrataClient client = new SocrataClient(socrata.getBaseUrl() + "/rows.json", "token",
+          Duration.ofSeconds(5), Duration.ofSeconds(5), 1);
+      final SocrataResultGovernor countingGovernor = new SocrataResultGovernor(
+          client, "rpt_dt", RANKING, 3, Collections.emptyMap(), 10);
+
+      assertThat(countingGovernor.count("&$where=boro_nm={boro}", Map.of("boro", "BRONX"))
+          .join()).isEqualTo(1234);
+      assertThat(socrata.getRequests()).hasSize(1);
+      assertThat(socrata.getRequests().get(0)).contains("count").contains("BRONX");
+    }
+  }
+
+  /**
+   * A source of rows row-0 to row-(rows - 1), each reported a day after the one before, so that
+   * the last rows rank highest.
+   */
+  private SocrataResultGovernor.Source source(long count, int rows) {
+    return SocrataResultGovernor.Source.of(
+        () -> count,
+        () -> {
+          reads.add("rows");
+          return IntStream.range(0, rows).mapToObj(SocrataResultGovernorTest::row);
+        },
+        limit -> {
+          reads.add("ranked " + limit);
+          return governor.top(IntStream.range(0, rows).mapToObj(SocrataResultGovernorTest::row),
+              limit);
+        });
+  }
+
+  private static SocrataResponseData row(int index) {
+    final SocrataResponseData row = new SocrataResponseData();
+    row.rowId = "row-" + index;
+    row.dateReported = LocalDate.of(2020, 1, 1).plusDays(index);
+    return row;
+  }
+
+  private static List<String> ids(Stream<SocrataResponseData> rows) {
+    try (rows) {
+      return rows.map(row -> row.rowId).collect(Collectors.toList());
+    }
+  }
+}
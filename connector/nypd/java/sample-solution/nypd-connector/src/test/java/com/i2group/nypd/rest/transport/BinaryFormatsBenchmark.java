@@ -0,0 +1,176 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.nypd.rest.transport;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.i2group.connector.spi.rest.transport.I2ConnectData;
+import com.i2group.connector.spi.rest.transport.I2ConnectEntityData;
+import com.i2group.nypd.rest.externalsource.transport.SocrataResponseData;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compares how quickly a response is encoded and decoded as JSON, Smile and CBOR, and how large it
+ * is in each format, both as it is and compressed with gzip. The response is built from
+ * generated complaints in the same way as the responses of the connector, and each format uses
+ * the object mapper which the connector uses for it.
+ *
+ * <p>Run it from the connector's directory with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dstart-class=com.i2group.nypd.rest.transport.BinaryFormatsBenchmark \
+ *     -Dexec.args="5000 5"
+ * </pre>
+ *
+ * <p>The Spring Boot parent sets the main class of {@code exec:java} to {@code start-class}.
+ *
+ * <p>The arguments are the number of complaints in the response, which each add four entities
+ * and three links, and the number of seconds for which each measurement runs. Each measurement
+ * runs once first, for the same time, to warm up.
+ */
+public class BinaryFormatsBenchmark {
+  private static final String[] BOROUGHS = {"BRONX", "BROOKLYN", "MANHATTAN", "QUEENS"};
+  private static final String[] LEVELS = {"FELONY", "MISDEMEANOR", "VIOLATION"};
+
+  public static void main(String[] args) throws IOException {
+    final int complaints = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+    final long nanos = (args.length > 1 ? Long.parseLong(args[1]) : 5) * 1_000_000_000L;
+
+    final Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.json();
+    final Map<String, ObjectMapper> formats = new LinkedHashMap<>();
+    formats.put("JSON", builder.build());
+    for (Map.Entry<MediaType, ObjectMapper> format :
+        new BinaryFormats(builder).getObjectMappers().entrySet()) {
+      formats.put(format.getKey().getSubtype(), format.getValue());
+    }
+
+    final I2ConnectData response = createResponse(complaints);
+    System.out.printf("%d entities, %d links%n", response.entities.size(), response.links.size());
+    System.out.printf("%-16s %12s %12s %12s %12s%n",
+        "Format", "Bytes", "Gzip bytes", "Encodes/s", "Decodes/s");
+    for (Map.Entry<String, ObjectMapper> format : formats.entrySet()) {
+      final ObjectMapper objectMapper = format.getValue();
+      final byte[] encoded = objectMapper.writeValueAsBytes(response);
+
+      final Measurement encode = () -> objectMapper.writeValueAsBytes(response);
+      final Measurement decode = () -> objectMapper.readValue(encoded, I2ConnectData.class);
+      measure(encode, nanos);
+      measure(decode, nanos);
+      final double encodeRate = measure(encode, nanos);
+      final double decodeRate = measure(decode, nanos);
+
+      System.out.printf("%-16s %12d %12d %12.2f %12.2f%n", format.getKey(), encoded.length,
+          gzip(encoded).length, encodeRate, decodeRate);
+    }
+  }
+
+  /** Run a measurement repeatedly for the given time, and find how many times it ran a second. */
+  private static double measure(Measurement measurement, long nanos) throws IOException {
+    long count = 0;
+    final long start = System.nanoTime();
+    long elapsed;
+    do {
+      measurement.run();
+      count++;
+      elapsed = System.nanoTime() - start;
+    } while (elapsed < nanos);
+    return count * 1e9 / elapsed;
+  }
+
+  private static I2ConnectData createResponse(int complaints) {
+    final ItemFactory itemFactory =
+        new ItemFactory("https://data.cityofnewyork.us/resource/7x9x-zpz6.json",
+            new ByteArrayResource(new byte[0]));
+    final I2ConnectData response = new I2ConnectData();
+    response.entities = new ArrayList<>();
+    response.links = new ArrayList<>();
+    for (int i = 0; i < complaints; i++) {
+      final SocrataResponseData entry = createEntry(i);
+      final I2ConnectEntityData complaint = itemFactory.createComplaint(entry);
+      final I2ConnectEntityData location = itemFactory.createLocation(entry);
+      final I2ConnectEntityData suspect = itemFactory.createSuspect(entry);
+      final I2ConnectEntityData victim = itemFactory.createVictim(entry);
+      response.entities.add(complaint);
+      response.entities.add(location);
+      response.entities.add(suspect);
+      response.entities.add(victim);
+      response.links.add(itemFactory.createLocationLink(entry, complaint, location));
+      response.links.add(itemFactory.createSuspectLink(entry, complaint, suspect));
+      response.links.add(itemFactory.createVictimLink(entry, complaint, victim));
+    }
+    return response;
+  }
+
+  private static SocrataResponseData createEntry(int i) {
+    final SocrataResponseData entry = new SocrataResponseData();
+    entry.complaintNum = String.valueOf(100_000_000 + i);
+    entry.complaintStartDate = LocalDate.of(2020, 1, 1).plusDays(i % 365);
+    entry.complaintEndDate = entry.complaintStartDate.plusDays(1);
+    entry.complaintStartTime = "12:00:00";
+    entry.complaintEndTime = "(null)";
+    entry.crimeStatus = "COMPLETED";
+    entry.jurisdictionCode = 0;
+    entry.jurisdictionDesc = "N.Y. POLICE DEPT";
+    entry.offenceClass = 578;
+    entry.offenceLevel = LEVELS[i % LEVELS.length];
+    entry.offenceDesc = "HARRASSMENT 2";
+    entry.classDesc = "HARASSMENT,SUBD 3,4,5";
+    entry.dateReported = entry.complaintEndDate;
+    entry.occurrenceLocation = "FRONT OF";
+    entry.latitude = 40.5 + (i % 1000) / 2000.0;
+    entry.longitude = -74.2 + (i % 997) / 2000.0;
+    entry.precinctCode = 1 + i % 123;
+    entry.boroName = BOROUGHS[i % BOROUGHS.length];
+    entry.suspAge = "25-44";
+    entry.suspRace = "BLACK";
+    entry.suspSex = "M";
+    entry.vicAge = "45-64";
+    entry.vicRace = "WHITE HISPANIC";
+    entry.vicSex = "F";
+    return entry;
+  }
+
+  private static byte[] gzip(byte[] bytes) throws IOException {
+    final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+      out.write(bytes);
+    }
+    return compressed.toByteArray();
+  }
+
+  private interface Measurement {
+    void run() throws IOException;
+  }
+}
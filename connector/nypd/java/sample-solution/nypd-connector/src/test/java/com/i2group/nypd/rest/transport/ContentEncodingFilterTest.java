@@ -0,0 +1,354 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.nypd.rest.transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class ContentEncodingFilterTest {
+  private static final String SMALL_BODY = "{\"entities\":[],\"links\":[]}";
+  private static final String LARGE_BODY = "{\"entities\":[" + "{},".repeat(2000) + "{}]}";
+
+  private final ContentEncodingFilter filter = new ContentEncodingFilter(
+      new DeflaterPool(6, 4), true, 2048, new String[] {"application/json"}, 1 << 20);
+  private final MockHttpServletResponse response = new MockHttpServletResponse();
+
+  @Test
+  public void smallResponsesAreSentWithTheirLength() throws Exception {
+    final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/");
+
+    filter.doFilter(request, response, new MockFilterChain(writing(SMALL_BODY)));
+
+    assertThat(response.getHeader("Content-Length"))
+        .isEqualTo(String.valueOf(SMALL_BODY.length()));
+    assertThat(response.getHeader("Content-Encoding")).isNull();
+    assertThat(response.getContentAsString()).isEqualTo(SMALL_BODY);
+  }
+
+  @Test
+  public void largeResponsesAreCompressedForClientsWhichAcceptGzip() throws Exception {
+    final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/");
+    request.addHeader("Accept-Encoding", "gzip, deflate");
+
+    filter.doFilter(request, response, new MockFilterChain(writing(LARGE_BODY)));
+
+    assertThat(response.getHeader("Content-Encoding")).isEqualTo("gzip");
+    assertThat(response.getHeader("Vary")).isEqualTo("Accept-Encoding");
+    assertThat(gunzip(response.getContentAsByteArray())).isEqualTo(LARGE_BODY);
+  }
+
+  @Test
+  public void largeResponsesAreNotCompressedForOtherClients() throws Exception {
+    final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/");
+
+    filter.doFilter(request, response, new MockFilterChain(writing(LARGE_BODY)));
+
+    assertThat(response.getHeader("Content-Encoding")).isNull();
+    assertThat(response.getContentAsString()).isEqualTo(LARGE_BODY);
+  }
+
+  @Test
+  public void compressedRequestsAreDecompressed() throws Exception {
+    final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/");
+    request.addHeader("Content-Encoding", "gzip");
+    request.setContent(gzip(LARGE_BODY));
+
+    filter.doFilter(request, response, new MockFilterChain(new HttpServlet() {
+      @Override
+      protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("text/plain");
+        req.getInputStream().transferTo(resp.getOutputStream());
+      }
+    }));
+
+    assertThat(response.getContentAsString()).isEqualTo(LARGE_BODY);
+  }
+
+  @Test
+  public void requestsDecompressingToMoreThanTheLargestSizeAreRejected() throws Exception {
+    final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/");
+    request.addHeader("Content-Encoding", "gzip");
+    request.setContent(gzip("0".repeat(16 << 20)));
+    final long[] read = new long[1];
+
+    filter.doFilter(request, response, new MockFilterChain(new HttpServlet() {
+      @Override
+      protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        final byte[] buffer = new byte[8192];
+        int count;
+        while ((count = req.getInputStream().read(buffer)) != -1) {
+          read[0] += count;
+        }
+      }
+    }));
+
+    assertThat(response.getStatus()).isEqualTo(413);
+    assertThat(read[0]).isLessThanOrEqualTo(1 << 20);
+  }
+
+  @Test
+  public void requestsDecompressingToMoreThanTheLargestSizeAreRejectedWhenTheFailureIsHandled()
+      throws Exception {
+    final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/");
+    request.addHeader("Content-Encoding", "gzip");
+    request.setContent(gzip("0".repeat(16 << 20)));
+
+    filter.doFilter(request, response, new MockFilterChain(new HttpServlet() {
+      @Override
+      protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        try {
+          req.getReader().lines().count();
+        } catch (UncheckedIOException e) {
+          resp.setStatus(400);
+          resp.setContentType("application/json");
+          resp.getWriter().write(SMALL_BODY);
+        }
+      }
+    }));
+
+    assertThat(response.getStatus()).isEqualTo(413);
+    assertThat(response.getContentAsString()).isEmpty();
+  }
+
+  @Test
+  public void unknownRequestEncodingsAreRejected() throws Exception {
+    final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/");
+    request.addHeader("Content-Encoding", "br");
+
+    filter.doFilter(request, response, new MockFilterChain(writing(SMALL_BODY)));
+
+    assertThat(response.getStatus()).isEqualTo(415);
+  }
+
+  @Test
+  public void nonBlockingResponsesArePassedThrough() throws Exception {
+    final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/");
+    request.addHeader("Accept-Encoding", "gzip");
+    final NonBlockingOutputStream out = new NonBlockingOutputStream();
+    final HttpServletResponse nonBlockingResponse = new HttpServletResponseWrapper(response) {
+      @Override
+      public ServletOutputStream getOutputStream() {
+        return out;
+      }
+    };
+    final WriteListener listener = new WriteListener() {
+      @Override
+      public void onWritePossible() {
+      }
+
+      @Override
+      public void onError(Throwable t) {
+      }
+    };
+
+    filter.doFilter(request, nonBlockingResponse, new MockFilterChain(new HttpServlet() {
+      @Override
+      protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("application/json");
+        final ServletOutputStream stream = resp.getOutputStream();
+        stream.setWriteListener(listener);
+        assertThat(stream.isReady()).isTrue();
+        stream.write(LARGE_BODY.getBytes(StandardCharsets.UTF_8));
+      }
+    }));
+
+    assertThat(out.listener).isSameAs(listener);
+    assertThat(response.getHeader("Content-Encoding")).isNull();
+    assertThat(out.written.toString(StandardCharsets.UTF_8)).isEqualTo(LARGE_BODY);
+  }
+
+  @Test
+  public void nonBlockingRequestsAreReadOnceReceived() throws Exception {
+    final NonBlockingInputStream in = new NonBlockingInputStream(gzip(LARGE_BODY));
+    final MockHttpServletRequest mockRequest = new MockHttpServletRequest("POST", "/");
+    mockRequest.addHeader("Content-Encoding", "gzip");
+    final HttpServletRequest request = new HttpServletRequestWrapper(mockRequest) {
+      @Override
+      public ServletInputStream getInputStream() {
+        return in;
+      }
+    };
+    final ByteArrayOutputStream read = new ByteArrayOutputStream();
+    final boolean[] allRead = new boolean[1];
+
+    filter.doFilter(request, response, new MockFilterChain(new HttpServlet() {
+      @Override
+      protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        final ServletInputStream stream = req.getInputStream();
+        stream.setReadListener(new ReadListener() {
+          @Override
+          public void onDataAvailable() throws IOException {
+            final byte[] buffer = new byte[100];
+            int count;
+            while (stream.isReady() && (count = stream.read(buffer)) != -1) {
+              read.write(buffer, 0, count);
+            }
+          }
+
+          @Override
+          public void onAllDataRead() {
+            allRead[0] = true;
+          }
+
+          @Override
+          public void onError(Throwable t) {
+          }
+        });
+        assertThat(stream.isReady()).isFalse();
+      }
+    }));
+
+    in.receive(10);
+    assertThat(read.size()).isZero();
+    in.receive(Integer.MAX_VALUE);
+    assertThat(read.toString(StandardCharsets.UTF_8)).isEqualTo(LARGE_BODY);
+    assertThat(allRead[0]).isTrue();
+  }
+
+  private static HttpServlet writing(String body) {
+    return new HttpServlet() {
+      @Override
+      protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("application/json");
+        resp.getOutputStream().write(body.getBytes(StandardCharsets.UTF_8));
+        // Message converters flush once the body is written
+        resp.flushBuffer();
+      }
+    };
+  }
+
+  private static byte[] gzip(String body) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+      out.write(body.getBytes(StandardCharsets.UTF_8));
+    }
+    return bytes.toByteArray();
+  }
+
+  private static String gunzip(byte[] body) throws IOException {
+    try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  /** A response body which records what is written to it in non-blocking mode. */
+  private static final class NonBlockingOutputStream extends ServletOutputStream {
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private WriteListener listener;
+
+    @Override
+    public void write(int b) {
+      written.write(b);
+    }
+
+    @Override
+    public boolean isReady() {
+      return listener != null;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+      listener = writeListener;
+    }
+  }
+
+  /** A request body which arrives when the test says it has been received. */
+  private static final class NonBlockingInputStream extends ServletInputStream {
+    private final byte[] body;
+    private int received;
+    private int position;
+    private ReadListener listener;
+
+    private NonBlockingInputStream(byte[] body) {
+      this.body = body;
+    }
+
+    private void receive(int count) throws IOException {
+      received = (int) Math.min(body.length, (long) received + count);
+      listener.onDataAvailable();
+      if (received == body.length) {
+        listener.onAllDataRead();
+      }
+    }
+
+    @Override
+    public int read() {
+      if (!isReady()) {
+        throw new IllegalStateException("Read when not ready");
+      }
+      return position < body.length ? body[position++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (!isReady()) {
+        throw new IllegalStateException("Read when not ready");
+      }
+      if (position == body.length) {
+        return -1;
+      }
+      final int count = Math.min(len, received - position);
+      System.arraycopy(body, position, b, off, count);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public boolean isFinished() {
+      return position == body.length;
+    }
+
+    @Override
+    public boolean isReady() {
+      return position < received || received == body.length;
+    }
+
+    @Override
+    public void setReadListener(ReadListener readListener) {
+      listener = readListener;
+    }
+  }
+}
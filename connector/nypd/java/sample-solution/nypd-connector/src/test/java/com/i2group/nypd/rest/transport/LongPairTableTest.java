@@ -0,0 +1,56 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.nypd.rest.transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class LongPairTableTest {
+  private final LongPairTable<String> table = new LongPairTable<>();
+
+  @Test
+  public void keysAreMatchedOnBothHalves() {
+    assertThat(table.putIfAbsent(1, 2, "a")).isNull();
+    assertThat(table.putIfAbsent(2, 1, "b")).isNull();
+    assertThat(table.putIfAbsent(1, 2, "c")).isEqualTo("a");
+
+    assertThat(table.get(1, 2)).isEqualTo("a");
+    assertThat(table.get(2, 1)).isEqualTo("b");
+    assertThat(table.get(1, 3)).isNull();
+  }
+
+  @Test
+  public void keysSurviveGrowth() {
+    for (int i = 0; i < 10_000; i++) {
+      // Keys which share their low half all start probing from the same slot
+      assertThat(table.putIfAbsent(i, i % 7, "value-" + i)).isNull();
+    }
+    for (int i = 0; i < 10_000; i++) {
+      assertThat(table.get(i, i % 7)).isEqualTo("value-" + i);
+    }
+    assertThat(table.get(10_000, 0)).isNull();
+  }
+}
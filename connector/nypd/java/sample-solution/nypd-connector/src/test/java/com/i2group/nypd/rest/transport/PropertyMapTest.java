@@ -0,0 +1,108 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.nypd.rest.transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+public class PropertyMapTest {
+  private static final Map<String, PropertyLayout> LAYOUTS =
+      PropertyLayout.fromSchema("nypd-complaint-data-schema.xml");
+
+  private final PropertyMap properties = LAYOUTS.get("ET1").newProperties();
+
+  @Test
+  public void behavesAsAMap() {
+    assertThat(properties.put("PT2", "b")).isNull();
+    assertThat(properties.put("PT1", "a")).isNull();
+    assertThat(properties.put("PT3", null)).isNull();
+    assertThat(properties.put("PT1", "c")).isEqualTo("a");
+
+    assertThat(properties).hasSize(3);
+    assertThat(properties.get("PT1")).isEqualTo("c");
+    assertThat(properties.containsKey("PT3")).isTrue();
+    assertThat(properties.get("PT3")).isNull();
+    assertThat(properties.containsKey("PT4")).isFalse();
+    assertThat(properties.get("PT15")).isNull();
+
+    final Map<String, Object> expected = new HashMap<>();
+    expected.put("PT1", "c");
+    expected.put("PT2", "b");
+    expected.put("PT3", null);
+    assertThat(properties).isEqualTo(expected);
+    assertThat(properties.hashCode()).isEqualTo(expected.hashCode());
+
+    assertThat(properties.remove("PT2")).isEqualTo("b");
+    assertThat(properties.remove("PT2")).isNull();
+    assertThat(properties).hasSize(2);
+    properties.clear();
+    assertThat(properties).isEmpty();
+  }
+
+  @Test
+  public void onlyPropertyTypesOfTheItemTypeCanBeSet() {
+    // PT15 belongs to the location entity type
+    assertThatThrownBy(() -> properties.put("PT15", "a"))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("ET1");
+  }
+
+  @Test
+  public void entriesAreInSchemaOrderAndCanBeChanged() {
+    properties.put("PT29", "z");
+    properties.put("PT2", "b");
+    properties.put("PT1", "a");
+
+    assertThat(properties.keySet()).containsExactly("PT1", "PT2", "PT29");
+
+    final Iterator<Map.Entry<String, Object>> entries = properties.entrySet().iterator();
+    entries.next().setValue("x");
+    entries.next();
+    entries.remove();
+    assertThat(properties).containsExactly(Map.entry("PT1", "x"), Map.entry("PT29", "z"));
+  }
+
+  @Test
+  public void jsonIsWrittenInSchemaOrder() throws IOException {
+    final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    properties.put("PT29", "z");
+    properties.put("PT3", null);
+    properties.put("PT1", 1);
+
+    assertThat(objectMapper.writeValueAsString(properties))
+        .isEqualTo("{\"PT1\":1,\"PT3\":null,\"PT29\":\"z\"}");
+    assertThat(objectMapper.writeValueAsString(Map.of("properties", LAYOUTS.get("ET1")
+        .newProperties()))).isEqualTo("{\"properties\":{}}");
+  }
+}
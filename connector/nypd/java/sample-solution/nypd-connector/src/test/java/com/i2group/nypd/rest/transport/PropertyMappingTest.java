@@ -0,0 +1,65 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.nypd.rest.transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class PropertyMappingTest {
+  private static final PropertyLayout LAYOUT =
+      PropertyLayout.fromSchema("nypd-complaint-data-schema.xml").get("ET3");
+
+  @Test
+  public void fieldsAreCopiedIntoTheirProperties() {
+    final PropertyMapping<String[]> mapping = PropertyMapping.<String[]>into(LAYOUT)
+        .map("PT26", person -> person[0])
+        .map("PT27", person -> person[1])
+        .mapOptional("PT28", person -> person[2])
+        .build();
+
+    assertThat(mapping.getItemTypeId()).isEqualTo("ET3");
+    assertThat(mapping.apply(new String[] {"25-44", "BLACK", "M"}))
+        .containsExactly(Map.entry("PT26", "25-44"), Map.entry("PT27", "BLACK"),
+            Map.entry("PT28", "M"));
+
+    // A null value is kept unless the property is optional
+    final Map<String, Object> expected = new HashMap<>();
+    expected.put("PT26", "25-44");
+    expected.put("PT27", null);
+    assertThat(mapping.apply(new String[] {"25-44", null, null})).isEqualTo(expected);
+  }
+
+  @Test
+  public void propertyTypesWhichAreNotInTheSchemaAreRejectedWhenMapped() {
+    assertThatThrownBy(() -> PropertyMapping.<String>into(LAYOUT).map("PT1", value -> value))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("The item type ET3 has no property type PT1");
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.nypd.rest.transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.i2group.connector.spi.rest.transport.SourceReference;
+import com.i2group.connector.spi.rest.transport.SourceReferenceInfo;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class SourceReferenceTemplateTest {
+  private static final String RECORD_ID = "12\"3\\é\n";
+
+  private final SourceReferenceTemplate template = new SourceReferenceTemplate(
+      "NYPD \"Complaint\" Dataset", "Open source data", "A record.", null,
+      "https://data.cityofnewyork.us/resource/qgea-i56i.json?$where=cmplnt_num=");
+
+  @Test
+  public void sourceInformationIsCreatedFromTheTemplate() {
+    final SourceReferenceInfo source = template.create(RECORD_ID).getSource();
+
+    assertThat(source).isEqualTo(expected().getSource());
+    assertThat(template.create(RECORD_ID)).isEqualTo(expected());
+    assertThat(template.create(RECORD_ID)).isNotEqualTo(template.create("124"));
+  }
+
+  @Test
+  public void jsonIsTheSameAsThatOfAPlainReference() throws IOException {
+    final ObjectMapper objectMapper = new ObjectMapper();
+
+    assertThat(objectMapper.writeValueAsString(template.create(RECORD_ID)))
+        .isEqualTo(objectMapper.writeValueAsString(expected()));
+  }
+
+  @Test
+  public void binaryFormatsHoldTheSourceInformation() throws IOException {
+    final ObjectMapper objectMapper = new ObjectMapper(new SmileFactory());
+
+    final byte[] smile = objectMapper.writeValueAsBytes(template.create(RECORD_ID));
+
+    assertThat(objectMapper.readValue(smile, SourceReference.class)).isEqualTo(expected());
+  }
+
+  private static SourceReference expected() {
+    final SourceReferenceInfo source = new SourceReferenceInfo();
+    source.name = "NYPD \"Complaint\" Dataset";
+    source.type = "Open source data";
+    source.description = "A record.";
+    source.location =
+        "https://data.cityofnewyork.us/resource/qgea-i56i.json?$where=cmplnt_num=" + RECORD_ID;
+    return new SourceReference(source);
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.nypd.rest.transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+public class StaticDocumentTest {
+  private static final String SCHEMA = "<Schema>" + "<EntityType Id=\"ET1\"/>".repeat(100)
+      + "</Schema>";
+
+  private final StaticDocument document = load(SCHEMA, true);
+
+  @Test
+  public void compressedCopyIsSentToClientsWhichAcceptGzip() throws IOException {
+    final MockHttpServletRequest request = new MockHttpServletRequest();
+    request.addHeader(HttpHeaders.ACCEPT_ENCODING, "deflate, gzip");
+
+    final ResponseEntity<byte[]> response = document.serve(request);
+
+    final HttpHeaders headers = response.getHeaders();
+    assertThat(headers.getFirst(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+    assertThat(headers.getVary()).containsExactly(HttpHeaders.ACCEPT_ENCODING);
+    assertThat(headers.getContentType()).isEqualTo(MediaType.APPLICATION_XML);
+    assertThat(headers.getETag()).endsWith("-gzip\"");
+    try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(response.getBody()))) {
+      assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo(SCHEMA);
+    }
+  }
+
+  @Test
+  public void uncompressedCopyHasItsOwnEntityTag() {
+    final ResponseEntity<byte[]> response = document.serve(new MockHttpServletRequest());
+
+    final HttpHeaders headers = response.getHeaders();
+    assertThat(headers.getFirst(HttpHeaders.CONTENT_ENCODING)).isNull();
+    assertThat(headers.getVary()).containsExactly(HttpHeaders.ACCEPT_ENCODING);
+    assertThat(headers.getETag()).matches("\"[0-9a-f]{32}\"");
+    assertThat(response.getBody()).isEqualTo(SCHEMA.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void documentsAreNotCompressedWhenItDoesNotHelp() {
+    final MockHttpServletRequest request = new MockHttpServletRequest();
+    request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+
+    // A document too small to shrink is not compressed either
+    for (StaticDocument uncompressed : List.of(load(SCHEMA, false), load("{}", true))) {
+      final HttpHeaders headers = uncompressed.serve(request).getHeaders();
+      assertThat(headers.getFirst(HttpHeaders.CONTENT_ENCODING)).isNull();
+      assertThat(headers.getVary()).isEmpty();
+    }
+  }
+
+  @Test
+  public void clientsWithTheSameCopyAreToldItIsNotModified() throws Exception {
+    final MockMvc mockMvc = MockMvcBuilders.standaloneSetup(new DocumentController()).build();
+    final String eTag = mockMvc
+        .perform(get("/schema").header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+        .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+    mockMvc.perform(get("/schema")
+        .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+        .header(HttpHeaders.IF_NONE_MATCH, eTag))
+        .andExpect(status().isNotModified())
+        .andExpect(content().bytes(new byte[0]));
+    // The copy held by the client is not the one the client would now receive
+    mockMvc.perform(get("/schema").header(HttpHeaders.IF_NONE_MATCH, eTag))
+        .andExpect(status().isOk())
+        .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING));
+  }
+
+  private static StaticDocument load(String content, boolean compress) {
+    return StaticDocument.load(new ByteArrayResource(content.getBytes(StandardCharsets.UTF_8)),
+        MediaType.APPLICATION_XML, compress);
+  }
+
+  @RestController
+  private class DocumentController {
+    @GetMapping("/schema")
+    public ResponseEntity<byte[]> schema(HttpServletRequest request) {
+      return document.serve(request);
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * MIT License
+ *
+ * © N.Harris Computer Corporation (2023)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.i2group.nypd.rest.transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.i2group.connector.spi.rest.transport.I2ConnectData;
+import com.i2group.connector.spi.rest.transport.I2ConnectEntityData;
+import com.i2group.connector.spi.rest.transport.I2ConnectLinkData;
+import org.junit.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+public class StreamingI2ConnectDataConverterTest {
+  private static final int ENTITY_COUNT = 3;
+  private static final int LINK_COUNT = 5;
+
+  private final Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.json();
+  private final ObjectMapper objectMapper = builder.build();
+
+  @Test
+  public void writesTheSameJsonAsACollectedResponse() throws IOException {
+    assertThat(write(1000)).isEqualTo(objectMapper.writeValueAsString(collect()));
+  }
+
+  @Test
+  public void writesLinksBeyondTheBufferThroughATemporaryFile() throws IOException {
+    final long filesBefore = countLinkFiles();
+
+    assertThat(write(2)).isEqualTo(objectMapper.writeValueAsString(collect()));
+    assertThat(write(0)).isEqualTo(objectMapper.writeValueAsString(collect()));
+    assertThat(countLinkFiles()).isEqualTo(filesBefore);
+  }
+
+  private String write(int maxBufferedLinks) throws IOException {
+    final StreamingI2ConnectDataConverter converter = new StreamingI2ConnectDataConverter(
+        objectMapper, new BinaryFormats(builder), 2, maxBufferedLinks);
+    final MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+    outputMessage.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+
+    converter.write(new StreamingI2ConnectData(StreamingI2ConnectDataConverterTest::produce),
+        MediaType.APPLICATION_JSON, outputMessage);
+    return outputMessage.getBodyAsString();
+  }
+
+  private static I2ConnectData collect() {
+    final I2ConnectData response = new I2ConnectData();
+    produce(I2ConnectDataSink.collectingInto(response));
+    return response;
+  }
+
+  private static void produce(I2ConnectDataSink sink) {
+    for (int i = 0; i < ENTITY_COUNT; i++) {
+      final I2ConnectEntityData entity = new I2ConnectEntityData("entity-" + i);
+      entity.typeId = "ET1";
+      entity.putPropertiesItem("PT1", "name \"" + i + "\"");
+      sink.addEntity(entity);
+    }
+    for (int i = 0; i < LINK_COUNT; i++) {
+      final I2ConnectLinkData link = new I2ConnectLinkData("link-" + i);
+      link.typeId = "LT1";
+      link.fromEndId = "entity-" + (i % ENTITY_COUNT);
+      link.toEndId = "entity-" + ((i + 1) % ENTITY_COUNT);
+      link.putPropertiesItem("PT2", i * 1.5);
+      sink.addLink(link);
+    }
+    sink.setErrorMessage("Only some of the records are shown.");
+  }
+
+  private static long countLinkFiles() throws IOException {
+    try (Stream<Path> files = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+      return files.filter(file -> file.getFileName().toString().startsWith("i2connect-links-"))
+          .count();
+    }
+  }
+}
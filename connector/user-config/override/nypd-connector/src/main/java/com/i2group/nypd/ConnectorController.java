@@ -30,15 +30,19 @@ import com.i2group.connector.spi.rest.transport.DaodRequest;
 import com.i2group.connector.spi.rest.transport.DaodRequestCondition;
 import com.i2group.connector.spi.rest.transport.I2ConnectData;
 import com.i2group.connector.spi.rest.transport.PayloadValidationResponse;
+import com.i2group.nypd.rest.transport.StaticDocument;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 
 import java.io.IOException;
@@ -53,19 +57,14 @@ import static org.springframework.util.MimeTypeUtils.APPLICATION_XML_VALUE;
 public class ConnectorController {
 
   private final ExternalConnectorDataService connectorDataService;
-  @Value("classpath:global-config.json")
-  private Resource globalConfigResource;
+  private final StaticDocument globalConfig;
 
-  @Value("classpath:analyst-config.json")
-  private Resource analystConfigResource;
+  private final StaticDocument analystConfig;
 
-  @Value("classpath:other-config.json")
-  private Resource otherConfigResource;
+  private final StaticDocument otherConfig;
 
-  @Value("classpath:nypd-complaint-data-schema.xml")
-  private Resource schemaResource;
-  @Value("classpath:nypd-complaint-data-schema-charting-schemes.xml")
-  private Resource chartingSchemesResource;
+  private final StaticDocument schema;
+  private final StaticDocument chartingSchemes;
 
   @Autowired
   private ObjectMapper objectMapper;
@@ -75,40 +74,68 @@ public class ConnectorController {
    *
    * @param connectorDataService The class containing operations which perform the operation defined
    *                             by the various services.
+   * @param globalConfigResource The global connector configuration.
+   * @param analystConfigResource The configuration for analysts.
+   * @param otherConfigResource The configuration for other users.
+   * @param schemaResource The connector schema.
+   * @param chartingSchemesResource The connector charting schemes.
+   * @param compress Whether compressed copies of the configuration and schemas are held.
    */
-  public ConnectorController(ExternalConnectorDataService connectorDataService) {
+  public ConnectorController(
+      ExternalConnectorDataService connectorDataService,
+      @Value("classpath:global-config.json") Resource globalConfigResource,
+      @Value("classpath:analyst-config.json") Resource analystConfigResource,
+      @Value("classpath:other-config.json") Resource otherConfigResource,
+      @Value("classpath:nypd-complaint-data-schema.xml") Resource schemaResource,
+      @Value("classpath:nypd-complaint-data-schema-charting-schemes.xml")
+          Resource chartingSchemesResource,
+      @Value("${connector.compression.enabled:true}") boolean compress) {
     this.connectorDataService = connectorDataService;
+    this.globalConfig =
+        StaticDocument.load(globalConfigResource, MediaType.APPLICATION_JSON, compress);
+    this.analystConfig =
+        StaticDocument.load(analystConfigResource, MediaType.APPLICATION_JSON, compress);
+    this.otherConfig =
+        StaticDocument.load(otherConfigResource, MediaType.APPLICATION_JSON, compress);
+    this.schema = StaticDocument.load(schemaResource, MediaType.APPLICATION_XML, compress);
+    this.chartingSchemes =
+        StaticDocument.load(chartingSchemesResource, MediaType.APPLICATION_XML, compress);
   }
 
   /**
    * Defines the /config endpoint which provides global connector configuration data.
    *
+   * @param request The request for the configuration.
    * @return The global configuration.
    */
   @RequestMapping(method = RequestMethod.GET, value = "/config", produces = APPLICATION_JSON_VALUE)
-  public Resource config() {
-    return globalConfigResource;
+  public ResponseEntity<byte[]> config(HttpServletRequest request) {
+    return globalConfig.serve(request);
   }
 
   /**
    * Defines the /userconfig endpoint, which provides user-specific connector configuration data.
+   * The analyst and other configurations have different entity tags, so a user whose groups
+   * change is sent the configuration that they now have.
    *
+   * @param request The request for the configuration.
    * @return The user-specific configuration.
    */
   @RequestMapping(method = RequestMethod.GET, value = "/userconfig", produces = APPLICATION_JSON_VALUE)
-  public Resource userConfig(@RequestHeader(value = "I2-Principal", required = false) String principalName,
+  public ResponseEntity<byte[]> userConfig(@RequestHeader(value = "I2-Principal", required = false) String principalName,
       @RequestHeader(value = "I2-Display-Name", required = false) String displayName,
       @RequestHeader(value = "I2-User-Groups", required = false) String userGroups,
       @RequestHeader(value = "I2-Security-Permissions", required = false) String securityPermissions,
-      @RequestHeader(value = "I2-Command-Access-Permissions", required = false) String cacPermissions) {
+      @RequestHeader(value = "I2-Command-Access-Permissions", required = false) String cacPermissions,
+      HttpServletRequest request) {
 
     final List<?> decodedGroups = decode(userGroups, List.class);
     if (decodedGroups != null && decodedGroups.contains("Analyst")) {
       System.out.println(principalName + " is an Analyst");
-      return analystConfigResource;
+      return analystConfig.serve(request);
     } else {
       System.out.println(principalName + " is not an Analyst");
-      return otherConfigResource;
+      return otherConfig.serve(request);
     }
   }
 
@@ -127,22 +154,24 @@ public class ConnectorController {
   /**
    * Defines the endpoint used to retrieve the connector schema.
    *
+   * @param request The request for the schema.
    * @return The connector schema.
    */
   @RequestMapping(method = RequestMethod.GET, value = "/schema", produces = APPLICATION_XML_VALUE)
-  public Resource schema() {
-    return schemaResource;
+  public ResponseEntity<byte[]> schema(HttpServletRequest request) {
+    return schema.serve(request);
   }
 
   /**
    * Defines the endpoint used to retrieve the connector charting schemes.
    *
+   * @param request The request for the charting schemes.
    * @return The connector charting schemes.
    */
   @RequestMapping(method = RequestMethod.GET, value = "/charting-schemes",
       produces = APPLICATION_XML_VALUE)
-  public Resource chartingSchemes() {
-    return chartingSchemesResource;
+  public ResponseEntity<byte[]> chartingSchemes(HttpServletRequest request) {
+    return chartingSchemes.serve(request);
   }
 
   /**